@@ -0,0 +1,119 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A node in the call path trie kept by the session. Invocations that share a call path (or a prefix of it) share the
+ * same nodes, so an invocation only references its leaf instead of holding a full copy of the stack. The path is
+ * stored from the outermost frame (closest to the root) to the innermost frame, which is the invoked method.
+ */
+public class CallPathNode {
+    private final CallPathNode parent;
+    private final ParentMethod method;
+    private final int depth;
+
+    /**
+     * Most nodes have one or two children, we allocate this lazily with a small capacity. Lookup is by identity since
+     * the session guarantees a single {@code ParentMethod} instance per method.
+     */
+    private Map<ParentMethod, CallPathNode> children;
+
+    private CallPathNode(CallPathNode parent, ParentMethod method, int depth) {
+        this.parent = parent;
+        this.method = method;
+        this.depth = depth;
+    }
+
+    public static CallPathNode createRoot() {
+        return new CallPathNode(null, null, 0);
+    }
+
+    /**
+     * Creates a path that isn't interned in any trie, this is useful for tests and for code that already has a stack
+     * array in hand.
+     *
+     * @param stack the stack where index 0 is the innermost frame
+     * @return the leaf node of the path
+     */
+    public static CallPathNode of(ParentMethod[] stack) {
+        CallPathNode node = createRoot();
+        for (int i = stack.length - 1; i >= 0; i--) {
+            node = node.child(stack[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the interned child node for the given method, creating it if this is the first time the path is seen
+     */
+    public synchronized CallPathNode child(ParentMethod childMethod) {
+        if(children == null) {
+            children = new IdentityHashMap<>(4);
+        } else {
+            CallPathNode existing = children.get(childMethod);
+            if(existing != null) {
+                return existing;
+            }
+        }
+        CallPathNode node = new CallPathNode(this, childMethod, depth + 1);
+        children.put(childMethod, node);
+        return node;
+    }
+
+    public CallPathNode getParent() {
+        return parent;
+    }
+
+    public ParentMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * The number of frames in the path, this is the length of the array returned by {@link #toStack()}
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public synchronized int getChildCount() {
+        return children == null ? 0 : children.size();
+    }
+
+    /**
+     * Expands the path into a stack array
+     *
+     * @return the stack where index 0 is the innermost frame, similar to the JDI frame order
+     */
+    public ParentMethod[] toStack() {
+        ParentMethod[] stack = new ParentMethod[depth];
+        CallPathNode node = this;
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = node.method;
+            node = node.parent;
+        }
+        return stack;
+    }
+
+    @Override
+    public String toString() {
+        return method == null ? "<root>" : method.fullName() + " @" + depth;
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An append only log for concurrent producers and readers. A producer reserves a slot with a single atomic increment
+ * and publishes the element into it later, so the order of the log is the order of the reservations and not the
+ * order in which the elements were published. The elements are stored in fixed size chunks that are never copied,
+ * only the small chunk directory is replaced when a chunk is added. That's the only step that takes a lock.
+ *
+ * Readers never block producers. A slot that was reserved but not published yet reads as null. Elements that are
+ * cleared free their chunk once it's empty, see {@link ChunkedLongLog} for how a chunk is dropped safely.
+ */
+public class ChunkedAppendLog<T> {
+    private static final int DEAD = Integer.MIN_VALUE / 2;
+
+    private final int chunkBits;
+    private final int chunkMask;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger();
+    private volatile Chunk<T>[] chunks = newDirectory(0);
+
+    private static final class Chunk<T> extends AtomicReferenceArray<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger elements = new AtomicInteger();
+
+        Chunk(int length) {
+            super(length);
+        }
+    }
+
+    /**
+     * @param chunkBits the number of bits of the chunk size, logs that are usually short should use small chunks
+     */
+    public ChunkedAppendLog(int chunkBits) {
+        this.chunkBits = chunkBits;
+        chunkMask = (1 << chunkBits) - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Chunk<T>[] newDirectory(int length) {
+        return (Chunk<T>[]) new Chunk<?>[length];
+    }
+
+    /**
+     * Reserves the next slot, the slot reads as null until the element is published with {@link #set(int, Object)}
+     */
+    public int reserve() {
+        return reserved.getAndIncrement();
+    }
+
+    public int append(T element) {
+        int index = reserve();
+        set(index, element);
+        return index;
+    }
+
+    /**
+     * Publishes the element at the given index, this also works for an index that wasn't reserved which lets the log
+     * act as a sparse array for dense keys
+     */
+    public void set(int index, T element) {
+        if(index < 0) {
+            throw new IndexOutOfBoundsException("Negative log index " + index);
+        }
+        if(element == null) {
+            AtomicReferenceArray<T> chunk = chunk(index, false);
+            if(chunk != null) {
+                chunk.set(index & chunkMask, null);
+            }
+            return;
+        }
+        Chunk<T> chunk = countedChunk(index);
+        if(chunk.getAndSet(index & chunkMask, element) == null) {
+            published.incrementAndGet();
+        } else {
+            // the slot already had an element that was counted
+            chunk.elements.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the element of a slot and frees its chunk if it was the last element in it. Unlike setting the slot to
+     * null this also removes the element from the {@link #count()}.
+     *
+     * @return the element that was removed or null if the slot had none
+     */
+    public T clear(int index) {
+        if(index < 0) {
+            return null;
+        }
+        Chunk<T> chunk = chunk(index, false);
+        if(chunk == null) {
+            return null;
+        }
+        T element = chunk.getAndSet(index & chunkMask, null);
+        if(element != null) {
+            published.decrementAndGet();
+            if(chunk.elements.decrementAndGet() == 0) {
+                dropChunk(index >>> chunkBits, chunk);
+            }
+        }
+        return element;
+    }
+
+    public T get(int index) {
+        if(index < 0) {
+            return null;
+        }
+        AtomicReferenceArray<T> chunk = chunk(index, false);
+        return chunk == null ? null : chunk.get(index & chunkMask);
+    }
+
+    /**
+     * The number of reserved slots, this includes slots that weren't published yet
+     */
+    public int size() {
+        return reserved.get();
+    }
+
+    /**
+     * The number of published elements
+     */
+    public int count() {
+        return published.get();
+    }
+
+    /**
+     * Streams the published elements of the given range of slots in slot order without copying them
+     *
+     * @param from the first slot, inclusive
+     * @param to the last slot, exclusive
+     */
+    public Stream<T> stream(int from, int to) {
+        return IntStream.range(Math.max(0, from), to).mapToObj(this::get).filter(Objects::nonNull);
+    }
+
+    public Stream<T> stream() {
+        return stream(0, size());
+    }
+
+    private Chunk<T> countedChunk(int index) {
+        while (true) {
+            Chunk<T> chunk = chunk(index, true);
+            if(chunk.elements.incrementAndGet() > 0) {
+                return chunk;
+            }
+            // the chunk is being dropped, the next lookup finds a new chunk once it's gone
+            Thread.onSpinWait();
+        }
+    }
+
+    private Chunk<T> chunk(int index, boolean create) {
+        int chunkIndex = index >>> chunkBits;
+        Chunk<T>[] directory = chunks;
+        if(chunkIndex < directory.length && directory[chunkIndex] != null) {
+            return directory[chunkIndex];
+        }
+        return create ? addChunk(chunkIndex) : null;
+    }
+
+    private synchronized Chunk<T> addChunk(int chunkIndex) {
+        Chunk<T>[] directory = chunks;
+        if(chunkIndex < directory.length && directory[chunkIndex] != null) {
+            return directory[chunkIndex];
+        }
+        Chunk<T>[] newDirectory = Arrays.copyOf(directory, Math.max(directory.length, chunkIndex + 1));
+        Chunk<T> chunk = new Chunk<>(chunkMask + 1);
+        newDirectory[chunkIndex] = chunk;
+        chunks = newDirectory;
+        return chunk;
+    }
+
+    private synchronized void dropChunk(int chunkIndex, Chunk<T> chunk) {
+        Chunk<T>[] directory = chunks;
+        if(directory[chunkIndex] == chunk && chunk.elements.compareAndSet(0, DEAD)) {
+            directory = directory.clone();
+            directory[chunkIndex] = null;
+            chunks = directory;
+        }
+    }
+}
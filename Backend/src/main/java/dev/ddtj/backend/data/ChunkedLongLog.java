@@ -0,0 +1,266 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.LongStream;
+
+/**
+ * The primitive counterpart of {@link ChunkedAppendLog} for non negative long values such as the rows of an
+ * invocation store, the values aren't boxed. A slot that wasn't published yet reads as {@link #EMPTY}.
+ *
+ * Values can be cleared again, a chunk whose values were all cleared is dropped so a log whose old entries are
+ * evicted only holds on to the chunks of the entries that are still in it. Every chunk counts its values, a writer
+ * counts its value before writing it and a chunk is only dropped if it atomically goes from zero values to dead. A
+ * writer that finds a dead chunk allocates a new one.
+ *
+ * Slots are indexed by a long and the directory of chunks starts at the first chunk that has values, so a log that
+ * keeps running while its old entries are evicted doesn't grow with the number of slots it ever reserved.
+ */
+public class ChunkedLongLog {
+    public static final long EMPTY = -1;
+    private static final int DEAD = Integer.MIN_VALUE / 2;
+    private static final Directory EMPTY_DIRECTORY = new Directory(0, new Chunk[0]);
+
+    private final int chunkBits;
+    private final int chunkMask;
+    private final AtomicLong reserved = new AtomicLong();
+    private final AtomicInteger published = new AtomicInteger();
+    private volatile Directory directory = EMPTY_DIRECTORY;
+
+    private static final class Chunk extends AtomicLongArray {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger values = new AtomicInteger();
+
+        Chunk(int length) {
+            super(length);
+        }
+    }
+
+    /**
+     * The chunks from the first chunk that has values on, it's replaced as a whole so readers see the offset and the
+     * chunks together. Chunks that were dropped or never written are null.
+     */
+    private static final class Directory {
+        private final long firstChunk;
+        private final Chunk[] chunks;
+
+        Directory(long firstChunk, Chunk[] chunks) {
+            this.firstChunk = firstChunk;
+            this.chunks = chunks;
+        }
+
+        Chunk get(long chunkIndex) {
+            long position = chunkIndex - firstChunk;
+            return position >= 0 && position < chunks.length ? chunks[(int) position] : null;
+        }
+    }
+
+    public ChunkedLongLog(int chunkBits) {
+        this.chunkBits = chunkBits;
+        chunkMask = (1 << chunkBits) - 1;
+    }
+
+    public long reserve() {
+        return reserved.getAndIncrement();
+    }
+
+    /**
+     * Hands back a reserved slot that won't be published. Only the slot that was reserved last can be reused, any
+     * other slot stays empty.
+     *
+     * @return true if the slot will be reserved again
+     */
+    public boolean release(long index) {
+        return reserved.compareAndSet(index + 1, index);
+    }
+
+    public long append(long value) {
+        long index = reserve();
+        set(index, value);
+        return index;
+    }
+
+    /**
+     * Publishes a value, slots are stored with an offset of one so a freshly allocated chunk reads as empty
+     */
+    public void set(long index, long value) {
+        if(index < 0 || value < 0) {
+            throw new IndexOutOfBoundsException("Invalid log index " + index + " or value " + value);
+        }
+        Chunk chunk = countedChunk(index);
+        if(chunk.getAndSet((int) (index & chunkMask), value + 1) == 0) {
+            published.incrementAndGet();
+        } else {
+            // the slot already had a value that was counted
+            chunk.values.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the value of a slot, the slot reads as {@link #EMPTY} afterwards
+     *
+     * @return the value that was removed or {@link #EMPTY} if the slot had none
+     */
+    public long clear(long index) {
+        if(index < 0) {
+            return EMPTY;
+        }
+        Chunk chunk = directory.get(index >>> chunkBits);
+        if(chunk == null) {
+            return EMPTY;
+        }
+        long value = chunk.getAndSet((int) (index & chunkMask), 0) - 1;
+        if(value != EMPTY) {
+            published.decrementAndGet();
+            if(chunk.values.decrementAndGet() == 0) {
+                dropChunk(index >>> chunkBits, chunk);
+            }
+        }
+        return value;
+    }
+
+    public long get(long index) {
+        if(index < 0) {
+            return EMPTY;
+        }
+        AtomicLongArray chunk = directory.get(index >>> chunkBits);
+        return chunk == null ? EMPTY : chunk.get((int) (index & chunkMask)) - 1;
+    }
+
+    /**
+     * Returns the first slot of the range that has a value or {@code to} if there's none, chunks that don't exist are
+     * skipped without reading their slots
+     */
+    public long next(long from, long to) {
+        long index = Math.max(0, from);
+        while (index < to) {
+            Directory current = directory;
+            long chunkIndex = index >>> chunkBits;
+            AtomicLongArray chunk = current.get(chunkIndex);
+            if(chunk != null) {
+                if(chunk.get((int) (index & chunkMask)) != 0) {
+                    return index;
+                }
+                index++;
+            } else if(chunkIndex < current.firstChunk) {
+                index = current.firstChunk << chunkBits;
+            } else if(chunkIndex >= current.firstChunk + current.chunks.length) {
+                return to;
+            } else {
+                index = (chunkIndex + 1) << chunkBits;
+            }
+        }
+        return to;
+    }
+
+    public long size() {
+        return reserved.get();
+    }
+
+    public int count() {
+        return published.get();
+    }
+
+    /**
+     * Streams the published values of the given range of slots in slot order
+     */
+    public LongStream stream(long from, long to) {
+        return LongStream.iterate(next(from, to), index -> index < to, index -> next(index + 1, to))
+                .map(this::get).filter(value -> value != EMPTY);
+    }
+
+    public LongStream stream() {
+        return stream(0, size());
+    }
+
+    /**
+     * Returns the chunk of the slot with the value that's about to be written already counted, the count keeps the
+     * chunk from being dropped before the value is in it
+     */
+    private Chunk countedChunk(long index) {
+        while (true) {
+            Chunk chunk = directory.get(index >>> chunkBits);
+            if(chunk == null) {
+                chunk = addChunk(index >>> chunkBits);
+            }
+            if(chunk.values.incrementAndGet() > 0) {
+                return chunk;
+            }
+            // the chunk is being dropped, the next lookup finds a new chunk once it's gone
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Adds the chunk to the directory, the directory grows by half its size at the end and only as much as needed at
+     * the start, where a slot that was reserved long ago is published after the chunks before it were dropped
+     */
+    private synchronized Chunk addChunk(long chunkIndex) {
+        Directory current = directory;
+        Chunk chunk = current.get(chunkIndex);
+        if(chunk != null) {
+            return chunk;
+        }
+        chunk = new Chunk(chunkMask + 1);
+        long firstChunk = current.chunks.length == 0 ? chunkIndex : current.firstChunk;
+        long position = chunkIndex - firstChunk;
+        Chunk[] chunks;
+        if(position < 0) {
+            chunks = new Chunk[Math.toIntExact(current.chunks.length - position)];
+            System.arraycopy(current.chunks, 0, chunks, (int) -position, current.chunks.length);
+            firstChunk = chunkIndex;
+            position = 0;
+        } else if(position >= current.chunks.length) {
+            chunks = Arrays.copyOf(current.chunks, Math.toIntExact(Math.max(position + 1,
+                    current.chunks.length + (current.chunks.length >> 1))));
+        } else {
+            chunks = current.chunks.clone();
+        }
+        chunks[(int) position] = chunk;
+        directory = new Directory(firstChunk, chunks);
+        return chunk;
+    }
+
+    /**
+     * Removes an empty chunk, the chunks at the start of the directory that were dropped are trimmed
+     */
+    private synchronized void dropChunk(long chunkIndex, Chunk chunk) {
+        Directory current = directory;
+        if(current.get(chunkIndex) != chunk || !chunk.values.compareAndSet(0, DEAD)) {
+            return;
+        }
+        Chunk[] chunks = current.chunks.clone();
+        chunks[(int) (chunkIndex - current.firstChunk)] = null;
+        int start = 0;
+        while (start < chunks.length && chunks[start] == null) {
+            start++;
+        }
+        if(start == chunks.length) {
+            directory = EMPTY_DIRECTORY;
+        } else if(start > 0) {
+            directory = new Directory(current.firstChunk + start, Arrays.copyOfRange(chunks, start, chunks.length));
+        } else {
+            directory = new Directory(current.firstChunk, chunks);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import java.util.function.Consumer;
+
+/**
+ * The pending method entries of a single thread. An entry is matched with its exit by the depth of the thread stack
+ * which is the same for both events, so we don't need to build a key from the frames. Entries whose exit we never saw
+ * (e.g. a frame that was popped by an exception) are discarded once a shallower frame exits or
+ * another entry is pushed at their depth, the owner is told so it can free what it kept for them.
+ *
+ * The states are pooled: a state returned by {@link #pop(int)} stays valid until the next push, the collector reads it
+ * before handling the next event.
+ */
+public class ExecutionStack {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private ExecutionState[] states = new ExecutionState[INITIAL_CAPACITY];
+    private int[] frameCounts = new int[INITIAL_CAPACITY];
+    private int size;
+    private final Consumer<ExecutionState> abandoned;
+
+    public ExecutionStack() {
+        this(state -> { });
+    }
+
+    /**
+     * @param abandoned invoked with the entries that are discarded without an exit, before their state is reused
+     */
+    public ExecutionStack(Consumer<ExecutionState> abandoned) {
+        this.abandoned = abandoned;
+    }
+
+    /**
+     * Pushes a pooled state for a method entry
+     *
+     * @param frameCount the number of frames in the thread when the method was entered
+     * @return a cleared state the caller fills
+     */
+    public ExecutionState push(int frameCount) {
+        discardFrom(frameCount);
+        ensureCapacity();
+        ExecutionState state = states[size];
+        if(state == null) {
+            state = new ExecutionState();
+        } else {
+            state.clear();
+        }
+        return push(frameCount, state);
+    }
+
+    /**
+     * Pushes the given state, it replaces the pooled instance of the slot
+     */
+    public ExecutionState push(int frameCount, ExecutionState state) {
+        discardFrom(frameCount);
+        ensureCapacity();
+        states[size] = state;
+        frameCounts[size] = frameCount;
+        size++;
+        return state;
+    }
+
+    /**
+     * Removes the entry of the method that exits at the given depth
+     *
+     * @return the state or null if the entry wasn't recorded
+     */
+    public ExecutionState pop(int frameCount) {
+        while (size > 0) {
+            int top = size - 1;
+            if(frameCounts[top] < frameCount) {
+                return null;
+            }
+            size = top;
+            if(frameCounts[top] == frameCount) {
+                return states[top];
+            }
+            abandoned.accept(states[top]);
+        }
+        return null;
+    }
+
+    /**
+     * The state below the top of the stack, after a push this is the entry that encloses the new one
+     *
+     * @return the state or null if the top entry is the outermost one
+     */
+    public ExecutionState enclosing() {
+        return size > 1 ? states[size - 2] : null;
+    }
+
+    /**
+     * Finds a running invocation of the thread by its id
+     *
+     * @return the invocation or null if it already exited
+     */
+    public Invocation findInvocation(long id) {
+        for(int iter = size - 1 ; iter >= 0 ; iter--) {
+            Invocation invocation = states[iter].getInvocation();
+            if(invocation != null && invocation.getId() == id) {
+                return invocation;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Entries at the same depth or deeper than a new entry already exited without an exit event
+     */
+    private void discardFrom(int frameCount) {
+        while (size > 0 && frameCounts[size - 1] >= frameCount) {
+            size--;
+            abandoned.accept(states[size]);
+        }
+    }
+
+    private void ensureCapacity() {
+        if(size == states.length) {
+            ExecutionState[] newStates = new ExecutionState[size * 2];
+            System.arraycopy(states, 0, newStates, 0, size);
+            states = newStates;
+            int[] newFrameCounts = new int[size * 2];
+            System.arraycopy(frameCounts, 0, newFrameCounts, 0, size);
+            frameCounts = newFrameCounts;
+        }
+    }
+}
@@ -24,4 +24,25 @@ public class ExecutionState {
     private Invocation invocation;
     private ParentMethod parentMethod;
     private String className;
+
+    /**
+     * The part of the capture byte budget that wasn't used on entry, the return value can use it
+     */
+    private long remainingCaptureBytes;
+
+    /**
+     * The slot reserved for the invocation in the log of its method or -1 if none was reserved
+     */
+    private long invocationSlot = -1;
+
+    /**
+     * Releases the references of a pooled state before it's reused
+     */
+    public void clear() {
+        invocation = null;
+        parentMethod = null;
+        className = null;
+        remainingCaptureBytes = 0;
+        invocationSlot = -1;
+    }
 }
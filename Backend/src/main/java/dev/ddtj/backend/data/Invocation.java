@@ -17,19 +17,252 @@
  */
 package dev.ddtj.backend.data;
 
+import com.sun.jdi.PrimitiveValue;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import java.util.Arrays;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+/**
+ * Arguments, fields and primitive results are kept unboxed in {@link ValueRecord} instances that share the layout of
+ * the method or type, the {@code Object} accessors box the values on demand.
+ */
 @Data
 public class Invocation {
     public static final Object[] EMPTY_ARRAY = new Object[0];
+    private static final long[] EMPTY_IDS = new long[0];
 
-    private String id;
+    /**
+     * See {@link InvocationId} for the structure and the text representation
+     */
+    private long id;
     private long time;
     private long endTime;
-    private Object[] arguments;
-    private Object[] fields;
+
+    /**
+     * {@link System#nanoTime()} after the entry was captured and when the exit was received, the difference is the
+     * duration without the capture of the arguments and the result
+     */
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * The closest enclosing captured invocation on the same thread or null if this is the outermost one. This is only
+     * set while the invocation is captured, a stored invocation only has the {@link #parentId}.
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Invocation parent;
+
+    private long parentId = InvocationId.INVALID;
+
+    /**
+     * The ids of the completed invocations that were invoked directly by this one, in the order in which they exited.
+     * We keep ids and not the invocations so a long running invocation doesn't hold on to everything it invoked.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private long[] childIds;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private int childCount;
+
+    /**
+     * Children that are only kept as mock data in case this invocation is kept, see
+     * {@code MonitoredSession#completeInvocation}. This is only used while the invocation runs and isn't stored.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private long[] provisionalChildIds;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private int provisionalChildCount;
+
+    private ValueRecord argumentRecord;
+    private ValueRecord fieldRecord;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
     private Object result;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private long primitiveResult;
+
+    /**
+     * The {@link RecordLayout} kind of the result, for primitive kinds the value is in {@link #primitiveResult}
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private byte resultKind;
+
     private String thrownException;
     private long threadId;
-    private ParentMethod[] stack;
+
+    /**
+     * The leaf of the interned call path, identical stacks share this instance
+     */
+    private CallPathNode callPath;
+
+    /**
+     * The static state of the declaring class when the method was invoked or null if it isn't captured. Invocations
+     * that ran while the static state didn't change share the same snapshot.
+     */
+    private StaticSnapshot staticState;
+
+    public Object[] getArguments() {
+        return argumentRecord == null ? null : argumentRecord.toArray();
+    }
+
+    public void setArguments(Object[] arguments) {
+        argumentRecord = ValueRecord.of(arguments);
+    }
+
+    public Object[] getFields() {
+        return fieldRecord == null ? null : fieldRecord.toArray();
+    }
+
+    public void setFields(Object[] fields) {
+        fieldRecord = ValueRecord.of(fields);
+    }
+
+    public Object getResult() {
+        if(resultKind == RecordLayout.REFERENCE) {
+            return result;
+        }
+        return RecordLayout.box(resultKind, primitiveResult);
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+        resultKind = RecordLayout.REFERENCE;
+    }
+
+    /**
+     * Stores a primitive return value without boxing it
+     *
+     * @param kind the {@link RecordLayout} kind of the return type
+     */
+    public void setPrimitiveResult(byte kind, PrimitiveValue value) {
+        result = null;
+        resultKind = kind;
+        primitiveResult = RecordLayout.toBits(kind, value);
+    }
+
+    public long getDurationNanos() {
+        return endNanos - startNanos;
+    }
+
+    public void setParent(Invocation parent) {
+        this.parent = parent;
+        parentId = parent == null ? InvocationId.INVALID : parent.getId();
+    }
+
+    /**
+     * Links a completed invocation whose parent is this invocation, this is invoked by the collector while other
+     * threads might read the children
+     */
+    public synchronized void addChild(long childId) {
+        if(childIds == null) {
+            childIds = new long[2];
+        } else if(childCount == childIds.length) {
+            childIds = Arrays.copyOf(childIds, childCount * 2);
+        }
+        childIds[childCount++] = childId;
+    }
+
+    public synchronized long[] getChildIds() {
+        return childIds == null ? EMPTY_IDS : Arrays.copyOf(childIds, childCount);
+    }
+
+    public synchronized void setChildIds(long[] ids) {
+        childIds = ids;
+        childCount = ids.length;
+    }
+
+    /**
+     * Adds a child that's only kept if this invocation is kept, this is invoked by the collector thread only
+     */
+    public void addProvisionalChild(long childId) {
+        if(provisionalChildIds == null) {
+            provisionalChildIds = new long[2];
+        } else if(provisionalChildCount == provisionalChildIds.length) {
+            provisionalChildIds = Arrays.copyOf(provisionalChildIds, provisionalChildCount * 2);
+        }
+        provisionalChildIds[provisionalChildCount++] = childId;
+    }
+
+    public int getProvisionalChildCount() {
+        return provisionalChildCount;
+    }
+
+    /**
+     * Returns the provisional children and forgets them, either because they're discarded or because this invocation
+     * was kept and they're kept with it
+     */
+    public long[] takeProvisionalChildIds() {
+        long[] result = provisionalChildIds == null ? EMPTY_IDS :
+                Arrays.copyOf(provisionalChildIds, provisionalChildCount);
+        provisionalChildIds = null;
+        provisionalChildCount = 0;
+        return result;
+    }
+
+    /**
+     * The {@link RecordLayout} kind of the result
+     */
+    public byte getResultKind() {
+        return resultKind;
+    }
+
+    /**
+     * The raw bits of a primitive result in the encoding of {@link RecordLayout#toBits(byte, PrimitiveValue)}
+     */
+    public long getPrimitiveResultBits() {
+        return primitiveResult;
+    }
+
+    public void setPrimitiveResultBits(byte kind, long bits) {
+        result = null;
+        resultKind = kind;
+        primitiveResult = bits;
+    }
+
+    /**
+     * Expands the call path into a stack array where index 0 is the invoked method
+     */
+    public ParentMethod[] getStack() {
+        return callPath == null ? null : callPath.toStack();
+    }
+
+    /**
+     * Sets the stack as a standalone call path that isn't shared with other invocations. The session interns call
+     * paths directly with {@link #setCallPath(CallPathNode)}.
+     */
+    public void setStack(ParentMethod[] stack) {
+        callPath = stack == null ? null : CallPathNode.of(stack);
+    }
+
+    /**
+     * The method that was invoked, this is the top of the stack
+     */
+    public ParentMethod getInvokedMethod() {
+        return callPath == null ? null : callPath.getMethod();
+    }
 }
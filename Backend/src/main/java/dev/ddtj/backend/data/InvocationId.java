@@ -0,0 +1,65 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+/**
+ * Invocation ids are 64 bit values made of a 16 bit session prefix and a 48 bit sequence number within the session.
+ * They're only converted to text at the REST boundary.
+ */
+public final class InvocationId {
+    public static final long INVALID = -1;
+
+    private static final int SEQUENCE_BITS = 48;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int PREFIX_MASK = 0xffff;
+
+    private InvocationId() {
+    }
+
+    public static long compose(int sessionPrefix, long sequence) {
+        return ((long) (sessionPrefix & PREFIX_MASK) << SEQUENCE_BITS) | (sequence & SEQUENCE_MASK);
+    }
+
+    public static int prefix(long id) {
+        return (int) (id >>> SEQUENCE_BITS);
+    }
+
+    public static long sequence(long id) {
+        return id & SEQUENCE_MASK;
+    }
+
+    public static String encode(long id) {
+        return Long.toUnsignedString(id, Character.MAX_RADIX);
+    }
+
+    /**
+     * Parses an id that was returned by {@link #encode(long)}
+     *
+     * @return the id or {@link #INVALID} if the text isn't a valid id
+     */
+    public static long decode(String text) {
+        if(text == null || text.isEmpty()) {
+            return INVALID;
+        }
+        try {
+            return Long.parseUnsignedLong(text, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+}
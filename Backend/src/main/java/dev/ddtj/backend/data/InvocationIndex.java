@@ -0,0 +1,70 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+/**
+ * Maps the invocation ids of a session to their rows in the invocation store. Ids are sequential so the sequence
+ * number is a direct index into a {@link ChunkedLongLog} used as a sparse array, the collector adds invocations
+ * without locking and the REST API reads them concurrently. The log only spans the ids from the oldest invocation
+ * that's still indexed, so the index doesn't grow with the number of invocations the session ever saw.
+ */
+public class InvocationIndex {
+    private static final int CHUNK_BITS = 10;
+
+    private final int sessionPrefix;
+    private final ChunkedLongLog rows = new ChunkedLongLog(CHUNK_BITS);
+
+    public InvocationIndex(int sessionPrefix) {
+        this.sessionPrefix = sessionPrefix;
+    }
+
+    public void put(long id, long row) {
+        if(InvocationId.prefix(id) != sessionPrefix) {
+            throw new IllegalArgumentException("Invocation " + InvocationId.encode(id) + " isn't from this session");
+        }
+        rows.set(index(id), row);
+    }
+
+    /**
+     * Removes an evicted invocation, the chunks of ids that were all removed are freed
+     */
+    public void remove(long id) {
+        if(id != InvocationId.INVALID && InvocationId.prefix(id) == sessionPrefix) {
+            rows.clear(index(id));
+        }
+    }
+
+    /**
+     * Returns the row of the invocation or {@link ChunkedLongLog#EMPTY} if the id is unknown or belongs to another
+     * session
+     */
+    public long get(long id) {
+        if(id == InvocationId.INVALID || InvocationId.prefix(id) != sessionPrefix) {
+            return ChunkedLongLog.EMPTY;
+        }
+        return rows.get(index(id));
+    }
+
+    private static long index(long id) {
+        return InvocationId.sequence(id);
+    }
+
+    public int size() {
+        return rows.count();
+    }
+}
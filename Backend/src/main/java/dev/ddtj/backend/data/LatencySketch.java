@@ -0,0 +1,148 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A streaming histogram of durations in the spirit of HdrHistogram. A value is bucketed by its highest bit and the
+ * next {@link #SUB_BUCKET_BITS} bits, so a bucket spans at most a sixteenth of its values and percentiles are
+ * accurate to about 6%. The histogram has a fixed size no matter how many values it records and the buckets are only
+ * allocated with the first value.
+ *
+ * Values are recorded by the collector thread only while other threads read the percentiles.
+ */
+public class LatencySketch {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private volatile AtomicLongArray counts;
+    private volatile long count;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max;
+
+    public void record(long value) {
+        long sample = Math.max(0, value);
+        AtomicLongArray buckets = counts;
+        if(buckets == null) {
+            buckets = new AtomicLongArray(BUCKET_COUNT);
+            counts = buckets;
+        }
+        buckets.incrementAndGet(bucketOf(sample));
+        if(sample < min) {
+            min = sample;
+        }
+        if(sample > max) {
+            max = sample;
+        }
+        count++;
+    }
+
+    /**
+     * Returns true if the value is above the given quantile of the recorded values as estimated by
+     * {@link #getValueAt(double)}. Values that share the bucket of the quantile are compared against the interpolated
+     * value so a bucket most values fall into doesn't count as above as a whole. Every value is above the quantile of
+     * an empty sketch, while the sketch only has a few values the quantile is close to the maximum.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     */
+    public boolean isAbove(long value, double quantile) {
+        return count == 0 || Math.max(0, value) > getValueAt(quantile);
+    }
+
+    /**
+     * The value at the given quantile or zero if nothing was recorded. The value is interpolated linearly between the
+     * lowest and highest value the bucket of the quantile can hold, narrowed to the recorded minimum and maximum.
+     */
+    public long getValueAt(double quantile) {
+        AtomicLongArray buckets = counts;
+        long total = count;
+        if(buckets == null || total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int bucket = 0 ; bucket < BUCKET_COUNT ; bucket++) {
+            long inBucket = buckets.get(bucket);
+            if(seen + inBucket >= rank) {
+                return interpolate(bucket, (double) (rank - seen) / inBucket);
+            }
+            seen += inBucket;
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The recorded values per bucket, the upper bound of every bucket is returned by {@link #upperBound(int)}
+     */
+    public long[] getBucketCounts() {
+        AtomicLongArray buckets = counts;
+        long[] result = new long[buckets == null ? 0 : BUCKET_COUNT];
+        for(int iter = 0 ; iter < result.length ; iter++) {
+            result[iter] = buckets.get(iter);
+        }
+        return result;
+    }
+
+    private long interpolate(int bucket, double fraction) {
+        long low = Math.max(bucket == 0 ? 0 : upperBound(bucket - 1) + 1, min);
+        long high = Math.min(upperBound(bucket), max);
+        if(high <= low) {
+            return high;
+        }
+        return low + (long) ((high - low) * fraction);
+    }
+
+    /**
+     * Values below twice the sub bucket count have a bucket of their own, larger values share a bucket with the
+     * values that have the same highest bits
+     */
+    static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * The highest value that falls into the bucket
+     */
+    public static long upperBound(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        if(group == 0) {
+            return bucket;
+        }
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (group - 1);
+        return lower + (1L << (group - 1)) - 1;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import dev.ddtj.backend.data.objectmodel.CapturedCollection;
+import dev.ddtj.backend.data.objectmodel.ObjectSnapshot;
+import dev.ddtj.backend.data.objectmodel.TruncatedArray;
+import dev.ddtj.backend.data.objectmodel.TruncatedString;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * Keeps the invocations of a method within a fixed limit. The retained invocations occupy positions, a new invocation
+ * either takes a free position, replaces the invocation in a taken position which is then evicted, or is rejected
+ * according to the {@link RetentionPolicy}. This is used by the collector thread only.
+ */
+public class MethodRetention {
+    public static final int REJECTED = -1;
+    private static final int FREE = -1;
+    private static final int MAX_COUNTED_CHILDREN = 8;
+
+    private final RetentionPolicy policy;
+    private final int limit;
+
+    /**
+     * The slot in the method log, the fingerprint and the admission number of the invocation in every position
+     */
+    private final long[] slots;
+    private final long[] fingerprints;
+    private final long[] admissions;
+    private int retainedCount;
+
+    /**
+     * Positions are filled in order and never freed, so once they're all taken the latest invocations replace them
+     * round robin and the next position is always the oldest one
+     */
+    private int oldestPosition;
+    private final Map<Long, Integer> fingerprintCounts = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private long seen;
+
+    public MethodRetention(RetentionPolicy policy, int limit) {
+        this.policy = policy;
+        this.limit = limit;
+        slots = new long[limit];
+        fingerprints = new long[limit];
+        admissions = new long[limit];
+        Arrays.fill(slots, FREE);
+    }
+
+    public RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * The number of invocations that are currently retained
+     */
+    public int getRetainedCount() {
+        return retainedCount;
+    }
+
+    /**
+     * Decides whether a completed invocation is kept
+     *
+     * @param fingerprint the {@link #fingerprint(Invocation)} of the invocation, only used by
+     *                    {@link RetentionPolicy#MOST_DIVERSE}
+     * @return the position the invocation takes or {@link #REJECTED}, the invocation that holds a taken position is
+     * returned by {@link #getSlot(int)}
+     */
+    public int admit(long fingerprint) {
+        seen++;
+        if(retainedCount < limit) {
+            return retainedCount;
+        }
+        switch (policy) {
+            case KEEP_LATEST:
+                return oldestPosition;
+            case RESERVOIR:
+                long candidate = random.nextLong(seen);
+                return candidate < limit ? (int) candidate : REJECTED;
+            case MOST_DIVERSE:
+                return fingerprintCounts.containsKey(fingerprint) ? REJECTED : oldestDuplicate();
+            default:
+                return REJECTED;
+        }
+    }
+
+    /**
+     * The slot of the invocation in the position or -1 if the position is free
+     */
+    public long getSlot(int position) {
+        return slots[position];
+    }
+
+    /**
+     * Puts an admitted invocation into its position
+     *
+     * @return the slot of the invocation it replaced, which should be evicted, or -1
+     */
+    public long retain(int position, long slot, long fingerprint) {
+        long replaced = slots[position];
+        if(replaced == FREE) {
+            retainedCount++;
+        } else {
+            uncount(fingerprints[position]);
+            oldestPosition = (position + 1) % limit;
+        }
+        slots[position] = slot;
+        fingerprints[position] = fingerprint;
+        admissions[position] = seen;
+        if(policy == RetentionPolicy.MOST_DIVERSE) {
+            fingerprintCounts.merge(fingerprint, 1, Integer::sum);
+        }
+        return replaced;
+    }
+
+    private void uncount(long fingerprint) {
+        if(policy == RetentionPolicy.MOST_DIVERSE) {
+            fingerprintCounts.computeIfPresent(fingerprint, (key, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * The position of the invocation that was admitted first among the invocations whose fingerprint is shared with
+     * another retained invocation
+     */
+    private int oldestDuplicate() {
+        int result = REJECTED;
+        for(int position = 0 ; position < limit ; position++) {
+            if((result == REJECTED || admissions[position] < admissions[result]) &&
+                    fingerprintCounts.getOrDefault(fingerprints[position], 0) > 1) {
+                result = position;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Summarizes how an invocation behaved: the kind of every argument and of the result, the thrown exception and
+     * the number of invocations it made. Invocations with the same fingerprint most likely took the same path through
+     * the method so they'd make redundant tests.
+     */
+    public static long fingerprint(Invocation invocation) {
+        long hash = Objects.hashCode(invocation.getThrownException());
+        Object[] arguments = invocation.getArguments();
+        if(arguments != null) {
+            for(Object argument : arguments) {
+                hash = hash * 31 + shape(argument);
+            }
+        }
+        hash = hash * 31 + shape(invocation.getResult());
+        return hash * 31 + Math.min(invocation.getChildIds().length, MAX_COUNTED_CHILDREN);
+    }
+
+    /**
+     * Values of the same shape usually lead to the same branches: null, the sign of a number, empty or not
+     */
+    private static int shape(Object value) {
+        if(value == null) {
+            return 0;
+        }
+        if(value instanceof Boolean) {
+            return (Boolean) value ? 2 : 1;
+        }
+        if(value instanceof Number) {
+            return 4 + (int) Math.signum(((Number) value).doubleValue());
+        }
+        if(value instanceof String || value instanceof TruncatedString) {
+            return value instanceof String && ((String) value).isEmpty() ? 6 : 7;
+        }
+        if(value instanceof TruncatedArray) {
+            return 8;
+        }
+        if(value.getClass().isArray()) {
+            return Array.getLength(value) == 0 ? 9 : 10;
+        }
+        if(value instanceof CapturedCollection) {
+            return ((CapturedCollection) value).getSize() == 0 ? 11 : 12;
+        }
+        if(value instanceof ObjectSnapshot) {
+            return ((ObjectSnapshot) value).getObjectType().getType().hashCode();
+        }
+        return value.getClass().getName().hashCode();
+    }
+}
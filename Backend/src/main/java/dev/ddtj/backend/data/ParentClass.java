@@ -18,43 +18,127 @@
 package dev.ddtj.backend.data;
 
 import dev.ddtj.backend.data.objectmodel.ObjectType;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 
+/**
+ * The methods are kept in a concurrent map keyed by {@link ParentMethod#fullName()} so lookups from the collector and
+ * the REST API don't lock the class
+ */
 @Data
 public class ParentClass {
     private String name;
 
-    @Setter(AccessLevel.PACKAGE)
-    @Getter(AccessLevel.PACKAGE)
-    private Set<ParentMethod> methods = new TreeSet<>(Comparator.comparing(ParentMethod::fullName));
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private final Map<String, ParentMethod> methods = new ConcurrentHashMap<>();
 
     private ObjectType objectType;
-    public synchronized List<ParentMethod> listMethods() {
-        return new ArrayList<>(methods);
+
+    private volatile CaptureProfile captureProfile = CaptureProfile.FULL;
+
+    /**
+     * Calls that came from another class vs. calls from the class itself or from outside the monitored code, these
+     * are only counted when automatic classification of dependencies is enabled
+     */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private int dependencyCalls;
+
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private int entryCalls;
+
+    /**
+     * Counts a call to a method of the class, once the class was called from other classes the given number of times
+     * and never directly it's classified as a dependency
+     */
+    public synchronized void observeCall(boolean fromOtherClass, int threshold) {
+        if(fromOtherClass) {
+            dependencyCalls++;
+        } else {
+            entryCalls++;
+        }
+        if(entryCalls == 0 && dependencyCalls >= threshold) {
+            captureProfile = CaptureProfile.DEPENDENCY;
+        }
+    }
+
+    /**
+     * The methods sorted by full name, the sorted list is cached until a method is added
+     */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private volatile List<ParentMethod> sortedMethods;
+
+    public List<ParentMethod> listMethods() {
+        List<ParentMethod> sorted = sortedMethods;
+        if(sorted != null) {
+            return sorted;
+        }
+        synchronized (this) {
+            if(sortedMethods == null) {
+                sortedMethods = methods.values().stream().sorted(Comparator.comparing(ParentMethod::fullName))
+                        .collect(Collectors.toUnmodifiableList());
+            }
+            return sortedMethods;
+        }
     }
 
-    public synchronized void addMethod(ParentMethod method) {
-        methods.add(method);
+    public void addMethod(ParentMethod method) {
+        methods.put(method.fullName(), method);
+        invalidateSortedMethods();
     }
 
-    public synchronized int countTotalExecutions() {
-        return methods.stream().mapToInt(ParentMethod::getInvocationCount).sum();
+    private synchronized void invalidateSortedMethods() {
+        sortedMethods = null;
     }
 
-    public synchronized int getMethodCount() {
+    /**
+     * Adds the method unless another thread already added a method with the same full name
+     *
+     * @return the method that's registered for the name
+     */
+    public ParentMethod addMethodIfAbsent(ParentMethod method) {
+        ParentMethod existing = methods.putIfAbsent(method.fullName(), method);
+        if(existing != null) {
+            return existing;
+        }
+        invalidateSortedMethods();
+        return method;
+    }
+
+    public int countTotalExecutions() {
+        return methods.values().stream().mapToInt(ParentMethod::getInvocationCount).sum();
+    }
+
+    public int countEvictedExecutions() {
+        return methods.values().stream().mapToInt(ParentMethod::getEvictedCount).sum();
+    }
+
+    public int getMethodCount() {
         return methods.size();
     }
 
-    public synchronized ParentMethod findMethod(String fullName) {
-        return methods.stream().filter(m -> m.fullName().equals(fullName)).findFirst()
-                .orElse(null);
+    /**
+     * The number of methods that were invoked, only these are listed by the API
+     */
+    public int countApplicableMethods() {
+        return (int) methods.values().stream().filter(ParentMethod::isApplicable).count();
+    }
+
+    public ParentMethod findMethod(String fullName) {
+        return methods.get(fullName);
     }
 }
@@ -18,15 +18,27 @@
 package dev.ddtj.backend.data;
 
 import dev.ddtj.backend.data.objectmodel.BaseType;
-import java.util.ArrayList;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.storage.HeapInvocationStore;
+import dev.ddtj.backend.storage.InvocationStore;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 
 @Data
 public class ParentMethod {
+    private static final int INVOCATION_CHUNK_BITS = 6;
+
     private boolean initializationFailure;
     private ParentClass parentClass;
     private String signature;
@@ -35,24 +47,197 @@ public class ParentMethod {
     private BaseType returnType;
     private boolean applicable;
 
-    @Setter(AccessLevel.PACKAGE)
-    @Getter(AccessLevel.PACKAGE)
-    private List<Invocation> invocations = new ArrayList<>();
+    /**
+     * The fields of the class the method reads, one flag per field of the class object type. Null means all the
+     * fields are captured.
+     */
+    private boolean[] usedFields;
+
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private volatile RecordLayout parameterLayout;
+
+    /**
+     * Where the invocations are stored, methods of a session use the store of the session
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private InvocationStore invocationStore = new HeapInvocationStore();
+
+    /**
+     * The store rows of the invocations in the order in which the method was entered. The collector reserves the
+     * slot of an invocation when it allocates its id, so the log is sorted by id and by start time, which lets us
+     * search both with a binary search. The slot is published when the method exits.
+     */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final ChunkedLongLog invocations = new ChunkedLongLog(INVOCATION_CHUNK_BITS);
+
+    /**
+     * Decides which invocations of the method are kept when the number of invocations is limited, null keeps all of
+     * them
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private MethodRetention retention;
+
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final AtomicInteger evictedInvocations = new AtomicInteger();
+
+    /**
+     * The durations of all the completed invocations in nanoseconds, including the ones that weren't kept
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final LatencySketch latency = new LatencySketch();
+
+    /**
+     * Reserves the slot of an invocation that was just entered
+     */
+    public long reserveInvocation() {
+        return invocations.reserve();
+    }
+
+    /**
+     * Hands back the slot of an invocation that isn't published, e.g. because it's too fast or the retention rejected
+     * it. The slot is reused if no other invocation of the method was entered since, otherwise it stays empty.
+     */
+    public void releaseInvocation(long slot) {
+        if(slot >= 0) {
+            invocations.release(slot);
+        }
+    }
+
+    /**
+     * Publishes a completed invocation into the slot reserved for it when it was entered
+     *
+     * @param slot the reserved slot or a negative value if no slot was reserved, the row is appended then
+     * @param row the row of the invocation in the store of this method
+     * @return the slot of the invocation
+     */
+    public long publishInvocation(long slot, long row) {
+        if(slot < 0) {
+            return invocations.append(row);
+        }
+        invocations.set(slot, row);
+        return slot;
+    }
+
+    /**
+     * Removes an evicted invocation from the method, the caller releases it in the store
+     *
+     * @return the row of the invocation or {@link ChunkedLongLog#EMPTY} if the slot was already empty
+     */
+    public long removeInvocation(long slot) {
+        return invocations.clear(slot);
+    }
+
+    /**
+     * Counts an invocation that was dropped or evicted to stay within the retention limits
+     */
+    public void countEviction() {
+        evictedInvocations.incrementAndGet();
+    }
+
+    public int getEvictedCount() {
+        return evictedInvocations.get();
+    }
+
+    /**
+     * Stores the invocation and appends it to the method
+     */
+    public void addInvocation(Invocation invocation) {
+        invocations.append(invocationStore.store(invocation));
+    }
+
+    public int getInvocationCount() {
+        return invocations.count();
+    }
+
+    public List<Invocation> listInvocations() {
+        return invocations.stream().mapToObj(invocationStore::load).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Streams the store rows of the completed invocations that started within the given time range, the columns of
+     * a row can be read from the store without loading the invocation
+     *
+     * @param from the first time in milliseconds, inclusive
+     * @param to the last time in milliseconds, inclusive
+     */
+    public LongStream streamInvocationRows(long from, long to) {
+        long size = invocations.size();
+        long start = firstIndex(row -> invocationStore.getTime(row) >= from, size);
+        long end = firstIndex(row -> invocationStore.getTime(row) > to, size);
+        return invocations.stream(start, end);
+    }
+
+    /**
+     * Streams the completed invocations that started within the given time range, invocations are loaded lazily.
+     * Invocations that are evicted while the stream is read are skipped.
+     */
+    public Stream<Invocation> streamInvocations(long from, long to) {
+        return streamInvocationRows(from, to).mapToObj(invocationStore::load).filter(Objects::nonNull);
+    }
+
+    /**
+     * Binary search for the first slot whose invocation matches the condition, the condition must be false for a
+     * prefix of the log and true for the rest. Slots that weren't published yet or were evicted are skipped.
+     */
+    private long firstIndex(LongPredicate condition, long size) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            long probe = invocations.next(middle, high);
+            long row = invocations.get(probe);
+            if(row == ChunkedLongLog.EMPTY || condition.test(row)) {
+                high = middle;
+            } else {
+                low = probe + 1;
+            }
+        }
+        return low;
+    }
 
-    public synchronized void addInvocation(Invocation invocation) {
-        invocations.add(invocation);
+    public Invocation findInvocation(long id) {
+        long slot = findSlot(id);
+        return slot < 0 ? null : invocationStore.load(invocations.get(slot));
     }
 
-    public synchronized int getInvocationCount() {
-        return invocations.size();
+    /**
+     * Returns the slot of the invocation with the given id or -1 if the method doesn't have it. The log is in id
+     * order so a miss of the binary search means the invocation isn't published in this method.
+     */
+    public long findSlot(long id) {
+        long size = invocations.size();
+        long slot = invocations.next(firstIndex(row -> invocationStore.getId(row) >= id, size), size);
+        long row = invocations.get(slot);
+        return row != ChunkedLongLog.EMPTY && invocationStore.getId(row) == id ? slot : -1;
     }
 
-    public synchronized List<Invocation> listInvocations() {
-        return new ArrayList<>(invocations);
+    /**
+     * The layout shared by the argument records of all the invocations of this method
+     */
+    public RecordLayout getParameterLayout() {
+        RecordLayout layout = parameterLayout;
+        if(layout == null) {
+            layout = RecordLayout.of(parameters);
+            parameterLayout = layout;
+        }
+        return layout;
     }
 
-    public synchronized Invocation findInvocation(String id) {
-        return invocations.stream().filter(invocation -> invocation.getId().equals(id)).findFirst().orElse(null);
+    public void setParameters(BaseType[] parameters) {
+        this.parameters = parameters;
+        parameterLayout = null;
     }
 
     public String fullName() {
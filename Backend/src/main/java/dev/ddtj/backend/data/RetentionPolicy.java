@@ -0,0 +1,45 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+/**
+ * Which invocations of a method are kept once the method reached its retention limit
+ */
+public enum RetentionPolicy {
+    /**
+     * The first invocations are kept and later ones are dropped, this doesn't store anything past the limit
+     */
+    KEEP_FIRST,
+
+    /**
+     * The latest invocations are kept, every new invocation evicts the oldest one
+     */
+    KEEP_LATEST,
+
+    /**
+     * A uniform sample of all the invocations is kept, a new invocation replaces a random one with a probability
+     * that shrinks as the method is invoked more often
+     */
+    RESERVOIR,
+
+    /**
+     * Invocations that behaved differently are kept, a new invocation is only kept if none of the retained ones looks
+     * like it and it replaces one of several invocations that look alike
+     */
+    MOST_DIVERSE
+}
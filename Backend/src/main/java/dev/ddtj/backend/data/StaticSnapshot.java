@@ -0,0 +1,46 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data;
+
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The values of the static fields of a class at a point in time. Snapshots are immutable and shared by all the
+ * invocations that ran while the static state didn't change, the version increases whenever the state is read again.
+ */
+@Getter
+@AllArgsConstructor
+public class StaticSnapshot {
+    private final String className;
+    private final long version;
+    private final long time;
+    private final String[] fieldNames;
+    private final BaseType[] fieldTypes;
+
+    /**
+     * Public fields can be assigned directly in the generated code, other fields are set with reflection
+     */
+    private final boolean[] publicFields;
+    private final Object[] values;
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+}
@@ -20,29 +20,87 @@ package dev.ddtj.backend.data.objectmodel;
 import com.sun.jdi.ArrayReference;
 import com.sun.jdi.Value;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * At the moment only 1d arrays are supported. I'm not sure what's the "right approach" to support multidimensional
- * arrays.
+ * Multidimensional arrays are captured as arrays of arrays, every nested array is capped separately and draws from
+ * the same byte budget.
  */
 
 public class ArrayObjectOrPrimitiveType extends BaseType {
+    /**
+     * Arrays are read with a single JDWP request per chunk instead of a request per element
+     */
+    private static final int CHUNK_SIZE = 4096;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int MAX_INLINE_LENGTH = 10;
+
     private final BaseType elementType;
-    protected ArrayObjectOrPrimitiveType(String type, BaseType elementType) {
+    private final boolean primitiveElements;
+    private final int elementSize;
+
+    public ArrayObjectOrPrimitiveType(String type, BaseType elementType) {
         super(type);
         this.elementType = elementType;
+        primitiveElements = elementType instanceof PrimitiveAndWrapperType &&
+                !((PrimitiveAndWrapperType) elementType).isWrapper();
+        elementSize = primitiveElements ? primitiveSize(elementType.getType()) : REFERENCE_SIZE;
+    }
+
+    private static int primitiveSize(String primitiveName) {
+        switch (primitiveName) {
+            case "boolean":
+            case "byte":
+                return 1;
+            case "char":
+            case "short":
+                return 2;
+            case "long":
+            case "double":
+                return 8;
+            default:
+                return 4;
+        }
+    }
+
+    public BaseType getElementType() {
+        return elementType;
     }
 
     @Override
     public Object getValue(Value value) {
+        return getValue(value, new CaptureContext());
+    }
+
+    /**
+     * Reads the array in chunks up to the element cap and the remaining byte budget of the context. If the array is
+     * longer than what we captured a {@link TruncatedArray} is returned, otherwise this is the array itself.
+     */
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        if(value == null) {
+            return null;
+        }
         ArrayReference arrayReference = (ArrayReference) value;
         int length = arrayReference.length();
-        Object array = allocateArray(length);
-        for (int i = 0; i < length; i++) {
-            elementType.setArrayValue(array, i, arrayReference.getValue(i));
+        int captureLength = context.reserveArrayElements(length, elementSize);
+        Object array = allocateArray(captureLength);
+        for (int offset = 0; offset < captureLength; offset += CHUNK_SIZE) {
+            int chunkLength = Math.min(CHUNK_SIZE, captureLength - offset);
+            List<Value> values = arrayReference.getValues(offset, chunkLength);
+            for (int i = 0; i < chunkLength; i++) {
+                if(primitiveElements) {
+                    elementType.setArrayValue(array, offset + i, values.get(i));
+                } else {
+                    Array.set(array, offset + i, context.capture(elementType, values.get(i)));
+                }
+            }
+        }
+        if(captureLength < length) {
+            return new TruncatedArray(array, length);
         }
-        return null;
+        return array;
     }
 
     @Override
@@ -50,32 +108,133 @@ public class ArrayObjectOrPrimitiveType extends BaseType {
         return elementType.allocateArray(size);
     }
 
+    private static Object elements(Object fieldValue) {
+        if(fieldValue instanceof TruncatedArray) {
+            return ((TruncatedArray) fieldValue).getElements();
+        }
+        return fieldValue;
+    }
+
+    private static int length(Object fieldValue) {
+        if(fieldValue instanceof TruncatedArray) {
+            return ((TruncatedArray) fieldValue).getLength();
+        }
+        return Array.getLength(fieldValue);
+    }
+
+    private boolean isInline(int capturedLength) {
+        return capturedLength == 0 || (capturedLength < MAX_INLINE_LENGTH && !hasObjectElements());
+    }
+
+    private boolean hasObjectElements() {
+        BaseType actualType = elementType.unwrap();
+        return actualType instanceof ObjectType || actualType instanceof ArrayObjectOrPrimitiveType ||
+                actualType instanceof RecordType || actualType instanceof CollectionType;
+    }
+
+    /**
+     * Java puts the size of a new array before the dimensions of the element type e.g. {@code new int[5][]}
+     */
+    private String newArray(int size) {
+        String elementName = elementType.getShortTypeName();
+        int bracket = elementName.indexOf('[');
+        if(bracket < 0) {
+            return "new " + elementName + "[" + size + "]";
+        }
+        return "new " + elementName.substring(0, bracket) + "[" + size + "]" + elementName.substring(bracket);
+    }
+
+    private String arrayLiteral(String fieldName, Object elements) {
+        int capturedLength = Array.getLength(elements);
+        if(capturedLength == 0) {
+            return newArray(0);
+        }
+        StringBuilder alloc = new StringBuilder("new ").append(elementType.getShortTypeName()).append("[] {");
+        for(int i = 0; i < capturedLength; i++) {
+            Object element = Array.get(elements, i);
+            alloc.append(element == null ? "null" : elementType.getCodeRepresentation(fieldName, element));
+            if(i < capturedLength - 1) {
+                alloc.append(", ");
+            }
+        }
+        return alloc.append("}").toString();
+    }
+
+    /**
+     * A truncated array keeps its original length, the elements we didn't capture are left with default values
+     */
+    private String truncatedLiteral(String literal, int capturedLength, int length) {
+        if(capturedLength == 0) {
+            return newArray(length);
+        }
+        return "java.util.Arrays.copyOf(" + literal + ", " + length + ")";
+    }
+
     @Override
     public String getCodeRepresentation(String fieldName, Object fieldValue) {
-        int arrayLength = Array.getLength(fieldValue);
-        if(arrayLength == 0) {
-            return "new " + getType() + "[0]";
-        }
-        if(arrayLength < 10 && !(elementType instanceof ObjectType)) {
-            StringBuilder alloc = new StringBuilder("new ").append(getType()).append("[] {");
-            for(int i = 0; i < arrayLength; i++) {
-                alloc.append(elementType.getCodeRepresentation(fieldName, Array.get(fieldValue, i)));
-                if(i < arrayLength - 1) {
-                    alloc.append(", ");
-                }
+        return getCodeRepresentation(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return "null";
+        }
+        Object elements = elements(fieldValue);
+        int capturedLength = Array.getLength(elements);
+        if(isInline(capturedLength)) {
+            String literal = arrayLiteral(fieldName, elements);
+            if(fieldValue instanceof TruncatedArray) {
+                return truncatedLiteral(literal, capturedLength, length(fieldValue));
             }
-            return alloc.append("}").toString();
+            return literal;
         }
         return fieldName;
     }
 
     @Override
     public List<String> getCodePrefix(String fieldName, Object fieldValue) {
-        int arrayLength = Array.getLength(fieldValue);
-        if(arrayLength == 0 ||
-                (arrayLength < 10 && !(elementType instanceof ObjectType))) {
+        return getCodePrefix(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return null;
+        }
+        Object elements = elements(fieldValue);
+        int capturedLength = Array.getLength(elements);
+        if(isInline(capturedLength)) {
             return null;
         }
-        return super.getCodePrefix(fieldName, fieldValue);
+        int length = length(fieldValue);
+        String declaration = elementType.getShortTypeName() + "[] " + fieldName + " = ";
+        List<String> result = new ArrayList<>();
+        if(fieldValue instanceof TruncatedArray) {
+            result.add("// only " + capturedLength + " of " + length + " elements were captured");
+        }
+        if(!hasObjectElements()) {
+            String literal = arrayLiteral(fieldName, elements);
+            if(fieldValue instanceof TruncatedArray) {
+                literal = truncatedLiteral(literal, capturedLength, length);
+            }
+            result.add(declaration + literal + ";");
+            return result;
+        }
+        result.add(declaration + newArray(length) + ";");
+        for(int i = 0; i < capturedLength; i++) {
+            Object element = Array.get(elements, i);
+            if(element == null) {
+                continue;
+            }
+            String elementName = context.uniqueName(fieldName + "Element" + i);
+            List<String> elementPrefix = elementType.getCodePrefix(elementName, element, context);
+            if(elementPrefix != null) {
+                result.addAll(elementPrefix);
+            }
+            result.add(fieldName + "[" + i + "] = " +
+                    elementType.getCodeRepresentation(elementName, element, context) + ";");
+        }
+        return result;
     }
 }
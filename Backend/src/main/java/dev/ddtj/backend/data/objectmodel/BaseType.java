@@ -37,13 +37,37 @@ public abstract class BaseType implements BaseTypeInterface, ArrayCreation {
     return index == -1 ? type : type.substring(index + 1);
   }
 
+  /**
+   * Returns the actual type, this is only different for a {@link DeferredType} that stands in for a type that was
+   * still being created
+   */
+  public BaseType unwrap() {
+    return this;
+  }
+
   public void setArrayValue(Object array, int index, Value value) {
     Array.set(array, index, getValue(value));
   }
 
+  /**
+   * Reads the value as part of a larger capture, types that reference other objects use the context to share
+   * objects and stay within the capture limits
+   */
+  public Object getValue(Value value, CaptureContext context) {
+    return getValue(value);
+  }
+
   public abstract String getCodeRepresentation(String fieldName, Object fieldValue);
 
   public List<String> getCodePrefix(String fieldName, Object fieldValue) {
     return null;
   }
+
+  public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+    return getCodeRepresentation(fieldName, fieldValue);
+  }
+
+  public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
+    return getCodePrefix(fieldName, fieldValue);
+  }
 }
@@ -19,6 +19,7 @@ package dev.ddtj.backend.data.objectmodel;
 
 import com.sun.jdi.StringReference;
 import com.sun.jdi.Value;
+import java.util.List;
 
 /**
  * Support for common builtin types to make their handling and code generation feel smoother
@@ -26,11 +27,39 @@ import com.sun.jdi.Value;
 public abstract class BuiltinTypes extends BaseType {
     private final BaseTypeInterface value;
     private final ArrayCreation arrayCreation;
+    /**
+     * Captured strings can be {@link TruncatedString}s so arrays of strings are captured as object arrays
+     */
     public static final BuiltinTypes STRING = new BuiltinTypes(String.class.getName(), val -> ((StringReference) val).value(),
-            String[]::new) {
+            Object[]::new) {
+        @Override
+        public Object getValue(Value value, CaptureContext context) {
+            StringPool stringPool = context.getStringPool();
+            if(stringPool == null) {
+                return getValue(value);
+            }
+            return stringPool.intern((StringReference) value);
+        }
+
         @Override
         public String getCodeRepresentation(String fieldName, Object fieldValue) {
-            return "\"" + fieldValue + "\"";
+            if(fieldValue == null) {
+                return "null";
+            }
+            if(fieldValue instanceof TruncatedString) {
+                return "\"" + escape(((TruncatedString) fieldValue).getValue()) + "\"";
+            }
+            return "\"" + escape(fieldValue.toString()) + "\"";
+        }
+
+        @Override
+        public List<String> getCodePrefix(String fieldName, Object fieldValue) {
+            if(fieldValue instanceof TruncatedString) {
+                TruncatedString truncatedString = (TruncatedString) fieldValue;
+                return List.of("// only " + truncatedString.getValue().length() + " of " +
+                        truncatedString.getLength() + " characters of " + fieldName + " were captured");
+            }
+            return null;
         }
     };
 
@@ -46,6 +75,40 @@ public abstract class BuiltinTypes extends BaseType {
         return this.value.getValue(value);
     }
 
+    /**
+     * Escapes a string so it can be placed in a Java string literal
+     */
+    static String escape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for(int iter = 0 ; iter < value.length() ; iter++) {
+            char c = value.charAt(iter);
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if(c < ' ') {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.toString();
+    }
+
     @Override
     public Object allocateArray(int size) {
         return arrayCreation.allocateArray(size);
@@ -0,0 +1,167 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.Value;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State for capturing the values of a single event. Objects are tracked by their JDI unique id so an object that's
+ * reachable from several arguments or fields is read once, later occurrences and cycles become a
+ * {@link BackReference}. The depth and node limits bound the amount of JDWP traffic for a single event.
+ */
+public class CaptureContext {
+    public static final int DEFAULT_MAX_DEPTH = 4;
+    public static final int DEFAULT_MAX_NODES = 256;
+    public static final int DEFAULT_MAX_ARRAY_ELEMENTS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private final int maxDepth;
+    private final int maxNodes;
+    private final int maxArrayElements;
+    private final Map<Long, Object> capturedObjects = new HashMap<>();
+    private int depth;
+    private int nodeCount;
+    private long remainingBytes;
+    private final StringPool stringPool;
+    private final TypeCache typeCache;
+
+    public CaptureContext() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_NODES);
+    }
+
+    public CaptureContext(int maxDepth, int maxNodes) {
+        this(maxDepth, maxNodes, DEFAULT_MAX_ARRAY_ELEMENTS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxArrayElements the maximum number of elements captured for a single array
+     * @param byteBudget the approximate number of bytes of array data we can read, this budget is shared by the
+     *                   entry and exit of an invocation
+     */
+    public CaptureContext(int maxDepth, int maxNodes, int maxArrayElements, long byteBudget) {
+        this(maxDepth, maxNodes, maxArrayElements, byteBudget, null);
+    }
+
+    /**
+     * @param stringPool the session string pool, if this is null strings are read directly from the VM
+     */
+    public CaptureContext(int maxDepth, int maxNodes, int maxArrayElements, long byteBudget, StringPool stringPool) {
+        this(maxDepth, maxNodes, maxArrayElements, byteBudget, stringPool, new TypeCache());
+    }
+
+    /**
+     * @param typeCache the session type cache, used for values whose type is only known at runtime such as the
+     *                  elements of a collection
+     */
+    public CaptureContext(int maxDepth, int maxNodes, int maxArrayElements, long byteBudget, StringPool stringPool,
+                          TypeCache typeCache) {
+        this.typeCache = typeCache;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.maxArrayElements = maxArrayElements;
+        this.remainingBytes = byteBudget;
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Captures the value using this context, null values are returned as null without touching the type
+     */
+    public Object capture(BaseType type, Value value) {
+        if(value == null) {
+            return null;
+        }
+        return type.getValue(value, this);
+    }
+
+    /**
+     * Prepares the context for the next event so a single context can be reused by the collector
+     *
+     * @param byteBudget the byte budget of the next event
+     */
+    public void reset(long byteBudget) {
+        capturedObjects.clear();
+        depth = 0;
+        nodeCount = 0;
+        remainingBytes = byteBudget;
+    }
+
+    public boolean isCaptured(long id) {
+        return capturedObjects.containsKey(id);
+    }
+
+    /**
+     * Returns true if another object can be expanded without exceeding the depth or node count limits
+     */
+    public boolean canExpand() {
+        return depth < maxDepth && nodeCount < maxNodes;
+    }
+
+    /**
+     * Marks the start of an object capture, the object is registered before its fields are read so cycles back to it
+     * are detected
+     */
+    void enterObject(long id, Object capturedValue) {
+        capturedObjects.put(id, capturedValue);
+        nodeCount++;
+        depth++;
+    }
+
+    void exitObject() {
+        depth--;
+    }
+
+    /**
+     * Reserves room for an array in the byte budget
+     *
+     * @param length the length of the array in the monitored VM
+     * @param elementSize the approximate size of a single element in bytes
+     * @return the number of elements that should be captured
+     */
+    public int reserveArrayElements(int length, int elementSize) {
+        long allowed = Math.min(length, maxArrayElements);
+        allowed = Math.max(0, Math.min(allowed, remainingBytes / elementSize));
+        remainingBytes -= allowed * elementSize;
+        return (int) allowed;
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    public TypeCache getTypeCache() {
+        return typeCache;
+    }
+
+    public long getRemainingBytes() {
+        return remainingBytes;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The resolved form of an {@link ObjectType} for a specific class in the monitored VM. The field handles are looked
+ * up once and every slot is tagged with the way its value is decoded so a capture is a single batched field read
+ * followed by a loop over the slots, without name lookups, virtual calls or boxing for primitive values.
+ */
+final class CapturePlan {
+    /**
+     * Primitive slots use the {@link RecordLayout} kinds
+     */
+    static final byte SLOT_MISSING = -1;
+    static final byte SLOT_OBJECT = 9;
+    static final byte SLOT_VALUE = 10;
+
+    private final ReferenceType referenceType;
+    private final Field[] fields;
+    private final List<Field> readList;
+    private final byte[] slots;
+    private final BaseType[] types;
+
+    /**
+     * Plans that only read some of the fields keyed by the identity of their mask, masks are shared per method
+     */
+    private final Map<boolean[], CapturePlan> restricted = new ConcurrentHashMap<>();
+
+    private CapturePlan(ReferenceType referenceType, Field[] fields, byte[] slots, BaseType[] types) {
+        this.referenceType = referenceType;
+        this.fields = fields;
+        this.slots = slots;
+        this.types = types;
+        List<Field> read = new ArrayList<>(fields.length);
+        for(int iter = 0 ; iter < fields.length ; iter++) {
+            if(slots[iter] != SLOT_MISSING) {
+                read.add(fields[iter]);
+            }
+        }
+        readList = Collections.unmodifiableList(read);
+    }
+
+    /**
+     * Resolves the fields against the class of the captured object, a subclass may hide a field of the declared type
+     * so the declared handles are only used when the lookup fails
+     *
+     * @param declaredFields the handles found when the type was created or null
+     * @param layout the record layout of the type
+     */
+    static CapturePlan compile(ReferenceType referenceType, String[] fieldNames, Field[] declaredFields,
+                               BaseType[] fieldTypes, RecordLayout layout) {
+        int count = fieldNames.length;
+        Field[] fields = new Field[count];
+        byte[] slots = new byte[count];
+        BaseType[] types = new BaseType[count];
+        for(int iter = 0 ; iter < count ; iter++) {
+            Field field = referenceType.fieldByName(fieldNames[iter]);
+            if(field == null && declaredFields != null) {
+                field = declaredFields[iter];
+            }
+            fields[iter] = field;
+            types[iter] = fieldTypes[iter].unwrap();
+            slots[iter] = field == null ? SLOT_MISSING : slotOf(types[iter], layout.getKind(iter));
+        }
+        return new CapturePlan(referenceType, fields, slots, types);
+    }
+
+    private static byte slotOf(BaseType type, byte kind) {
+        if(kind != RecordLayout.REFERENCE) {
+            return kind;
+        }
+        return type instanceof ObjectType ? SLOT_OBJECT : SLOT_VALUE;
+    }
+
+    /**
+     * Returns a plan that skips the fields that aren't in the mask
+     */
+    CapturePlan restrict(boolean[] mask) {
+        return restricted.computeIfAbsent(mask, key -> {
+            byte[] restrictedSlots = slots.clone();
+            for(int iter = 0 ; iter < restrictedSlots.length ; iter++) {
+                if(!key[iter]) {
+                    restrictedSlots[iter] = SLOT_MISSING;
+                }
+            }
+            return new CapturePlan(referenceType, fields, restrictedSlots, types);
+        });
+    }
+
+    ReferenceType getReferenceType() {
+        return referenceType;
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    /**
+     * Reads all the fields of the object with a single request and decodes them into the record, primitive values
+     * are stored without boxing
+     */
+    void execute(ObjectReference object, CaptureContext context, ValueRecord record) {
+        Map<Field, Value> values = readList.isEmpty() ? Collections.emptyMap() : object.getValues(readList);
+        for(int iter = 0 ; iter < slots.length ; iter++) {
+            byte slot = slots[iter];
+            if(slot == SLOT_MISSING) {
+                continue;
+            }
+            Value value = values.get(fields[iter]);
+            if(value == null) {
+                continue;
+            }
+            switch (slot) {
+                case SLOT_OBJECT:
+                    record.setReference(iter, ((ObjectType) types[iter]).getValue(value, context));
+                    break;
+                case SLOT_VALUE:
+                    record.setReference(iter, types[iter].getValue(value, context));
+                    break;
+                default:
+                    record.setPrimitive(iter, (PrimitiveValue) value);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+/**
+ * The captured content of a collection or map. Elements are stored with the type they had at runtime since the
+ * declared type of a collection doesn't tell us anything about its elements. Map entries are stored as key and value
+ * pairs so the key of entry {@code i} is at index {@code 2 * i}.
+ */
+public class CapturedCollection {
+    private final long id;
+    private final String implementation;
+    private final boolean map;
+    private final int size;
+    private final BaseType[] types;
+    private final Object[] values;
+
+    public CapturedCollection(long id, String implementation, boolean map, int size, BaseType[] types,
+                              Object[] values) {
+        this.id = id;
+        this.implementation = implementation;
+        this.map = map;
+        this.size = size;
+        this.types = types;
+        this.values = values;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * The class we instantiate in the generated code or null if we couldn't read the collection
+     */
+    public String getImplementation() {
+        return implementation;
+    }
+
+    public boolean isMap() {
+        return map;
+    }
+
+    /**
+     * The number of elements or entries in the monitored VM, this can be larger than the captured count
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapturedCount() {
+        return map ? values.length / 2 : values.length;
+    }
+
+    public boolean isTruncated() {
+        return getCapturedCount() < size;
+    }
+
+    public BaseType[] getTypes() {
+        return types;
+    }
+
+    public Object[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the variables declared while generating a single test. Captured objects are registered by their unique id
+ * so a {@link BackReference} can point at the variable that was already declared for the object.
+ */
+public class CodeGenerationContext {
+    private final Map<Long, String> declaredObjects = new HashMap<>();
+    private final Set<String> usedNames = new HashSet<>();
+
+    public void declare(long id, String variableName) {
+        declaredObjects.put(id, variableName);
+        usedNames.add(variableName);
+    }
+
+    /**
+     * Returns the variable that was declared for the given object or null if it wasn't declared yet
+     */
+    public String getDeclaredName(long id) {
+        return declaredObjects.get(id);
+    }
+
+    /**
+     * Returns a variable name based on the given name that wasn't used in this test yet
+     */
+    public String uniqueName(String name) {
+        String result = name;
+        int counter = 2;
+        while(!usedNames.add(result)) {
+            result = name + counter;
+            counter++;
+        }
+        return result;
+    }
+}
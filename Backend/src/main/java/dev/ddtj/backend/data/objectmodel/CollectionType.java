@@ -0,0 +1,645 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.Value;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Captures the common JDK collections and maps by reading their backing fields directly. We never invoke methods in
+ * the monitored VM since that resumes the threads and is very slow. Backing arrays are read in chunks with a single
+ * JDWP request per chunk and linked nodes are read with a single request per node. The number of elements is capped
+ * by the same limits as arrays. Implementations we don't recognize are mocked in the generated code.
+ */
+@Log
+public class CollectionType extends BaseType {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int REFERENCE_SIZE = 8;
+
+    private static final String ARRAY_LIST = "java.util.ArrayList";
+    private static final String LINKED_LIST = "java.util.LinkedList";
+    private static final String VECTOR = "java.util.Vector";
+    private static final String HASH_SET = "java.util.HashSet";
+    private static final String LINKED_HASH_SET = "java.util.LinkedHashSet";
+    private static final String TREE_SET = "java.util.TreeSet";
+    private static final String HASH_MAP = "java.util.HashMap";
+    private static final String LINKED_HASH_MAP = "java.util.LinkedHashMap";
+    private static final String TREE_MAP = "java.util.TreeMap";
+    private static final String LIST_N = "java.util.ImmutableCollections$ListN";
+    private static final String LIST_12 = "java.util.ImmutableCollections$List12";
+    private static final String SET_N = "java.util.ImmutableCollections$SetN";
+    private static final String SET_12 = "java.util.ImmutableCollections$Set12";
+    private static final String MAP_N = "java.util.ImmutableCollections$MapN";
+    private static final String MAP_1 = "java.util.ImmutableCollections$Map1";
+    private static final String ARRAYS_LIST = "java.util.Arrays$ArrayList";
+    private static final String EMPTY_LIST = "java.util.Collections$EmptyList";
+    private static final String EMPTY_SET = "java.util.Collections$EmptySet";
+    private static final String EMPTY_MAP = "java.util.Collections$EmptyMap";
+    private static final String SINGLETON_LIST = "java.util.Collections$SingletonList";
+    private static final String SINGLETON_SET = "java.util.Collections$SingletonSet";
+    private static final String SINGLETON_MAP = "java.util.Collections$SingletonMap";
+    private static final String UNMODIFIABLE_COLLECTION = "java.util.Collections$UnmodifiableCollection";
+    private static final String UNMODIFIABLE_MAP = "java.util.Collections$UnmodifiableMap";
+    private static final String SYNCHRONIZED_COLLECTION = "java.util.Collections$SynchronizedCollection";
+    private static final String SYNCHRONIZED_MAP = "java.util.Collections$SynchronizedMap";
+
+    /**
+     * Implementations we can instantiate in the generated code, other implementations are replaced by the closest
+     * mutable equivalent
+     */
+    private static final Set<String> INSTANTIABLE = Set.of(ARRAY_LIST, LINKED_LIST, VECTOR, HASH_SET,
+            LINKED_HASH_SET, TREE_SET, HASH_MAP, LINKED_HASH_MAP, TREE_MAP);
+
+    private static final Set<String> PUBLIC_TYPES = Set.of("java.util.Collection", "java.util.List",
+            "java.util.Set", "java.util.SortedSet", "java.util.NavigableSet", "java.util.Map", "java.util.SortedMap",
+            "java.util.NavigableMap", ARRAY_LIST, LINKED_LIST, VECTOR, HASH_SET, LINKED_HASH_SET, TREE_SET, HASH_MAP,
+            LINKED_HASH_MAP, TREE_MAP);
+
+    private static final Set<String> LAYOUTS = Set.of(ARRAY_LIST, LINKED_LIST, VECTOR, HASH_SET, LINKED_HASH_SET,
+            TREE_SET, HASH_MAP, LINKED_HASH_MAP, TREE_MAP, LIST_N, LIST_12, SET_N, SET_12, MAP_N, MAP_1, ARRAYS_LIST,
+            EMPTY_LIST, EMPTY_SET, EMPTY_MAP, SINGLETON_LIST, SINGLETON_SET, SINGLETON_MAP, UNMODIFIABLE_COLLECTION,
+            UNMODIFIABLE_MAP, SYNCHRONIZED_COLLECTION, SYNCHRONIZED_MAP);
+
+    private enum Kind {
+        LIST,
+        SET,
+        MAP
+    }
+
+    public CollectionType(String type) {
+        super(type);
+    }
+
+    /**
+     * Returns true if the type or one of its super classes is a collection implementation we know how to read
+     */
+    public static boolean hasKnownLayout(ReferenceType referenceType) {
+        return findLayout(referenceType) != null;
+    }
+
+    private static String findLayout(ReferenceType referenceType) {
+        ReferenceType current = referenceType;
+        while (current != null) {
+            if(LAYOUTS.contains(current.name())) {
+                return current.name();
+            }
+            current = current instanceof ClassType ? ((ClassType) current).superclass() : null;
+        }
+        return null;
+    }
+
+    private static Kind kindOf(String className) {
+        if(className.contains("Map")) {
+            return Kind.MAP;
+        }
+        if(className.contains("Set")) {
+            return Kind.SET;
+        }
+        return Kind.LIST;
+    }
+
+    @Override
+    public Object getValue(Value value) {
+        return getValue(value, new CaptureContext());
+    }
+
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        if(value == null) {
+            return null;
+        }
+        ObjectReference collection = (ObjectReference) value;
+        long id = collection.uniqueID();
+        if(context.isCaptured(id)) {
+            return new BackReference(id);
+        }
+        if(!context.canExpand()) {
+            return unsupported(id);
+        }
+        Entries entries = new Entries(context);
+        try {
+            if(!collect(collection, entries)) {
+                return unsupported(id);
+            }
+        } catch (LayoutMismatchException e) {
+            log.log(Level.FINE, "Unexpected collection layout, the collection will be mocked", e);
+            return unsupported(id);
+        }
+
+        String implementation = entries.implementation;
+        if(implementation == null) {
+            implementation = entries.kind == Kind.MAP ? LINKED_HASH_MAP :
+                    entries.kind == Kind.SET ? LINKED_HASH_SET : ARRAY_LIST;
+        }
+        int count = entries.values.size();
+        CapturedCollection captured = new CapturedCollection(id, implementation, entries.kind == Kind.MAP,
+                entries.size, new BaseType[count], new Object[count]);
+        context.enterObject(id, captured);
+        try {
+            for(int iter = 0 ; iter < count ; iter++) {
+                Value element = entries.values.get(iter);
+                if(element != null) {
+                    BaseType elementType = TypeFactory.create(context.getTypeCache(), element.type());
+                    captured.getTypes()[iter] = elementType;
+                    captured.getValues()[iter] = context.capture(elementType, element);
+                }
+            }
+        } finally {
+            context.exitObject();
+        }
+        return captured;
+    }
+
+    private static CapturedCollection unsupported(long id) {
+        return new CapturedCollection(id, null, false, 0, new BaseType[0], new Object[0]);
+    }
+
+    /**
+     * Reads the raw values of the collection into the entries, returns false if we don't know the implementation
+     */
+    private boolean collect(ObjectReference collection, Entries entries) {
+        String layout = findLayout(collection.referenceType());
+        if(layout == null) {
+            return false;
+        }
+        if(entries.implementation == null && INSTANTIABLE.contains(layout)) {
+            entries.implementation = layout;
+        }
+        switch (layout) {
+            case ARRAY_LIST:
+                entries.kind(Kind.LIST);
+                readArray(collection, "elementData", "size", entries);
+                return true;
+            case VECTOR:
+                entries.kind(Kind.LIST);
+                readArray(collection, "elementData", "elementCount", entries);
+                return true;
+            case LIST_N:
+                entries.kind(Kind.LIST);
+                readArray(collection, "elements", null, entries);
+                return true;
+            case ARRAYS_LIST:
+                entries.kind(Kind.LIST);
+                readArray(collection, "a", null, entries);
+                return true;
+            case LINKED_LIST:
+                entries.kind(Kind.LIST);
+                readLinked(collection, "first", entries, "item", "next");
+                return true;
+            case LIST_12:
+                entries.kind(Kind.LIST);
+                readFields(collection, entries, true, "e0", "e1");
+                return true;
+            case SINGLETON_LIST:
+                entries.kind(Kind.LIST);
+                readFields(collection, entries, false, "element");
+                return true;
+            case EMPTY_LIST:
+                entries.kind(Kind.LIST);
+                entries.setSize(0);
+                return true;
+            case HASH_SET:
+            case LINKED_HASH_SET:
+                entries.kind(Kind.SET);
+                return delegate(collection, "map", entries);
+            case TREE_SET:
+                entries.kind(Kind.SET);
+                return delegate(collection, "m", entries);
+            case SET_N:
+                entries.kind(Kind.SET);
+                readSparse(collection, "elements", 1, entries);
+                return true;
+            case SET_12:
+                entries.kind(Kind.SET);
+                readFields(collection, entries, true, "e0", "e1");
+                return true;
+            case SINGLETON_SET:
+                entries.kind(Kind.SET);
+                readFields(collection, entries, false, "element");
+                return true;
+            case EMPTY_SET:
+                entries.kind(Kind.SET);
+                entries.setSize(0);
+                return true;
+            case HASH_MAP:
+                entries.kind(Kind.MAP);
+                readHashTable(collection, entries);
+                return true;
+            case LINKED_HASH_MAP:
+                entries.kind(Kind.MAP);
+                readLinked(collection, "head", entries, "key", "value", "after");
+                return true;
+            case TREE_MAP:
+                entries.kind(Kind.MAP);
+                readTree(collection, entries);
+                return true;
+            case MAP_N:
+                entries.kind(Kind.MAP);
+                readSparse(collection, "table", 2, entries);
+                return true;
+            case MAP_1:
+                entries.kind(Kind.MAP);
+                readFields(collection, entries, false, "k0", "v0");
+                return true;
+            case SINGLETON_MAP:
+                entries.kind(Kind.MAP);
+                readFields(collection, entries, false, "k", "v");
+                return true;
+            case EMPTY_MAP:
+                entries.kind(Kind.MAP);
+                entries.setSize(0);
+                return true;
+            case UNMODIFIABLE_COLLECTION:
+            case SYNCHRONIZED_COLLECTION:
+                return delegate(collection, "c", entries);
+            case UNMODIFIABLE_MAP:
+            case SYNCHRONIZED_MAP:
+                return delegate(collection, "m", entries);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Wrappers and sets are read through the collection or map they wrap
+     */
+    private boolean delegate(ObjectReference collection, String field, Entries entries) {
+        ObjectReference wrapped = (ObjectReference) new FieldReader(field).read(collection)[0];
+        if(wrapped == null) {
+            entries.kind(Kind.LIST);
+            entries.setSize(0);
+            return true;
+        }
+        return collect(wrapped, entries);
+    }
+
+    private static void readArray(ObjectReference collection, String arrayField, String sizeField,
+                                  Entries entries) {
+        FieldReader reader = sizeField == null ? new FieldReader(arrayField) : new FieldReader(arrayField, sizeField);
+        Value[] values = reader.read(collection);
+        ArrayReference array = (ArrayReference) values[0];
+        int size;
+        if(sizeField == null) {
+            size = array == null ? 0 : array.length();
+        } else {
+            size = ((PrimitiveValue) values[1]).intValue();
+        }
+        entries.setSize(size);
+        for (int offset = 0; offset < entries.limit; offset += CHUNK_SIZE) {
+            int chunkLength = Math.min(CHUNK_SIZE, entries.limit - offset);
+            for(Value element : array.getValues(offset, chunkLength)) {
+                entries.add(element);
+            }
+        }
+    }
+
+    /**
+     * Reads an open addressing table where empty slots are null, maps store the key and value in adjacent slots
+     */
+    private static void readSparse(ObjectReference collection, String arrayField, int stride, Entries entries) {
+        Value[] values = new FieldReader(arrayField, "size").read(collection);
+        ArrayReference array = (ArrayReference) values[0];
+        entries.setSize(((PrimitiveValue) values[1]).intValue());
+        int length = array.length();
+        for (int offset = 0; offset < length && !entries.isFull(); offset += CHUNK_SIZE) {
+            List<Value> chunk = array.getValues(offset, Math.min(CHUNK_SIZE, length - offset));
+            for (int i = 0; i + stride - 1 < chunk.size() && !entries.isFull(); i += stride) {
+                Value key = chunk.get(i);
+                if(key != null) {
+                    entries.addEntry(key, stride == 2 ? chunk.get(i + 1) : null);
+                }
+            }
+        }
+    }
+
+    private static void readHashTable(ObjectReference map, Entries entries) {
+        Value[] values = new FieldReader("table", "size").read(map);
+        entries.setSize(((PrimitiveValue) values[1]).intValue());
+        ArrayReference table = (ArrayReference) values[0];
+        if(table == null) {
+            return;
+        }
+        FieldReader nodeReader = new FieldReader("key", "value", "next");
+        int length = table.length();
+        for (int offset = 0; offset < length && !entries.isFull(); offset += CHUNK_SIZE) {
+            for(Value bin : table.getValues(offset, Math.min(CHUNK_SIZE, length - offset))) {
+                ObjectReference node = (ObjectReference) bin;
+                while (node != null && !entries.isFull()) {
+                    Value[] nodeValues = nodeReader.read(node);
+                    entries.addEntry(nodeValues[0], nodeValues[1]);
+                    node = (ObjectReference) nodeValues[2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows a linked list of nodes, the last node field is the link to the next node
+     */
+    private static void readLinked(ObjectReference collection, String headField, Entries entries,
+                                   String... nodeFields) {
+        Value[] values = new FieldReader(headField, "size").read(collection);
+        entries.setSize(((PrimitiveValue) values[1]).intValue());
+        FieldReader nodeReader = new FieldReader(nodeFields);
+        ObjectReference node = (ObjectReference) values[0];
+        int next = nodeFields.length - 1;
+        while (node != null && !entries.isFull()) {
+            Value[] nodeValues = nodeReader.read(node);
+            entries.addEntry(nodeValues[0], next > 1 ? nodeValues[1] : null);
+            node = (ObjectReference) nodeValues[next];
+        }
+    }
+
+    /**
+     * Walks the red black tree in order so the entries keep their sorted order
+     */
+    private static void readTree(ObjectReference map, Entries entries) {
+        Value[] values = new FieldReader("root", "size").read(map);
+        entries.setSize(((PrimitiveValue) values[1]).intValue());
+        FieldReader nodeReader = new FieldReader("left", "right", "key", "value");
+        Deque<Value[]> stack = new ArrayDeque<>();
+        ObjectReference node = (ObjectReference) values[0];
+        while ((node != null || !stack.isEmpty()) && !entries.isFull()) {
+            while (node != null) {
+                Value[] nodeValues = nodeReader.read(node);
+                stack.push(nodeValues);
+                node = (ObjectReference) nodeValues[0];
+            }
+            Value[] nodeValues = stack.pop();
+            entries.addEntry(nodeValues[2], nodeValues[3]);
+            node = (ObjectReference) nodeValues[1];
+        }
+    }
+
+    /**
+     * Reads collections that keep their elements in fields. The immutable collections mark a missing element with
+     * null or with a sentinel instance of {@code Object} so we skip those when {@code skipEmpty} is set.
+     */
+    private static void readFields(ObjectReference collection, Entries entries, boolean skipEmpty,
+                                   String... fields) {
+        Value[] values = new FieldReader(fields).read(collection);
+        if(entries.kind == Kind.MAP) {
+            entries.setSize(1);
+            if(!entries.isFull()) {
+                entries.addEntry(values[0], values[1]);
+            }
+            return;
+        }
+        List<Value> elements = new ArrayList<>();
+        for(Value element : values) {
+            if(!skipEmpty || (element != null &&
+                    !"java.lang.Object".equals(((ObjectReference) element).referenceType().name()))) {
+                elements.add(element);
+            }
+        }
+        entries.setSize(elements.size());
+        for (int iter = 0; iter < entries.limit; iter++) {
+            entries.add(elements.get(iter));
+        }
+    }
+
+    @Override
+    public Object allocateArray(int size) {
+        return new Object[size];
+    }
+
+    /**
+     * The declared type of the variable in the generated code, implementation classes that aren't public are
+     * declared with the matching interface
+     */
+    private String declarationType() {
+        String type = getType();
+        if(PUBLIC_TYPES.contains(type)) {
+            return type;
+        }
+        switch (kindOf(type)) {
+            case MAP:
+                return "java.util.Map";
+            case SET:
+                return "java.util.Set";
+            default:
+                return "java.util.List";
+        }
+    }
+
+    /**
+     * Sorted declarations need a sorted implementation even if the captured collection was an unmodifiable wrapper
+     */
+    private String implementation(CapturedCollection collection) {
+        String type = getType();
+        if(type.contains("Sorted") || type.contains("Navigable")) {
+            return collection.isMap() ? TREE_MAP : TREE_SET;
+        }
+        return collection.getImplementation();
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        return getCodeRepresentation(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return "null";
+        }
+        if(fieldValue instanceof BackReference) {
+            String declaredName = context.getDeclaredName(((BackReference) fieldValue).getId());
+            if(declaredName != null) {
+                return declaredName;
+            }
+        }
+        return fieldName;
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue) {
+        return getCodePrefix(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return null;
+        }
+        String declaration = declarationType();
+        if(fieldValue instanceof BackReference) {
+            if(context.getDeclaredName(((BackReference) fieldValue).getId()) != null) {
+                return Collections.emptyList();
+            }
+            return List.of(declaration + " " + fieldName + ObjectType.MOCKITO_MOCK + declaration +
+                    ObjectType.DOT_CLASS_SUFFIX);
+        }
+        CapturedCollection collection = (CapturedCollection) fieldValue;
+        if(collection.getImplementation() == null) {
+            return List.of(declaration + " " + fieldName + ObjectType.MOCKITO_MOCK + declaration +
+                    ObjectType.DOT_CLASS_SUFFIX);
+        }
+        context.declare(collection.getId(), fieldName);
+        List<String> result = new ArrayList<>();
+        if(collection.isTruncated()) {
+            result.add("// only " + collection.getCapturedCount() + " of " + collection.getSize() +
+                    " elements were captured");
+        }
+        result.add(declaration + " " + fieldName + " = new " + implementation(collection) + "();");
+        BaseType[] types = collection.getTypes();
+        Object[] values = collection.getValues();
+        if(collection.isMap()) {
+            for(int iter = 0 ; iter < collection.getCapturedCount() ; iter++) {
+                String key = elementCode(context.uniqueName(fieldName + "Key" + iter), types[iter * 2],
+                        values[iter * 2], result, context);
+                String value = elementCode(context.uniqueName(fieldName + "Value" + iter), types[iter * 2 + 1],
+                        values[iter * 2 + 1], result, context);
+                result.add(fieldName + ".put(" + key + ", " + value + ");");
+            }
+        } else {
+            for(int iter = 0 ; iter < values.length ; iter++) {
+                String element = elementCode(context.uniqueName(fieldName + "Element" + iter), types[iter],
+                        values[iter], result, context);
+                result.add(fieldName + ".add(" + element + ");");
+            }
+        }
+        return result;
+    }
+
+    private static String elementCode(String name, BaseType type, Object value, List<String> result,
+                                      CodeGenerationContext context) {
+        if(value == null) {
+            return "null";
+        }
+        List<String> prefix = type.getCodePrefix(name, value, context);
+        if(prefix != null) {
+            result.addAll(prefix);
+        }
+        return type.getCodeRepresentation(name, value, context);
+    }
+
+    /**
+     * The raw values read from the monitored VM before they are converted to captured values
+     */
+    private static final class Entries {
+        private final CaptureContext context;
+        private final List<Value> values = new ArrayList<>();
+        private Kind kind;
+        private String implementation;
+        private int size;
+        private int limit;
+
+        Entries(CaptureContext context) {
+            this.context = context;
+        }
+
+        /**
+         * Sets the kind of the result unless an outer collection already determined it, e.g. a set backed by a map
+         */
+        void kind(Kind kind) {
+            if(this.kind == null) {
+                this.kind = kind;
+            }
+        }
+
+        void setSize(int size) {
+            this.size = size;
+            int entrySize = kind == Kind.MAP ? REFERENCE_SIZE * 2 : REFERENCE_SIZE;
+            limit = context.reserveArrayElements(size, entrySize);
+        }
+
+        int count() {
+            return kind == Kind.MAP ? values.size() / 2 : values.size();
+        }
+
+        boolean isFull() {
+            return count() >= limit;
+        }
+
+        void add(Value value) {
+            values.add(value);
+        }
+
+        /**
+         * Adds a map entry, sets that are backed by a map only keep the key
+         */
+        void addEntry(Value key, Value value) {
+            values.add(key);
+            if(kind == Kind.MAP) {
+                values.add(value);
+            }
+        }
+    }
+
+    /**
+     * Reads several fields of an object with a single JDWP request, the resolved fields are cached per runtime type
+     * since nodes of the same collection share their type
+     */
+    private static final class FieldReader {
+        private final String[] names;
+        private final Map<ReferenceType, List<Field>> fields = new HashMap<>();
+
+        FieldReader(String... names) {
+            this.names = names;
+        }
+
+        Value[] read(ObjectReference object) {
+            List<Field> resolved = fields.computeIfAbsent(object.referenceType(), this::resolve);
+            Map<Field, Value> values = object.getValues(resolved);
+            Value[] result = new Value[resolved.size()];
+            for(int iter = 0 ; iter < result.length ; iter++) {
+                result[iter] = values.get(resolved.get(iter));
+            }
+            return result;
+        }
+
+        private List<Field> resolve(ReferenceType referenceType) {
+            List<Field> result = new ArrayList<>(names.length);
+            for(String name : names) {
+                Field field = referenceType.fieldByName(name);
+                if(field == null) {
+                    throw new LayoutMismatchException(referenceType.name() + " has no field " + name);
+                }
+                result.add(field);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Thrown when the implementation in the monitored VM doesn't have the fields we expect, e.g. a different JDK
+     */
+    private static final class LayoutMismatchException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LayoutMismatchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.Value;
+import java.util.List;
+
+/**
+ * Stands in for a type that's still being created when one of its fields refers back to it. All the calls are
+ * delegated to the finished type which is available by the time values are captured.
+ */
+public class DeferredType extends BaseType {
+    private volatile BaseType target;
+
+    DeferredType(String type) {
+        super(type);
+    }
+
+    void resolve(BaseType target) {
+        this.target = target;
+    }
+
+    @Override
+    public BaseType unwrap() {
+        if(target == null) {
+            throw new IllegalStateException("Type " + getType() + " is still being created");
+        }
+        return target.unwrap();
+    }
+
+    @Override
+    public Object getValue(Value value) {
+        return unwrap().getValue(value);
+    }
+
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        return unwrap().getValue(value, context);
+    }
+
+    @Override
+    public void setArrayValue(Object array, int index, Value value) {
+        unwrap().setArrayValue(array, index, value);
+    }
+
+    @Override
+    public Object allocateArray(int size) {
+        return unwrap().allocateArray(size);
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        return unwrap().getCodeRepresentation(fieldName, fieldValue);
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        return unwrap().getCodeRepresentation(fieldName, fieldValue, context);
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue) {
+        return unwrap().getCodePrefix(fieldName, fieldValue);
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        return unwrap().getCodePrefix(fieldName, fieldValue, context);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.Value;
+
+/**
+ * Enum constants are captured by name, this reads a single field instead of introspecting the enum class
+ */
+public class EnumType extends BaseType {
+    private static final String NAME_FIELD = "name";
+
+    public EnumType(String type) {
+        super(type);
+    }
+
+    @Override
+    public Object getValue(Value value) {
+        return getValue(value, new CaptureContext());
+    }
+
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        if(value == null) {
+            return null;
+        }
+        ObjectReference constant = (ObjectReference) value;
+        StringReference name = (StringReference) constant.getValue(constant.referenceType().fieldByName(NAME_FIELD));
+        StringPool stringPool = context.getStringPool();
+        if(stringPool == null) {
+            return name.value();
+        }
+        // constant names are never truncated
+        Object interned = stringPool.intern(name);
+        return interned instanceof String ? interned : name.value();
+    }
+
+    @Override
+    public Object allocateArray(int size) {
+        return new String[size];
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        if(fieldValue == null) {
+            return "null";
+        }
+        return getType().replace('$', '.') + "." + fieldValue;
+    }
+}
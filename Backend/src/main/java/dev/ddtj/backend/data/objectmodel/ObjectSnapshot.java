@@ -0,0 +1,104 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The captured state of an object as a read only map view, the field names and layout come from the shared
+ * {@link ObjectType} and only the id and the values are kept per object. The map has the same keys as the map
+ * {@link ObjectType#getValue(com.sun.jdi.Value, CaptureContext)} used to build so code generation and serialization
+ * are unaffected.
+ */
+public final class ObjectSnapshot extends AbstractMap<String, Object> {
+    private final ObjectType type;
+    private final long id;
+
+    /**
+     * The field values or null if the object was truncated
+     */
+    private final ValueRecord values;
+
+    public ObjectSnapshot(ObjectType type, long id, ValueRecord values) {
+        this.type = type;
+        this.id = id;
+        this.values = values;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isTruncated() {
+        return values == null;
+    }
+
+    /**
+     * The field values in the layout of the object type or null if the object was truncated
+     */
+    public ValueRecord getRecord() {
+        return values;
+    }
+
+    public ObjectType getObjectType() {
+        return type;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if(ObjectType.CLASS_KEY.equals(key)) {
+            return type.getType();
+        }
+        if(ObjectType.ID_KEY.equals(key)) {
+            return id;
+        }
+        if(values == null) {
+            return ObjectType.TRUNCATED_KEY.equals(key) ? Boolean.TRUE : null;
+        }
+        int slot = key instanceof String ? type.getFieldIndex((String) key) : -1;
+        return slot < 0 ? null : values.get(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if(ObjectType.CLASS_KEY.equals(key) || ObjectType.ID_KEY.equals(key)) {
+            return true;
+        }
+        if(values == null) {
+            return ObjectType.TRUNCATED_KEY.equals(key);
+        }
+        return key instanceof String && type.getFieldIndex((String) key) > -1;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+        entries.add(new SimpleImmutableEntry<>(ObjectType.CLASS_KEY, type.getType()));
+        entries.add(new SimpleImmutableEntry<>(ObjectType.ID_KEY, id));
+        if(values == null) {
+            entries.add(new SimpleImmutableEntry<>(ObjectType.TRUNCATED_KEY, Boolean.TRUE));
+        } else {
+            for(int iter = 0 ; iter < values.size() ; iter++) {
+                entries.add(new SimpleImmutableEntry<>(type.getFieldName(iter), values.get(iter)));
+            }
+        }
+        return entries;
+    }
+}
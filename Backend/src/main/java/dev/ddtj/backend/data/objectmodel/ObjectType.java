@@ -27,10 +27,11 @@ import com.sun.jdi.ReferenceType;
 import com.sun.jdi.Type;
 import com.sun.jdi.Value;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import lombok.extern.java.Log;
@@ -41,6 +42,14 @@ public class ObjectType extends BaseType {
     public static final String MOCKITO_MOCK = " = Mockito.mock(";
     public static final String DOT_CLASS_SUFFIX = ".class);";
 
+    /**
+     * Keys in the captured value map that hold metadata, these are reserved words or symbols so they can't collide
+     * with a field name
+     */
+    public static final String CLASS_KEY = "class";
+    public static final String ID_KEY = "this";
+    public static final String TRUNCATED_KEY = "...";
+
     public enum CreationType {
         CONSTRUCTOR_FACTORY,
         SETTERS,
@@ -61,10 +70,19 @@ public class ObjectType extends BaseType {
     private final CreationType creationType;
     private final String[] setterMethods;
     private final Field[] fields;
+    private final String constructorSignature;
+
+    /**
+     * The capture plans compiled for the classes of the captured objects, usually this is just the declared type
+     */
+    private final Map<ReferenceType, CapturePlan> plans = new ConcurrentHashMap<>();
+    private volatile CapturePlan lastPlan;
+    private volatile RecordLayout layout;
 
     private ObjectType(String type, String[] supportedFields, BaseType[] fieldBaseTypes, CreationType creationType,
-                       String[] setterMethods, Field[] fields) {
+                       String[] setterMethods, Field[] fields, String constructorSignature) {
         super(type);
+        this.constructorSignature = constructorSignature;
         this.supportedFields = supportedFields;
         this.fieldBaseTypes = fieldBaseTypes;
         this.creationType = creationType;
@@ -73,7 +91,7 @@ public class ObjectType extends BaseType {
     }
 
     public ObjectType(String type, CreationType creationType) {
-        this(type, null, null, creationType, null, null);
+        this(type, null, null, creationType, null, null, null);
     }
 
     public boolean canObjectBeCreated() {
@@ -85,6 +103,10 @@ public class ObjectType extends BaseType {
     }
 
     public static ObjectType create(ReferenceType referenceType) {
+        return create(referenceType, new TypeCache());
+    }
+
+    public static ObjectType create(ReferenceType referenceType, TypeCache typeCache) {
         if(referenceType.isAbstract()) {
             return new ObjectType(referenceType.name(), CreationType.ABSTRACT);
         }
@@ -94,6 +116,79 @@ public class ObjectType extends BaseType {
         if(referenceType.isPackagePrivate()) {
             return new ObjectType(referenceType.name(), CreationType.PACKAGE_PRIVATE);
         }
+        TypeMetadataStore metadataStore = typeCache.getMetadataStore();
+        if(metadataStore == null) {
+            return introspect(referenceType, typeCache);
+        }
+        String hash = TypeMetadataStore.hash(referenceType);
+        ObjectType objectType = fromMetadata(referenceType, metadataStore.find(referenceType.name(), hash), typeCache);
+        if(objectType == null) {
+            objectType = introspect(referenceType, typeCache);
+            metadataStore.put(objectType.toMetadata(hash));
+        }
+        return objectType;
+    }
+
+    /**
+     * Rebuilds a type we analyzed in a previous run, returns null if the metadata is missing or doesn't match the
+     * class in the monitored VM
+     */
+    private static ObjectType fromMetadata(ReferenceType referenceType, TypeMetadata metadata, TypeCache typeCache) {
+        if(metadata == null) {
+            return null;
+        }
+        String type = referenceType.name();
+        String[] supportedFields = metadata.getSupportedFields();
+        try {
+            switch (metadata.getCreationType()) {
+                case SETTERS:
+                    Field[] setterFields = new Field[supportedFields.length];
+                    List<Type> setterTypes = new ArrayList<>();
+                    for (int iter = 0; iter < supportedFields.length; iter++) {
+                        setterFields[iter] = referenceType.fieldByName(supportedFields[iter]);
+                        if (setterFields[iter] == null) {
+                            return null;
+                        }
+                        setterTypes.add(setterFields[iter].type());
+                    }
+                    return new ObjectType(type, supportedFields, TypeFactory.create(typeCache, setterTypes),
+                            CreationType.SETTERS, metadata.getSetterMethods(), setterFields, null);
+                case CONSTRUCTOR_FACTORY:
+                    List<Method> constructors = referenceType.methodsByName("<init>",
+                            metadata.getConstructorSignature());
+                    if (constructors.isEmpty()) {
+                        return null;
+                    }
+                    return new ObjectType(type, supportedFields,
+                            TypeFactory.create(typeCache, constructors.get(0).argumentTypes()),
+                            CreationType.CONSTRUCTOR_FACTORY, null, null, metadata.getConstructorSignature());
+                default:
+                    return new ObjectType(type, metadata.getCreationType());
+            }
+        } catch (ClassNotLoadedException e) {
+            log.log(Level.FINE, "Could not load a field type of " + type + ", analyzing it again", e);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds a type that was written to a recording. The type has no JDI mirrors so it can generate code for the
+     * recorded values but can't capture new values.
+     *
+     * @param fieldBaseTypes the types of the supported fields, the array can be filled after this call to restore
+     *                       types that refer to themselves
+     */
+    public static ObjectType restore(String type, CreationType creationType, String[] supportedFields,
+                                     BaseType[] fieldBaseTypes, String[] setterMethods, String constructorSignature) {
+        return new ObjectType(type, supportedFields, fieldBaseTypes, creationType, setterMethods, null,
+                constructorSignature);
+    }
+
+    TypeMetadata toMetadata(String hash) {
+        return new TypeMetadata(getType(), hash, creationType, supportedFields, setterMethods, constructorSignature);
+    }
+
+    private static ObjectType introspect(ReferenceType referenceType, TypeCache typeCache) {
         String type = referenceType.name();
         List<Method> methodList = referenceType.methods();
         List<Field> fieldList = referenceType.allFields().stream().filter(field -> !field.isStatic() &&
@@ -102,19 +197,20 @@ public class ObjectType extends BaseType {
         Optional<Method> fieldConstructor = findFieldConstructor(methodList, fieldList);
         if(fieldConstructor.isPresent()) {
             try {
-                return createFieldConstructor(type, fieldConstructor.get());
+                return createFieldConstructor(type, fieldConstructor.get(), typeCache);
             } catch (ClassNotLoadedException | AbsentInformationException e) {
                 log.log(Level.SEVERE, "Could not load class: " + fieldConstructor.get(), e);
             }
         }
         Optional<Method> defaultConstructor = findDefaultConstructor(methodList);
         if(defaultConstructor.isPresent()) {
-            return createDefaultConstructor(type, methodList, fieldList);
+            return createDefaultConstructor(type, methodList, fieldList, typeCache);
         }
         return new ObjectType(type, CreationType.NO_VALID_CONSTRUCTOR);
     }
 
-    private static ObjectType createDefaultConstructor(String type, List<Method> methodList, List<Field> fieldList) {
+    private static ObjectType createDefaultConstructor(String type, List<Method> methodList, List<Field> fieldList,
+                                                       TypeCache typeCache) {
         List<Method> setterMethods = new ArrayList<>();
         List<Field> setters = findSetterFields(methodList, fieldList, setterMethods);
         if(setters.size() >= fieldList.size() / 2) {
@@ -124,9 +220,9 @@ public class ObjectType extends BaseType {
                 for (Field setter : setters) {
                     setterTypes.add(setter.type());
                 }
-                return new ObjectType(type, settersArray, TypeFactory.create(setterTypes), CreationType.SETTERS,
+                return new ObjectType(type, settersArray, TypeFactory.create(typeCache, setterTypes), CreationType.SETTERS,
                         setterMethods.stream().map(Method::name).toArray(String[]::new),
-                        setters.toArray(setters.toArray(new Field[0])));
+                        setters.toArray(setters.toArray(new Field[0])), null);
             } catch (ClassNotLoadedException e) {
                 log.log(Level.SEVERE, "Could not load class: " + setters.get(0), e);
             }
@@ -134,12 +230,13 @@ public class ObjectType extends BaseType {
         return new ObjectType(type, CreationType.NO_VALID_SETTERS);
     }
 
-    private static ObjectType createFieldConstructor(String type, Method fieldConstructor) throws ClassNotLoadedException, AbsentInformationException {
+    private static ObjectType createFieldConstructor(String type, Method fieldConstructor, TypeCache typeCache) throws ClassNotLoadedException, AbsentInformationException {
         List<String> fieldNames = fieldConstructor.arguments().stream().map(LocalVariable::name).collect(Collectors.toList());
-        BaseType[] types = TypeFactory.create(fieldConstructor.argumentTypes());
+        BaseType[] types = TypeFactory.create(typeCache, fieldConstructor.argumentTypes());
         String[] supportedFields = new String[fieldNames.size()];
         fieldNames.toArray(supportedFields);
-        return new ObjectType(type, supportedFields, types, CreationType.CONSTRUCTOR_FACTORY, null, null);
+        return new ObjectType(type, supportedFields, types, CreationType.CONSTRUCTOR_FACTORY, null, null,
+                fieldConstructor.signature());
     }
 
     private static List<Field> findSetterFields(List<Method> methodList, List<Field> fieldList, List<Method> setterMethods) {
@@ -163,6 +260,10 @@ public class ObjectType extends BaseType {
         return setterMethods;
     }
 
+    public String getConstructorSignature() {
+        return constructorSignature;
+    }
+
     public BaseType getField(int index) {
         return fieldBaseTypes[index];
     }
@@ -218,58 +319,151 @@ public class ObjectType extends BaseType {
 
     @Override
     public Object getValue(Value value) {
-        Map<String, Object> fieldValues = new HashMap<>();
+        return getValue(value, new CaptureContext());
+    }
+
+    /**
+     * Captures the object as an {@link ObjectSnapshot}, a map of field names to values. The map always contains the
+     * {@link #CLASS_KEY} and {@link #ID_KEY} entries, if the capture limits were reached or the object can't be
+     * created the fields are omitted and the {@link #TRUNCATED_KEY} entry is set.
+     */
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        if(value == null) {
+            return null;
+        }
         ObjectReference objectReference = (ObjectReference) value;
-        ReferenceType referenceType = objectReference.referenceType();
-        for(int iter = 0 ; iter < supportedFields.length ; iter++) {
-            Field field = referenceType.fieldByName(supportedFields[iter]);
-            Value v = objectReference.getValue(field);
-            fieldValues.put(supportedFields[iter], fieldBaseTypes[iter].getValue(v));
+        long id = objectReference.uniqueID();
+        if(context.isCaptured(id)) {
+            return new BackReference(id);
+        }
+        if(!canObjectBeCreated() || !context.canExpand()) {
+            return new ObjectSnapshot(this, id, null);
+        }
+        ValueRecord record = new ValueRecord(getLayout());
+        ObjectSnapshot snapshot = new ObjectSnapshot(this, id, record);
+        context.enterObject(id, snapshot);
+        try {
+            planFor(objectReference.referenceType()).execute(objectReference, context, record);
+        } finally {
+            context.exitObject();
+        }
+        return snapshot;
+    }
+
+    /**
+     * The layout shared by the captured values of this type, it's computed on the first capture since the field
+     * types of a recursive type are only resolved once the type is created
+     */
+    public RecordLayout getLayout() {
+        RecordLayout result = layout;
+        if(result == null) {
+            result = RecordLayout.of(fieldBaseTypes);
+            layout = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the plan for the class of a captured object, the plan is compiled on the first capture of every class
+     */
+    CapturePlan planFor(ReferenceType referenceType) {
+        CapturePlan plan = lastPlan;
+        if(plan == null || plan.getReferenceType() != referenceType) {
+            plan = plans.computeIfAbsent(referenceType, type ->
+                    CapturePlan.compile(type, supportedFields, fields, fieldBaseTypes, getLayout()));
+            lastPlan = plan;
         }
-        fieldValues.put("class", getType());
-        return fieldValues;
+        return plan;
     }
 
     @Override
     public Object allocateArray(int size) {
-        return new Map[size];
+        return new Object[size];
     }
 
     public Object[] getFieldValues(ObjectReference thisObject) {
-        if(fields != null) {
-            Object[] fieldValues = new Object[fields.length];
-            for (int iter = 0; iter < fields.length; iter++) {
-                fieldValues[iter] = fieldBaseTypes[iter].getValue(thisObject.getValue(fields[iter]));
-            }
-            return fieldValues;
-        } else {
-            Object[] fieldValues = new Object[supportedFields.length];
-            for (int iter = 0; iter < supportedFields.length; iter++) {
-                fieldValues[iter] = fieldBaseTypes[iter].getValue(
-                        thisObject.getValue(thisObject.referenceType().fieldByName(supportedFields[iter])));
-            }
-            return fieldValues;
+        return getFieldValues(thisObject, new CaptureContext());
+    }
+
+    public Object[] getFieldValues(ObjectReference thisObject, CaptureContext context) {
+        return captureFields(thisObject, context).toArray();
+    }
+
+    /**
+     * Captures the fields of the object in the order of {@link #getFieldName(int)}
+     */
+    public ValueRecord captureFields(ObjectReference thisObject, CaptureContext context) {
+        return captureFields(thisObject, context, null);
+    }
+
+    /**
+     * Captures only the fields in the mask, the others are marked as {@link ValueRecord#NOT_CAPTURED}
+     *
+     * @param fieldMask a flag per field in the order of {@link #getFieldName(int)} or null to capture all the fields
+     */
+    public ValueRecord captureFields(ObjectReference thisObject, CaptureContext context, boolean[] fieldMask) {
+        if(fieldMask != null && fieldMask.length != getFieldCount()) {
+            // the mask was computed for a previous version of the class
+            fieldMask = null;
+        }
+        ValueRecord record = new ValueRecord(getLayout(), fieldMask);
+        CapturePlan plan = planFor(thisObject.referenceType());
+        if(fieldMask != null) {
+            plan = plan.restrict(fieldMask);
         }
+        plan.execute(thisObject, context, record);
+        return record;
     }
 
     @Override
     public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        return getCodeRepresentation(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue instanceof BackReference) {
+            String declaredName = context.getDeclaredName(((BackReference) fieldValue).getId());
+            if(declaredName != null) {
+                return declaredName;
+            }
+        }
         return fieldName;
     }
 
     @Override
     public List<String> getCodePrefix(String fieldName, Object fieldValue) {
-        // at the moment I'm ignoring nested objects and focusing only on builtin objects.
-        // everything else gets mocked
+        return getCodePrefix(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
         String shortName = getShortTypeName();
-        if(canObjectBeCreated()) {
+        if(fieldValue instanceof BackReference) {
+            if(context.getDeclaredName(((BackReference) fieldValue).getId()) != null) {
+                return Collections.emptyList();
+            }
+            // the object is still being constructed, e.g. a constructor argument pointing back at its owner
+            return List.of(shortName + " " + fieldName + MOCKITO_MOCK + shortName + DOT_CLASS_SUFFIX);
+        }
+        Map<String, Object> fieldValues = (Map<String, Object>) fieldValue;
+        if(fieldValues != null) {
+            Object id = fieldValues.get(ID_KEY);
+            if(id != null) {
+                context.declare((Long) id, fieldName);
+            }
+        }
+        if(canObjectBeCreated() && (fieldValues == null || !fieldValues.containsKey(TRUNCATED_KEY))) {
             List<String> result = new ArrayList<>();
-            result.add(shortName + " " + fieldName + " = new " + shortName + "();");
-            Map<String, Object> fieldValues = (Map<String, Object>) fieldValue;
+            if(fieldValues == null) {
+                fieldValues = Collections.emptyMap();
+            }
             if(creationType == CreationType.SETTERS) {
-                getCodePrefixSetters(fieldName, result, fieldValues);
+                result.add(shortName + " " + fieldName + " = new " + shortName + "();");
+                getCodePrefixSetters(fieldName, result, fieldValues, context);
             } else {
-                getCodePrefixConstructor(fieldName, shortName, result, fieldValues);
+                getCodePrefixConstructor(fieldName, shortName, result, fieldValues, context);
             }
             return result;
         } else {
@@ -278,43 +472,74 @@ public class ObjectType extends BaseType {
         }
     }
 
-    private void getCodePrefixConstructor(String fieldName, String shortName, List<String> result, Map<String, Object> fieldValues) {
-        result.add(shortName + " " + fieldName + " =  new " + shortName + "(");
+    private void getCodePrefixConstructor(String fieldName, String shortName, List<String> result,
+                                          Map<String, Object> fieldValues, CodeGenerationContext context) {
+        StringBuilder constructor = new StringBuilder(shortName).append(' ').append(fieldName)
+                .append(" = new ").append(shortName).append('(');
         for (int iter = 0; iter < supportedFields.length; iter++) {
-            if (fieldBaseTypes[iter] instanceof ObjectType) {
-                String fieldShortName = fieldBaseTypes[iter].getShortTypeName();
-                result.add(1, fieldShortName + " " + supportedFields[iter] +
-                        MOCKITO_MOCK + fieldShortName + DOT_CLASS_SUFFIX);
-                result.add(supportedFields[iter] + (iter < supportedFields.length - 1 ? ", " : ""));
-                continue;
-            }
             Object value = fieldValues.get(supportedFields[iter]);
-            if (value != null) {
-                result.add(fieldBaseTypes[iter].getCodeRepresentation(supportedFields[iter], value) +
-                        (iter < supportedFields.length - 1 ? ", " : ""));
+            constructor.append(getFieldCode(fieldName, iter, value, result, context));
+            if (iter < supportedFields.length - 1) {
+                constructor.append(", ");
             }
         }
-        result.add("        );");
+        result.add(constructor.append(");").toString());
     }
 
-    private void getCodePrefixSetters(String fieldName, List<String> result, Map<String, Object> fieldValues) {
+    private void getCodePrefixSetters(String fieldName, List<String> result, Map<String, Object> fieldValues,
+                                      CodeGenerationContext context) {
         for (int iter = 0; iter < supportedFields.length; iter++) {
-            if (fieldBaseTypes[iter] instanceof ObjectType) {
-                String fieldShortName = fieldBaseTypes[iter].getShortTypeName();
-                result.add(fieldShortName + " " + supportedFields[iter] +
-                        MOCKITO_MOCK + fieldShortName + DOT_CLASS_SUFFIX);
-                result.add(fieldName + "." + setterMethods[iter] + "(" + supportedFields[iter] + ");");
-                continue;
-            }
             Object value = fieldValues.get(supportedFields[iter]);
             if (value != null) {
                 result.add(fieldName + "." + setterMethods[iter] + "(" +
-                        fieldBaseTypes[iter].getCodeRepresentation(supportedFields[iter], value) + ");");
+                        getFieldCode(fieldName, iter, value, result, context) + ");");
             }
         }
     }
 
+    /**
+     * Adds the declarations needed by the field to the result and returns the expression that represents the field
+     */
+    private String getFieldCode(String ownerName, int iter, Object value, List<String> result,
+                                CodeGenerationContext context) {
+        BaseType fieldType = fieldBaseTypes[iter];
+        if(value == null) {
+            // fields that weren't captured still need a valid constructor argument
+            BaseType actualType = fieldType.unwrap();
+            return actualType instanceof PrimitiveAndWrapperType ?
+                    ((PrimitiveAndWrapperType) actualType).getDefaultValue() : "null";
+        }
+        String variableName = supportedFields[iter];
+        if(fieldType.unwrap() instanceof ObjectType) {
+            variableName = context.uniqueName(ownerName + Character.toUpperCase(variableName.charAt(0)) +
+                    variableName.substring(1));
+        }
+        List<String> prefix = fieldType.getCodePrefix(variableName, value, context);
+        if(prefix != null) {
+            result.addAll(prefix);
+        }
+        return fieldType.getCodeRepresentation(variableName, value, context);
+    }
+
+    public int getFieldCount() {
+        return supportedFields == null ? 0 : supportedFields.length;
+    }
+
     public String getFieldName(int iter) {
         return supportedFields[iter];
     }
+
+    /**
+     * Returns the index of the field or -1 if the type doesn't capture it
+     */
+    public int getFieldIndex(String name) {
+        if(supportedFields != null) {
+            for (int iter = 0; iter < supportedFields.length; iter++) {
+                if (supportedFields[iter].equals(name)) {
+                    return iter;
+                }
+            }
+        }
+        return -1;
+    }
 }
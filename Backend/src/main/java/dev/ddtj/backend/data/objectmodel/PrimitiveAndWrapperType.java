@@ -24,6 +24,7 @@ import com.sun.jdi.DoubleValue;
 import com.sun.jdi.FloatValue;
 import com.sun.jdi.IntegerValue;
 import com.sun.jdi.LongValue;
+import com.sun.jdi.ObjectReference;
 import com.sun.jdi.ShortValue;
 import com.sun.jdi.Value;
 
@@ -186,8 +187,38 @@ public class PrimitiveAndWrapperType extends BaseType {
         return wrapper;
     }
 
+    /**
+     * The code for the default value of a field of this type, wrappers default to null
+     */
+    public String getDefaultValue() {
+        if(wrapper) {
+            return "null";
+        }
+        switch (getType()) {
+            case "boolean":
+                return "false";
+            case "char":
+                return "'\\0'";
+            case "long":
+                return "0L";
+            case "float":
+                return "0f";
+            case "double":
+                return "0d";
+            default:
+                return "0";
+        }
+    }
+
+    /**
+     * Boxed values in collections and fields are objects in the monitored VM, we unbox them by reading the value field
+     */
     @Override
     public Object getValue(Value value) {
+        if(wrapper && value instanceof ObjectReference) {
+            ObjectReference objectReference = (ObjectReference) value;
+            value = objectReference.getValue(objectReference.referenceType().fieldByName("value"));
+        }
         return this.value.getValue(value);
     }
 
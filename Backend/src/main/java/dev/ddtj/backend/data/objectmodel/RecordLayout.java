@@ -0,0 +1,206 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.PrimitiveValue;
+
+/**
+ * Maps the slots of a {@link ValueRecord} to a {@code long} array for primitive values and an object array for
+ * everything else. A layout is computed once per argument list or object type and shared by all the records of that
+ * shape.
+ */
+public final class RecordLayout {
+    public static final byte REFERENCE = 0;
+    public static final byte BOOLEAN = 1;
+    public static final byte BYTE = 2;
+    public static final byte CHAR = 3;
+    public static final byte SHORT = 4;
+    public static final byte INT = 5;
+    public static final byte LONG = 6;
+    public static final byte FLOAT = 7;
+    public static final byte DOUBLE = 8;
+
+    public static final RecordLayout EMPTY = new RecordLayout(new byte[0]);
+
+    private static final int CACHED_REFERENCE_LAYOUTS = 16;
+    private static final RecordLayout[] REFERENCE_LAYOUTS = new RecordLayout[CACHED_REFERENCE_LAYOUTS];
+
+    static {
+        for(int iter = 0 ; iter < CACHED_REFERENCE_LAYOUTS ; iter++) {
+            REFERENCE_LAYOUTS[iter] = new RecordLayout(new byte[iter]);
+        }
+    }
+
+    private final byte[] kinds;
+    private final int[] indexes;
+    private final int primitiveCount;
+    private final int referenceCount;
+
+    private RecordLayout(byte[] kinds) {
+        this.kinds = kinds;
+        indexes = new int[kinds.length];
+        int primitives = 0;
+        int references = 0;
+        for(int iter = 0 ; iter < kinds.length ; iter++) {
+            indexes[iter] = kinds[iter] == REFERENCE ? references++ : primitives++;
+        }
+        primitiveCount = primitives;
+        referenceCount = references;
+    }
+
+    /**
+     * Creates the layout for values of the given types, types that are still being created must be resolved before
+     * this is invoked
+     */
+    public static RecordLayout of(BaseType[] types) {
+        if(types == null || types.length == 0) {
+            return EMPTY;
+        }
+        byte[] kinds = new byte[types.length];
+        for(int iter = 0 ; iter < types.length ; iter++) {
+            kinds[iter] = kindOf(types[iter].unwrap());
+        }
+        return new RecordLayout(kinds);
+    }
+
+    /**
+     * A layout where every slot holds an object, used for values that were already boxed
+     */
+    public static RecordLayout references(int size) {
+        if(size < CACHED_REFERENCE_LAYOUTS) {
+            return REFERENCE_LAYOUTS[size];
+        }
+        return new RecordLayout(new byte[size]);
+    }
+
+    /**
+     * Creates a layout from the kinds of its slots, e.g. for a layout that was written to a recording
+     */
+    public static RecordLayout ofKinds(byte[] kinds) {
+        if(kinds.length == 0) {
+            return EMPTY;
+        }
+        return new RecordLayout(kinds.clone());
+    }
+
+    public static byte kindOf(BaseType type) {
+        if(!(type instanceof PrimitiveAndWrapperType) || ((PrimitiveAndWrapperType) type).isWrapper()) {
+            return REFERENCE;
+        }
+        switch (type.getType()) {
+            case "boolean":
+                return BOOLEAN;
+            case "byte":
+                return BYTE;
+            case "char":
+                return CHAR;
+            case "short":
+                return SHORT;
+            case "int":
+                return INT;
+            case "long":
+                return LONG;
+            case "float":
+                return FLOAT;
+            case "double":
+                return DOUBLE;
+            default:
+                return REFERENCE;
+        }
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public byte getKind(int slot) {
+        return kinds[slot];
+    }
+
+    int getIndex(int slot) {
+        return indexes[slot];
+    }
+
+    public int getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Encodes a primitive from the monitored VM without boxing it, floating point values keep their exact bits
+     */
+    public static long toBits(byte kind, PrimitiveValue value) {
+        switch (kind) {
+            case BOOLEAN:
+                return value.booleanValue() ? 1 : 0;
+            case FLOAT:
+                return Float.floatToRawIntBits(value.floatValue());
+            case DOUBLE:
+                return Double.doubleToRawLongBits(value.doubleValue());
+            case CHAR:
+                return value.charValue();
+            case BYTE:
+                return value.byteValue();
+            case SHORT:
+                return value.shortValue();
+            case INT:
+                return value.intValue();
+            default:
+                return value.longValue();
+        }
+    }
+
+    static long toBits(byte kind, Object boxed) {
+        switch (kind) {
+            case BOOLEAN:
+                return (Boolean) boxed ? 1 : 0;
+            case FLOAT:
+                return Float.floatToRawIntBits((Float) boxed);
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double) boxed);
+            case CHAR:
+                return (Character) boxed;
+            default:
+                return ((Number) boxed).longValue();
+        }
+    }
+
+    public static Object box(byte kind, long bits) {
+        switch (kind) {
+            case BOOLEAN:
+                return bits != 0;
+            case BYTE:
+                return (byte) bits;
+            case CHAR:
+                return (char) bits;
+            case SHORT:
+                return (short) bits;
+            case INT:
+                return (int) bits;
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                return bits;
+        }
+    }
+}
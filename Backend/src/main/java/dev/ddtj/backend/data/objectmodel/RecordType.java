@@ -0,0 +1,203 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import lombok.extern.java.Log;
+
+/**
+ * Records are created with their canonical constructor whose arguments are the instance fields in declaration
+ * order, so unlike {@link ObjectType} we don't need to match constructors or setters. The components are read with a
+ * single request and captured in the same map format as objects.
+ */
+@Log
+public class RecordType extends BaseType {
+    public static final String RECORD_CLASS = "java.lang.Record";
+
+    private final List<Field> fields;
+    private final String[] componentNames;
+    private final BaseType[] componentTypes;
+
+    private RecordType(String type, List<Field> fields, String[] componentNames, BaseType[] componentTypes) {
+        super(type);
+        this.fields = fields;
+        this.componentNames = componentNames;
+        this.componentTypes = componentTypes;
+    }
+
+    /**
+     * Creates the record type, if a component type isn't loaded yet we fall back to object introspection
+     */
+    public static BaseType create(ClassType classType, TypeCache typeCache) {
+        List<Field> fields = classType.fields().stream()
+                .filter(field -> !field.isStatic())
+                .collect(Collectors.toList());
+        BaseType[] componentTypes = new BaseType[fields.size()];
+        try {
+            for(int iter = 0 ; iter < componentTypes.length ; iter++) {
+                componentTypes[iter] = TypeFactory.create(typeCache, fields.get(iter).type());
+            }
+        } catch (ClassNotLoadedException e) {
+            log.log(Level.FINE, "Record component type isn't loaded yet: " + classType.name(), e);
+            return ObjectType.create(classType, typeCache);
+        }
+        String[] componentNames = fields.stream().map(Field::name).toArray(String[]::new);
+        return new RecordType(classType.name(), fields, componentNames, componentTypes);
+    }
+
+    /**
+     * Rebuilds a record type that was written to a recording, the type can generate code but can't capture values
+     *
+     * @param componentTypes the types of the components, the array can be filled after this call to restore records
+     *                       that refer to themselves
+     */
+    public static RecordType restore(String type, String[] componentNames, BaseType[] componentTypes) {
+        return new RecordType(type, null, componentNames, componentTypes);
+    }
+
+    public int getComponentCount() {
+        return componentNames.length;
+    }
+
+    public String getComponentName(int index) {
+        return componentNames[index];
+    }
+
+    public BaseType getComponentType(int index) {
+        return componentTypes[index];
+    }
+
+    @Override
+    public Object getValue(Value value) {
+        return getValue(value, new CaptureContext());
+    }
+
+    @Override
+    public Object getValue(Value value, CaptureContext context) {
+        if(value == null) {
+            return null;
+        }
+        ObjectReference objectReference = (ObjectReference) value;
+        long id = objectReference.uniqueID();
+        if(context.isCaptured(id)) {
+            return new BackReference(id);
+        }
+        Map<String, Object> components = new HashMap<>();
+        components.put(ObjectType.CLASS_KEY, getType());
+        components.put(ObjectType.ID_KEY, id);
+        if(!context.canExpand()) {
+            components.put(ObjectType.TRUNCATED_KEY, Boolean.TRUE);
+            return components;
+        }
+        context.enterObject(id, components);
+        try {
+            Map<Field, Value> values = objectReference.getValues(fields);
+            for(int iter = 0 ; iter < componentTypes.length ; iter++) {
+                Field field = fields.get(iter);
+                components.put(field.name(), context.capture(componentTypes[iter], values.get(field)));
+            }
+        } finally {
+            context.exitObject();
+        }
+        return components;
+    }
+
+    @Override
+    public Object allocateArray(int size) {
+        return new Object[size];
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        return getCodeRepresentation(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return "null";
+        }
+        if(fieldValue instanceof BackReference) {
+            String declaredName = context.getDeclaredName(((BackReference) fieldValue).getId());
+            if(declaredName != null) {
+                return declaredName;
+            }
+        }
+        return fieldName;
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue) {
+        return getCodePrefix(fieldName, fieldValue, new CodeGenerationContext());
+    }
+
+    @Override
+    public List<String> getCodePrefix(String fieldName, Object fieldValue, CodeGenerationContext context) {
+        if(fieldValue == null) {
+            return null;
+        }
+        String typeName = getType().replace('$', '.');
+        if(fieldValue instanceof BackReference) {
+            if(context.getDeclaredName(((BackReference) fieldValue).getId()) != null) {
+                return Collections.emptyList();
+            }
+            return List.of(typeName + " " + fieldName + ObjectType.MOCKITO_MOCK + typeName +
+                    ObjectType.DOT_CLASS_SUFFIX);
+        }
+        Map<?, ?> components = (Map<?, ?>) fieldValue;
+        if(components.containsKey(ObjectType.TRUNCATED_KEY)) {
+            return List.of(typeName + " " + fieldName + ObjectType.MOCKITO_MOCK + typeName +
+                    ObjectType.DOT_CLASS_SUFFIX);
+        }
+        context.declare((Long) components.get(ObjectType.ID_KEY), fieldName);
+        List<String> result = new ArrayList<>();
+        StringBuilder constructor = new StringBuilder(typeName).append(' ').append(fieldName)
+                .append(" = new ").append(typeName).append('(');
+        for(int iter = 0 ; iter < componentTypes.length ; iter++) {
+            String component = componentNames[iter];
+            Object value = components.get(component);
+            if(value == null) {
+                constructor.append("null");
+            } else {
+                String componentName = context.uniqueName(fieldName + Character.toUpperCase(component.charAt(0)) +
+                        component.substring(1));
+                List<String> prefix = componentTypes[iter].getCodePrefix(componentName, value, context);
+                if(prefix != null) {
+                    result.addAll(prefix);
+                }
+                constructor.append(componentTypes[iter].getCodeRepresentation(componentName, value, context));
+            }
+            if(iter < componentTypes.length - 1) {
+                constructor.append(", ");
+            }
+        }
+        result.add(constructor.append(");").toString());
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.StringReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Session wide pool for captured strings. Strings are immutable so a string object in the monitored VM always has
+ * the same value, we cache the value by its unique id and skip the JDWP call when the same object is passed again.
+ * Equal strings that come from different objects share a single canonical instance so repeated values don't take
+ * additional heap. Both maps are bounded and evict the least recently used entries. A string that's longer than the
+ * maximum length is captured as a {@link TruncatedString} so the generated code doesn't pass it off as the real value.
+ */
+public class StringPool {
+    public static final int DEFAULT_MAX_STRING_LENGTH = 4096;
+    public static final int DEFAULT_MAX_ENTRIES = 16384;
+
+    private final int maxStringLength;
+    private final Map<Long, Object> valuesById;
+    private final Map<Object, Object> canonicalValues;
+    private long hits;
+    private long misses;
+    private long truncations;
+
+    public StringPool() {
+        this(DEFAULT_MAX_STRING_LENGTH, DEFAULT_MAX_ENTRIES);
+    }
+
+    public StringPool(int maxStringLength, int maxEntries) {
+        this.maxStringLength = maxStringLength;
+        valuesById = createLruMap(maxEntries);
+        canonicalValues = createLruMap(maxEntries);
+    }
+
+    private static <K> Map<K, Object> createLruMap(int maxEntries) {
+        return new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Object> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value of the string reference, a string longer than the maximum length is returned as a
+     * {@link TruncatedString}
+     */
+    public synchronized Object intern(StringReference reference) {
+        long id = reference.uniqueID();
+        Object value = valuesById.get(id);
+        if(value != null) {
+            hits++;
+            return value;
+        }
+        misses++;
+        String string = reference.value();
+        value = string;
+        if(string.length() > maxStringLength) {
+            value = new TruncatedString(string.substring(0, maxStringLength), string.length());
+            truncations++;
+        }
+        Object canonical = canonicalValues.putIfAbsent(value, value);
+        if(canonical != null) {
+            value = canonical;
+        }
+        valuesById.put(id, value);
+        return value;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getTruncations() {
+        return truncations;
+    }
+}
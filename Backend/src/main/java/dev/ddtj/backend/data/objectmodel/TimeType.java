@@ -0,0 +1,113 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.Value;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The common {@code java.time} values. We read their numeric fields with a single request, rebuild the value locally
+ * and generate a {@code parse()} call with the ISO representation of the value.
+ */
+public class TimeType extends BaseType {
+    public static final TimeType INSTANT = new TimeType(Instant.class.getName(),
+            v -> Instant.ofEpochSecond(v[0], v[1]), "seconds", "nanos");
+
+    public static final TimeType DURATION = new TimeType(Duration.class.getName(),
+            v -> Duration.ofSeconds(v[0], v[1]), "seconds", "nanos");
+
+    public static final TimeType LOCAL_DATE = new TimeType(LocalDate.class.getName(),
+            v -> LocalDate.of((int) v[0], (int) v[1], (int) v[2]), "year", "month", "day");
+
+    public static final TimeType LOCAL_TIME = new TimeType(LocalTime.class.getName(),
+            v -> LocalTime.of((int) v[0], (int) v[1], (int) v[2], (int) v[3]), "hour", "minute", "second", "nano");
+
+    public static final TimeType LOCAL_DATE_TIME = new TimeType(LocalDateTime.class.getName(), null,
+            "date", "time") {
+        @Override
+        public Object getValue(Value value) {
+            if(value == null) {
+                return null;
+            }
+            List<Value> parts = readFields((ObjectReference) value);
+            return LocalDateTime.of((LocalDate) LOCAL_DATE.getValue(parts.get(0)),
+                    (LocalTime) LOCAL_TIME.getValue(parts.get(1)));
+        }
+    };
+
+    private final Function<long[], Object> factory;
+    private final String[] fieldNames;
+
+    private TimeType(String type, Function<long[], Object> factory, String... fieldNames) {
+        super(type);
+        this.factory = factory;
+        this.fieldNames = fieldNames;
+    }
+
+    List<Value> readFields(ObjectReference object) {
+        ReferenceType referenceType = object.referenceType();
+        List<Field> fields = new ArrayList<>(fieldNames.length);
+        for(String fieldName : fieldNames) {
+            fields.add(referenceType.fieldByName(fieldName));
+        }
+        Map<Field, Value> values = object.getValues(fields);
+        List<Value> result = new ArrayList<>(fields.size());
+        for(Field field : fields) {
+            result.add(values.get(field));
+        }
+        return result;
+    }
+
+    @Override
+    public Object getValue(Value value) {
+        if(value == null) {
+            return null;
+        }
+        List<Value> values = readFields((ObjectReference) value);
+        long[] numbers = new long[values.size()];
+        for(int iter = 0 ; iter < numbers.length ; iter++) {
+            numbers[iter] = ((PrimitiveValue) values.get(iter)).longValue();
+        }
+        return factory.apply(numbers);
+    }
+
+    @Override
+    public Object allocateArray(int size) {
+        return new Object[size];
+    }
+
+    @Override
+    public String getCodeRepresentation(String fieldName, Object fieldValue) {
+        if(fieldValue == null) {
+            return "null";
+        }
+        return getType() + ".parse(\"" + fieldValue + "\")";
+    }
+}
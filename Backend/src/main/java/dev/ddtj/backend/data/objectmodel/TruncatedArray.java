@@ -0,0 +1,57 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import java.lang.reflect.Array;
+
+/**
+ * An array that was only partially captured because it exceeded the element cap or the byte budget of the
+ * invocation. The captured elements are the prefix of the original array.
+ */
+public final class TruncatedArray {
+    private final Object elements;
+    private final int length;
+
+    public TruncatedArray(Object elements, int length) {
+        this.elements = elements;
+        this.length = length;
+    }
+
+    /**
+     * The captured prefix of the array, this is a primitive array for primitive element types
+     */
+    public Object getElements() {
+        return elements;
+    }
+
+    public int getCapturedLength() {
+        return Array.getLength(elements);
+    }
+
+    /**
+     * The length of the array in the monitored VM
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "TruncatedArray{" + getCapturedLength() + " of " + length + "}";
+    }
+}
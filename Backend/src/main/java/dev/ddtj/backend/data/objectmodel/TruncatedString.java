@@ -0,0 +1,68 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+/**
+ * A string that was only partially captured because it exceeded the maximum string length. The captured characters
+ * are the prefix of the original string.
+ */
+public final class TruncatedString {
+    private final String value;
+    private final int length;
+
+    public TruncatedString(String value, int length) {
+        this.value = value;
+        this.length = length;
+    }
+
+    /**
+     * The captured prefix of the string
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * The length of the string in the monitored VM
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(this == other) {
+            return true;
+        }
+        if(!(other instanceof TruncatedString)) {
+            return false;
+        }
+        TruncatedString truncatedString = (TruncatedString) other;
+        return length == truncatedString.length && value.equals(truncatedString.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode() * 31 + length;
+    }
+
+    @Override
+    public String toString() {
+        return "TruncatedString{" + value.length() + " of " + length + "}";
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.Type;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The types created for a single monitored VM. Types are keyed by their JDI mirror so the cache must not outlive the
+ * session. A type that refers back to itself while it's being created, e.g. a linked list node, gets a
+ * {@link DeferredType} that points at the finished type once creation completes.
+ */
+public class TypeCache {
+    private final Map<Type, BaseType> types = new ConcurrentHashMap<>();
+
+    /**
+     * The cached mirrors by the name of their class, the mirrors of arrays are under the name of their element class.
+     * Classes are looked up and invalidated by name when they're prepared or unloaded.
+     */
+    private final Map<String, Set<Type>> classTypes = new ConcurrentHashMap<>();
+
+    /**
+     * The types the current thread is creating, we can't use computeIfAbsent since creating a type recursively
+     * creates the types of its fields
+     */
+    private final ThreadLocal<Creation> creation = new ThreadLocal<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final TypeMetadataStore metadataStore;
+
+    public TypeCache() {
+        this(null);
+    }
+
+    /**
+     * @param metadataStore the analysis results of previous runs or null to analyze every class
+     */
+    public TypeCache(TypeMetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    public TypeMetadataStore getMetadataStore() {
+        return metadataStore;
+    }
+
+    public BaseType get(Type type) {
+        BaseType result = types.get(type);
+        if(result != null) {
+            hits.increment();
+            return result;
+        }
+        Creation group = creation.get();
+        boolean outermost = group == null;
+        if(outermost) {
+            group = new Creation();
+            creation.set(group);
+        } else {
+            result = group.created.get(type);
+            if(result != null) {
+                return result;
+            }
+            DeferredType deferred = group.pending.get(type);
+            if(deferred != null) {
+                return deferred;
+            }
+        }
+        misses.increment();
+        DeferredType deferred = new DeferredType(type.name());
+        group.pending.put(type, deferred);
+        boolean success = false;
+        try {
+            result = TypeFactory.createImpl(this, type);
+            success = true;
+        } finally {
+            group.pending.remove(type);
+            if(!success) {
+                group.failed = true;
+            }
+            if(outermost) {
+                creation.remove();
+            }
+        }
+        deferred.resolve(result);
+        group.created.put(type, result);
+        return outermost ? publish(group, type) : result;
+    }
+
+    /**
+     * Caches the types created under the outermost type once it's complete, until then a type might refer to the
+     * deferred type of a type that encloses it. If the creation of one of them failed none are cached, a cached type
+     * would otherwise point at a deferred type that's never resolved.
+     */
+    private BaseType publish(Creation group, Type outermost) {
+        BaseType result = group.created.get(outermost);
+        if(group.failed) {
+            return result;
+        }
+        for(Map.Entry<Type, BaseType> entry : group.created.entrySet()) {
+            Type type = entry.getKey();
+
+            // another thread might have created the type concurrently, both types are equivalent so the first one wins
+            BaseType existing = types.putIfAbsent(type, entry.getValue());
+            if(existing == null) {
+                String name = type.name();
+                if(name != null) {
+                    classTypes.computeIfAbsent(className(name), key -> ConcurrentHashMap.newKeySet()).add(type);
+                }
+            } else if(type.equals(outermost)) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the types of a class that was unloaded or redefined including arrays of that class
+     */
+    public void invalidate(String className) {
+        Set<Type> removed = classTypes.remove(className);
+        if(removed != null) {
+            types.keySet().removeAll(removed);
+        }
+    }
+
+    public boolean contains(String className) {
+        Set<Type> cached = classTypes.get(className);
+        if(cached != null) {
+            for(Type type : cached) {
+                if(type.name().equals(className)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String className(String typeName) {
+        int arrayStart = typeName.indexOf('[');
+        return arrayStart < 0 ? typeName : typeName.substring(0, arrayStart);
+    }
+
+    /**
+     * Releases all the JDI mirrors once the monitored VM is gone
+     */
+    public void clear() {
+        types.clear();
+        classTypes.clear();
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The types a thread creates under its outermost call to {@link #get(Type)}
+     */
+    private static class Creation {
+        private final Map<Type, DeferredType> pending = new HashMap<>();
+        private final Map<Type, BaseType> created = new LinkedHashMap<>();
+        private boolean failed;
+    }
+}
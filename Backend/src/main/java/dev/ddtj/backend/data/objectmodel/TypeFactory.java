@@ -19,37 +19,60 @@ package dev.ddtj.backend.data.objectmodel;
 
 import com.sun.jdi.ArrayType;
 import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.ClassType;
 import com.sun.jdi.PrimitiveType;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.Type;
 import com.sun.jdi.Value;
 import com.sun.jdi.VoidType;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import lombok.extern.java.Log;
 
 @Log
 public class TypeFactory {
-    private static final Map<Type, BaseType> cache = new HashMap<>();
+    private static final BaseType[] BUILTIN_TYPES = {
+            PrimitiveAndWrapperType.VOID, PrimitiveAndWrapperType.BOOLEAN, PrimitiveAndWrapperType.BOOLEAN_WRAPPER,
+            PrimitiveAndWrapperType.BYTE, PrimitiveAndWrapperType.BYTE_WRAPPER, PrimitiveAndWrapperType.CHARACTER,
+            PrimitiveAndWrapperType.CHARACTER_WRAPPER, PrimitiveAndWrapperType.SHORT,
+            PrimitiveAndWrapperType.SHORT_WRAPPER, PrimitiveAndWrapperType.INTEGER,
+            PrimitiveAndWrapperType.INTEGER_WRAPPER, PrimitiveAndWrapperType.LONG, PrimitiveAndWrapperType.LONG_WRAPPER,
+            PrimitiveAndWrapperType.FLOAT, PrimitiveAndWrapperType.FLOAT_WRAPPER, PrimitiveAndWrapperType.DOUBLE,
+            PrimitiveAndWrapperType.DOUBLE_WRAPPER, BuiltinTypes.STRING, TimeType.INSTANT, TimeType.DURATION,
+            TimeType.LOCAL_DATE, TimeType.LOCAL_TIME, TimeType.LOCAL_DATE_TIME
+    };
+
+    private TypeFactory() {}
+
+    /**
+     * Returns the shared instance of a primitive, wrapper, string or time type by the name returned from
+     * {@link BaseType#getType()}, these types are singletons. Returns null for any other type.
+     */
+    public static BaseType builtin(String typeName) {
+        for(BaseType type : BUILTIN_TYPES) {
+            if(type.getType().equals(typeName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
     public static BaseType create(Value value) {
         return create(value.type());
     }
 
-    private TypeFactory() {}
-
+    /**
+     * Creates the type with a cache that's discarded right away, within a session types should be created through
+     * the session {@link TypeCache}
+     */
     public static BaseType create(Type t) {
-        // Can't use computeIfAbsent because of recursive modification. When adding a new object the internal properties
-        // might change the map and computeIfAbsent will fail on that.
-        BaseType baseType = cache.get(t);
-        if(baseType == null) {
-            baseType = createImpl(t);
-            cache.put(t, baseType);
-        }
-        return baseType;
+        return create(new TypeCache(), t);
+    }
+
+    public static BaseType create(TypeCache typeCache, Type t) {
+        return typeCache.get(t);
     }
 
-    private static BaseType createImpl(Type t) {
+    static BaseType createImpl(TypeCache typeCache, Type t) {
         if(t instanceof VoidType) {
             return PrimitiveAndWrapperType.VOID;
         }
@@ -78,7 +101,7 @@ public class TypeFactory {
         }
         if(t instanceof ArrayType) {
             try {
-                return new ArrayObjectOrPrimitiveType(t.name(), create(((ArrayType) t).componentType()));
+                return new ArrayObjectOrPrimitiveType(t.name(), create(typeCache, ((ArrayType) t).componentType()));
             } catch (ClassNotLoadedException e) {
                 log.log(java.util.logging.Level.SEVERE, "Could not create array type: " +
                         ((ArrayType) t).componentTypeName(), e);
@@ -117,32 +140,74 @@ public class TypeFactory {
             case "java.lang.Double":
                 return PrimitiveAndWrapperType.DOUBLE_WRAPPER;
 
-            // We want to override all of these for future use in the code generation phase
-            case "java.lang.StringBuffer":
-            case "java.lang.StringBuilder":
-            case "java.lang.CharSequence":
-            case "java.util.TimeZone":
-            case "java.util.Date":
-            case "java.util.Calendar":
-            case "javax.time.LocalDate":
-            case "javax.time.Instant":
             case "java.util.Collection":
             case "java.util.List":
             case "java.util.Map":
             case "java.util.SortedMap":
+            case "java.util.NavigableMap":
             case "java.util.SortedSet":
+            case "java.util.NavigableSet":
             case "java.util.Set":
             case "java.util.Vector":
             case "java.util.ArrayList":
+            case "java.util.LinkedList":
+            case "java.util.HashMap":
+            case "java.util.LinkedHashMap":
+            case "java.util.TreeMap":
+            case "java.util.HashSet":
+            case "java.util.LinkedHashSet":
+            case "java.util.TreeSet":
+                return new CollectionType(rt.name());
+
+            case "java.time.Instant":
+                return TimeType.INSTANT;
+
+            case "java.time.Duration":
+                return TimeType.DURATION;
+
+            case "java.time.LocalDate":
+                return TimeType.LOCAL_DATE;
+
+            case "java.time.LocalTime":
+                return TimeType.LOCAL_TIME;
+
+            case "java.time.LocalDateTime":
+                return TimeType.LOCAL_DATE_TIME;
+
+            // We want to override all of these for future use in the code generation phase
+            case "java.lang.StringBuffer":
+            case "java.lang.StringBuilder":
+            case "java.lang.CharSequence":
+            case "java.util.TimeZone":
+            case "java.util.Date":
+            case "java.util.Calendar":
             default:
-                return ObjectType.create(rt);
+                // implementations of the collection interfaces are usually package private classes in java.util
+                if(rt.name().startsWith("java.util.") && CollectionType.hasKnownLayout(rt)) {
+                    return new CollectionType(rt.name());
+                }
+                if(rt instanceof ClassType) {
+                    ClassType classType = (ClassType) rt;
+                    if(classType.isEnum()) {
+                        return new EnumType(rt.name());
+                    }
+                    ClassType superclass = classType.superclass();
+                    if(superclass != null && RecordType.RECORD_CLASS.equals(superclass.name())) {
+                        return RecordType.create(classType, typeCache);
+                    }
+                }
+                return ObjectType.create(rt, typeCache);
         }
     }
 
     public static BaseType[] create(List<Type> types) {
+        return create(new TypeCache(), types);
+    }
+
+    public static BaseType[] create(TypeCache typeCache, List<Type> types) {
         BaseType[] fieldBaseTypes = new BaseType[types.size()];
         for(int i = 0; i < types.size(); i++) {
-            fieldBaseTypes[i] = create(types.get(i));
+            fieldBaseTypes[i] = create(typeCache, types.get(i));
         }
         return fieldBaseTypes;
     }
@@ -0,0 +1,71 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+/**
+ * The result of analyzing a class as an {@link ObjectType}. This is everything we need to rebuild the type from the
+ * JDI mirror without matching constructors and setters again.
+ */
+public class TypeMetadata {
+    private final String className;
+    private final String hash;
+    private final ObjectType.CreationType creationType;
+    private final String[] supportedFields;
+    private final String[] setterMethods;
+    private final String constructorSignature;
+
+    public TypeMetadata(String className, String hash, ObjectType.CreationType creationType, String[] supportedFields,
+                        String[] setterMethods, String constructorSignature) {
+        this.className = className;
+        this.hash = hash;
+        this.creationType = creationType;
+        this.supportedFields = supportedFields;
+        this.setterMethods = setterMethods;
+        this.constructorSignature = constructorSignature;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Identifies the version of the class, see {@link TypeMetadataStore#hash(com.sun.jdi.ReferenceType)}
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public ObjectType.CreationType getCreationType() {
+        return creationType;
+    }
+
+    public String[] getSupportedFields() {
+        return supportedFields;
+    }
+
+    public String[] getSetterMethods() {
+        return setterMethods;
+    }
+
+    /**
+     * The JNI signature of the constructor for {@link ObjectType.CreationType#CONSTRUCTOR_FACTORY} types
+     */
+    public String getConstructorSignature() {
+        return constructorSignature;
+    }
+}
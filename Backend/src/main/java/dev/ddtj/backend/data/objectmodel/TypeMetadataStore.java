@@ -0,0 +1,211 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.Method;
+import com.sun.jdi.ReferenceType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Keeps the analysis of classes between runs of the backend. Entries are keyed by class name and are only used when
+ * the hash of the class in the monitored VM matches the hash we stored, so a recompiled class is analyzed again.
+ */
+@Log
+public class TypeMetadataStore {
+    private static final int MAGIC = 0x64647431;
+    private static final int VERSION = 2;
+    private static final String JAVA_LANG_OBJECT = "java.lang.Object";
+
+    private final Path file;
+    private final Map<String, TypeMetadata> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+    public TypeMetadataStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the store from the file, a missing or unreadable file results in an empty store
+     */
+    public static TypeMetadataStore load(Path file) {
+        TypeMetadataStore store = new TypeMetadataStore(file);
+        if(Files.isReadable(file)) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                store.read(input);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Ignoring unreadable type metadata file " + file, e);
+                store.entries.clear();
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns the metadata of the class if we analyzed the same version of the class before
+     */
+    public TypeMetadata find(String className, String hash) {
+        TypeMetadata metadata = entries.get(className);
+        if(metadata != null && metadata.getHash().equals(hash)) {
+            return metadata;
+        }
+        return null;
+    }
+
+    public void put(TypeMetadata metadata) {
+        entries.put(metadata.getClassName(), metadata);
+        modified = true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the store if it changed, the file is replaced atomically so a crash can't leave a partial file
+     */
+    public void save() {
+        if(!modified) {
+            return;
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "types", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                write(output);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            modified = false;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to write type metadata file " + file, e);
+        }
+    }
+
+    private void read(DataInputStream input) throws IOException {
+        if(input.readInt() != MAGIC || input.readInt() != VERSION) {
+            log.info("Type metadata file " + file + " has an unsupported format and will be replaced");
+            return;
+        }
+        int count = input.readInt();
+        ObjectType.CreationType[] creationTypes = ObjectType.CreationType.values();
+        for(int iter = 0 ; iter < count ; iter++) {
+            String className = input.readUTF();
+            String hash = input.readUTF();
+            ObjectType.CreationType creationType = creationTypes[input.readByte()];
+            String[] supportedFields = readArray(input);
+            String[] setterMethods = readArray(input);
+            String constructorSignature = input.readBoolean() ? input.readUTF() : null;
+            entries.put(className, new TypeMetadata(className, hash, creationType, supportedFields, setterMethods,
+                    constructorSignature));
+        }
+    }
+
+    private void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(entries.size());
+        for(TypeMetadata metadata : entries.values()) {
+            output.writeUTF(metadata.getClassName());
+            output.writeUTF(metadata.getHash());
+            output.writeByte(metadata.getCreationType().ordinal());
+            writeArray(output, metadata.getSupportedFields());
+            writeArray(output, metadata.getSetterMethods());
+            output.writeBoolean(metadata.getConstructorSignature() != null);
+            if(metadata.getConstructorSignature() != null) {
+                output.writeUTF(metadata.getConstructorSignature());
+            }
+        }
+    }
+
+    private static String[] readArray(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if(length < 0) {
+            return null;
+        }
+        String[] result = new String[length];
+        for(int iter = 0 ; iter < length ; iter++) {
+            result[iter] = input.readUTF();
+        }
+        return result;
+    }
+
+    private static void writeArray(DataOutputStream output, String[] array) throws IOException {
+        if(array == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(array.length);
+        for(String value : array) {
+            output.writeUTF(value);
+        }
+    }
+
+    /**
+     * Hashes the members of the class that affect the analysis and the names of its super classes. This runs for every
+     * type we create so it only reads what the analysis reads anyway, the constant pool and the members of the super
+     * classes would have to be fetched from the VM. A super class whose fields change while its name stays the same
+     * isn't detected, which is an acceptable trade for the cost.
+     */
+    public static String hash(ReferenceType referenceType) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, referenceType.name(), referenceType.modifiers());
+        for(Field field : referenceType.fields()) {
+            update(digest, field.name() + field.signature(), field.modifiers());
+        }
+        for(Method method : referenceType.methods()) {
+            update(digest, method.name() + method.signature(), method.modifiers());
+        }
+        ClassType current = referenceType instanceof ClassType ? ((ClassType) referenceType).superclass() : null;
+        while (current != null && !JAVA_LANG_OBJECT.equals(current.name())) {
+            update(digest, current.name(), current.modifiers());
+            current = current.superclass();
+        }
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void update(MessageDigest digest, String value, int modifiers) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(modifiers).array());
+    }
+}
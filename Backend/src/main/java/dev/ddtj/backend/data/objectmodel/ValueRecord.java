@@ -0,0 +1,161 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.data.objectmodel;
+
+import com.sun.jdi.PrimitiveValue;
+import com.sun.jdi.Value;
+
+/**
+ * A captured list of values such as the arguments of an invocation or the fields of an object. Primitive values are
+ * stored unboxed in a {@code long} array according to the shared {@link RecordLayout}, they're only boxed when the
+ * record is read as objects e.g. during code generation.
+ */
+public final class ValueRecord {
+    private static final long[] NO_PRIMITIVES = new long[0];
+    private static final Object[] NO_REFERENCES = new Object[0];
+
+    public static final ValueRecord EMPTY = new ValueRecord(RecordLayout.EMPTY);
+
+    /**
+     * Returned for slots that were deliberately skipped, e.g. fields the invoked method doesn't read
+     */
+    public static final Object NOT_CAPTURED = new Object() {
+        @Override
+        public String toString() {
+            return "NOT_CAPTURED";
+        }
+    };
+
+    private final RecordLayout layout;
+    private final long[] primitives;
+    private final Object[] references;
+
+    /**
+     * The slots that were captured or null if all of them were, the mask is shared and must not be modified
+     */
+    private final boolean[] capturedSlots;
+
+    public ValueRecord(RecordLayout layout) {
+        this(layout, null);
+    }
+
+    public ValueRecord(RecordLayout layout, boolean[] capturedSlots) {
+        this(layout, layout.getPrimitiveCount() == 0 ? NO_PRIMITIVES : new long[layout.getPrimitiveCount()],
+                layout.getReferenceCount() == 0 ? NO_REFERENCES : new Object[layout.getReferenceCount()],
+                capturedSlots);
+    }
+
+    private ValueRecord(RecordLayout layout, long[] primitives, Object[] references, boolean[] capturedSlots) {
+        this.layout = layout;
+        this.primitives = primitives;
+        this.references = references;
+        this.capturedSlots = capturedSlots;
+    }
+
+    /**
+     * Wraps values that are already boxed, the array is used as is
+     */
+    public static ValueRecord of(Object[] values) {
+        if(values == null) {
+            return null;
+        }
+        if(values.length == 0) {
+            return EMPTY;
+        }
+        return new ValueRecord(RecordLayout.references(values.length), NO_PRIMITIVES, values, null);
+    }
+
+    public RecordLayout getLayout() {
+        return layout;
+    }
+
+    public int size() {
+        return layout.size();
+    }
+
+    public boolean isCaptured(int slot) {
+        return capturedSlots == null || capturedSlots[slot];
+    }
+
+    /**
+     * Returns the value of the slot or {@link #NOT_CAPTURED} if the slot was skipped
+     */
+    public Object get(int slot) {
+        if(!isCaptured(slot)) {
+            return NOT_CAPTURED;
+        }
+        byte kind = layout.getKind(slot);
+        if(kind == RecordLayout.REFERENCE) {
+            return references[layout.getIndex(slot)];
+        }
+        return RecordLayout.box(kind, primitives[layout.getIndex(slot)]);
+    }
+
+    public void set(int slot, Object value) {
+        byte kind = layout.getKind(slot);
+        if(kind == RecordLayout.REFERENCE) {
+            references[layout.getIndex(slot)] = value;
+        } else if(value != null) {
+            primitives[layout.getIndex(slot)] = RecordLayout.toBits(kind, value);
+        }
+    }
+
+    /**
+     * The raw bits of a primitive slot in the encoding of {@link RecordLayout#toBits(byte, PrimitiveValue)}
+     */
+    public long getBits(int slot) {
+        return primitives[layout.getIndex(slot)];
+    }
+
+    public void setBits(int slot, long bits) {
+        primitives[layout.getIndex(slot)] = bits;
+    }
+
+    void setPrimitive(int slot, PrimitiveValue value) {
+        primitives[layout.getIndex(slot)] = RecordLayout.toBits(layout.getKind(slot), value);
+    }
+
+    void setReference(int slot, Object value) {
+        references[layout.getIndex(slot)] = value;
+    }
+
+    /**
+     * Captures the value into the slot, primitives are decoded directly into the primitive array
+     */
+    public void capture(int slot, BaseType type, Value value, CaptureContext context) {
+        if(value == null) {
+            return;
+        }
+        if(layout.getKind(slot) == RecordLayout.REFERENCE) {
+            references[layout.getIndex(slot)] = context.capture(type, value);
+        } else {
+            setPrimitive(slot, (PrimitiveValue) value);
+        }
+    }
+
+    /**
+     * Boxes the record into an array in slot order
+     */
+    public Object[] toArray() {
+        Object[] result = new Object[layout.size()];
+        for(int iter = 0 ; iter < result.length ; iter++) {
+            result[iter] = get(iter);
+        }
+        return result;
+    }
+}
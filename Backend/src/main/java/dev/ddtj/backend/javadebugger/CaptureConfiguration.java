@@ -0,0 +1,172 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.javadebugger;
+
+import dev.ddtj.backend.data.RetentionPolicy;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.StringPool;
+import dev.ddtj.backend.storage.OffHeapInvocationStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits and options for capturing values from the monitored VM, these can be set in the application properties
+ * with the {@code ddtj.capture} prefix.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "ddtj.capture")
+public class CaptureConfiguration {
+    /**
+     * How deep we follow object references from an argument, field or return value
+     */
+    private int maxDepth = CaptureContext.DEFAULT_MAX_DEPTH;
+
+    /**
+     * The maximum number of objects read for a single event
+     */
+    private int maxNodes = CaptureContext.DEFAULT_MAX_NODES;
+
+    /**
+     * The maximum number of elements captured for a single array, longer arrays are truncated
+     */
+    private int maxArrayElements = CaptureContext.DEFAULT_MAX_ARRAY_ELEMENTS;
+
+    /**
+     * The approximate number of bytes of array data captured for a single invocation
+     */
+    private long maxBytes = CaptureContext.DEFAULT_MAX_BYTES;
+
+    /**
+     * Captured strings longer than this are truncated
+     */
+    private int maxStringLength = StringPool.DEFAULT_MAX_STRING_LENGTH;
+
+    /**
+     * The number of distinct strings the session string pool remembers
+     */
+    private int stringPoolSize = StringPool.DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Classes whose static fields are captured with every invocation of their methods. Patterns can start or end with
+     * a star e.g. {@code com.mycompany.config.*}
+     */
+    private List<String> staticClasses = new ArrayList<>();
+
+    /**
+     * When positive, captured static state older than this is read again even if no modification was detected
+     */
+    private long staticRefreshMillis;
+
+    /**
+     * The number of worker threads that build the types of newly loaded classes, zero disables the pre-analysis
+     */
+    private int analysisThreads = 2;
+
+    /**
+     * The file that keeps the analysis of classes between runs, e.g. {@code ${user.home}/.ddtj/type-metadata.bin}.
+     * Empty by default which disables it.
+     */
+    private String typeMetadataFile = "";
+
+    /**
+     * Capture only the fields of {@code this} that the invoked method reads according to its bytecode
+     */
+    private boolean minimalFieldCapture = true;
+
+    /**
+     * Classes that are only recorded as dependencies: arguments and return values without fields or stacks. Patterns
+     * can start or end with a star.
+     */
+    private List<String> dependencyClasses = new ArrayList<>();
+
+    /**
+     * When positive, a class that was only ever called from other classes this many times is recorded as a
+     * dependency from then on
+     */
+    private int autoDependencyThreshold;
+
+    /**
+     * Store the completed invocations outside of the Java heap, when disabled they're kept as objects
+     */
+    private boolean offHeapStorage = true;
+
+    /**
+     * When the invocations are kept as objects, they're moved to disk once the heap is this full after a garbage
+     * collection. Zero keeps them on the heap.
+     */
+    private double spillHeapThreshold = 0.8;
+
+    /**
+     * Where invocations that were moved off the heap are kept, the files are deleted with the session
+     */
+    private String spillDirectory = System.getProperty("java.io.tmpdir") + "/ddtj-spill";
+
+    /**
+     * The size of the buffers that hold the encoded values of the invocations in the off heap store
+     */
+    private int storageSegmentBytes = OffHeapInvocationStore.DEFAULT_VALUE_SEGMENT_BYTES;
+
+    /**
+     * The directory where sessions are recorded so they can be opened again after a restart, every session gets a
+     * directory of its own. Recordings aren't pruned so they're off unless a directory is configured, e.g.
+     * {@code ddtj.capture.recording-directory=${user.home}/.ddtj/recordings}. They also require the off heap storage.
+     */
+    private String recordingDirectory = "";
+
+    /**
+     * When positive, the number of invocations kept for every method, the {@link #retentionPolicy} decides which ones
+     */
+    private int maxInvocationsPerMethod;
+
+    /**
+     * Limits that override {@link #maxInvocationsPerMethod} for some classes or methods. A key is a class pattern that
+     * can start or end with a star, or a class pattern and a method name separated by a hash e.g.
+     * {@code ddtj.capture.retention-limits[com.mycompany.Util#format]=100}. Zero keeps all the invocations.
+     */
+    private Map<String, Integer> retentionLimits = new HashMap<>();
+
+    /**
+     * Which invocations of a method are kept once it reached its limit
+     */
+    private RetentionPolicy retentionPolicy = RetentionPolicy.KEEP_LATEST;
+
+    /**
+     * When positive, invocations are dropped once the stored invocations of the session take this many bytes. Only
+     * the off heap store and the spilled part of the heap store are measured.
+     */
+    private long maxSessionBytes;
+
+    /**
+     * When positive, only the invocations that are slower than this quantile of the durations of their method are
+     * kept, e.g. 0.95 keeps the slowest 5%. The durations of all the invocations are tracked per method, faster
+     * invocations are counted and dropped unless they were made by a slower invocation whose test needs them as mocks.
+     */
+    private double slowInvocationPercentile;
+
+    /**
+     * The number of faster invocations kept as mocks for a single running invocation in the slow invocation mode, the
+     * calls it makes past this number aren't collected but the invocation itself can still be kept
+     */
+    private int slowInvocationMaxChildren = 10_000;
+}
@@ -23,13 +23,24 @@ import com.sun.jdi.connect.Connector.Argument;
 import com.sun.jdi.connect.IllegalConnectorArgumentsException;
 import com.sun.jdi.connect.LaunchingConnector;
 import com.sun.jdi.connect.VMStartException;
+import com.sun.jdi.request.ClassPrepareRequest;
+import com.sun.jdi.request.ClassUnloadRequest;
 import com.sun.jdi.request.EventRequest;
 import com.sun.jdi.request.MethodEntryRequest;
 import com.sun.jdi.request.MethodExitRequest;
 import com.sun.jdi.request.VMDeathRequest;
 import dev.ddtj.backend.dto.VMDTO;
+import dev.ddtj.backend.storage.MappedInvocationStore;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.extern.java.Log;
 import org.springframework.stereotype.Component;
 
@@ -37,9 +48,11 @@ import org.springframework.stereotype.Component;
 @Log
 public class ConnectSession {
     private final DataCollector collector;
+    private final CaptureConfiguration configuration;
 
-    public ConnectSession(DataCollector collector) {
+    public ConnectSession(DataCollector collector, CaptureConfiguration configuration) {
         this.collector = collector;
+        this.configuration = configuration;
     }
 
     public MonitoredSession create(VMDTO vmdto) throws IOException {
@@ -66,7 +79,16 @@ public class ConnectSession {
             vmDeathRequest.setSuspendPolicy(EventRequest.SUSPEND_ALL);
             vmDeathRequest.enable();
 
-            MonitoredSession session = new MonitoredSession(vm, vmdto.getFilter());
+            // the session type cache drops types of classes that were unloaded or loaded again
+            ClassUnloadRequest classUnloadRequest = vm.eventRequestManager().createClassUnloadRequest();
+            classUnloadRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+            classUnloadRequest.enable();
+            ClassPrepareRequest classPrepareRequest = vm.eventRequestManager().createClassPrepareRequest();
+            classPrepareRequest.addClassFilter(vmdto.getFilter());
+            classPrepareRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+            classPrepareRequest.enable();
+
+            MonitoredSession session = new MonitoredSession(vm, vmdto.getFilter(), configuration);
             collector.collect(session);
             return session;
         } catch (IllegalConnectorArgumentsException | VMStartException e) {
@@ -75,6 +97,37 @@ public class ConnectSession {
         }
     }
 
+    /**
+     * Lists the directories of the recorded sessions, the newest recording is first
+     */
+    public List<Path> listRecordings() {
+        String recordingDirectory = configuration.getRecordingDirectory();
+        if(recordingDirectory == null || recordingDirectory.isBlank() ||
+                !Files.isDirectory(Path.of(recordingDirectory))) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> directories = Files.list(Path.of(recordingDirectory))) {
+            return directories.filter(MappedInvocationStore::isRecording)
+                    .sorted(Comparator.comparing(Path::getFileName).reversed())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to list the recordings in " + recordingDirectory, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Opens a recorded session by the name of its directory
+     */
+    public MonitoredSession reopen(String recordingId) throws IOException {
+        for(Path recording : listRecordings()) {
+            if(recording.getFileName().toString().equals(recordingId)) {
+                return MonitoredSession.reopen(recording, configuration);
+            }
+        }
+        throw new IOException("No such recording: " + recordingId);
+    }
+
     private void bindMethodEvents(String whitelistEntry, VirtualMachine vm) {
         MethodEntryRequest methodEntryRequest = vm.eventRequestManager().createMethodEntryRequest();
         methodEntryRequest.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
@@ -20,25 +20,32 @@ package dev.ddtj.backend.javadebugger;
 import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.Method;
 import com.sun.jdi.ObjectReference;
+import com.sun.jdi.PrimitiveValue;
 import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.Value;
+import com.sun.jdi.event.ClassPrepareEvent;
+import com.sun.jdi.event.ClassUnloadEvent;
 import com.sun.jdi.event.Event;
 import com.sun.jdi.event.EventSet;
 import com.sun.jdi.event.MethodEntryEvent;
 import com.sun.jdi.event.MethodExitEvent;
+import com.sun.jdi.event.ModificationWatchpointEvent;
 import com.sun.jdi.event.VMDeathEvent;
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.CaptureProfile;
 import dev.ddtj.backend.data.ExecutionState;
 import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
 import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
 import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
-import java.nio.ByteBuffer;
-import java.nio.LongBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
 import java.util.List;
-import java.util.UUID;
 import java.util.logging.Level;
 import lombok.extern.java.Log;
 import org.springframework.scheduling.annotation.Async;
@@ -47,52 +54,41 @@ import org.springframework.stereotype.Component;
 @Component
 @Log
 public class DataCollector {
-    private String shortUUID() {
-        // Based on code from https://stackoverflow.com/a/21103563/756809
-        UUID uuid = UUID.randomUUID();
-        ByteBuffer uuidBuffer = ByteBuffer.allocate(16);
-        LongBuffer longBuffer = uuidBuffer.asLongBuffer();
-        longBuffer.put(uuid.getMostSignificantBits());
-        longBuffer.put(uuid.getLeastSignificantBits());
-        String encoded = new String(Base64.getEncoder().encode(uuidBuffer.array()),
-                StandardCharsets.US_ASCII);
-        encoded = encoded.replace('+', '.')
-                .replace('/', '_')
-                .replace('=', '-');
-        return encoded;
-    }
-
     @Async
     public void collect(MonitoredSession session) {
         long startTime = System.currentTimeMillis();
         try {
-            long invocation = 1;
-            session.setSessionId(shortUUID());
+            session.setSessionId(InvocationId.encode(session.getSessionPrefix()));
             EventSet eventSet = session.getVirtualMachine().eventQueue().remove(100);
             boolean vmDeath = false;
             while (true) {
-                for (Event event : eventSet) {
-                    if (event instanceof VMDeathEvent) {
-                        vmDeath = true;
-                        continue;
+                if(eventSet != null) {
+                    for (Event event : eventSet) {
+                        if (event instanceof VMDeathEvent) {
+                            vmDeath = true;
+                            continue;
+                        }
+
+                        processEvent(session, event);
                     }
-
-                    processEvent(session, event, invocation);
-                    invocation++;
+                    // resumes according to the suspend policy of the set, resuming the whole VM would also resume
+                    // threads that are suspended for events we didn't handle yet
+                    eventSet.resume();
                 }
 
-                if(vmDeath) {
-                    eventSet = session.getVirtualMachine().eventQueue().remove(100);
-                    if ((eventSet == null || eventSet.isEmpty())) {
-                        session.getVirtualMachine().resume();
-                        break;
-                    }
-                } else {
-                    session.getVirtualMachine().resume();
-                    eventSet = session.getVirtualMachine().eventQueue().remove(100);
+                eventSet = session.getVirtualMachine().eventQueue().remove(100);
+                if(vmDeath && (eventSet == null || eventSet.isEmpty())) {
+                    break;
                 }
             }
-            log.fine("VM Loop Exiting after " + (System.currentTimeMillis() - startTime) + "ms");
+            log.fine("VM Loop Exiting after " + (System.currentTimeMillis() - startTime) + "ms, type cache hits: " +
+                    session.getTypeCache().getHits() + " misses: " + session.getTypeCache().getMisses() +
+                    ", classes analyzed in the background: " + session.getTypeAnalyzer().getAnalyzedClasses());
+            session.release();
+        } catch (VMDisconnectedException e) {
+            // the session was closed while the VM was still running
+            log.log(Level.FINE, "VM disconnected", e);
+            session.release();
         } catch (InterruptedException e) {
             log.log(Level.SEVERE,"Interrupted while waiting for event queue", e);
 
@@ -101,10 +97,25 @@ public class DataCollector {
         }
     }
 
-    public void processEvent(MonitoredSession session, Event event, long invocationCount) {
+    public void processEvent(MonitoredSession session, Event event) {
         try {
             if (event instanceof MethodEntryEvent) {
-                processMethodEntry(session, invocationCount, (MethodEntryEvent) event);
+                processMethodEntry(session, (MethodEntryEvent) event);
+            }
+
+            if (event instanceof ClassUnloadEvent) {
+                session.classUnloaded(((ClassUnloadEvent) event).className());
+                return;
+            }
+
+            if (event instanceof ClassPrepareEvent) {
+                session.classPrepared(((ClassPrepareEvent) event).referenceType());
+                return;
+            }
+
+            if (event instanceof ModificationWatchpointEvent) {
+                session.staticFieldModified(((ModificationWatchpointEvent) event).field().declaringType());
+                return;
             }
 
             if (event instanceof MethodExitEvent) {
@@ -115,28 +126,45 @@ public class DataCollector {
                 }
 
                 ExecutionState executionState = session.removeExecutionState(methodExitEvent);
+                if(executionState == null) {
+                    // the method was entered before we started monitoring
+                    return;
+                }
                 ParentMethod parentMethod = executionState.getParentMethod();
                 session.validateMethod(currentMethod, parentMethod);
                 Invocation invocation = executionState.getInvocation();
+                invocation.setEndNanos(System.nanoTime());
                 if (parentMethod.getReturnType() != PrimitiveAndWrapperType.VOID) {
-                    invocation.setResult(parentMethod.getReturnType().getValue(methodExitEvent.returnValue()));
+                    byte resultKind = RecordLayout.kindOf(parentMethod.getReturnType());
+                    if(resultKind != RecordLayout.REFERENCE) {
+                        invocation.setPrimitiveResult(resultKind, (PrimitiveValue) methodExitEvent.returnValue());
+                    } else {
+                        CaptureContext captureContext = session.eventCaptureContext(
+                                executionState.getRemainingCaptureBytes());
+                        invocation.setResult(captureContext.capture(parentMethod.getReturnType(),
+                                methodExitEvent.returnValue()));
+                    }
                 }
                 invocation.setEndTime(System.currentTimeMillis());
-                parentMethod.addInvocation(invocation);
-                session.addInvocation(invocation);
+                session.completeInvocation(parentMethod, executionState.getInvocationSlot(), invocation);
             }
         } catch (IncompatibleThreadStateException e) {
             log.log(Level.SEVERE,"Incompatible thread state", e);
+        } catch (VMDisconnectedException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // a single event we can't process mustn't end the collection, the VM would stay suspended
+            log.log(Level.WARNING, "Failed to process event " + event, e);
         }
     }
 
-    private boolean isExcludedMethod(MonitoredSession session, Method method) {
+    static boolean isExcludedMethod(MonitoredSession session, Method method) {
         return method.isConstructor() || method.isStaticInitializer() || method.isNative() || method.isPrivate() ||
                 method.isProtected() || method.isPackagePrivate() || !method.declaringType().isPublic() ||
                 session.isExcluded(method.declaringType().name());
     }
 
-    private void processMethodEntry(MonitoredSession session, long invocationCount, MethodEntryEvent methodEntryEvent) throws IncompatibleThreadStateException {
+    private void processMethodEntry(MonitoredSession session, MethodEntryEvent methodEntryEvent) throws IncompatibleThreadStateException {
         Method method = methodEntryEvent.method();
         if(isExcludedMethod(session, method)) {
             return;
@@ -147,42 +175,61 @@ public class DataCollector {
         Invocation invocation = new Invocation();
 
         ThreadReference threadReference = methodEntryEvent.thread();
-        ParentMethod[] stack = new ParentMethod[threadReference.frameCount()];
-        for (int i = 0; i < stack.length; i++) {
-            stack[i] = session.getOrCreateMethod(threadReference.frame(i).location().method());
+        ParentClass parentClass = parent.getParentClass();
+        // dependencies become mocks so their stack, fields and static state are never used
+        boolean dependency = parentClass.getCaptureProfile() == CaptureProfile.DEPENDENCY;
+        if(dependency) {
+            invocation.setCallPath(session.getCallPathRoot().child(parent));
+        } else {
+            CallPathNode callPath = session.getCallPathRoot();
+            Method caller = null;
+            for (int i = threadReference.frameCount() - 1; i >= 0; i--) {
+                Method frameMethod = threadReference.frame(i).location().method();
+                if(i == 1) {
+                    caller = frameMethod;
+                }
+                callPath = callPath.child(session.getOrCreateMethod(frameMethod));
+            }
+            invocation.setCallPath(callPath);
+            session.observeCaller(parentClass, caller);
         }
-
-        invocation.setStack(stack);
         invocation.setThreadId(threadReference.uniqueID());
 
         invocation.setTime(System.currentTimeMillis());
+        // objects reachable from several arguments and fields are captured once for the whole event
+        CaptureContext captureContext = session.eventCaptureContext(session.getConfiguration().getMaxBytes());
         List<Value> valueList = threadReference.frame(0).getArgumentValues();
-        Object[] arguments = convertArgumentsToArray(parent, valueList);
-        invocation.setArguments(arguments);
+        invocation.setArgumentRecord(captureArguments(parent, valueList, captureContext));
 
-        ObjectReference thisObject = threadReference.frame(0).thisObject();
-        ObjectType thisObjectType = parent.getParentClass().getObjectType();
-        if(thisObjectType.canObjectBeCreated()) {
-            invocation.setFields(thisObjectType.getFieldValues(thisObject));
+        ObjectType thisObjectType = parentClass.getObjectType();
+        if(!dependency && thisObjectType.canObjectBeCreated()) {
+            ObjectReference thisObject = threadReference.frame(0).thisObject();
+            invocation.setFieldRecord(thisObject == null ? ValueRecord.EMPTY :
+                    thisObjectType.captureFields(thisObject, captureContext, parent.getUsedFields()));
         } else {
-            invocation.setFields(Invocation.EMPTY_ARRAY);
+            invocation.setFieldRecord(ValueRecord.EMPTY);
+        }
+        if(!dependency) {
+            invocation.setStaticState(session.captureStaticState(method.declaringType()));
         }
 
-        invocation.setId(session.getSessionId() + invocationCount);
+        // the slot is reserved with the id so the log of the method stays in id order
+        invocation.setId(session.nextInvocationId());
+        long invocationSlot = parent.reserveInvocation();
 
-        ExecutionState executionState = new ExecutionState();
-        executionState.setInvocation(invocation);
+        ExecutionState executionState = session.pushExecutionState(methodEntryEvent, invocation);
         executionState.setParentMethod(parent);
         executionState.setClassName(method.declaringType().name());
-
-        session.queueExecutionState(methodEntryEvent, executionState);
+        executionState.setRemainingCaptureBytes(captureContext.getRemainingBytes());
+        executionState.setInvocationSlot(invocationSlot);
+        invocation.setStartNanos(System.nanoTime());
     }
 
-    private Object[] convertArgumentsToArray(ParentMethod parent, List<Value> valueList) {
+    private ValueRecord captureArguments(ParentMethod parent, List<Value> valueList, CaptureContext context) {
         BaseType[] parameters = parent.getParameters();
-        Object[] arguments = new Object[parameters.length];
+        ValueRecord arguments = new ValueRecord(parent.getParameterLayout());
         for(int iter = 0 ; iter < parameters.length ; iter++) {
-            arguments[iter] = parameters[iter].getValue(valueList.get(iter));
+            arguments.capture(iter, parameters[iter], valueList.get(iter), context);
         }
         return arguments;
     }
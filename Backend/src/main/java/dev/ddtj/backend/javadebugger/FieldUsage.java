@@ -0,0 +1,297 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.javadebugger;
+
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Method;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VirtualMachine;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Finds the fields of {@code this} a method reads by scanning its bytecode for {@code getfield} instructions, this
+ * lets us skip the other fields when capturing the object. The analysis is conservative: if the method invokes an
+ * instance method of its own class, uses a lambda or uses {@code this} for anything but reading one of its fields we
+ * can't tell which fields are used and capture all of them. We don't track the operand stack, so {@code this} is only
+ * known not to escape when it's loaded right before a {@code getfield}.
+ */
+@Log
+public final class FieldUsage {
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int GETFIELD = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int INVOKEDYNAMIC = 0xba;
+    private static final int WIDE = 0xc4;
+    private static final int IINC = 0x84;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * Instruction lengths including the opcode, zero marks variable length or unknown instructions
+     */
+    private static final byte[] LENGTHS = new byte[256];
+
+    static {
+        fill(0x00, 0x0f, 1);
+        LENGTHS[0x10] = 2;
+        LENGTHS[0x11] = 3;
+        LENGTHS[0x12] = 2;
+        fill(0x13, 0x14, 3);
+        fill(0x15, 0x19, 2);
+        fill(0x1a, 0x35, 1);
+        fill(0x36, 0x3a, 2);
+        fill(0x3b, 0x83, 1);
+        LENGTHS[IINC] = 3;
+        fill(0x85, 0x98, 1);
+        fill(0x99, 0xa8, 3);
+        LENGTHS[0xa9] = 2;
+        fill(0xac, 0xb1, 1);
+        fill(0xb2, 0xb8, 3);
+        fill(INVOKEINTERFACE, INVOKEDYNAMIC, 5);
+        LENGTHS[0xbb] = 3;
+        LENGTHS[0xbc] = 2;
+        LENGTHS[0xbd] = 3;
+        fill(0xbe, 0xbf, 1);
+        fill(0xc0, 0xc1, 3);
+        fill(0xc2, 0xc3, 1);
+        LENGTHS[0xc5] = 4;
+        fill(0xc6, 0xc7, 3);
+        fill(0xc8, 0xc9, 5);
+    }
+
+    private FieldUsage() {
+    }
+
+    private static void fill(int from, int to, int length) {
+        for(int iter = from ; iter <= to ; iter++) {
+            LENGTHS[iter] = (byte) length;
+        }
+    }
+
+    /**
+     * Returns a mask of the fields of the object type the method reads or null if all the fields should be captured
+     */
+    public static boolean[] analyze(Method method, ObjectType objectType) {
+        if(method.isStatic() || method.isAbstract() || method.isNative() || objectType == null ||
+                !objectType.canObjectBeCreated() || objectType.getFieldCount() == 0) {
+            return null;
+        }
+        VirtualMachine virtualMachine = method.virtualMachine();
+        if(virtualMachine == null || !virtualMachine.canGetBytecodes() || !virtualMachine.canGetConstantPool()) {
+            return null;
+        }
+        try {
+            ReferenceType declaringType = method.declaringType();
+            Set<String> usedFields = findFieldReads(method.bytecodes(),
+                    new ConstantPool(declaringType.constantPool(), declaringType.constantPoolCount()),
+                    hierarchy(declaringType));
+            if(usedFields == null) {
+                return null;
+            }
+            boolean[] mask = new boolean[objectType.getFieldCount()];
+            boolean all = true;
+            for(int iter = 0 ; iter < mask.length ; iter++) {
+                mask[iter] = usedFields.contains(objectType.getFieldName(iter));
+                all &= mask[iter];
+            }
+            return all ? null : mask;
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.FINE, "Failed to analyze the bytecode of " + method, e);
+            return null;
+        }
+    }
+
+    /**
+     * The internal names of the class and its super classes
+     */
+    private static Set<String> hierarchy(ReferenceType type) {
+        Set<String> names = new HashSet<>();
+        ReferenceType current = type;
+        while (current != null) {
+            names.add(current.name().replace('.', '/'));
+            current = current instanceof ClassType ? ((ClassType) current).superclass() : null;
+        }
+        return names;
+    }
+
+    /**
+     * Returns the names of the fields read from the class hierarchy or null if we can't determine them
+     */
+    static Set<String> findFieldReads(byte[] code, ConstantPool constantPool, Set<String> hierarchy) {
+        Set<String> fields = new HashSet<>();
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc] & 0xff;
+            switch (opcode) {
+                case GETFIELD:
+                    String[] field = constantPool.member(u2(code, pc + 1));
+                    if(hierarchy.contains(field[0])) {
+                        fields.add(field[1]);
+                    }
+                    break;
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKEINTERFACE:
+                    if(hierarchy.contains(constantPool.member(u2(code, pc + 1))[0])) {
+                        return null;
+                    }
+                    break;
+                case INVOKEDYNAMIC:
+                    return null;
+                case ALOAD_0:
+                    if(escapes(code, pc + 1)) {
+                        return null;
+                    }
+                    break;
+                case ALOAD:
+                    if((code[pc + 1] & 0xff) == 0 && escapes(code, pc + 2)) {
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pc += length(code, pc, opcode);
+        }
+        return fields;
+    }
+
+    /**
+     * True unless {@code this} is used as the owner of the field read by the next instruction, e.g. it's passed as an
+     * argument, stored in a field, a variable or an array, or returned
+     */
+    private static boolean escapes(byte[] code, int next) {
+        return next >= code.length || (code[next] & 0xff) != GETFIELD;
+    }
+
+    private static int length(byte[] code, int pc, int opcode) {
+        if(opcode == WIDE) {
+            return (code[pc + 1] & 0xff) == IINC ? 6 : 4;
+        }
+        if(opcode == TABLESWITCH || opcode == LOOKUPSWITCH) {
+            int base = pc + 1 + (4 - (pc + 1) % 4) % 4;
+            if(opcode == TABLESWITCH) {
+                int low = s4(code, base + 4);
+                int high = s4(code, base + 8);
+                return base + 12 + (high - low + 1) * 4 - pc;
+            }
+            return base + 8 + s4(code, base + 4) * 8 - pc;
+        }
+        int length = LENGTHS[opcode];
+        if(length == 0) {
+            throw new IllegalArgumentException("Unknown opcode " + opcode + " at " + pc);
+        }
+        return length;
+    }
+
+    private static int u2(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private static int s4(byte[] code, int offset) {
+        return (u2(code, offset) << 16) | u2(code, offset + 2);
+    }
+
+    /**
+     * The parts of the class file constant pool we need to resolve field and method references
+     */
+    static final class ConstantPool {
+        private final int[] tags;
+        private final int[] first;
+        private final int[] second;
+        private final String[] strings;
+
+        /**
+         * @param bytes the raw constant pool as returned by {@link ReferenceType#constantPool()}
+         * @param count the constant pool count, entry zero isn't included in the bytes
+         */
+        ConstantPool(byte[] bytes, int count) throws IOException {
+            tags = new int[count];
+            first = new int[count];
+            second = new int[count];
+            strings = new String[count];
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            for(int index = 1 ; index < count ; index++) {
+                int tag = input.readUnsignedByte();
+                tags[index] = tag;
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        strings[index] = input.readUTF();
+                        break;
+                    case 3:
+                    case 4:
+                        input.skipBytes(4);
+                        break;
+                    case 5:
+                    case 6:
+                        // long and double take two entries
+                        input.skipBytes(8);
+                        index++;
+                        break;
+                    case CONSTANT_CLASS:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        first[index] = input.readUnsignedShort();
+                        break;
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case 17:
+                    case 18:
+                        first[index] = input.readUnsignedShort();
+                        second[index] = input.readUnsignedShort();
+                        break;
+                    case 15:
+                        input.skipBytes(3);
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag + " at entry " + index);
+                }
+            }
+        }
+
+        /**
+         * Resolves a field or method reference to the internal name of its class and the member name
+         */
+        String[] member(int index) {
+            int classIndex = first[index];
+            int nameAndType = second[index];
+            return new String[] { strings[first[classIndex]], strings[first[nameAndType]] };
+        }
+    }
+}
@@ -20,51 +20,348 @@ package dev.ddtj.backend.javadebugger;
 import com.sun.jdi.ClassNotLoadedException;
 import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.Method;
-import com.sun.jdi.ObjectReference;
-import com.sun.jdi.StackFrame;
+import com.sun.jdi.ReferenceType;
 import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
 import com.sun.jdi.VirtualMachine;
 import com.sun.jdi.event.MethodEntryEvent;
 import com.sun.jdi.event.MethodExitEvent;
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.CaptureProfile;
+import dev.ddtj.backend.data.ChunkedLongLog;
+import dev.ddtj.backend.data.ExecutionStack;
 import dev.ddtj.backend.data.ExecutionState;
 import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.InvocationIndex;
+import dev.ddtj.backend.data.LatencySketch;
+import dev.ddtj.backend.data.MethodRetention;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.StaticSnapshot;
 import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.StringPool;
+import dev.ddtj.backend.data.objectmodel.TypeCache;
 import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import dev.ddtj.backend.data.objectmodel.TypeMetadataStore;
+import dev.ddtj.backend.storage.HeapInvocationStore;
+import dev.ddtj.backend.storage.InvocationStore;
+import dev.ddtj.backend.storage.MappedInvocationStore;
+import dev.ddtj.backend.storage.OffHeapInvocationStore;
+import dev.ddtj.backend.storage.TieredInvocationStore;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 import lombok.extern.java.Log;
 
 @Log
 public class MonitoredSession {
-    private static final Object LOCK = new Object();
     private final VirtualMachine virtualMachine;
     private final String filter;
-    private final Map<String, ParentClass> parentClassMap = new HashMap<>();
+    private final CaptureConfiguration configuration;
+    private final StringPool stringPool;
+    private final TypeCache typeCache;
+
+    /**
+     * The static state and the type analysis need the monitored VM, they're null for a recording that was reopened
+     */
+    private final StaticStateCache staticStateCache;
+    private final TypeAnalyzer typeAnalyzer;
+    private final Map<String, ParentClass> parentClassMap = new ConcurrentHashMap<>();
+
+    /**
+     * JDI mirrors of the same method are equal, so after the first event of a method its frames resolve with a single
+     * lookup instead of building the class name and the signature
+     */
+    private final Map<Method, ParentMethod> methodCache = new ConcurrentHashMap<>();
+
+    /**
+     * The mirrors in the method cache by the name of their class, so the mirrors of a class that's unloaded or
+     * redefined are dropped without scanning the cache
+     */
+    private final Map<String, Set<Method>> classMethods = new ConcurrentHashMap<>();
     private String sessionId;
+    private final int sessionPrefix;
+    private long invocationSequence;
+    private final InvocationIndex invocationIndex;
+    private final InvocationStore invocationStore;
+
+    /**
+     * True if invocations can be evicted, otherwise every completed invocation is stored without further checks
+     */
+    private final boolean retentionLimited;
     private String[] excludeList = {
             "java.",
             "com.sun.",
             "jdk.",
             "sun."
     };
-    private final Map<String, ExecutionState> pendingExecutions = new HashMap<>();
-    private final Map<Long, List<Invocation>> invocationList = new HashMap<>();
+    private final Map<Long, ExecutionStack> executionStacks = new HashMap<>();
+
+    /**
+     * Stored invocations that keep evicted children as mock data which has to be discarded with them
+     */
+    private final Set<Long> mockParents = new HashSet<>();
+
+    /**
+     * Events usually come in runs from the same thread, this avoids the map lookup and boxing the thread id
+     */
+    private long lastThreadId = -1;
+    private ExecutionStack lastExecutionStack;
+
+    /**
+     * The context reused for the events handled by the collector, only one event is captured at a time
+     */
+    private CaptureContext eventCaptureContext;
+
+    /**
+     * Root of the call path trie, identical stacks are stored once and shared by all their invocations
+     */
+    private final CallPathNode callPathRoot = CallPathNode.createRoot();
 
     public MonitoredSession(VirtualMachine virtualMachine, String filter) {
+        this(virtualMachine, filter, new CaptureConfiguration());
+    }
+
+    public MonitoredSession(VirtualMachine virtualMachine, String filter, CaptureConfiguration configuration) {
+        this(virtualMachine, filter, configuration, ThreadLocalRandom.current().nextInt(1, 1 << 16), null);
+    }
+
+    /**
+     * @param invocationStore the store of the session or null to create the store according to the configuration
+     */
+    private MonitoredSession(VirtualMachine virtualMachine, String filter, CaptureConfiguration configuration,
+                             int sessionPrefix, InvocationStore invocationStore) {
         this.virtualMachine = virtualMachine;
         this.filter = filter;
+        this.configuration = configuration;
+        this.sessionPrefix = sessionPrefix;
+        invocationIndex = new InvocationIndex(sessionPrefix);
+        String typeMetadataFile = configuration.getTypeMetadataFile();
+        typeCache = new TypeCache(typeMetadataFile == null || typeMetadataFile.isBlank() ? null :
+                TypeMetadataStore.load(Path.of(typeMetadataFile)));
+        stringPool = new StringPool(configuration.getMaxStringLength(), configuration.getStringPoolSize());
+        if(virtualMachine == null) {
+            staticStateCache = null;
+            typeAnalyzer = null;
+        } else {
+            staticStateCache = new StaticStateCache(virtualMachine, configuration.getStaticClasses(),
+                    configuration.getStaticRefreshMillis(), typeCache, this::createCaptureContext);
+            typeAnalyzer = new TypeAnalyzer(this, configuration.getAnalysisThreads());
+        }
+        this.invocationStore = invocationStore == null ? createInvocationStore(configuration, sessionPrefix) :
+                invocationStore;
+        retentionLimited = configuration.getMaxInvocationsPerMethod() > 0 ||
+                !configuration.getRetentionLimits().isEmpty() || configuration.getMaxSessionBytes() > 0;
+    }
+
+    private static InvocationStore createInvocationStore(CaptureConfiguration configuration, int sessionPrefix) {
+        if(!configuration.isOffHeapStorage()) {
+            if(configuration.getSpillHeapThreshold() > 0) {
+                return new TieredInvocationStore(Path.of(configuration.getSpillDirectory()), sessionPrefix,
+                        configuration.getStorageSegmentBytes(), configuration.getSpillHeapThreshold());
+            }
+            return new HeapInvocationStore();
+        }
+        String recordingDirectory = configuration.getRecordingDirectory();
+        if(recordingDirectory != null && !recordingDirectory.isBlank()) {
+            Path directory = Path.of(recordingDirectory,
+                    System.currentTimeMillis() + "-" + InvocationId.encode(sessionPrefix));
+            try {
+                return MappedInvocationStore.create(directory, sessionPrefix, configuration.getStorageSegmentBytes());
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to create the recording " + directory + ", the session won't be kept",
+                        e);
+            }
+        }
+        return new OffHeapInvocationStore(configuration.getStorageSegmentBytes());
+    }
+
+    /**
+     * Opens the recording of a previous session, the session has no VM so it only serves the recorded invocations
+     */
+    public static MonitoredSession reopen(Path directory, CaptureConfiguration configuration) throws IOException {
+        MappedInvocationStore store = MappedInvocationStore.open(directory);
+        MonitoredSession session = new MonitoredSession(null, null, configuration, store.getSessionPrefix(), store);
+        session.setSessionId(InvocationId.encode(store.getSessionPrefix()));
+        session.restoreInvocations(store);
+        return session;
+    }
+
+    /**
+     * Registers the classes and methods of the recorded invocations and indexes the invocations. The log of every
+     * method is sorted by id, which is also the order in which the invocations started.
+     */
+    private void restoreInvocations(MappedInvocationStore store) {
+        Map<ParentMethod, List<Long>> methodRows = new IdentityHashMap<>();
+        store.streamRows().forEach(row -> {
+            invocationIndex.put(store.getId(row), row);
+            CallPathNode callPath = store.getCallPath(row);
+            if(callPath != null && callPath.getMethod() != null) {
+                methodRows.computeIfAbsent(callPath.getMethod(), method -> new ArrayList<>()).add(row);
+            }
+        });
+        methodRows.forEach((method, rows) -> {
+            method.setInvocationStore(store);
+            method.setApplicable(true);
+            ParentClass parentClass = method.getParentClass();
+            if(parentClass != null) {
+                parentClassMap.putIfAbsent(parentClass.getName(), parentClass);
+            }
+            rows.stream().sorted(Comparator.comparingLong(store::getId)).forEach(row -> {
+                method.getLatency().record(store.getDurationNanos(row));
+                method.publishInvocation(-1, row);
+            });
+        });
     }
 
     public VirtualMachine getVirtualMachine() {
         return virtualMachine;
     }
 
+    public CaptureConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns the context of the collector reset for the next event, unlike {@link #createCaptureContext()} this
+     * doesn't allocate. It may only be used by the collector thread and only for one event at a time.
+     */
+    public CaptureContext eventCaptureContext(long byteBudget) {
+        if(eventCaptureContext == null) {
+            eventCaptureContext = createCaptureContext(byteBudget);
+        } else {
+            eventCaptureContext.reset(byteBudget);
+        }
+        return eventCaptureContext;
+    }
+
+    /**
+     * Creates the state for capturing the values of a single event within the configured limits
+     */
+    public CaptureContext createCaptureContext() {
+        return createCaptureContext(configuration.getMaxBytes());
+    }
+
+    /**
+     * Creates the state for capturing the values of an event with the remaining byte budget of the invocation
+     */
+    public CaptureContext createCaptureContext(long byteBudget) {
+        return new CaptureContext(configuration.getMaxDepth(), configuration.getMaxNodes(),
+                configuration.getMaxArrayElements(), byteBudget, stringPool, typeCache);
+    }
+
+    public TypeCache getTypeCache() {
+        return typeCache;
+    }
+
+    /**
+     * Types of an unloaded class hold mirrors that are no longer valid
+     */
+    public void classUnloaded(String className) {
+        typeCache.invalidate(className);
+        forgetMethods(className);
+        if(staticStateCache != null) {
+            staticStateCache.unload(className);
+        }
+    }
+
+    /**
+     * JDI doesn't report redefinitions directly, a class that's prepared again under a name we already know was
+     * reloaded so the types we built for the previous version are dropped. The class is then queued for analysis so
+     * its types are ready before the first invocation.
+     */
+    public void classPrepared(ReferenceType referenceType) {
+        if(typeCache.contains(referenceType.name())) {
+            typeCache.invalidate(referenceType.name());
+        }
+        forgetMethods(referenceType.name());
+        if(typeAnalyzer != null) {
+            typeAnalyzer.analyze(referenceType);
+        }
+    }
+
+    /**
+     * Drops the method mirrors of a class that was unloaded or redefined, the methods stay registered in their class
+     */
+    private void forgetMethods(String className) {
+        Set<Method> methods = classMethods.remove(className);
+        if(methods != null) {
+            for(Method method : methods) {
+                methodCache.remove(method);
+            }
+        }
+    }
+
+    public TypeAnalyzer getTypeAnalyzer() {
+        return typeAnalyzer;
+    }
+
+    /**
+     * Invoked once the monitored VM is gone, stops the analysis, keeps the type analysis for the next run and releases
+     * the JDI mirrors held by the type cache
+     */
+    public void release() {
+        if(typeAnalyzer != null) {
+            typeAnalyzer.shutdown();
+        }
+        invocationStore.flush();
+        if(typeCache.getMetadataStore() != null) {
+            typeCache.getMetadataStore().save();
+        }
+        typeCache.clear();
+    }
+
+    /**
+     * Invoked when the session is replaced, stops monitoring the VM if it's still running and frees the stored
+     * invocations, e.g. the spill files and the heap pressure listener of a tiered store. A session that was released
+     * can still be browsed, a closed session can't.
+     */
+    public void close() {
+        if(virtualMachine != null) {
+            try {
+                virtualMachine.dispose();
+            } catch (VMDisconnectedException e) {
+                log.log(Level.FINE, "VM already disconnected", e);
+            }
+        }
+        release();
+        invocationStore.close();
+    }
+
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    /**
+     * Returns the static state of a whitelisted class or null if we don't capture the static state of the type
+     */
+    public StaticSnapshot captureStaticState(ReferenceType referenceType) {
+        return staticStateCache == null ? null : staticStateCache.getSnapshot(referenceType);
+    }
+
+    /**
+     * Invoked when a watched static field is modified so the next invocation reads the static state again
+     */
+    public void staticFieldModified(ReferenceType referenceType) {
+        if(staticStateCache != null) {
+            staticStateCache.invalidate(referenceType);
+        }
+    }
+
     public boolean isExcluded(String className) {
         for(String prefix : excludeList) {
             if(className.startsWith(prefix)) {
@@ -79,10 +376,39 @@ public class MonitoredSession {
         parentMethod.setParentClass(parentClass);
         parentMethod.setSignature(methodSignature);
         parentMethod.setName(method.name());
+        parentMethod.setInvocationStore(invocationStore);
+        if(configuration.isMinimalFieldCapture()) {
+            parentMethod.setUsedFields(FieldUsage.analyze(method, parentClass.getObjectType()));
+        }
+        int retentionLimit = retentionLimit(parentClass.getName(), method.name());
+        if(retentionLimit > 0) {
+            parentMethod.setRetention(new MethodRetention(configuration.getRetentionPolicy(), retentionLimit));
+        }
         initMethodImpl(method, parentMethod);
         return parentMethod;
     }
 
+    /**
+     * The number of invocations kept for the method, a limit for the method overrides a limit for its class which
+     * overrides the default
+     */
+    private int retentionLimit(String className, String methodName) {
+        Integer classLimit = null;
+        for(Map.Entry<String, Integer> entry : configuration.getRetentionLimits().entrySet()) {
+            String pattern = entry.getKey();
+            int separator = pattern.indexOf('#');
+            if(separator < 0) {
+                if(StaticStateCache.matches(pattern, className)) {
+                    classLimit = entry.getValue();
+                }
+            } else if(pattern.substring(separator + 1).equals(methodName) &&
+                    StaticStateCache.matches(pattern.substring(0, separator), className)) {
+                return entry.getValue();
+            }
+        }
+        return classLimit != null ? classLimit : configuration.getMaxInvocationsPerMethod();
+    }
+
     public void validateMethod(Method method, ParentMethod parentMethod) {
         if(parentMethod.isInitializationFailure()) {
             parentMethod.setInitializationFailure(false);
@@ -97,11 +423,11 @@ public class MonitoredSession {
         try {
             if(method.isNative() || method.isStaticInitializer()) {
                 parentMethod.setParameters(new BaseType[0]);
-                parentMethod.setReturnType(TypeFactory.create(method.returnType()));
+                parentMethod.setReturnType(TypeFactory.create(typeCache, method.returnType()));
             } else {
-                BaseType[] parameters = TypeFactory.create(method.argumentTypes());
+                BaseType[] parameters = TypeFactory.create(typeCache, method.argumentTypes());
                 parentMethod.setParameters(parameters);
-                parentMethod.setReturnType(TypeFactory.create(method.returnType()));
+                parentMethod.setReturnType(TypeFactory.create(typeCache, method.returnType()));
             }
         } catch (ClassNotLoadedException classNotLoadedException) {
             log.info("Type in argument or return value isn't loaded yet: " + method.argumentTypeNames() +
@@ -112,45 +438,78 @@ public class MonitoredSession {
     }
 
 
-    public ParentMethod getOrCreateMethod(Method method) {
-        String className = method.declaringType().name();
-        String methodSignature = method.signature();
-        String methodName = method.name();
-        ParentClass parentClass = null;
-        synchronized (LOCK) {
-            parentClass = parentClassMap.get(className);
-            if (parentClass == null) {
-                parentClass = new ParentClass();
-                parentClass.setName(className);
-                parentClass.setObjectType((ObjectType)TypeFactory.create(method.declaringType()));
-                ParentMethod parentMethod = createMethod(parentClass, methodSignature, method);
-                parentClass.addMethod(parentMethod);
-                parentClassMap.put(className, parentClass);
-                return parentMethod;
-            }
+    /**
+     * The class under test is always introspected as an object even if the type factory has a more specific type for
+     * it, e.g. an enum or a record with methods
+     */
+    private ObjectType createObjectType(ReferenceType referenceType) {
+        BaseType baseType = TypeFactory.create(typeCache, referenceType).unwrap();
+        if(baseType instanceof ObjectType) {
+            return (ObjectType) baseType;
         }
+        return ObjectType.create(referenceType, typeCache);
+    }
 
-        synchronized (parentClass) {
-            ParentMethod parentMethod = parentClass.findMethod(methodName + methodSignature);
-            if (parentMethod != null) {
-                return parentMethod;
-            }
-            parentMethod = createMethod(parentClass, methodSignature, method);
-            parentClass.addMethod(parentMethod);
+    /**
+     * Counts a call of a fully captured class for the automatic classification of dependencies
+     *
+     * @param caller the method in the frame below the invoked method or null if there is none
+     */
+    public void observeCaller(ParentClass parentClass, Method caller) {
+        int threshold = configuration.getAutoDependencyThreshold();
+        if(threshold <= 0) {
+            return;
+        }
+        String callerClass = caller == null ? null : caller.declaringType().name();
+        parentClass.observeCall(callerClass != null && !callerClass.equals(parentClass.getName()) &&
+                !isExcluded(callerClass), threshold);
+    }
+
+    public ParentMethod getOrCreateMethod(Method method) {
+        ParentMethod parentMethod = methodCache.get(method);
+        if(parentMethod != null) {
             return parentMethod;
         }
+        ParentClass parentClass = getOrCreateClass(method);
+        String fullName = method.name() + method.signature();
+        parentMethod = parentClass.findMethod(fullName);
+        if(parentMethod == null) {
+            parentMethod = parentClass.addMethodIfAbsent(createMethod(parentClass, method.signature(), method));
+        }
+        methodCache.put(method, parentMethod);
+        classMethods.computeIfAbsent(parentClass.getName(), name -> ConcurrentHashMap.newKeySet()).add(method);
+        return parentMethod;
     }
 
-    public Collection<ParentClass> listClasses() {
-        synchronized (LOCK) {
-            return parentClassMap.values();
+    /**
+     * Threads that race on a new class may both introspect it, only the first instance is registered
+     */
+    private ParentClass getOrCreateClass(Method method) {
+        String className = method.declaringType().name();
+        ParentClass parentClass = parentClassMap.get(className);
+        if (parentClass != null) {
+            return parentClass;
+        }
+        parentClass = new ParentClass();
+        parentClass.setName(className);
+        parentClass.setObjectType(createObjectType(method.declaringType()));
+        if(StaticStateCache.matchesAny(configuration.getDependencyClasses(), className)) {
+            parentClass.setCaptureProfile(CaptureProfile.DEPENDENCY);
         }
+        ParentClass existing = parentClassMap.putIfAbsent(className, parentClass);
+        return existing == null ? parentClass : existing;
+    }
+
+    public Collection<ParentClass> listClasses() {
+        return parentClassMap.values();
     }
 
     public ParentClass getClass(String className) {
-        synchronized (LOCK) {
-            return parentClassMap.get(className);
-        }
+        return parentClassMap.get(className);
+    }
+
+    public CallPathNode getCallPathRoot() {
+        return callPathRoot;
     }
 
     public String getSessionId() {
@@ -168,45 +527,254 @@ public class MonitoredSession {
      * Used only for testing
      */
     public int getPendingExecutionCount() {
-        return pendingExecutions.size();
+        return executionStacks.values().stream().mapToInt(ExecutionStack::size).sum();
     }
 
     public void queueExecutionState(MethodEntryEvent event, ExecutionState executionState) throws IncompatibleThreadStateException {
         ThreadReference thread = event.thread();
-        pendingExecutions.put(generateInvocationSignature(thread), executionState);
+        executionStack(thread.uniqueID()).push(thread.frameCount(), executionState);
+    }
+
+    /**
+     * Returns a pooled state for the method entry, the state is matched with the exit of the same frame. The
+     * invocation is linked to the invocation of the enclosing entry on the same thread.
+     */
+    public ExecutionState pushExecutionState(MethodEntryEvent event, Invocation invocation)
+            throws IncompatibleThreadStateException {
+        ThreadReference thread = event.thread();
+        ExecutionStack stack = executionStack(thread.uniqueID());
+        ExecutionState state = stack.push(thread.frameCount());
+        ExecutionState enclosing = stack.enclosing();
+        invocation.setParent(enclosing == null ? null : enclosing.getInvocation());
+        state.setInvocation(invocation);
+        return state;
     }
 
+    /**
+     * Removes the state of the frame that's exiting, the returned state is only valid until the next entry of the
+     * thread is pushed
+     */
     public ExecutionState removeExecutionState(MethodExitEvent event) throws IncompatibleThreadStateException {
         ThreadReference thread = event.thread();
-        return pendingExecutions.remove(generateInvocationSignature(thread));
+        return executionStack(thread.uniqueID()).pop(thread.frameCount());
     }
 
-    private String generateInvocationSignature(ThreadReference thread) throws IncompatibleThreadStateException {
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(thread.uniqueID());
-        ObjectReference ref = thread.frame(0).thisObject();
-        if(ref != null) {
-            stringBuilder.append("-");
-            stringBuilder.append(ref.uniqueID());
+    private ExecutionStack executionStack(long threadId) {
+        if(threadId == lastThreadId) {
+            return lastExecutionStack;
+        }
+        ExecutionStack stack = executionStacks.computeIfAbsent(threadId, id -> new ExecutionStack(this::abandon));
+        lastThreadId = threadId;
+        lastExecutionStack = stack;
+        return stack;
+    }
+
+    /**
+     * An entry whose exit we never saw won't be stored, the provisional children it kept are discarded and its slot
+     * is handed back
+     */
+    private void abandon(ExecutionState state) {
+        Invocation invocation = state.getInvocation();
+        if(invocation != null) {
+            discardProvisionalChildren(invocation);
         }
-        int frameCount = thread.frameCount();
-        stringBuilder.append(frameCount);
-        for (int i = 0; i < frameCount; i++) {
-            StackFrame frame = thread.frame(i);
-            Method method = frame.location().method();
-            stringBuilder.append(method.declaringType().name());
-            stringBuilder.append(method.name());
-            stringBuilder.append(method.signature());
+        if(state.getParentMethod() != null) {
+            state.getParentMethod().releaseInvocation(state.getInvocationSlot());
         }
-        return stringBuilder.toString();
     }
 
-    public synchronized void addInvocation(Invocation invocation) {
-        invocationList.computeIfAbsent(invocation.getThreadId(), k -> new ArrayList<>())
-                .add(invocation);
+    /**
+     * The random prefix of the invocation ids of this session so ids from a previous session aren't mistaken for ids
+     * of this one
+     */
+    public int getSessionPrefix() {
+        return sessionPrefix;
+    }
+
+    /**
+     * Allocates the id of a new invocation, this is invoked by the collector thread only
+     */
+    public long nextInvocationId() {
+        return InvocationId.compose(sessionPrefix, ++invocationSequence);
+    }
+
+    /**
+     * Stores a completed invocation and adds it to the children of its parent, the invocation object isn't needed
+     * afterwards
+     *
+     * @return the row of the invocation in the session store
+     */
+    public long addInvocation(Invocation invocation) {
+        long row = invocationStore.store(invocation);
+        invocationIndex.put(invocation.getId(), row);
+        Invocation parent = invocation.getParent();
+        if(parent != null) {
+            parent.addChild(invocation.getId());
+        }
+        return row;
+    }
+
+    /**
+     * Stores a completed invocation and publishes it in the log of its method, unless the retention limits drop it.
+     * Limiting a method never drops its callers: an invocation that's rejected or evicted is kept as mock data of its
+     * parent, the parent is the only one who needs it to generate a test. It's discarded with the parent.
+     *
+     * In the slow invocation mode only the invocations above the configured percentile of their method are kept.
+     * A faster invocation is kept provisionally as mock data while the invocation that made it runs, it's discarded
+     * unless that invocation is kept.
+     *
+     * @param slot the slot reserved for the invocation in the log of the method or -1
+     */
+    public void completeInvocation(ParentMethod method, long slot, Invocation invocation) {
+        double slowPercentile = configuration.getSlowInvocationPercentile();
+        LatencySketch latency = method.getLatency();
+        long duration = invocation.getDurationNanos();
+        boolean slow = slowPercentile <= 0 || latency.isAbove(duration, slowPercentile);
+        latency.record(duration);
+        if(!slow) {
+            method.releaseInvocation(slot);
+            keepProvisionally(invocation);
+            return;
+        }
+        if(!retentionLimited && slowPercentile <= 0) {
+            method.publishInvocation(slot, addInvocation(invocation));
+            return;
+        }
+        MethodRetention retention = method.getRetention();
+        long fingerprint = 0;
+        int position = MethodRetention.REJECTED;
+        if(retention != null) {
+            fingerprint = MethodRetention.fingerprint(invocation);
+            position = retention.admit(fingerprint);
+            if(position == MethodRetention.REJECTED) {
+                method.releaseInvocation(slot);
+                method.countEviction();
+                keepProvisionally(invocation);
+                return;
+            }
+        }
+        boolean replacing = position != MethodRetention.REJECTED && retention.getSlot(position) >= 0;
+        if(!replacing && isSessionFull()) {
+            method.releaseInvocation(slot);
+            method.countEviction();
+            discardProvisionalChildren(invocation);
+            return;
+        }
+        // the provisional children are kept for good with their parent
+        invocation.takeProvisionalChildIds();
+        long publishedSlot = method.publishInvocation(slot, addInvocation(invocation));
+        if(retention != null) {
+            long replaced = retention.retain(position, publishedSlot, fingerprint);
+            if(replaced >= 0) {
+                evict(method, replaced);
+            }
+        }
+    }
+
+    /**
+     * Stores an invocation that isn't kept on its own as a provisional child of its parent. It isn't published in the
+     * log of its method and its own provisional children are discarded, they run inside the mock.
+     */
+    private void keepProvisionally(Invocation invocation) {
+        discardProvisionalChildren(invocation);
+        Invocation parent = invocation.getParent();
+        if(parent == null) {
+            return;
+        }
+        if(parent.getProvisionalChildCount() >= configuration.getSlowInvocationMaxChildren()) {
+            // the parent is still kept, it just has no mock data for the calls past the limit
+            return;
+        }
+        addInvocation(invocation);
+        parent.addProvisionalChild(invocation.getId());
+    }
+
+    private void discardProvisionalChildren(Invocation invocation) {
+        for(long childId : invocation.takeProvisionalChildIds()) {
+            discard(childId);
+        }
+    }
+
+    /**
+     * Removes an invocation that isn't in the log of its method from the index and the store, along with the evicted
+     * invocations that were kept as its mock data
+     */
+    private void discard(long id) {
+        long row = invocationIndex.get(id);
+        if(row == ChunkedLongLog.EMPTY) {
+            return;
+        }
+        if(mockParents.remove(id)) {
+            discardMockChildren(invocationStore.load(row).getChildIds());
+        }
+        invocationIndex.remove(id);
+        invocationStore.release(row);
+    }
+
+    private boolean isSessionFull() {
+        long maxSessionBytes = configuration.getMaxSessionBytes();
+        return maxSessionBytes > 0 && invocationStore.getStoredBytes() >= maxSessionBytes;
+    }
+
+    /**
+     * Removes a stored invocation from the log of its method. If its parent is still stored or running the invocation
+     * stays in the store as mock data of the parent, otherwise it's removed from the index and the store as well. In
+     * both cases the invocations it kept as mock data aren't needed anymore.
+     */
+    private void evict(ParentMethod method, long slot) {
+        long row = method.removeInvocation(slot);
+        if(row == ChunkedLongLog.EMPTY) {
+            return;
+        }
+        method.countEviction();
+        Invocation evicted = invocationStore.load(row);
+        discardMockChildren(evicted.getChildIds());
+        mockParents.remove(evicted.getId());
+
+        long parentId = evicted.getParentId();
+        if(parentId != InvocationId.INVALID && invocationIndex.get(parentId) != ChunkedLongLog.EMPTY) {
+            mockParents.add(parentId);
+            return;
+        }
+        ExecutionStack stack = parentId == InvocationId.INVALID ? null : executionStacks.get(evicted.getThreadId());
+        Invocation runningParent = stack == null ? null : stack.findInvocation(parentId);
+        if(runningParent != null &&
+                runningParent.getProvisionalChildCount() < configuration.getSlowInvocationMaxChildren()) {
+            runningParent.addProvisionalChild(evicted.getId());
+            return;
+        }
+        invocationIndex.remove(evicted.getId());
+        invocationStore.release(row);
+    }
+
+    /**
+     * Children that were kept as mock data of an invocation that's evicted or discarded aren't needed anymore, the
+     * children that are published in the log of their method were kept on their own
+     */
+    private void discardMockChildren(long[] childIds) {
+        for(long childId : childIds) {
+            long childRow = invocationIndex.get(childId);
+            if(childRow == ChunkedLongLog.EMPTY) {
+                continue;
+            }
+            CallPathNode childPath = invocationStore.getCallPath(childRow);
+            ParentMethod childMethod = childPath == null ? null : childPath.getMethod();
+            if(childMethod == null || childMethod.findSlot(childId) < 0) {
+                discard(childId);
+            }
+        }
+    }
+
+    /**
+     * Returns the invocation with the given id or null if this session didn't record it, depending on the store this
+     * decodes a new instance
+     */
+    public Invocation findInvocation(long id) {
+        long row = invocationIndex.get(id);
+        return row == ChunkedLongLog.EMPTY ? null : invocationStore.load(row);
     }
 
-    public synchronized List<Invocation> getInvocationList(long threadId) {
-        return new ArrayList<>(invocationList.get(threadId));
+    public InvocationStore getInvocationStore() {
+        return invocationStore;
     }
 }
@@ -0,0 +1,181 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.javadebugger;
+
+import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.Field;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.Value;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.request.EventRequest;
+import com.sun.jdi.request.ModificationWatchpointRequest;
+import dev.ddtj.backend.data.StaticSnapshot;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.TypeCache;
+import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Caches the static state of whitelisted classes. The static fields of a class are read once and the snapshot is
+ * reused until one of the fields is modified, which we detect with a modification watchpoint. If the VM can't watch
+ * fields or a refresh interval is configured the snapshot is also read again once it's older than the interval.
+ */
+@Log
+public class StaticStateCache {
+    /**
+     * How often we read the static state again when the VM can't notify us about field modifications
+     */
+    public static final long DEFAULT_REFRESH_MILLIS = 1000;
+
+    private final VirtualMachine virtualMachine;
+    private final List<String> whitelist;
+    private final long refreshMillis;
+    private final TypeCache typeCache;
+    private final Supplier<CaptureContext> captureContextFactory;
+    private final Map<ReferenceType, StaticSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Types for which we already installed modification watchpoints
+     */
+    private final Map<ReferenceType, Boolean> watchedTypes = new ConcurrentHashMap<>();
+    private final AtomicLong versionCounter = new AtomicLong();
+
+    public StaticStateCache(VirtualMachine virtualMachine, List<String> whitelist, long refreshMillis,
+                            TypeCache typeCache, Supplier<CaptureContext> captureContextFactory) {
+        this.virtualMachine = virtualMachine;
+        this.whitelist = whitelist;
+        if(!whitelist.isEmpty() && refreshMillis <= 0 && (virtualMachine == null ||
+                !virtualMachine.canWatchFieldModification())) {
+            refreshMillis = DEFAULT_REFRESH_MILLIS;
+        }
+        this.refreshMillis = refreshMillis;
+        this.typeCache = typeCache;
+        this.captureContextFactory = captureContextFactory;
+    }
+
+    /**
+     * Matches the class name using the same rules as the JDI class filters, a pattern can start or end with a star
+     */
+    public boolean isWhitelisted(String className) {
+        return matchesAny(whitelist, className);
+    }
+
+    static boolean matchesAny(List<String> patterns, String className) {
+        for(String pattern : patterns) {
+            if(matches(pattern, className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean matches(String pattern, String className) {
+        if(pattern.startsWith("*")) {
+            return className.endsWith(pattern.substring(1));
+        }
+        if(pattern.endsWith("*")) {
+            return className.startsWith(pattern.substring(0, pattern.length() - 1));
+        }
+        return className.equals(pattern);
+    }
+
+    /**
+     * Returns the current static state of the type or null if the type isn't whitelisted
+     */
+    public StaticSnapshot getSnapshot(ReferenceType referenceType) {
+        if(whitelist.isEmpty() || !isWhitelisted(referenceType.name())) {
+            return null;
+        }
+        StaticSnapshot snapshot = snapshots.get(referenceType);
+        if(snapshot != null && (refreshMillis <= 0 || System.currentTimeMillis() - snapshot.getTime() < refreshMillis)) {
+            return snapshot;
+        }
+        snapshot = readSnapshot(referenceType);
+        snapshots.put(referenceType, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Drops the cached snapshot of the type, the next invocation reads the static state again
+     */
+    public void invalidate(ReferenceType referenceType) {
+        snapshots.remove(referenceType);
+    }
+
+    /**
+     * Drops everything we hold for the unloaded class so the cache doesn't keep its mirrors alive. The VM deletes the
+     * watchpoints of an unloaded class on its own
+     */
+    public void unload(String className) {
+        snapshots.keySet().removeIf(referenceType -> referenceType.name().equals(className));
+        watchedTypes.keySet().removeIf(referenceType -> referenceType.name().equals(className));
+    }
+
+    private StaticSnapshot readSnapshot(ReferenceType referenceType) {
+        List<Field> fields = new ArrayList<>();
+        List<BaseType> types = new ArrayList<>();
+        for(Field field : referenceType.fields()) {
+            if(!field.isStatic() || field.isFinal() || field.isSynthetic() || field.isEnumConstant()) {
+                continue;
+            }
+            try {
+                types.add(TypeFactory.create(typeCache, field.type()));
+                fields.add(field);
+            } catch (ClassNotLoadedException e) {
+                log.log(Level.FINE, "Static field type isn't loaded yet: " + field, e);
+            }
+        }
+        watchFields(referenceType, fields);
+
+        int size = fields.size();
+        String[] fieldNames = new String[size];
+        boolean[] publicFields = new boolean[size];
+        Object[] values = new Object[size];
+        Map<Field, Value> fieldValues = referenceType.getValues(fields);
+        CaptureContext captureContext = captureContextFactory.get();
+        for(int iter = 0 ; iter < size ; iter++) {
+            Field field = fields.get(iter);
+            fieldNames[iter] = field.name();
+            publicFields[iter] = field.isPublic();
+            values[iter] = captureContext.capture(types.get(iter), fieldValues.get(field));
+        }
+        return new StaticSnapshot(referenceType.name(), versionCounter.incrementAndGet(),
+                System.currentTimeMillis(), fieldNames, types.toArray(new BaseType[0]), publicFields, values);
+    }
+
+    private void watchFields(ReferenceType referenceType, List<Field> fields) {
+        if(virtualMachine == null || !virtualMachine.canWatchFieldModification() ||
+                watchedTypes.putIfAbsent(referenceType, Boolean.TRUE) != null) {
+            return;
+        }
+        for(Field field : fields) {
+            ModificationWatchpointRequest request = virtualMachine.eventRequestManager()
+                    .createModificationWatchpointRequest(field);
+            request.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+            request.enable();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.javadebugger;
+
+import com.sun.jdi.Method;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VMDisconnectedException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Builds the types and methods of newly loaded classes on a worker pool. Without this the first invocation of a
+ * method introspects the class and the types of its arguments while the thread of the monitored VM is suspended.
+ */
+@Log
+public class TypeAnalyzer {
+    private final MonitoredSession session;
+    private final int threads;
+    private final AtomicLong analyzedClasses = new AtomicLong();
+    private ExecutorService executor;
+
+    public TypeAnalyzer(MonitoredSession session, int threads) {
+        this.session = session;
+        this.threads = threads;
+    }
+
+    /**
+     * Queues the class for analysis, this returns immediately so the event loop isn't delayed
+     */
+    public synchronized void analyze(ReferenceType referenceType) {
+        if(threads <= 0 || session.isExcluded(referenceType.name())) {
+            return;
+        }
+        if(executor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "ddtj-type-analysis-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if(!executor.isShutdown()) {
+            executor.execute(() -> analyzeImpl(referenceType));
+        }
+    }
+
+    private void analyzeImpl(ReferenceType referenceType) {
+        try {
+            for(Method method : referenceType.methods()) {
+                if(!DataCollector.isExcludedMethod(session, method)) {
+                    session.getOrCreateMethod(method);
+                }
+            }
+            analyzedClasses.incrementAndGet();
+        } catch (VMDisconnectedException e) {
+            log.log(Level.FINE, "VM disconnected while analyzing " + referenceType.name(), e);
+        } catch (RuntimeException e) {
+            // the class will be analyzed again when it's first invoked
+            log.log(Level.WARNING, "Failed to analyze " + referenceType.name(), e);
+        }
+    }
+
+    public long getAnalyzedClasses() {
+        return analyzedClasses.get();
+    }
+
+    /**
+     * Stops accepting classes and waits briefly for the queued classes to finish
+     */
+    public void shutdown() {
+        ExecutorService current;
+        synchronized (this) {
+            current = executor;
+        }
+        if(current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            if(!current.awaitTermination(1, TimeUnit.SECONDS)) {
+                current.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            current.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
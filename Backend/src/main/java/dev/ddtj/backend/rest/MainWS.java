@@ -18,7 +18,9 @@
 package dev.ddtj.backend.rest;
 
 import dev.ddtj.backend.dto.ClassDTO;
+import dev.ddtj.backend.dto.LatencyDTO;
 import dev.ddtj.backend.dto.MethodDTO;
+import dev.ddtj.backend.dto.RecordingDTO;
 import dev.ddtj.backend.dto.TestTimeDTO;
 import dev.ddtj.backend.dto.VMDTO;
 import dev.ddtj.backend.service.MainService;
@@ -42,6 +44,16 @@ public class MainWS {
         mainService.connect(vmDTO);
     }
 
+    @GetMapping("/recordings")
+    public List<RecordingDTO> listRecordings() {
+        return mainService.listRecordings();
+    }
+
+    @PostMapping("/recordings/open")
+    public void openRecording(@RequestBody String recordingId) throws IOException {
+        mainService.openRecording(recordingId);
+    }
+
     @GetMapping("/classes")
     public List<ClassDTO> listClasses() {
         return mainService.listClasses();
@@ -53,7 +65,12 @@ public class MainWS {
     }
 
     @GetMapping("/invocations")
-    public List<TestTimeDTO> listInvocations(String className, String method) {
-        return mainService.listInvocations(className, method);
+    public List<TestTimeDTO> listInvocations(String className, String method, Long from, Long to) {
+        return mainService.listInvocations(className, method, from, to);
+    }
+
+    @GetMapping("/latency")
+    public LatencyDTO getLatency(String className, String method) {
+        return mainService.getLatency(className, method);
     }
 }
@@ -18,16 +18,24 @@
 package dev.ddtj.backend.service;
 
 import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.LatencySketch;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
 import dev.ddtj.backend.dto.ClassDTO;
+import dev.ddtj.backend.dto.LatencyDTO;
 import dev.ddtj.backend.dto.MethodDTO;
+import dev.ddtj.backend.dto.RecordingDTO;
 import dev.ddtj.backend.dto.TestTimeDTO;
 import dev.ddtj.backend.dto.VMDTO;
 import dev.ddtj.backend.javadebugger.ConnectSession;
 import dev.ddtj.backend.javadebugger.MonitoredSession;
+import dev.ddtj.backend.storage.InvocationStore;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import org.springframework.stereotype.Component;
 
@@ -47,7 +55,51 @@ public class MainService {
     }
 
     public void connect(VMDTO vmDTO) throws IOException {
-        session = connectSession.create(vmDTO);
+        replaceSession(connectSession.create(vmDTO));
+    }
+
+    public List<RecordingDTO> listRecordings() {
+        return connectSession.listRecordings().stream()
+                .map(recording -> {
+                    RecordingDTO recordingDTO = new RecordingDTO();
+                    String name = recording.getFileName().toString();
+                    recordingDTO.setId(name);
+                    recordingDTO.setTime(recordingTime(name));
+                    return recordingDTO;
+                }).collect(Collectors.toList());
+    }
+
+    /**
+     * The directory of a recording starts with the time it was created, a directory that was renamed has no time
+     */
+    private static long recordingTime(String name) {
+        int separator = name.indexOf('-');
+        if(separator <= 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces the current session with a recorded session
+     */
+    public void openRecording(String recordingId) throws IOException {
+        replaceSession(connectSession.reopen(recordingId));
+    }
+
+    /**
+     * The previous session is closed once the new one is ready, so a failed connection keeps the current session
+     */
+    private void replaceSession(MonitoredSession newSession) {
+        MonitoredSession previous = session;
+        session = newSession;
+        if(previous != null) {
+            previous.close();
+        }
     }
 
     /**
@@ -60,17 +112,20 @@ public class MainService {
     }
 
     public List<ClassDTO> listClasses() {
-        // TODO: This is a bit inefficient filtering should happen first and counting should be beforehand
         return session.listClasses().stream()
                 .map(parentClass -> {
-                    int methodCount = listMethods(parentClass.getName()).size();
+                    int methodCount = parentClass.countApplicableMethods();
+                    if(methodCount == 0) {
+                        return null;
+                    }
                     ClassDTO classDTO = new ClassDTO();
                     classDTO.setName(parentClass.getName());
                     classDTO.setMethods(methodCount);
                     classDTO.setTotalExecutions(parentClass.countTotalExecutions());
+                    classDTO.setEvictedExecutions(parentClass.countEvictedExecutions());
                     return classDTO;
                 })
-                .filter(c -> c.getMethods() > 0)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
 
@@ -85,34 +140,93 @@ public class MainService {
                     MethodDTO methodDTO = new MethodDTO();
                     methodDTO.setFullName(parentMethod.fullName());
                     methodDTO.setTotalExecutions(parentMethod.getInvocationCount());
+                    methodDTO.setEvictedExecutions(parentMethod.getEvictedCount());
                     return methodDTO;
                 }).collect(Collectors.toList());
 
     }
 
     public List<TestTimeDTO> listInvocations(String className, String methodFullName) {
+        return listInvocations(className, methodFullName, null, null);
+    }
+
+    /**
+     * Lists the invocations that started within the time range, only the invocations in the range are visited
+     *
+     * @param from the first time in milliseconds or null for no lower bound
+     * @param to the last time in milliseconds or null for no upper bound
+     */
+    public List<TestTimeDTO> listInvocations(String className, String methodFullName, Long from, Long to) {
         ParentClass parentClass = session.getClass(className);
         ParentMethod method = parentClass.findMethod(methodFullName);
-        return method.listInvocations().stream().map(invocation -> {
-            TestTimeDTO testTimeDTO = new TestTimeDTO();
-            testTimeDTO.setTime(invocation.getTime());
-            testTimeDTO.setId(invocation.getId());
-            return testTimeDTO;
-        }).collect(Collectors.toList());
+        // the listing only reads the id and time columns, the invocations aren't loaded
+        InvocationStore store = method.getInvocationStore();
+        return method.streamInvocationRows(from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to)
+                .mapToObj(row -> {
+                    TestTimeDTO testTimeDTO = new TestTimeDTO();
+                    testTimeDTO.setTime(store.getTime(row));
+                    testTimeDTO.setId(InvocationId.encode(store.getId(row)));
+                    return testTimeDTO;
+                }).collect(Collectors.toList());
+    }
+
+    /**
+     * The distribution of the durations of all the invocations of the method, including the ones that weren't kept
+     */
+    public LatencyDTO getLatency(String className, String methodFullName) {
+        ParentClass parentClass = session.getClass(className);
+        LatencySketch latency = parentClass.findMethod(methodFullName).getLatency();
+        LatencyDTO latencyDTO = new LatencyDTO();
+        latencyDTO.setCount(latency.getCount());
+        latencyDTO.setMin(latency.getMin());
+        latencyDTO.setMax(latency.getMax());
+        latencyDTO.setP50(latency.getValueAt(0.5));
+        latencyDTO.setP90(latency.getValueAt(0.9));
+        latencyDTO.setP99(latency.getValueAt(0.99));
+        latencyDTO.setP999(latency.getValueAt(0.999));
+        long[] counts = latency.getBucketCounts();
+        int buckets = (int) Arrays.stream(counts).filter(count -> count > 0).count();
+        long[] bucketLimits = new long[buckets];
+        long[] bucketCounts = new long[buckets];
+        for(int bucket = 0, index = 0 ; bucket < counts.length ; bucket++) {
+            if(counts[bucket] > 0) {
+                bucketLimits[index] = LatencySketch.upperBound(bucket);
+                bucketCounts[index++] = counts[bucket];
+            }
+        }
+        latencyDTO.setBucketLimits(bucketLimits);
+        latencyDTO.setBucketCounts(bucketCounts);
+        return latencyDTO;
     }
 
     public TestGenerator generateTest(String className, String method, String testId) {
         ParentClass parentClass = session.getClass(className);
         ParentMethod parentMethod = parentClass.findMethod(method);
-        Invocation invocation = parentMethod.findInvocation(testId);
+        Invocation invocation = findInvocation(parentMethod, InvocationId.decode(testId));
         if(invocation == null) {
             return null;
         }
 
-        List<Invocation> internalCalls = session.getInvocationList(invocation.getThreadId()).stream()
-                .filter(i -> i.getTime() >= invocation.getTime() && i.getTime() <= invocation.getEndTime() && i != invocation)
-                .collect(Collectors.toList());
-
+        // the direct children are the calls the test needs to mock, deeper calls run inside the mocks
+        List<Invocation> internalCalls = new ArrayList<>();
+        for(long childId : invocation.getChildIds()) {
+            Invocation child = session.findInvocation(childId);
+            if(child != null) {
+                internalCalls.add(child);
+            }
+        }
         return new TestGenerator(parentClass, parentMethod, invocation, internalCalls);
     }
+
+    /**
+     * Looks the invocation up in the session index, invocations that were added to the method directly are found in
+     * the index of the method
+     */
+    private Invocation findInvocation(ParentMethod parentMethod, long id) {
+        Invocation invocation = session.findInvocation(id);
+        if(invocation == null) {
+            return parentMethod.findInvocation(id);
+        }
+        return invocation.getInvokedMethod() == parentMethod ? invocation : null;
+    }
 }
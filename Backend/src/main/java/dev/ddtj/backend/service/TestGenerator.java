@@ -20,9 +20,12 @@ package dev.ddtj.backend.service;
 import dev.ddtj.backend.data.Invocation;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.StaticSnapshot;
 import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CodeGenerationContext;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
 import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,6 +39,13 @@ public class TestGenerator {
     private final Invocation invocation;
     private final List<Invocation> internalCalls;
 
+    /**
+     * Shared by all the code generated for this test so objects captured in one place can be referenced elsewhere
+     */
+    private final CodeGenerationContext codeGenerationContext = new CodeGenerationContext();
+
+    private final List<String> staticRestore = new ArrayList<>();
+
     public TestGenerator(ParentClass parentClass, ParentMethod parentMethod, Invocation invocation, List<Invocation> internalCalls) {
         this.parentClass = parentClass;
         this.parentMethod = parentMethod;
@@ -46,14 +56,73 @@ public class TestGenerator {
     public List<String> getCreationCode() {
         ObjectType parentObjectType = parentClass.getObjectType();
         Map<String, Object> fieldValues = new HashMap<>();
-        for(int iter = 0 ; iter < invocation.getFields().length ; iter++) {
-            fieldValues.put(parentObjectType.getFieldName(iter), invocation.getFields()[iter]);
+        Object[] fields = invocation.getFields();
+        for(int iter = 0 ; iter < fields.length ; iter++) {
+            // fields the method doesn't read are left uninitialized
+            if(fields[iter] != ValueRecord.NOT_CAPTURED) {
+                fieldValues.put(parentObjectType.getFieldName(iter), fields[iter]);
+            }
         }
-        return parentObjectType.getCodePrefix("myObjectInstance", fieldValues);
+        return parentObjectType.getCodePrefix("myObjectInstance", fieldValues, codeGenerationContext);
+    }
+
+    /**
+     * Restores the static state captured with the invocation, non-public fields are set with reflection. The original
+     * values are saved first so {@link #getStaticRestore()} can put them back once the test is done
+     */
+    public List<String> getStaticInitialization() {
+        List<String> code = new ArrayList<>();
+        staticRestore.clear();
+        StaticSnapshot staticState = invocation.getStaticState();
+        if(staticState == null) {
+            return code;
+        }
+        String shortName = parentClass.getName().substring(parentClass.getName().lastIndexOf('.') + 1);
+        String[] reflectionNames = new String[staticState.getFieldCount()];
+        for(int iter = 0 ; iter < staticState.getFieldCount() ; iter++) {
+            String fieldName = staticState.getFieldNames()[iter];
+            String reflectionName = codeGenerationContext.uniqueName("static" +
+                    Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1) + "Field");
+            String originalName = codeGenerationContext.uniqueName(reflectionName + "Original");
+            reflectionNames[iter] = reflectionName;
+            code.add("java.lang.reflect.Field " + reflectionName + " = " + shortName +
+                    ".class.getDeclaredField(\"" + fieldName + "\");");
+            if(!staticState.getPublicFields()[iter]) {
+                code.add(reflectionName + ".setAccessible(true);");
+            }
+            code.add("Object " + originalName + " = " + reflectionName + ".get(null);");
+            staticRestore.add(reflectionName + ".set(null, " + originalName + ");");
+        }
+        for(int iter = 0 ; iter < staticState.getFieldCount() ; iter++) {
+            String fieldName = staticState.getFieldNames()[iter];
+            BaseType type = staticState.getFieldTypes()[iter];
+            Object value = staticState.getValues()[iter];
+            String valueName = codeGenerationContext.uniqueName("static" +
+                    Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1));
+            List<String> prefix = type.getCodePrefix(valueName, value, codeGenerationContext);
+            if(prefix != null) {
+                code.addAll(prefix);
+            }
+            String representation = type.getCodeRepresentation(valueName, value, codeGenerationContext);
+            if(staticState.getPublicFields()[iter]) {
+                code.add(shortName + "." + fieldName + " = " + representation + ";");
+            } else {
+                code.add(reflectionNames[iter] + ".set(null, " + representation + ");");
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Puts back the static values saved by {@link #getStaticInitialization()} so the state doesn't leak into the
+     * other tests, empty if the invocation has no static state
+     */
+    public List<String> getStaticRestore() {
+        return staticRestore;
     }
 
     public Set<String> getCustomImports() {
-        Set<String> imports = internalCalls.stream().map(inv -> inv.getStack()[0].getParentClass().getName())
+        Set<String> imports = internalCalls.stream().map(inv -> inv.getInvokedMethod().getParentClass().getName())
                 .collect(Collectors.toSet());
         imports.add(parentClass.getName());
         imports.addAll(mockedClassSet());
@@ -62,7 +131,7 @@ public class TestGenerator {
 
     private Set<String> mockedClassSet() {
         return internalCalls.stream()
-                .map(inv -> inv.getStack()[0].getParentClass().getName())
+                .map(inv -> inv.getInvokedMethod().getParentClass().getName())
                 .collect(Collectors.toSet());
     }
 
@@ -74,15 +143,21 @@ public class TestGenerator {
             mocks.add(shortName + " " + shortName + "Mock = Mockito.mock(" + shortName + ".class);");
         }
         for(Invocation currentInvocation : internalCalls) {
-            ParentMethod method = currentInvocation.getStack()[0];
+            ParentMethod method = currentInvocation.getInvokedMethod();
             if(method.getReturnType() != PrimitiveAndWrapperType.VOID) {
                 mocks.addAll(getArgumentInitialization(method, currentInvocation.getArguments()));
-                method.getReturnType().getCodePrefix(method.getName() + "ReturnValue", currentInvocation.getResult());
+                String returnValueName = codeGenerationContext.uniqueName(method.getName() + "ReturnValue");
+                List<String> returnValuePrefix = method.getReturnType().getCodePrefix(returnValueName,
+                        currentInvocation.getResult(), codeGenerationContext);
+                if(returnValuePrefix != null) {
+                    mocks.addAll(returnValuePrefix);
+                }
                 String shortName = method.getParentClass().getName();
                 shortName = shortName.substring(shortName.lastIndexOf('.') + 1);
-                mocks.add("Mockito.lenient().when(" + shortName + "Mock." + currentInvocation.getStack()[0].getName() + "(" +
+                mocks.add("Mockito.lenient().when(" + shortName + "Mock." + method.getName() + "(" +
                         getArguments(method, currentInvocation.getArguments()) + ")).thenReturn(" +
-                        method.getReturnType().getCodeRepresentation("", currentInvocation.getResult()) + ");");
+                        method.getReturnType().getCodeRepresentation(returnValueName, currentInvocation.getResult(),
+                                codeGenerationContext) + ");");
             }
         }
         return mocks;
@@ -94,7 +169,7 @@ public class TestGenerator {
         for(int iter = 0 ; iter < baseTypes.length ; iter++) {
             BaseType type = baseTypes[iter];
             List<String> initializationCode = type.getCodePrefix(parentMethod.getName() + "Arg" + (iter + 1),
-                    arguments[iter]);
+                    arguments[iter], codeGenerationContext);
             if(initializationCode != null) {
                 returnValue.addAll(initializationCode);
             }
@@ -112,7 +187,7 @@ public class TestGenerator {
         for(int iter = 0 ; iter < baseTypes.length ; iter++) {
             BaseType type = baseTypes[iter];
             returnValue.append(type.getCodeRepresentation(parentMethod.getName() + "Arg" + (iter + 1),
-                    arguments[iter]));
+                    arguments[iter], codeGenerationContext));
             if(iter < baseTypes.length - 1) {
                 returnValue.append(", ");
             }
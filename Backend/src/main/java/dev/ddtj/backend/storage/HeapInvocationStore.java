@@ -0,0 +1,88 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.ChunkedAppendLog;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+
+/**
+ * Keeps the invocations as objects on the heap, the row is the index of the invocation in the log. This is the store
+ * of methods that aren't part of a session and of sessions that don't use the off heap store.
+ */
+public class HeapInvocationStore implements InvocationStore {
+    private static final int CHUNK_BITS = 8;
+
+    private final ChunkedAppendLog<Invocation> invocations = new ChunkedAppendLog<>(CHUNK_BITS);
+
+    @Override
+    public long store(Invocation invocation) {
+        return invocations.append(invocation);
+    }
+
+    @Override
+    public Invocation load(long row) {
+        return invocations.get((int) row);
+    }
+
+    @Override
+    public long getId(long row) {
+        Invocation invocation = load(row);
+        return invocation == null ? 0 : invocation.getId();
+    }
+
+    @Override
+    public long getTime(long row) {
+        Invocation invocation = load(row);
+        return invocation == null ? 0 : invocation.getTime();
+    }
+
+    @Override
+    public long getDurationNanos(long row) {
+        Invocation invocation = load(row);
+        return invocation == null ? 0 : invocation.getDurationNanos();
+    }
+
+    @Override
+    public long getParentId(long row) {
+        Invocation invocation = load(row);
+        return invocation == null ? InvocationId.INVALID : invocation.getParentId();
+    }
+
+    @Override
+    public CallPathNode getCallPath(long row) {
+        Invocation invocation = load(row);
+        return invocation == null ? null : invocation.getCallPath();
+    }
+
+    @Override
+    public int size() {
+        return invocations.count();
+    }
+
+    @Override
+    public void release(long row) {
+        invocations.clear((int) row);
+    }
+
+    @Override
+    public void close() {
+        // the invocations are released with the store
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import lombok.extern.java.Log;
+
+/**
+ * Notifies stores when the heap of the backend fills up. The heap pools are given a collection usage threshold, so
+ * the {@code MemoryMXBean} notifies us when the heap is still above the threshold right after a garbage collection,
+ * i.e. the memory is really in use and not just garbage that wasn't collected yet. The thresholds are shared by the
+ * whole JVM so the lowest threshold requested by a listener applies to all of them. Listeners run on a background
+ * thread so the notification thread isn't blocked while a store moves data. Listeners are weakly referenced, a store
+ * that's no longer used stops being notified once it's collected.
+ */
+@Log
+public final class HeapPressureMonitor {
+    private static final HeapPressureMonitor INSTANCE = new HeapPressureMonitor();
+
+    private final List<WeakReference<Runnable>> listeners = new CopyOnWriteArrayList<>();
+    private double threshold = 1;
+    private boolean installed;
+    private ExecutorService executor;
+
+    private HeapPressureMonitor() {}
+
+    public static HeapPressureMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Invokes the listener whenever a heap pool is above the given fraction of its maximum after a collection
+     */
+    public synchronized void addListener(double fraction, Runnable listener) {
+        listeners.add(new WeakReference<>(listener));
+        if(!installed) {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+                    .addNotificationListener((notification, handback) -> handleNotification(notification), null, null);
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ddtj-heap-pressure");
+                thread.setDaemon(true);
+                return thread;
+            });
+            installed = true;
+        }
+        if(fraction < threshold) {
+            threshold = fraction;
+            applyThreshold();
+        }
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.removeIf(reference -> reference.get() == null || reference.get() == listener);
+    }
+
+    private void applyThreshold() {
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getUsage();
+            if(pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && usage != null &&
+                    usage.getMax() > 0) {
+                pool.setCollectionUsageThreshold((long) (usage.getMax() * threshold));
+            }
+        }
+    }
+
+    private void handleNotification(Notification notification) {
+        if(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            log.fine("Heap usage passed " + Math.round(threshold * 100) + "% after a collection");
+            fire();
+        }
+    }
+
+    /**
+     * Runs the listeners in the background as if the heap passed the threshold
+     */
+    public synchronized void fire() {
+        if(executor == null) {
+            return;
+        }
+        listeners.removeIf(reference -> reference.get() == null);
+        for(WeakReference<Runnable> reference : listeners) {
+            Runnable listener = reference.get();
+            if(listener == null) {
+                continue;
+            }
+            executor.execute(() -> {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Heap pressure listener failed", e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.Invocation;
+
+/**
+ * Storage of the completed invocations of a session. An invocation is stored once when it exits and is referred to by
+ * its row from then on, the columns needed to list and search invocations can be read without loading the whole
+ * invocation.
+ */
+public interface InvocationStore {
+    /**
+     * Stores a completed invocation, this can be invoked concurrently by several threads
+     *
+     * @return the row of the invocation
+     */
+    long store(Invocation invocation);
+
+    /**
+     * Loads the invocation, depending on the store this can be a new instance for every invocation of this method
+     */
+    Invocation load(long row);
+
+    long getId(long row);
+
+    long getTime(long row);
+
+    long getDurationNanos(long row);
+
+    long getParentId(long row);
+
+    CallPathNode getCallPath(long row);
+
+    /**
+     * The number of stored invocations
+     */
+    int size();
+
+    /**
+     * Removes an invocation that was evicted, the row can't be loaded afterwards. The memory is freed as soon as the
+     * store can reuse or drop the space, e.g. once all the invocations of a segment were released.
+     */
+    void release(long row);
+
+    /**
+     * The approximate number of bytes held by the stored invocations or zero if the store can't tell, the heap
+     * store leaves the size of its objects to the garbage collector
+     */
+    default long getStoredBytes() {
+        return 0;
+    }
+
+    /**
+     * Writes the stored invocations to durable storage, stores that only keep the invocations in memory ignore this
+     */
+    default void flush() {
+    }
+
+    /**
+     * Releases the memory of the store, the rows can't be loaded afterwards
+     */
+    void close();
+}
@@ -0,0 +1,224 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.Invocation;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import lombok.extern.java.Log;
+
+/**
+ * An {@link OffHeapInvocationStore} whose segments are memory mapped files in the directory of a recording, so the
+ * recording outlives the backend. The objects the rows refer to, e.g. types, layouts and call paths, are appended to
+ * a {@link ReferenceLog} in the same directory when they're first stored. A recording that's opened again is read
+ * only, its segments are mapped for reading and its rows are listed with {@link #streamRows()}.
+ */
+@Log
+public class MappedInvocationStore extends OffHeapInvocationStore {
+    private static final String REFERENCES_FILE = "references.log";
+    private static final String ROWS_PREFIX = "rows-";
+    private static final String VALUES_PREFIX = "values-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final boolean readOnly;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private ReferenceLog referenceLog;
+
+    private MappedInvocationStore(Path directory, int valueSegmentBytes, ReferenceTable references,
+                                  boolean readOnly) {
+        super(valueSegmentBytes, references);
+        this.directory = directory;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Creates a new recording in the given directory, the directory must not contain a recording
+     */
+    public static MappedInvocationStore create(Path directory, int sessionPrefix, int valueSegmentBytes)
+            throws IOException {
+        Files.createDirectories(directory);
+        ReferenceTable references = new ReferenceTable();
+        MappedInvocationStore store = new MappedInvocationStore(directory, valueSegmentBytes, references, false);
+        store.referenceLog = ReferenceLog.create(directory.resolve(REFERENCES_FILE), references, sessionPrefix,
+                System.currentTimeMillis());
+        return store;
+    }
+
+    /**
+     * Opens the recording in the given directory for reading
+     */
+    public static MappedInvocationStore open(Path directory) throws IOException {
+        ReferenceTable references = new ReferenceTable();
+        MappedInvocationStore store = new MappedInvocationStore(directory, DEFAULT_VALUE_SEGMENT_BYTES, references,
+                true);
+        store.referenceLog = ReferenceLog.open(directory.resolve(REFERENCES_FILE), references);
+        store.restore(store.mapExisting(ROWS_PREFIX), store.mapExisting(VALUES_PREFIX));
+        return store;
+    }
+
+    /**
+     * Returns true if the directory holds a recording
+     */
+    public static boolean isRecording(Path directory) {
+        return Files.isRegularFile(directory.resolve(REFERENCES_FILE));
+    }
+
+    private static Path segmentFile(Path directory, String prefix, int segment) {
+        return directory.resolve(String.format("%s%05d%s", prefix, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Maps the segment files of the recording, the files of segments that were released are gone so their segments
+     * are null
+     */
+    private ByteBuffer[] mapExisting(String prefix) throws IOException {
+        List<ByteBuffer> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if(!name.startsWith(prefix) || !name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                int segment = Integer.parseInt(name.substring(prefix.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                while (result.size() <= segment) {
+                    result.add(null);
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    result.set(segment, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+            }
+        }
+        return result.toArray(new ByteBuffer[0]);
+    }
+
+    private ByteBuffer map(String prefix, int segment, int capacity) {
+        Path file = segmentFile(directory, prefix, segment);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            segments.add(buffer);
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create the recording segment " + file, e);
+        }
+    }
+
+    @Override
+    protected ByteBuffer allocateRows(int segment, int capacity) {
+        return map(ROWS_PREFIX, segment, capacity);
+    }
+
+    @Override
+    protected ByteBuffer allocateValues(int segment, int capacity) {
+        return map(VALUES_PREFIX, segment, capacity);
+    }
+
+    @Override
+    protected void freeRows(int segment, ByteBuffer buffer) {
+        deleteSegment(ROWS_PREFIX, segment, buffer);
+    }
+
+    @Override
+    protected void freeValues(int segment, ByteBuffer buffer) {
+        deleteSegment(VALUES_PREFIX, segment, buffer);
+    }
+
+    /**
+     * The mapping is released once the buffer is collected, the file can be deleted right away on most platforms
+     */
+    private void deleteSegment(String prefix, int segment, ByteBuffer buffer) {
+        if(readOnly) {
+            return;
+        }
+        segments.removeIf(mapped -> mapped == buffer);
+        Path file = segmentFile(directory, prefix, segment);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to delete the released recording segment " + file, e);
+        }
+    }
+
+    @Override
+    public long store(Invocation invocation) {
+        if(readOnly) {
+            throw new IllegalStateException("The recording " + directory + " is read only");
+        }
+        return super.store(invocation);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public int getSessionPrefix() {
+        return referenceLog.getSessionPrefix();
+    }
+
+    /**
+     * The time in milliseconds when the recording was created
+     */
+    public long getStartTime() {
+        return referenceLog.getStartTime();
+    }
+
+    @Override
+    public void flush() {
+        if(readOnly) {
+            return;
+        }
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        try {
+            referenceLog.flush();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to flush the recording " + directory, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            referenceLog.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close the recording " + directory, e);
+        }
+        segments.clear();
+        super.close();
+    }
+}
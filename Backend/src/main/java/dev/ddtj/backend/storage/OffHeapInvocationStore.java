@@ -0,0 +1,426 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.StaticSnapshot;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * Stores invocations outside of the Java heap so the heap doesn't grow with the length of the recording. Rows are
+ * grouped into segments and every segment stores its columns one after the other, so the columns used to list and
+ * search the invocations (ids, times, threads) are read without touching the captured values. The arguments, fields,
+ * result and children of an invocation are encoded with the {@link ValueCodec} into a separate value area and only
+ * decoded when the invocation is loaded, e.g. to generate a test.
+ *
+ * Storing takes a lock only to allocate a new segment or the space for the values, the encoding and the copy run
+ * concurrently.
+ *
+ * A released row gets a zero id. Once all the rows of a row segment or all the values of a value segment that's no
+ * longer written to were released the segment is dropped, so evicting the oldest invocations frees their memory.
+ */
+public class OffHeapInvocationStore implements InvocationStore {
+    public static final int DEFAULT_VALUE_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    private static final int ROW_BITS = 12;
+    private static final int ROWS_PER_SEGMENT = 1 << ROW_BITS;
+    private static final int ROW_MASK = ROWS_PER_SEGMENT - 1;
+
+    private static final int ID = 0;
+    private static final int TIME = ID + 8 * ROWS_PER_SEGMENT;
+    private static final int END_TIME = TIME + 8 * ROWS_PER_SEGMENT;
+    private static final int START_NANOS = END_TIME + 8 * ROWS_PER_SEGMENT;
+    private static final int END_NANOS = START_NANOS + 8 * ROWS_PER_SEGMENT;
+    private static final int THREAD_ID = END_NANOS + 8 * ROWS_PER_SEGMENT;
+    private static final int PARENT_ID = THREAD_ID + 8 * ROWS_PER_SEGMENT;
+    private static final int VALUE_ADDRESS = PARENT_ID + 8 * ROWS_PER_SEGMENT;
+    private static final int CALL_PATH = VALUE_ADDRESS + 8 * ROWS_PER_SEGMENT;
+    private static final int VALUE_LENGTH = CALL_PATH + 4 * ROWS_PER_SEGMENT;
+    private static final int ROW_SEGMENT_BYTES = VALUE_LENGTH + 4 * ROWS_PER_SEGMENT;
+    private static final int ROW_BYTES = ROW_SEGMENT_BYTES / ROWS_PER_SEGMENT;
+
+    private static final int INITIAL_ENCODING_BYTES = 4096;
+
+    private final int valueSegmentBytes;
+    private final ReferenceTable references;
+    private final ValueCodec codec;
+    private final ThreadLocal<ValueCodec.Output> encodingBuffer =
+            ThreadLocal.withInitial(() -> new ValueCodec.Output(INITIAL_ENCODING_BYTES));
+    private final AtomicInteger rowCount = new AtomicInteger();
+    private final AtomicInteger storedCount = new AtomicInteger();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    private volatile ByteBuffer[] rowSegments = new ByteBuffer[0];
+    private volatile ByteBuffer[] valueSegments = new ByteBuffer[0];
+    private int valueOffset;
+
+    /**
+     * The number of released rows of every row segment and the bytes that weren't released of every value segment,
+     * these are guarded by the lock of the store
+     */
+    private int[] releasedRows = new int[0];
+    private int[] liveValueBytes = new int[0];
+
+    public OffHeapInvocationStore() {
+        this(DEFAULT_VALUE_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param valueSegmentBytes the size of the buffers that hold the encoded values, an invocation whose values don't
+     *                          fit gets a buffer of its own
+     */
+    public OffHeapInvocationStore(int valueSegmentBytes) {
+        this(valueSegmentBytes, new ReferenceTable());
+    }
+
+    protected OffHeapInvocationStore(int valueSegmentBytes, ReferenceTable references) {
+        this.valueSegmentBytes = valueSegmentBytes;
+        this.references = references;
+        codec = new ValueCodec(references);
+    }
+
+    /**
+     * Allocates the memory of a row segment
+     *
+     * @param segment the index of the segment
+     */
+    protected ByteBuffer allocateRows(int segment, int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Allocates the memory of a value segment
+     *
+     * @param segment the index of the segment
+     */
+    protected ByteBuffer allocateValues(int segment, int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Invoked once all the rows of a segment were released, the segment was removed from the store
+     */
+    protected void freeRows(int segment, ByteBuffer buffer) {
+    }
+
+    /**
+     * Invoked once all the values of a segment were released, the segment was removed from the store
+     */
+    protected void freeValues(int segment, ByteBuffer buffer) {
+    }
+
+    /**
+     * Installs segments that were stored before, e.g. by a previous run of the backend. Rows whose id is zero weren't
+     * completely stored and are skipped.
+     */
+    protected synchronized void restore(ByteBuffer[] rows, ByteBuffer[] values) {
+        rowSegments = rows;
+        valueSegments = values;
+        valueOffset = values.length == 0 ? 0 : values[values.length - 1].capacity();
+        rowCount.set(rows.length * ROWS_PER_SEGMENT);
+        releasedRows = new int[rows.length];
+        liveValueBytes = new int[values.length];
+        streamRows().forEach(row -> {
+            ByteBuffer segment = segmentOf(row);
+            int index = (int) row & ROW_MASK;
+            int length = segment.getInt(VALUE_LENGTH + index * 4);
+            liveValueBytes[(int) (segment.getLong(VALUE_ADDRESS + index * 8) >>> 32)] += length;
+            storedBytes.addAndGet(length + ROW_BYTES);
+            storedCount.incrementAndGet();
+        });
+    }
+
+    protected ReferenceTable getReferences() {
+        return references;
+    }
+
+    @Override
+    public long store(Invocation invocation) {
+        ValueCodec.Output out = encodingBuffer.get();
+        out.reset();
+        encodeValues(invocation, out);
+        ByteBuffer encoded = out.toBuffer();
+        int length = encoded.remaining();
+        long valueAddress = allocateValue(length);
+        ByteBuffer target = valueSegments[(int) (valueAddress >>> 32)].duplicate();
+        target.position((int) valueAddress);
+        target.put(encoded);
+
+        int row = rowCount.getAndIncrement();
+        ByteBuffer segment = rowSegment(row >>> ROW_BITS);
+        int index = row & ROW_MASK;
+        segment.putLong(TIME + index * 8, invocation.getTime());
+        segment.putLong(END_TIME + index * 8, invocation.getEndTime());
+        segment.putLong(START_NANOS + index * 8, invocation.getStartNanos());
+        segment.putLong(END_NANOS + index * 8, invocation.getEndNanos());
+        segment.putLong(THREAD_ID + index * 8, invocation.getThreadId());
+        segment.putLong(PARENT_ID + index * 8, invocation.getParentId());
+        segment.putLong(VALUE_ADDRESS + index * 8, valueAddress);
+        CallPathNode callPath = invocation.getCallPath();
+        segment.putInt(CALL_PATH + index * 4, callPath == null ? -1 : references.indexOf(callPath));
+        segment.putInt(VALUE_LENGTH + index * 4, length);
+        // the id is written last so a row with a zero id is known to be incomplete
+        segment.putLong(ID + index * 8, invocation.getId());
+        storedCount.incrementAndGet();
+        storedBytes.addAndGet(length + ROW_BYTES);
+        return row;
+    }
+
+    private void encodeValues(Invocation invocation, ValueCodec.Output out) {
+        codec.encodeRecord(invocation.getArgumentRecord(), out);
+        codec.encodeRecord(invocation.getFieldRecord(), out);
+        byte resultKind = invocation.getResultKind();
+        out.writeByte(resultKind);
+        if(resultKind == RecordLayout.REFERENCE) {
+            codec.encode(invocation.getResult(), out);
+        } else {
+            out.writeLong(invocation.getPrimitiveResultBits());
+        }
+        out.writeString(invocation.getThrownException());
+        StaticSnapshot staticState = invocation.getStaticState();
+        out.writeInt(staticState == null ? -1 : references.indexOf(staticState));
+        long[] childIds = invocation.getChildIds();
+        out.writeInt(childIds.length);
+        for(long childId : childIds) {
+            out.writeLong(childId);
+        }
+    }
+
+    @Override
+    public Invocation load(long row) {
+        ByteBuffer segment = segmentOf(row);
+        int index = (int) row & ROW_MASK;
+        if(segment == null || segment.getLong(ID + index * 8) == 0) {
+            return null;
+        }
+        long valueAddress = segment.getLong(VALUE_ADDRESS + index * 8);
+        ByteBuffer[] segments = valueSegments;
+        int valueSegment = (int) (valueAddress >>> 32);
+        ByteBuffer values = valueSegment < segments.length ? segments[valueSegment] : null;
+        if(values == null) {
+            return null;
+        }
+        Invocation invocation = new Invocation();
+        invocation.setId(segment.getLong(ID + index * 8));
+        invocation.setTime(segment.getLong(TIME + index * 8));
+        invocation.setEndTime(segment.getLong(END_TIME + index * 8));
+        invocation.setStartNanos(segment.getLong(START_NANOS + index * 8));
+        invocation.setEndNanos(segment.getLong(END_NANOS + index * 8));
+        invocation.setThreadId(segment.getLong(THREAD_ID + index * 8));
+        invocation.setParentId(segment.getLong(PARENT_ID + index * 8));
+        invocation.setCallPath(getCallPath(row));
+
+        int length = segment.getInt(VALUE_LENGTH + index * 4);
+        ByteBuffer in = values.duplicate();
+        in.limit((int) valueAddress + length);
+        in.position((int) valueAddress);
+        invocation.setArgumentRecord(codec.decodeRecord(in));
+        invocation.setFieldRecord(codec.decodeRecord(in));
+        byte resultKind = in.get();
+        if(resultKind == RecordLayout.REFERENCE) {
+            invocation.setResult(codec.decode(in));
+        } else {
+            invocation.setPrimitiveResultBits(resultKind, in.getLong());
+        }
+        invocation.setThrownException(ValueCodec.readString(in));
+        int staticState = in.getInt();
+        if(staticState >= 0) {
+            invocation.setStaticState((StaticSnapshot) references.get(staticState));
+        }
+        long[] childIds = new long[in.getInt()];
+        for(int iter = 0 ; iter < childIds.length ; iter++) {
+            childIds[iter] = in.getLong();
+        }
+        invocation.setChildIds(childIds);
+        return invocation;
+    }
+
+    /**
+     * Returns zero for a row that was released
+     */
+    @Override
+    public long getId(long row) {
+        ByteBuffer segment = segmentOf(row);
+        return segment == null ? 0 : segment.getLong(ID + ((int) row & ROW_MASK) * 8);
+    }
+
+    @Override
+    public long getParentId(long row) {
+        ByteBuffer segment = liveSegmentOf(row);
+        return segment == null ? InvocationId.INVALID : segment.getLong(PARENT_ID + ((int) row & ROW_MASK) * 8);
+    }
+
+    /**
+     * Streams the rows that were stored so far in row order
+     */
+    public LongStream streamRows() {
+        return LongStream.range(0, rowCount.get()).filter(row -> getId(row) != 0);
+    }
+
+    @Override
+    public CallPathNode getCallPath(long row) {
+        ByteBuffer segment = liveSegmentOf(row);
+        int callPath = segment == null ? -1 : segment.getInt(CALL_PATH + ((int) row & ROW_MASK) * 4);
+        return callPath < 0 ? null : (CallPathNode) references.get(callPath);
+    }
+
+    @Override
+    public long getTime(long row) {
+        ByteBuffer segment = liveSegmentOf(row);
+        return segment == null ? 0 : segment.getLong(TIME + ((int) row & ROW_MASK) * 8);
+    }
+
+    @Override
+    public long getDurationNanos(long row) {
+        ByteBuffer segment = liveSegmentOf(row);
+        if(segment == null) {
+            return 0;
+        }
+        int index = (int) row & ROW_MASK;
+        return segment.getLong(END_NANOS + index * 8) - segment.getLong(START_NANOS + index * 8);
+    }
+
+    @Override
+    public int size() {
+        return storedCount.get();
+    }
+
+    /**
+     * The bytes of the row and the encoded values of the stored invocations
+     */
+    @Override
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    @Override
+    public synchronized void release(long row) {
+        int segmentIndex = (int) (row >>> ROW_BITS);
+        ByteBuffer segment = segmentOf(row);
+        int index = (int) row & ROW_MASK;
+        if(segment == null || segment.getLong(ID + index * 8) == 0) {
+            return;
+        }
+        long valueAddress = segment.getLong(VALUE_ADDRESS + index * 8);
+        int length = segment.getInt(VALUE_LENGTH + index * 4);
+        segment.putLong(ID + index * 8, 0);
+        storedCount.decrementAndGet();
+        storedBytes.addAndGet(-(length + ROW_BYTES));
+
+        if(segmentIndex >= releasedRows.length) {
+            releasedRows = Arrays.copyOf(releasedRows, rowSegments.length);
+        }
+        if(++releasedRows[segmentIndex] == ROWS_PER_SEGMENT) {
+            rowSegments = dropSegment(rowSegments, segmentIndex);
+            freeRows(segmentIndex, segment);
+        }
+        int valueSegment = (int) (valueAddress >>> 32);
+        liveValueBytes[valueSegment] -= length;
+        if(liveValueBytes[valueSegment] == 0 && valueSegment < valueSegments.length - 1) {
+            ByteBuffer values = valueSegments[valueSegment];
+            valueSegments = dropSegment(valueSegments, valueSegment);
+            freeValues(valueSegment, values);
+        }
+    }
+
+    /**
+     * Readers use the segment arrays without locking so a dropped segment is removed from a copy
+     */
+    private static ByteBuffer[] dropSegment(ByteBuffer[] segments, int segmentIndex) {
+        ByteBuffer[] result = segments.clone();
+        result[segmentIndex] = null;
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        rowSegments = new ByteBuffer[0];
+        valueSegments = new ByteBuffer[0];
+    }
+
+    /**
+     * The segment of the row or null if it was dropped, or if the store was closed
+     */
+    private ByteBuffer segmentOf(long row) {
+        ByteBuffer[] segments = rowSegments;
+        int segmentIndex = (int) (row >>> ROW_BITS);
+        return segmentIndex >= 0 && segmentIndex < segments.length ? segments[segmentIndex] : null;
+    }
+
+    /**
+     * The segment of the row or null if the row was released, the columns of a released row are stale
+     */
+    private ByteBuffer liveSegmentOf(long row) {
+        ByteBuffer segment = segmentOf(row);
+        return segment == null || segment.getLong(ID + ((int) row & ROW_MASK) * 8) == 0 ? null : segment;
+    }
+
+    private ByteBuffer rowSegment(int segmentIndex) {
+        ByteBuffer[] segments = rowSegments;
+        if(segmentIndex < segments.length) {
+            return segments[segmentIndex];
+        }
+        return addRowSegment(segmentIndex);
+    }
+
+    private synchronized ByteBuffer addRowSegment(int segmentIndex) {
+        ByteBuffer[] segments = rowSegments;
+        if(segmentIndex >= segments.length) {
+            segments = Arrays.copyOf(segments, segmentIndex + 1);
+            for(int iter = rowSegments.length ; iter <= segmentIndex ; iter++) {
+                segments[iter] = allocateRows(iter, ROW_SEGMENT_BYTES);
+            }
+            rowSegments = segments;
+        }
+        return segments[segmentIndex];
+    }
+
+    /**
+     * Reserves space for the values of an invocation
+     *
+     * @return the index of the value segment in the upper 32 bits and the offset within the segment in the lower bits
+     */
+    private synchronized long allocateValue(int length) {
+        ByteBuffer[] segments = valueSegments;
+        if(segments.length == 0 || valueOffset + length > segments[segments.length - 1].capacity()) {
+            if(segments.length > 0 && liveValueBytes[segments.length - 1] == 0) {
+                // everything in the segment we're leaving was already released
+                ByteBuffer released = segments[segments.length - 1];
+                segments = dropSegment(segments, segments.length - 1);
+                freeValues(segments.length - 1, released);
+            }
+            segments = Arrays.copyOf(segments, segments.length + 1);
+            liveValueBytes = Arrays.copyOf(liveValueBytes, segments.length);
+            segments[segments.length - 1] = allocateValues(segments.length - 1,
+                    Math.max(valueSegmentBytes, length));
+            valueSegments = segments;
+            valueOffset = 0;
+        }
+        long address = ((long) (segments.length - 1) << 32) | valueOffset;
+        valueOffset += length;
+        liveValueBytes[segments.length - 1] += length;
+        return address;
+    }
+}
@@ -0,0 +1,518 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.CaptureProfile;
+import dev.ddtj.backend.data.ParentClass;
+import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.StaticSnapshot;
+import dev.ddtj.backend.data.objectmodel.ArrayObjectOrPrimitiveType;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CollectionType;
+import dev.ddtj.backend.data.objectmodel.EnumType;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.RecordType;
+import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Appends the objects of a {@link ReferenceTable} to a file as they're added so the values of a recording can be
+ * decoded after the backend restarts. Types are written as descriptors of what the code generator needs, methods and
+ * classes by name and call paths as links to their parent node. Every entry starts with its length and its index in
+ * the table, an object is written after the objects it refers to unless they refer back to it, so entries are
+ * resolved by index when the log is read. A torn entry at the end of the file, e.g. after a crash, is ignored.
+ */
+@Log
+public class ReferenceLog implements ReferenceTable.Listener, Closeable {
+    private static final int MAGIC = 0x64647472;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+
+    private static final byte BUILTIN_TYPE = 0;
+    private static final byte OBJECT_TYPE = 1;
+    private static final byte RECORD_TYPE = 2;
+    private static final byte ARRAY_TYPE = 3;
+    private static final byte COLLECTION_TYPE = 4;
+    private static final byte ENUM_TYPE = 5;
+    private static final byte LAYOUT = 6;
+    private static final byte CLASS = 7;
+    private static final byte PARENT_CLASS = 8;
+    private static final byte METHOD = 9;
+    private static final byte CALL_PATH = 10;
+    private static final byte STATIC_SNAPSHOT = 11;
+    private static final byte NOT_CAPTURED = 12;
+    private static final byte UNSUPPORTED = 13;
+
+    private static final int INITIAL_ENTRY_BYTES = 256;
+
+    private final FileChannel channel;
+    private final ReferenceTable references;
+    private final ValueCodec codec;
+    private final int sessionPrefix;
+    private final long startTime;
+    private boolean failed;
+
+    private ReferenceLog(FileChannel channel, ReferenceTable references, int sessionPrefix, long startTime) {
+        this.channel = channel;
+        this.references = references;
+        this.sessionPrefix = sessionPrefix;
+        this.startTime = startTime;
+        codec = new ValueCodec(references);
+    }
+
+    /**
+     * Creates a new log and appends every object that's added to the table from now on
+     */
+    public static ReferenceLog create(Path file, ReferenceTable references, int sessionPrefix, long startTime)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sessionPrefix).putLong(startTime).flip();
+        writeFully(channel, header);
+        ReferenceLog referenceLog = new ReferenceLog(channel, references, sessionPrefix, startTime);
+        references.setListener(referenceLog);
+        return referenceLog;
+    }
+
+    /**
+     * Reads the log of a recording and restores its objects into the table at their original indexes
+     */
+    public static ReferenceLog open(Path file, ReferenceTable references) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(in.remaining() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a recording or an unsupported version: " + file);
+            }
+            int sessionPrefix = in.getInt();
+            long startTime = in.getLong();
+            Map<Integer, ByteBuffer> entries = new HashMap<>();
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.getInt();
+                if(length < Integer.BYTES + 1 || length > in.remaining()) {
+                    log.warning("Ignoring a partially written entry at the end of " + file);
+                    break;
+                }
+                ByteBuffer entry = in.slice();
+                entry.limit(length);
+                in.position(in.position() + length);
+                entries.put(entry.getInt(), entry);
+            }
+            Reader reader = new Reader(references, entries);
+            try {
+                for(int index : entries.keySet()) {
+                    reader.resolve(index);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Failed to read the recording " + file, e);
+            }
+            return new ReferenceLog(null, references, sessionPrefix, startTime);
+        }
+    }
+
+    public int getSessionPrefix() {
+        return sessionPrefix;
+    }
+
+    /**
+     * The time in milliseconds when the recording was created
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public void added(int index, Object object) {
+        if(channel == null || failed) {
+            return;
+        }
+        ValueCodec.Output out = new ValueCodec.Output(INITIAL_ENTRY_BYTES);
+        out.writeInt(0);
+        out.writeInt(index);
+        // objects this one refers to are added to the table here and written before it
+        writeEntry(object, out);
+        ByteBuffer entry = out.toBuffer();
+        entry.putInt(0, entry.remaining() - Integer.BYTES);
+        try {
+            writeFully(channel, entry);
+        } catch (IOException e) {
+            // the session keeps working in memory, but the recording can't be opened again
+            log.log(Level.SEVERE, "Failed to append to the recording, it won't be readable", e);
+            failed = true;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private int indexOf(Object object) {
+        return object == null ? -1 : references.indexOf(object);
+    }
+
+    private int typeIndex(BaseType type) {
+        return type == null ? -1 : references.indexOf(type.unwrap());
+    }
+
+    private void writeEntry(Object object, ValueCodec.Output out) {
+        if(object instanceof BaseType) {
+            writeType(((BaseType) object).unwrap(), out);
+        } else if(object instanceof RecordLayout) {
+            RecordLayout layout = (RecordLayout) object;
+            out.writeByte(LAYOUT);
+            out.writeInt(layout.size());
+            for(int slot = 0 ; slot < layout.size() ; slot++) {
+                out.writeByte(layout.getKind(slot));
+            }
+        } else if(object instanceof Class) {
+            out.writeByte(CLASS);
+            out.writeString(((Class<?>) object).getName());
+        } else if(object instanceof ParentClass) {
+            ParentClass parentClass = (ParentClass) object;
+            out.writeByte(PARENT_CLASS);
+            out.writeString(parentClass.getName());
+            out.writeInt(typeIndex(parentClass.getObjectType()));
+            out.writeByte((byte) parentClass.getCaptureProfile().ordinal());
+        } else if(object instanceof ParentMethod) {
+            writeMethod((ParentMethod) object, out);
+        } else if(object instanceof CallPathNode) {
+            CallPathNode node = (CallPathNode) object;
+            out.writeByte(CALL_PATH);
+            out.writeInt(indexOf(node.getParent()));
+            out.writeInt(indexOf(node.getMethod()));
+        } else if(object instanceof StaticSnapshot) {
+            writeStaticSnapshot((StaticSnapshot) object, out);
+        } else if(object == ValueRecord.NOT_CAPTURED) {
+            out.writeByte(NOT_CAPTURED);
+        } else {
+            log.fine("Values of " + object.getClass().getName() + " can't be kept in a recording");
+            out.writeByte(UNSUPPORTED);
+            out.writeString(object.getClass().getName());
+        }
+    }
+
+    private void writeType(BaseType type, ValueCodec.Output out) {
+        if(TypeFactory.builtin(type.getType()) == type) {
+            out.writeByte(BUILTIN_TYPE);
+            out.writeString(type.getType());
+        } else if(type instanceof ObjectType) {
+            ObjectType objectType = (ObjectType) type;
+            out.writeByte(OBJECT_TYPE);
+            out.writeString(type.getType());
+            out.writeByte((byte) objectType.getCreationType().ordinal());
+            int fieldCount = objectType.canObjectBeCreated() ? objectType.getFieldCount() : -1;
+            out.writeInt(fieldCount);
+            for(int iter = 0 ; iter < fieldCount ; iter++) {
+                out.writeString(objectType.getFieldName(iter));
+                out.writeInt(typeIndex(objectType.getField(iter)));
+            }
+            writeStrings(objectType.getSetterMethods(), out);
+            out.writeString(objectType.getConstructorSignature());
+        } else if(type instanceof RecordType) {
+            RecordType recordType = (RecordType) type;
+            out.writeByte(RECORD_TYPE);
+            out.writeString(type.getType());
+            out.writeInt(recordType.getComponentCount());
+            for(int iter = 0 ; iter < recordType.getComponentCount() ; iter++) {
+                out.writeString(recordType.getComponentName(iter));
+                out.writeInt(typeIndex(recordType.getComponentType(iter)));
+            }
+        } else if(type instanceof ArrayObjectOrPrimitiveType) {
+            out.writeByte(ARRAY_TYPE);
+            out.writeString(type.getType());
+            out.writeInt(typeIndex(((ArrayObjectOrPrimitiveType) type).getElementType()));
+        } else if(type instanceof CollectionType) {
+            out.writeByte(COLLECTION_TYPE);
+            out.writeString(type.getType());
+        } else if(type instanceof EnumType) {
+            out.writeByte(ENUM_TYPE);
+            out.writeString(type.getType());
+        } else {
+            out.writeByte(UNSUPPORTED);
+            out.writeString(type.getClass().getName());
+        }
+    }
+
+    private void writeMethod(ParentMethod method, ValueCodec.Output out) {
+        out.writeByte(METHOD);
+        out.writeInt(indexOf(method.getParentClass()));
+        out.writeString(method.getName());
+        out.writeString(method.getSignature());
+        BaseType[] parameters = method.getParameters();
+        out.writeInt(parameters == null ? -1 : parameters.length);
+        if(parameters != null) {
+            for(BaseType parameter : parameters) {
+                out.writeInt(typeIndex(parameter));
+            }
+        }
+        out.writeInt(typeIndex(method.getReturnType()));
+        boolean[] usedFields = method.getUsedFields();
+        out.writeInt(usedFields == null ? -1 : usedFields.length);
+        if(usedFields != null) {
+            for(boolean used : usedFields) {
+                out.writeByte((byte) (used ? 1 : 0));
+            }
+        }
+    }
+
+    private void writeStaticSnapshot(StaticSnapshot snapshot, ValueCodec.Output out) {
+        out.writeByte(STATIC_SNAPSHOT);
+        out.writeString(snapshot.getClassName());
+        out.writeLong(snapshot.getVersion());
+        out.writeLong(snapshot.getTime());
+        out.writeInt(snapshot.getFieldCount());
+        for(int iter = 0 ; iter < snapshot.getFieldCount() ; iter++) {
+            out.writeString(snapshot.getFieldNames()[iter]);
+            out.writeInt(typeIndex(snapshot.getFieldTypes()[iter]));
+            out.writeByte((byte) (snapshot.getPublicFields()[iter] ? 1 : 0));
+            codec.encode(snapshot.getValues()[iter], out);
+        }
+    }
+
+    private static void writeStrings(String[] values, ValueCodec.Output out) {
+        out.writeInt(values == null ? -1 : values.length);
+        if(values != null) {
+            for(String value : values) {
+                out.writeString(value);
+            }
+        }
+    }
+
+    /**
+     * Writes the appended entries to the disk
+     */
+    public void flush() throws IOException {
+        if(channel != null) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel != null) {
+            references.setListener(null);
+            channel.close();
+        }
+    }
+
+    /**
+     * Resolves the entries of a log by index, types and records are placed in the table before their fields are
+     * resolved so types that refer to themselves are restored as the same instance
+     */
+    private static final class Reader {
+        private final ReferenceTable references;
+        private final Map<Integer, ByteBuffer> entries;
+        private final Map<Integer, Object> resolved = new HashMap<>();
+        private final Set<Integer> resolving = new HashSet<>();
+
+        /**
+         * Decodes the values of static snapshots, the objects they refer to are resolved on demand
+         */
+        private final ValueCodec codec = new ValueCodec(new ReferenceTable() {
+            @Override
+            public Object get(int index) {
+                return resolve(index);
+            }
+        });
+
+        Reader(ReferenceTable references, Map<Integer, ByteBuffer> entries) {
+            this.references = references;
+            this.entries = entries;
+        }
+
+        private void register(int index, Object object) {
+            resolved.put(index, object);
+            references.restore(index, object);
+        }
+
+        Object resolve(int index) {
+            if(index < 0) {
+                return null;
+            }
+            if(resolved.containsKey(index)) {
+                return resolved.get(index);
+            }
+            ByteBuffer entry = entries.get(index);
+            if(entry == null) {
+                throw new IllegalStateException("The recording refers to a missing entry " + index);
+            }
+            if(!resolving.add(index)) {
+                throw new IllegalStateException("Entry " + index + " of the recording refers to itself");
+            }
+            ByteBuffer in = entry.duplicate();
+            in.position(Integer.BYTES);
+            byte kind = in.get();
+            if(kind == OBJECT_TYPE || kind == RECORD_TYPE) {
+                readCompositeType(index, kind, in);
+            } else {
+                register(index, read(kind, in));
+            }
+            resolving.remove(index);
+            return resolved.get(index);
+        }
+
+        private BaseType resolveType(int index) {
+            return (BaseType) resolve(index);
+        }
+
+        private void readCompositeType(int index, byte kind, ByteBuffer in) {
+            String type = ValueCodec.readString(in);
+            ObjectType.CreationType creationType = kind == OBJECT_TYPE ?
+                    ObjectType.CreationType.values()[in.get()] : null;
+            int fieldCount = in.getInt();
+            String[] names = fieldCount < 0 ? null : new String[fieldCount];
+            BaseType[] fieldTypes = fieldCount < 0 ? null : new BaseType[fieldCount];
+            int[] typeIndexes = new int[Math.max(0, fieldCount)];
+            for(int iter = 0 ; iter < typeIndexes.length ; iter++) {
+                names[iter] = ValueCodec.readString(in);
+                typeIndexes[iter] = in.getInt();
+            }
+            if(kind == OBJECT_TYPE) {
+                String[] setterMethods = readStrings(in);
+                String constructorSignature = ValueCodec.readString(in);
+                register(index, ObjectType.restore(type, creationType, names, fieldTypes, setterMethods,
+                        constructorSignature));
+            } else {
+                register(index, RecordType.restore(type, names, fieldTypes));
+            }
+            for(int iter = 0 ; iter < typeIndexes.length ; iter++) {
+                fieldTypes[iter] = resolveType(typeIndexes[iter]);
+            }
+        }
+
+        private Object read(byte kind, ByteBuffer in) {
+            switch (kind) {
+                case BUILTIN_TYPE:
+                    return TypeFactory.builtin(ValueCodec.readString(in));
+                case ARRAY_TYPE:
+                    String arrayType = ValueCodec.readString(in);
+                    return new ArrayObjectOrPrimitiveType(arrayType, resolveType(in.getInt()));
+                case COLLECTION_TYPE:
+                    return new CollectionType(ValueCodec.readString(in));
+                case ENUM_TYPE:
+                    return new EnumType(ValueCodec.readString(in));
+                case LAYOUT:
+                    byte[] kinds = new byte[in.getInt()];
+                    in.get(kinds);
+                    return RecordLayout.ofKinds(kinds);
+                case CLASS:
+                    String className = ValueCodec.readString(in);
+                    try {
+                        return Class.forName(className);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException("Unknown array component type " + className, e);
+                    }
+                case PARENT_CLASS:
+                    ParentClass parentClass = new ParentClass();
+                    parentClass.setName(ValueCodec.readString(in));
+                    parentClass.setObjectType((ObjectType) resolveType(in.getInt()));
+                    parentClass.setCaptureProfile(CaptureProfile.values()[in.get()]);
+                    return parentClass;
+                case METHOD:
+                    return readMethod(in);
+                case CALL_PATH:
+                    int parent = in.getInt();
+                    int method = in.getInt();
+                    if(parent < 0) {
+                        return CallPathNode.createRoot();
+                    }
+                    return ((CallPathNode) resolve(parent)).child((ParentMethod) resolve(method));
+                case STATIC_SNAPSHOT:
+                    return readStaticSnapshot(in);
+                case NOT_CAPTURED:
+                    return ValueRecord.NOT_CAPTURED;
+                case UNSUPPORTED:
+                    log.fine("The recording has no value for an object of " + ValueCodec.readString(in));
+                    return null;
+                default:
+                    throw new IllegalStateException("Unknown entry kind " + kind);
+            }
+        }
+
+        private ParentMethod readMethod(ByteBuffer in) {
+            ParentClass parentClass = (ParentClass) resolve(in.getInt());
+            ParentMethod method = new ParentMethod();
+            method.setParentClass(parentClass);
+            method.setName(ValueCodec.readString(in));
+            method.setSignature(ValueCodec.readString(in));
+            int parameterCount = in.getInt();
+            if(parameterCount >= 0) {
+                BaseType[] parameters = new BaseType[parameterCount];
+                for(int iter = 0 ; iter < parameterCount ; iter++) {
+                    parameters[iter] = resolveType(in.getInt());
+                }
+                method.setParameters(parameters);
+            }
+            method.setReturnType(resolveType(in.getInt()));
+            int usedFieldCount = in.getInt();
+            if(usedFieldCount >= 0) {
+                boolean[] usedFields = new boolean[usedFieldCount];
+                for(int iter = 0 ; iter < usedFieldCount ; iter++) {
+                    usedFields[iter] = in.get() != 0;
+                }
+                method.setUsedFields(usedFields);
+            }
+            return parentClass == null ? method : parentClass.addMethodIfAbsent(method);
+        }
+
+        private StaticSnapshot readStaticSnapshot(ByteBuffer in) {
+            String className = ValueCodec.readString(in);
+            long version = in.getLong();
+            long time = in.getLong();
+            int fieldCount = in.getInt();
+            String[] fieldNames = new String[fieldCount];
+            BaseType[] fieldTypes = new BaseType[fieldCount];
+            boolean[] publicFields = new boolean[fieldCount];
+            Object[] values = new Object[fieldCount];
+            for(int iter = 0 ; iter < fieldCount ; iter++) {
+                fieldNames[iter] = ValueCodec.readString(in);
+                fieldTypes[iter] = resolveType(in.getInt());
+                publicFields[iter] = in.get() != 0;
+                values[iter] = codec.decode(in);
+            }
+            return new StaticSnapshot(className, version, time, fieldNames, fieldTypes, publicFields, values);
+        }
+
+        private static String[] readStrings(ByteBuffer in) {
+            int length = in.getInt();
+            if(length < 0) {
+                return null;
+            }
+            String[] values = new String[length];
+            for(int iter = 0 ; iter < length ; iter++) {
+                values[iter] = ValueCodec.readString(in);
+            }
+            return values;
+        }
+    }
+}
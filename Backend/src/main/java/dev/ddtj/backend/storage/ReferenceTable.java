@@ -0,0 +1,80 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Objects that are shared by many invocations and bounded by the code of the monitored application, e.g. types,
+ * record layouts, call paths and static snapshots, stay on the heap. The stored values refer to them by their index
+ * in this table. Objects are compared by identity since these are all interned by the session.
+ */
+public class ReferenceTable {
+    /**
+     * Notified when an object is added to the table, this is invoked while the table is locked. The listener may add
+     * the objects the added object refers to.
+     */
+    public interface Listener {
+        void added(int index, Object object);
+    }
+
+    private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    private Listener listener;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized int indexOf(Object object) {
+        Integer index = indexes.get(object);
+        if(index == null) {
+            index = objects.size();
+            objects.add(object);
+            indexes.put(object, index);
+            if(listener != null) {
+                listener.added(index, object);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Places an object that was read back from a recording at its original index
+     */
+    public synchronized void restore(int index, Object object) {
+        while (objects.size() <= index) {
+            objects.add(null);
+        }
+        objects.set(index, object);
+        if(object != null) {
+            indexes.put(object, index);
+        }
+    }
+
+    public synchronized Object get(int index) {
+        return objects.get(index);
+    }
+
+    public synchronized int size() {
+        return objects.size();
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.ChunkedAppendLog;
+import dev.ddtj.backend.data.ChunkedLongLog;
+import dev.ddtj.backend.data.Invocation;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import lombok.extern.java.Log;
+
+/**
+ * Keeps recent invocations as objects on the heap and moves the older ones to a {@link MappedInvocationStore} in a
+ * temporary directory when the heap fills up. A spilled invocation leaves only its row in the cold store behind,
+ * loading it decodes it from the mapped file so callers don't see a difference. Invocations are spilled oldest first
+ * when the {@link HeapPressureMonitor} reports that the heap passed the threshold.
+ */
+@Log
+public class TieredInvocationStore implements InvocationStore {
+    private static final int CHUNK_BITS = 8;
+
+    /**
+     * Marks a released invocation that's still in the heap tier, the spill skips it and frees its slot. Clearing the
+     * slot right away would make it look like a slot that wasn't stored yet, which ends the spill.
+     */
+    private static final Invocation RELEASED = new Invocation();
+
+    private final ChunkedAppendLog<Invocation> hot = new ChunkedAppendLog<>(CHUNK_BITS);
+
+    /**
+     * The row in the cold store of every spilled invocation, the row is set before the invocation is removed from the
+     * heap so a reader always finds one of them
+     */
+    private final ChunkedLongLog coldRows = new ChunkedLongLog(CHUNK_BITS);
+    private final Path spillDirectory;
+    private final int sessionPrefix;
+    private final int valueSegmentBytes;
+    private final Runnable spillListener = this::spill;
+    private volatile MappedInvocationStore cold;
+    private Path coldDirectory;
+    private int spilledRows;
+    private final AtomicInteger releasedHotRows = new AtomicInteger();
+
+    /**
+     * @param spillDirectory the parent of the temporary directory that holds the spilled invocations
+     * @param heapThreshold the fraction of the heap that triggers a spill, zero or less disables the monitoring and
+     *                      the store only spills when {@link #spill()} is invoked
+     */
+    public TieredInvocationStore(Path spillDirectory, int sessionPrefix, int valueSegmentBytes, double heapThreshold) {
+        this.spillDirectory = spillDirectory;
+        this.sessionPrefix = sessionPrefix;
+        this.valueSegmentBytes = valueSegmentBytes;
+        if(heapThreshold > 0) {
+            HeapPressureMonitor.getInstance().addListener(heapThreshold, spillListener);
+        }
+    }
+
+    @Override
+    public long store(Invocation invocation) {
+        return hot.append(invocation);
+    }
+
+    @Override
+    public Invocation load(long row) {
+        Invocation invocation = hot.get((int) row);
+        if(invocation != null) {
+            return invocation == RELEASED ? null : invocation;
+        }
+        long coldRow = coldRows.get((int) row);
+        return coldRow == ChunkedLongLog.EMPTY ? null : cold.load(coldRow);
+    }
+
+    @Override
+    public long getId(long row) {
+        Invocation invocation = hot.get((int) row);
+        return invocation != null ? invocation.getId() : cold.getId(coldRows.get((int) row));
+    }
+
+    @Override
+    public long getTime(long row) {
+        Invocation invocation = hot.get((int) row);
+        return invocation != null ? invocation.getTime() : cold.getTime(coldRows.get((int) row));
+    }
+
+    @Override
+    public long getDurationNanos(long row) {
+        Invocation invocation = hot.get((int) row);
+        return invocation != null ? invocation.getDurationNanos() : cold.getDurationNanos(coldRows.get((int) row));
+    }
+
+    @Override
+    public long getParentId(long row) {
+        Invocation invocation = hot.get((int) row);
+        return invocation != null ? invocation.getParentId() : cold.getParentId(coldRows.get((int) row));
+    }
+
+    @Override
+    public CallPathNode getCallPath(long row) {
+        Invocation invocation = hot.get((int) row);
+        return invocation != null ? invocation.getCallPath() : cold.getCallPath(coldRows.get((int) row));
+    }
+
+    @Override
+    public int size() {
+        return hot.count() - releasedHotRows.get() + coldRows.count();
+    }
+
+    /**
+     * Releasing is synchronized with the spill so the invocation is found in one of the tiers
+     */
+    @Override
+    public synchronized void release(long row) {
+        Invocation invocation = hot.get((int) row);
+        if(invocation == RELEASED) {
+            return;
+        }
+        if(invocation != null) {
+            hot.set((int) row, RELEASED);
+            releasedHotRows.incrementAndGet();
+            return;
+        }
+        long coldRow = coldRows.clear((int) row);
+        if(coldRow != ChunkedLongLog.EMPTY) {
+            cold.release(coldRow);
+        }
+    }
+
+    /**
+     * Only the spilled invocations are counted, the heap tier is bounded by the spill threshold
+     */
+    @Override
+    public long getStoredBytes() {
+        MappedInvocationStore store = cold;
+        return store == null ? 0 : store.getStoredBytes();
+    }
+
+    /**
+     * The number of invocations that were moved off the heap
+     */
+    public int getSpilledCount() {
+        return coldRows.count();
+    }
+
+    /**
+     * Moves the invocations that are on the heap to the cold store, oldest first. Slots that were reserved but not
+     * stored yet end the spill, they're spilled the next time.
+     */
+    public synchronized void spill() {
+        int size = hot.size();
+        if(spilledRows >= size) {
+            return;
+        }
+        MappedInvocationStore store = coldStore();
+        int spilled = 0;
+        while (spilledRows < size) {
+            Invocation invocation = hot.get(spilledRows);
+            if(invocation == null) {
+                break;
+            }
+            if(invocation == RELEASED) {
+                hot.clear(spilledRows);
+                releasedHotRows.decrementAndGet();
+                spilledRows++;
+                continue;
+            }
+            coldRows.set(spilledRows, store.store(invocation));
+            hot.clear(spilledRows);
+            spilledRows++;
+            spilled++;
+        }
+        log.fine("Moved " + spilled + " invocations off the heap to " + coldDirectory);
+    }
+
+    private MappedInvocationStore coldStore() {
+        if(cold == null) {
+            try {
+                Files.createDirectories(spillDirectory);
+                coldDirectory = Files.createTempDirectory(spillDirectory, "spill");
+                cold = MappedInvocationStore.create(coldDirectory.resolve("store"), sessionPrefix,
+                        valueSegmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create a spill directory in " + spillDirectory, e);
+            }
+        }
+        return cold;
+    }
+
+    /**
+     * Stops the monitoring and deletes the spilled invocations
+     */
+    @Override
+    public synchronized void close() {
+        HeapPressureMonitor.getInstance().removeListener(spillListener);
+        if(cold == null) {
+            return;
+        }
+        cold.close();
+        cold = null;
+        try (Stream<Path> files = Files.walk(coldDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to delete the spilled invocations in " + coldDirectory, e);
+        }
+    }
+}
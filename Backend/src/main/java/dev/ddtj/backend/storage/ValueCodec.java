@@ -0,0 +1,576 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend.storage;
+
+import dev.ddtj.backend.data.objectmodel.BackReference;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CapturedCollection;
+import dev.ddtj.backend.data.objectmodel.ObjectSnapshot;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.TruncatedArray;
+import dev.ddtj.backend.data.objectmodel.TruncatedString;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes captured values into a compact binary form and decodes them back. Every value starts with a tag byte,
+ * shared objects such as types and layouts are written as an index into the {@link ReferenceTable} of the store.
+ */
+public class ValueCodec {
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte CHAR = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte PRIMITIVE_ARRAY = 10;
+    private static final byte OBJECT_ARRAY = 11;
+    private static final byte TRUNCATED_ARRAY = 12;
+    private static final byte BACK_REFERENCE = 13;
+    private static final byte OBJECT = 14;
+    private static final byte COLLECTION = 15;
+    private static final byte RECORD = 16;
+    private static final byte MAP = 17;
+    private static final byte TIME = 18;
+    private static final byte SHARED = 19;
+    private static final byte SENTINEL = 20;
+    private static final byte TRUNCATED_STRING = 21;
+
+    private static final Class<?>[] PRIMITIVE_ARRAYS = {
+            null, boolean[].class, byte[].class, char[].class, short[].class, int[].class, long[].class,
+            float[].class, double[].class
+    };
+
+    /**
+     * Values that mark something that wasn't captured, these are written as their index in this array
+     */
+    private static final Object[] SENTINELS = { ValueRecord.NOT_CAPTURED };
+
+    private static final Class<?>[] TIME_TYPES = {
+            Instant.class, Duration.class, LocalDate.class, LocalTime.class, LocalDateTime.class
+    };
+
+    private final ReferenceTable references;
+
+    public ValueCodec(ReferenceTable references) {
+        this.references = references;
+    }
+
+    public void encode(Object value, Output out) {
+        if(value == null) {
+            out.writeByte(NULL);
+        } else if(value instanceof String) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if(value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if(value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if(value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeByte((byte) ((Boolean) value ? 1 : 0));
+        } else if(value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if(value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if(value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeInt((Character) value);
+        } else if(value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeInt((Short) value);
+        } else if(value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if(value instanceof ObjectSnapshot) {
+            ObjectSnapshot snapshot = (ObjectSnapshot) value;
+            out.writeByte(OBJECT);
+            out.writeInt(references.indexOf(snapshot.getObjectType()));
+            out.writeLong(snapshot.getId());
+            encodeRecord(snapshot.getRecord(), out);
+        } else if(value instanceof ValueRecord) {
+            out.writeByte(RECORD);
+            encodeRecord((ValueRecord) value, out);
+        } else if(value instanceof BackReference) {
+            out.writeByte(BACK_REFERENCE);
+            out.writeLong(((BackReference) value).getId());
+        } else if(value instanceof CapturedCollection) {
+            encodeCollection((CapturedCollection) value, out);
+        } else if(value instanceof TruncatedString) {
+            TruncatedString truncatedString = (TruncatedString) value;
+            out.writeByte(TRUNCATED_STRING);
+            out.writeInt(truncatedString.getLength());
+            out.writeString(truncatedString.getValue());
+        } else if(value instanceof TruncatedArray) {
+            TruncatedArray truncatedArray = (TruncatedArray) value;
+            out.writeByte(TRUNCATED_ARRAY);
+            out.writeInt(truncatedArray.getLength());
+            encode(truncatedArray.getElements(), out);
+        } else if(value.getClass().isArray()) {
+            encodeArray(value, out);
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for(Map.Entry<?, ?> entry : map.entrySet()) {
+                encode(entry.getKey(), out);
+                encode(entry.getValue(), out);
+            }
+        } else {
+            int timeType = Arrays.asList(TIME_TYPES).indexOf(value.getClass());
+            if(timeType >= 0) {
+                out.writeByte(TIME);
+                out.writeByte((byte) timeType);
+                out.writeString(value.toString());
+            } else {
+                encodeOther(value, out);
+            }
+        }
+    }
+
+    /**
+     * Writes a record, null is a valid value for the record of a truncated object
+     */
+    public void encodeRecord(ValueRecord record, Output out) {
+        if(record == null) {
+            out.writeInt(-1);
+            return;
+        }
+        RecordLayout layout = record.getLayout();
+        int size = layout.size();
+        // layouts of references only are created on demand, these are encoded by their size
+        if(layout.getPrimitiveCount() == 0) {
+            out.writeInt(size);
+            out.writeInt(-1);
+        } else {
+            out.writeInt(size);
+            out.writeInt(references.indexOf(layout));
+        }
+        boolean partial = false;
+        for(int slot = 0 ; slot < size && !partial ; slot++) {
+            partial = !record.isCaptured(slot);
+        }
+        out.writeByte((byte) (partial ? 1 : 0));
+        for(int slot = 0 ; slot < size ; slot++) {
+            if(partial) {
+                out.writeByte((byte) (record.isCaptured(slot) ? 1 : 0));
+                if(!record.isCaptured(slot)) {
+                    continue;
+                }
+            }
+            if(layout.getKind(slot) == RecordLayout.REFERENCE) {
+                encode(record.get(slot), out);
+            } else {
+                out.writeLong(record.getBits(slot));
+            }
+        }
+    }
+
+    private void encodeCollection(CapturedCollection collection, Output out) {
+        out.writeByte(COLLECTION);
+        out.writeLong(collection.getId());
+        encode(collection.getImplementation(), out);
+        out.writeByte((byte) (collection.isMap() ? 1 : 0));
+        out.writeInt(collection.getSize());
+        BaseType[] types = collection.getTypes();
+        out.writeInt(types.length);
+        for(BaseType type : types) {
+            out.writeInt(type == null ? -1 : references.indexOf(type));
+        }
+        Object[] values = collection.getValues();
+        out.writeInt(values.length);
+        for(Object element : values) {
+            encode(element, out);
+        }
+    }
+
+    /**
+     * Sentinels are written by their index. Anything else we don't know how to encode is written in its text form, the
+     * reference table keeps its objects for the lifetime of the store so it only holds objects that are bounded by the
+     * code of the application.
+     */
+    private static void encodeOther(Object value, Output out) {
+        for(int iter = 0 ; iter < SENTINELS.length ; iter++) {
+            if(SENTINELS[iter] == value) {
+                out.writeByte(SENTINEL);
+                out.writeByte((byte) iter);
+                return;
+            }
+        }
+        out.writeByte(STRING);
+        out.writeString(value.toString());
+    }
+
+    private void encodeArray(Object array, Output out) {
+        int length = Array.getLength(array);
+        int primitiveKind = Arrays.asList(PRIMITIVE_ARRAYS).indexOf(array.getClass());
+        if(primitiveKind > 0) {
+            out.writeByte(PRIMITIVE_ARRAY);
+            out.writeByte((byte) primitiveKind);
+            out.writeInt(length);
+            writePrimitiveArray((byte) primitiveKind, array, out);
+            return;
+        }
+        out.writeByte(OBJECT_ARRAY);
+        out.writeInt(references.indexOf(array.getClass().getComponentType()));
+        out.writeInt(length);
+        for(Object element : (Object[]) array) {
+            encode(element, out);
+        }
+    }
+
+    /**
+     * Writes the elements in the same form as {@link #readPrimitive(byte, ByteBuffer)} reads them, without boxing
+     */
+    private static void writePrimitiveArray(byte kind, Object array, Output out) {
+        switch (kind) {
+            case RecordLayout.BOOLEAN:
+                for(boolean element : (boolean[]) array) {
+                    out.writeByte((byte) (element ? 1 : 0));
+                }
+                break;
+            case RecordLayout.BYTE:
+                for(byte element : (byte[]) array) {
+                    out.writeByte(element);
+                }
+                break;
+            case RecordLayout.CHAR:
+                for(char element : (char[]) array) {
+                    out.writeInt(element);
+                }
+                break;
+            case RecordLayout.SHORT:
+                for(short element : (short[]) array) {
+                    out.writeInt(element);
+                }
+                break;
+            case RecordLayout.INT:
+                for(int element : (int[]) array) {
+                    out.writeInt(element);
+                }
+                break;
+            case RecordLayout.FLOAT:
+                for(float element : (float[]) array) {
+                    out.writeInt(Float.floatToRawIntBits(element));
+                }
+                break;
+            case RecordLayout.LONG:
+                for(long element : (long[]) array) {
+                    out.writeLong(element);
+                }
+                break;
+            default:
+                for(double element : (double[]) array) {
+                    out.writeLong(Double.doubleToRawLongBits(element));
+                }
+                break;
+        }
+    }
+
+    private static Object readPrimitive(byte kind, ByteBuffer in) {
+        switch (kind) {
+            case RecordLayout.BOOLEAN:
+                return in.get() != 0;
+            case RecordLayout.BYTE:
+                return in.get();
+            case RecordLayout.CHAR:
+                return (char) in.getInt();
+            case RecordLayout.SHORT:
+                return (short) in.getInt();
+            case RecordLayout.INT:
+                return in.getInt();
+            case RecordLayout.FLOAT:
+                return Float.intBitsToFloat(in.getInt());
+            case RecordLayout.LONG:
+                return in.getLong();
+            default:
+                return Double.longBitsToDouble(in.getLong());
+        }
+    }
+
+    /**
+     * Decodes the value at the position of the buffer and advances the position past it
+     */
+    public Object decode(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+            case BYTE:
+            case CHAR:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                // the tags of primitives match the record layout kinds
+                return readPrimitive(tag, in);
+            case STRING:
+                return readString(in);
+            case OBJECT:
+                ObjectType type = (ObjectType) references.get(in.getInt());
+                long id = in.getLong();
+                return new ObjectSnapshot(type, id, decodeRecord(in));
+            case RECORD:
+                return decodeRecord(in);
+            case BACK_REFERENCE:
+                return new BackReference(in.getLong());
+            case COLLECTION:
+                return decodeCollection(in);
+            case TRUNCATED_ARRAY:
+                int length = in.getInt();
+                return new TruncatedArray(decode(in), length);
+            case TRUNCATED_STRING:
+                int stringLength = in.getInt();
+                return new TruncatedString(readString(in), stringLength);
+            case PRIMITIVE_ARRAY:
+                return decodePrimitiveArray(in);
+            case OBJECT_ARRAY:
+                Class<?> componentType = (Class<?>) references.get(in.getInt());
+                Object[] array = (Object[]) Array.newInstance(componentType, in.getInt());
+                for(int iter = 0 ; iter < array.length ; iter++) {
+                    array[iter] = decode(in);
+                }
+                return array;
+            case MAP:
+                int size = in.getInt();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for(int iter = 0 ; iter < size ; iter++) {
+                    map.put(decode(in), decode(in));
+                }
+                return map;
+            case TIME:
+                return parseTime(in.get(), readString(in));
+            case SHARED:
+                // written by recordings of older versions
+                return references.get(in.getInt());
+            case SENTINEL:
+                return SENTINELS[in.get()];
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag);
+        }
+    }
+
+    public ValueRecord decodeRecord(ByteBuffer in) {
+        int size = in.getInt();
+        if(size < 0) {
+            return null;
+        }
+        int layoutIndex = in.getInt();
+        RecordLayout layout = layoutIndex < 0 ? RecordLayout.references(size) :
+                (RecordLayout) references.get(layoutIndex);
+        boolean partial = in.get() != 0;
+        if(size == 0 && !partial) {
+            return ValueRecord.EMPTY;
+        }
+        boolean[] capturedSlots = partial ? new boolean[size] : null;
+        ValueRecord record = new ValueRecord(layout, capturedSlots);
+        for(int slot = 0 ; slot < size ; slot++) {
+            if(partial) {
+                capturedSlots[slot] = in.get() != 0;
+                if(!capturedSlots[slot]) {
+                    continue;
+                }
+            }
+            if(layout.getKind(slot) == RecordLayout.REFERENCE) {
+                record.set(slot, decode(in));
+            } else {
+                record.setBits(slot, in.getLong());
+            }
+        }
+        return record;
+    }
+
+    private CapturedCollection decodeCollection(ByteBuffer in) {
+        long id = in.getLong();
+        String implementation = (String) decode(in);
+        boolean map = in.get() != 0;
+        int size = in.getInt();
+        BaseType[] types = new BaseType[in.getInt()];
+        for(int iter = 0 ; iter < types.length ; iter++) {
+            int typeIndex = in.getInt();
+            types[iter] = typeIndex < 0 ? null : (BaseType) references.get(typeIndex);
+        }
+        Object[] values = new Object[in.getInt()];
+        for(int iter = 0 ; iter < values.length ; iter++) {
+            values[iter] = decode(in);
+        }
+        return new CapturedCollection(id, implementation, map, size, types, values);
+    }
+
+    private static Object decodePrimitiveArray(ByteBuffer in) {
+        byte kind = in.get();
+        int length = in.getInt();
+        switch (kind) {
+            case RecordLayout.BOOLEAN:
+                boolean[] booleans = new boolean[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    booleans[iter] = in.get() != 0;
+                }
+                return booleans;
+            case RecordLayout.BYTE:
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                return bytes;
+            case RecordLayout.CHAR:
+                char[] chars = new char[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    chars[iter] = (char) in.getInt();
+                }
+                return chars;
+            case RecordLayout.SHORT:
+                short[] shorts = new short[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    shorts[iter] = (short) in.getInt();
+                }
+                return shorts;
+            case RecordLayout.INT:
+                int[] ints = new int[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    ints[iter] = in.getInt();
+                }
+                return ints;
+            case RecordLayout.FLOAT:
+                float[] floats = new float[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    floats[iter] = Float.intBitsToFloat(in.getInt());
+                }
+                return floats;
+            case RecordLayout.LONG:
+                long[] longs = new long[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    longs[iter] = in.getLong();
+                }
+                return longs;
+            default:
+                double[] doubles = new double[length];
+                for(int iter = 0 ; iter < length ; iter++) {
+                    doubles[iter] = Double.longBitsToDouble(in.getLong());
+                }
+                return doubles;
+        }
+    }
+
+    private static Object parseTime(byte timeType, String text) {
+        switch (timeType) {
+            case 0:
+                return Instant.parse(text);
+            case 1:
+                return Duration.parse(text);
+            case 2:
+                return LocalDate.parse(text);
+            case 3:
+                return LocalTime.parse(text);
+            default:
+                return LocalDateTime.parse(text);
+        }
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A growable buffer for encoding, a single instance is reused for all the values written by a thread
+     */
+    public static class Output {
+        private ByteBuffer buffer;
+
+        public Output(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        public void reset() {
+            buffer.clear();
+        }
+
+        public int size() {
+            return buffer.position();
+        }
+
+        /**
+         * The encoded bytes, the buffer is only valid until the next write
+         */
+        public ByteBuffer toBuffer() {
+            return buffer.duplicate().flip();
+        }
+
+        private void ensureCapacity(int bytes) {
+            if(buffer.remaining() < bytes) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                newBuffer.put(buffer.flip());
+                buffer = newBuffer;
+            }
+        }
+
+        public void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer.put(value);
+        }
+
+        public void writeInt(int value) {
+            ensureCapacity(4);
+            buffer.putInt(value);
+        }
+
+        public void writeLong(long value) {
+            ensureCapacity(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes the string with a length prefix, null is written as a negative length
+         */
+        public void writeString(String value) {
+            if(value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+}
@@ -42,11 +42,15 @@ public class GeneratorController {
         model.put("classFullName", className);
         model.put("className", className.substring(className.lastIndexOf('.') + 1));
 
+        // the generation order matches the order of the code in the template so shared objects are declared before
+        // they're referenced
         model.put("customImports", generator.getCustomImports());
-        model.put("creationCode", generator.getCreationCode());
         model.put("methodName", generator.getMethodName());
+        model.put("staticInitialization", generator.getStaticInitialization());
+        model.put("staticRestore", generator.getStaticRestore());
         model.put("mocks", generator.getMocks());
         model.put("argumentInitialization", generator.getArgumentInitialization());
+        model.put("creationCode", generator.getCreationCode());
         model.put("arguments", generator.getArguments());
 
         return new ModelAndView("java-junit5-mockito", model);
@@ -18,6 +18,7 @@
 package dev.ddtj.backend;
 
 import com.sun.jdi.event.EventSet;
+import dev.ddtj.backend.javadebugger.CaptureConfiguration;
 import dev.ddtj.backend.javadebugger.DataCollector;
 import dev.ddtj.backend.javadebugger.ConnectSession;
 import dev.ddtj.backend.javadebugger.MonitoredSession;
@@ -29,6 +30,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -37,6 +39,9 @@ class BackendApplicationTests {
 	@Mock
 	private DataCollector dataCollector;
 
+	@Spy
+	private CaptureConfiguration captureConfiguration = new CaptureConfiguration();
+
 	@InjectMocks
 	@Autowired
 	private ConnectSession connectSession;
@@ -0,0 +1,72 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.ParentMethod;
+import org.junit.jupiter.api.Test;
+
+class CallPathNodeTests {
+    private final ParentMethod main = createMethod("main");
+    private final ParentMethod run = createMethod("run");
+    private final ParentMethod other = createMethod("other");
+
+    @Test
+    void sharedPathsTest() {
+        CallPathNode root = CallPathNode.createRoot();
+        CallPathNode first = root.child(main).child(run);
+        CallPathNode second = root.child(main).child(run);
+        assertSame(first, second);
+        assertEquals(2, first.getDepth());
+
+        CallPathNode sibling = root.child(main).child(other);
+        assertNotSame(first, sibling);
+        assertSame(first.getParent(), sibling.getParent());
+        assertEquals(1, root.getChildCount());
+        assertEquals(2, root.child(main).getChildCount());
+    }
+
+    @Test
+    void stackOrderTest() {
+        ParentMethod[] stack = { other, run, main };
+        CallPathNode path = CallPathNode.of(stack);
+        assertSame(other, path.getMethod());
+        assertArrayEquals(stack, path.toStack());
+
+        Invocation invocation = new Invocation();
+        assertNull(invocation.getStack());
+        invocation.setStack(stack);
+        assertSame(other, invocation.getStack()[0]);
+        assertSame(other, invocation.getInvokedMethod());
+        assertEquals(3, invocation.getStack().length);
+    }
+
+    private static ParentMethod createMethod(String name) {
+        ParentMethod parentMethod = new ParentMethod();
+        parentMethod.setName(name);
+        parentMethod.setSignature("()V");
+        return parentMethod;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.jdi.ArrayReference;
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.StringReference;
+import com.sun.jdi.Value;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.CapturedCollection;
+import dev.ddtj.backend.data.objectmodel.CollectionType;
+import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CollectionTypeTests {
+    @Test
+    void arrayListTest() throws Exception {
+        BaseType listType = TypeFactory.create(createType(ReferenceType.class, "java.util.List"));
+        assertInstanceOf(CollectionType.class, listType);
+
+        ClassType arrayListType = createType(ClassType.class, "java.util.ArrayList");
+        Field elementData = createField(arrayListType, "elementData");
+        Field size = createField(arrayListType, "size");
+        ObjectReference integer = createInteger(5);
+        ArrayReference array = Mockito.mock(ArrayReference.class);
+        List<Value> elements = Arrays.asList(integer, integer, null);
+        Mockito.when(array.getValues(Mockito.eq(0), Mockito.anyInt()))
+                .thenAnswer(invocation -> elements.subList(0, invocation.getArgument(1, Integer.class)));
+        ObjectReference list = createObject(1, arrayListType,
+                Map.of(elementData, array, size, createInt(3)));
+
+        Object captured = new CaptureContext().capture(listType, list);
+        assertInstanceOf(CapturedCollection.class, captured);
+        assertEquals(List.of("java.util.List items = new java.util.ArrayList();", "items.add(5);", "items.add(5);",
+                "items.add(null);"), listType.getCodePrefix("items", captured));
+        assertEquals("items", listType.getCodeRepresentation("items", captured));
+
+        // the element cap applies to collections the same way it applies to arrays
+        captured = new CaptureContext(4, 256, 2, 1024).capture(listType, list);
+        List<String> prefix = listType.getCodePrefix("items", captured);
+        assertEquals("// only 2 of 3 elements were captured", prefix.get(0));
+        assertEquals(4, prefix.size());
+        Mockito.verify(array).getValues(0, 2);
+        Mockito.verify(list, Mockito.never()).invokeMethod(Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.anyInt());
+    }
+
+    @Test
+    void hashMapTest() {
+        BaseType mapType = TypeFactory.create(createType(ReferenceType.class, "java.util.Map"));
+        ReferenceType stringType = createType(ReferenceType.class, "java.lang.String");
+
+        ClassType hashMapType = createType(ClassType.class, "java.util.HashMap");
+        Field table = createField(hashMapType, "table");
+        Field size = createField(hashMapType, "size");
+        ClassType nodeType = Mockito.mock(ClassType.class);
+        Field key = createField(nodeType, "key");
+        Field value = createField(nodeType, "value");
+        Field next = createField(nodeType, "next");
+
+        Map<Field, Value> secondNode = new HashMap<>();
+        secondNode.put(key, createString(stringType, "c"));
+        secondNode.put(value, createString(stringType, "d"));
+        secondNode.put(next, null);
+        ObjectReference second = createObject(3, nodeType, secondNode);
+        ObjectReference first = createObject(2, nodeType, Map.of(key, createString(stringType, "a"),
+                value, createString(stringType, "b"), next, second));
+        ArrayReference array = Mockito.mock(ArrayReference.class);
+        Mockito.when(array.length()).thenReturn(2);
+        Mockito.when(array.getValues(0, 2)).thenReturn(Arrays.asList(null, first));
+        ObjectReference map = createObject(1, hashMapType, Map.of(table, array, size, createInt(2)));
+
+        Object captured = new CaptureContext().capture(mapType, map);
+        assertTrue(((CapturedCollection) captured).isMap());
+        assertEquals(List.of("java.util.Map values = new java.util.HashMap();", "values.put(\"a\", \"b\");",
+                "values.put(\"c\", \"d\");"), mapType.getCodePrefix("values", captured));
+    }
+
+    private static <T extends ReferenceType> T createType(Class<T> typeClass, String name) {
+        T type = Mockito.mock(typeClass);
+        Mockito.lenient().when(type.name()).thenReturn(name);
+        return type;
+    }
+
+    private static Field createField(ReferenceType type, String name) {
+        Field field = Mockito.mock(Field.class);
+        Mockito.when(type.fieldByName(name)).thenReturn(field);
+        return field;
+    }
+
+    private static ObjectReference createObject(long id, ReferenceType type, Map<Field, Value> values) {
+        ObjectReference object = Mockito.mock(ObjectReference.class);
+        Mockito.lenient().when(object.uniqueID()).thenReturn(id);
+        Mockito.when(object.referenceType()).thenReturn(type);
+        Mockito.when(object.getValues(Mockito.anyList())).thenReturn(values);
+        return object;
+    }
+
+    private static IntegerValue createInt(int value) {
+        IntegerValue integerValue = Mockito.mock(IntegerValue.class);
+        Mockito.lenient().when(integerValue.value()).thenReturn(value);
+        Mockito.lenient().when(integerValue.intValue()).thenReturn(value);
+        return integerValue;
+    }
+
+    private static ObjectReference createInteger(int value) {
+        ReferenceType integerType = createType(ReferenceType.class, "java.lang.Integer");
+        Field valueField = createField(integerType, "value");
+        ObjectReference integer = Mockito.mock(ObjectReference.class);
+        Mockito.when(integer.type()).thenReturn(integerType);
+        Mockito.when(integer.referenceType()).thenReturn(integerType);
+        IntegerValue integerValue = createInt(value);
+        Mockito.when(integer.getValue(valueField)).thenReturn(integerValue);
+        return integer;
+    }
+
+    private static StringReference createString(ReferenceType stringType, String value) {
+        StringReference string = Mockito.mock(StringReference.class);
+        Mockito.when(string.type()).thenReturn(stringType);
+        Mockito.lenient().when(string.uniqueID()).thenReturn((long) value.hashCode());
+        Mockito.when(string.value()).thenReturn(value);
+        return string;
+    }
+}
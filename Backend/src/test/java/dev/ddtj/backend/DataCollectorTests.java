@@ -1,5 +1,7 @@
 package dev.ddtj.backend;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.Location;
 import com.sun.jdi.Method;
@@ -7,16 +9,22 @@ import com.sun.jdi.ReferenceType;
 import com.sun.jdi.StackFrame;
 import com.sun.jdi.StringReference;
 import com.sun.jdi.ThreadReference;
+import com.sun.jdi.VMDisconnectedException;
+import com.sun.jdi.event.ClassUnloadEvent;
 import com.sun.jdi.event.MethodEntryEvent;
 import com.sun.jdi.event.MethodExitEvent;
 import com.sun.jdi.event.VMDeathEvent;
+import dev.ddtj.backend.data.CallPathNode;
 import dev.ddtj.backend.data.ExecutionState;
 import dev.ddtj.backend.data.Invocation;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
 import dev.ddtj.backend.data.objectmodel.BaseType;
 import dev.ddtj.backend.data.objectmodel.BuiltinTypes;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.javadebugger.CaptureConfiguration;
 import dev.ddtj.backend.javadebugger.DataCollector;
 import dev.ddtj.backend.javadebugger.MonitoredSession;
 import java.util.Collections;
@@ -64,7 +72,7 @@ class DataCollectorTests {
     @Test
     void testProcessEvent() throws IncompatibleThreadStateException {
         DataCollector dataCollector = new DataCollector();
-        dataCollector.processEvent(monitoredSession, vmDeathEvent, 1);
+        dataCollector.processEvent(monitoredSession, vmDeathEvent);
 
         Mockito.when(methodEntryEvent.method()).thenReturn(method);
         Mockito.when(methodExitEvent.method()).thenReturn(method);
@@ -79,12 +87,17 @@ class DataCollectorTests {
         Mockito.when(parentMethod.getReturnType()).thenReturn(BuiltinTypes.STRING);
         Mockito.when(declaringType.name()).thenReturn("com.company.ClassName");
         Mockito.when(monitoredSession.getOrCreateMethod(method)).thenReturn(parentMethod);
+        Mockito.when(monitoredSession.getCallPathRoot()).thenReturn(CallPathNode.createRoot());
+        Mockito.when(monitoredSession.getConfiguration()).thenReturn(new CaptureConfiguration());
+        Mockito.when(monitoredSession.eventCaptureContext(Mockito.anyLong())).thenAnswer(invocation -> new CaptureContext());
         ExecutionState executionState = new ExecutionState();
+        Mockito.when(monitoredSession.pushExecutionState(Mockito.eq(methodEntryEvent), Mockito.any())).thenReturn(new ExecutionState());
         executionState.setParentMethod(parentMethod);
         executionState.setInvocation(new Invocation());
 
         Mockito.when(monitoredSession.removeExecutionState(methodExitEvent)).thenReturn(executionState);
         Mockito.when(parentMethod.getParameters()).thenReturn(new BaseType[0]);
+        Mockito.when(parentMethod.getParameterLayout()).thenReturn(RecordLayout.EMPTY);
 
         ObjectType objectType = ObjectType.create(declaringType);
         ParentClass parentClass = new ParentClass();
@@ -100,12 +113,27 @@ class DataCollectorTests {
         Mockito.when(stackFrame.getArgumentValues()).thenReturn(Collections.emptyList());
         Mockito.when(location.method()).thenReturn(method);
 
-        dataCollector.processEvent(monitoredSession, methodEntryEvent, 1);
+        dataCollector.processEvent(monitoredSession, methodEntryEvent);
         Mockito.verify(monitoredSession, Mockito.times(2))
                 .getOrCreateMethod(method);
 
-        dataCollector.processEvent(monitoredSession, methodExitEvent, 1);
+        dataCollector.processEvent(monitoredSession, methodExitEvent);
         Mockito.verify(monitoredSession, Mockito.times(2))
                 .getOrCreateMethod(method);
     }
+
+    @Test
+    void testFailedEvent() {
+        // an event that fails is logged and the next events are still processed
+        DataCollector dataCollector = new DataCollector();
+        ClassUnloadEvent failed = Mockito.mock(ClassUnloadEvent.class);
+        Mockito.when(failed.className()).thenReturn("test.Failed");
+        Mockito.doThrow(new IllegalStateException("Type test.Failed is still being created"))
+                .when(monitoredSession).classUnloaded("test.Failed");
+        dataCollector.processEvent(monitoredSession, failed);
+
+        // a disconnected VM still ends the collection
+        Mockito.doThrow(new VMDisconnectedException()).when(monitoredSession).classUnloaded("test.Failed");
+        assertThrows(VMDisconnectedException.class, () -> dataCollector.processEvent(monitoredSession, failed));
+    }
 }
@@ -0,0 +1,139 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.jdi.Method;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.event.MethodEntryEvent;
+import com.sun.jdi.event.MethodExitEvent;
+import dev.ddtj.backend.data.ExecutionStack;
+import dev.ddtj.backend.data.ExecutionState;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.javadebugger.DataCollector;
+import dev.ddtj.backend.javadebugger.MonitoredSession;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class ExecutionStackTests {
+    private static final int EVENTS = 100_000;
+
+    /**
+     * The pooled states and the reused capture context shouldn't allocate once they're warmed up, we allow a few
+     * kilobytes for unrelated allocations of the test thread
+     */
+    private static final long ALLOCATION_SLACK = 16 * 1024;
+
+    @Test
+    void matchingTest() {
+        List<ExecutionState> abandonedStates = new ArrayList<>();
+        ExecutionStack stack = new ExecutionStack(abandonedStates::add);
+        ExecutionState outer = stack.push(3);
+        ExecutionState abandoned = stack.push(4);
+        ExecutionState inner = stack.push(5);
+        assertSame(inner, stack.pop(5));
+
+        // the frame at depth 4 exited with an exception and we never saw its exit
+        assertSame(outer, stack.pop(3));
+        assertEquals(List.of(abandoned), abandonedStates);
+        assertEquals(0, stack.size());
+        assertNull(stack.pop(3));
+
+        // slots are reused and cleared
+        inner.setClassName("pkg.ClassName");
+        stack.push(1);
+        stack.push(2);
+        ExecutionState reused = stack.push(3);
+        assertTrue(reused == outer || reused == abandoned || reused == inner);
+        assertNull(reused.getClassName());
+    }
+
+    @Test
+    void allocationTest() {
+        ExecutionStack stack = new ExecutionStack();
+        CaptureContext context = new CaptureContext();
+        long allocated = allocatedBytes(() -> {
+            for(int iter = 0 ; iter < EVENTS ; iter++) {
+                context.reset(CaptureContext.DEFAULT_MAX_BYTES);
+                int depth = iter % 8 + 1;
+                stack.push(depth).setRemainingCaptureBytes(context.getRemainingBytes());
+                stack.pop(depth);
+            }
+        });
+        assertTrue(allocated < ALLOCATION_SLACK, "Allocated " + allocated + " bytes for " + EVENTS + " events");
+    }
+
+    /**
+     * Most events of a monitored VM are for JDK or other excluded methods, the collector skips them without
+     * allocating. The mirrors are proxies that return constants since mocks record every call they get.
+     */
+    @Test
+    void excludedMethodAllocationTest() {
+        ReferenceType declaringType = stub(ReferenceType.class, Map.of("isPublic", true, "name",
+                "java.util.ArrayList"));
+        Method method = stub(Method.class, Map.of("declaringType", declaringType));
+        MethodEntryEvent entryEvent = stub(MethodEntryEvent.class, Map.of("method", method));
+        MethodExitEvent exitEvent = stub(MethodExitEvent.class, Map.of("method", method));
+        MonitoredSession session = new MonitoredSession(Mockito.mock(VirtualMachine.class), "test.*");
+        DataCollector dataCollector = new DataCollector();
+        long allocated = allocatedBytes(() -> {
+            for(int iter = 0 ; iter < EVENTS ; iter++) {
+                dataCollector.processEvent(session, entryEvent);
+                dataCollector.processEvent(session, exitEvent);
+            }
+        });
+        assertTrue(allocated < ALLOCATION_SLACK, "Allocated " + allocated + " bytes for " + EVENTS + " events");
+        assertEquals(0, session.listClasses().size());
+    }
+
+    /**
+     * The bytes the test thread allocated for the second run of the events, the first run warms up the pools
+     */
+    private static long allocatedBytes(Runnable events) {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        events.run();
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        events.run();
+        return allocationBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * A mirror that answers the given methods with constants and false for every other method
+     */
+    private static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> answers.getOrDefault(method.getName(), Boolean.FALSE)));
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.sun.jdi.ClassType;
+import com.sun.jdi.Field;
+import com.sun.jdi.IntegerType;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.Method;
+import com.sun.jdi.ObjectReference;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VirtualMachine;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import dev.ddtj.backend.javadebugger.FieldUsage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class FieldUsageTests {
+    private static final int POOL_COUNT = 8;
+    private static final byte[] READ_FIELD1 = { 0x2a, (byte) 0xb4, 0, 6, (byte) 0xac };
+    private static final byte[] CALL_OWN_METHOD = { 0x2a, (byte) 0xb6, 0, 7, (byte) 0xac };
+
+    /**
+     * Code that lets {@code this} escape: {@code Util.copy(this, other)}, {@code other.field1 = this},
+     * {@code ClassName self = this; return self.field1}, {@code return this} and {@code this.field1 = 1}
+     */
+    private static final byte[][] ESCAPES = {
+            { 0x2a, 0x2b, (byte) 0xb8, 0, 7, (byte) 0xb1 },
+            { 0x2b, 0x2a, (byte) 0xb5, 0, 6, (byte) 0xb1 },
+            { 0x2a, 0x4d, 0x2c, (byte) 0xb4, 0, 6, (byte) 0xac },
+            { 0x19, 0, (byte) 0xb0 },
+            { 0x2a, 0x04, (byte) 0xb5, 0, 6, (byte) 0xb1 }
+    };
+
+    @Mock
+    private IntegerType integerType;
+
+    @Mock
+    private VirtualMachine virtualMachine;
+
+    @Mock
+    private ClassType declaringType;
+
+    @Test
+    void minimalCaptureTest() throws Exception {
+        Mockito.when(integerType.name()).thenReturn("int");
+        Field field1 = ObjectTypeTests.create("field1", integerType);
+        Field field2 = ObjectTypeTests.create("field2", integerType);
+        ReferenceType type = ObjectTypeTests.createClass(Arrays.asList(
+                ObjectTypeTests.create(integerType, "setField1", "void", "int"),
+                ObjectTypeTests.create(integerType, "setField2", "void", "int"),
+                ObjectTypeTests.create(integerType, "<init>", "void")), Arrays.asList(field1, field2));
+        ObjectType objectType = ObjectType.create(type);
+
+        Mockito.when(virtualMachine.canGetBytecodes()).thenReturn(true);
+        Mockito.when(virtualMachine.canGetConstantPool()).thenReturn(true);
+        Mockito.when(declaringType.name()).thenReturn("pkg.ClassName");
+        Mockito.when(declaringType.constantPool()).thenReturn(constantPool());
+        Mockito.when(declaringType.constantPoolCount()).thenReturn(POOL_COUNT);
+
+        boolean[] mask = FieldUsage.analyze(method(READ_FIELD1), objectType);
+        assertArrayEquals(new boolean[] { true, false }, mask);
+
+        // a call to another method of the class might read any field
+        assertNull(FieldUsage.analyze(method(CALL_OWN_METHOD), objectType));
+
+        // so might code that gets this through an argument, a field or a variable
+        for(byte[] code : ESCAPES) {
+            assertNull(FieldUsage.analyze(method(code), objectType), Arrays.toString(code));
+        }
+
+        ObjectReference object = Mockito.mock(ObjectReference.class);
+        IntegerValue value = Mockito.mock(IntegerValue.class);
+        Mockito.when(value.intValue()).thenReturn(5);
+        Mockito.when(object.referenceType()).thenReturn(type);
+        Mockito.when(type.fieldByName("field1")).thenReturn(field1);
+        Mockito.when(type.fieldByName("field2")).thenReturn(field2);
+        ObjectTypeTests.stubFields(object, Map.of(field1, value, field2, value));
+        ValueRecord record = objectType.captureFields(object, new CaptureContext(), mask);
+        assertEquals(5, record.get(0));
+        assertSame(ValueRecord.NOT_CAPTURED, record.get(1));
+        Mockito.verify(object).getValues(List.of(field1));
+    }
+
+    private Method method(byte[] code) {
+        Method method = Mockito.mock(Method.class);
+        Mockito.when(method.virtualMachine()).thenReturn(virtualMachine);
+        Mockito.when(method.declaringType()).thenReturn(declaringType);
+        Mockito.when(method.bytecodes()).thenReturn(code);
+        return method;
+    }
+
+    /**
+     * A constant pool with a field and a method reference to pkg.ClassName, entry zero isn't part of the bytes
+     */
+    private static byte[] constantPool() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(1);
+        output.writeUTF("pkg/ClassName");
+        output.writeByte(7);
+        output.writeShort(1);
+        output.writeByte(1);
+        output.writeUTF("field1");
+        output.writeByte(1);
+        output.writeUTF("I");
+        output.writeByte(12);
+        output.writeShort(3);
+        output.writeShort(4);
+        output.writeByte(9);
+        output.writeShort(2);
+        output.writeShort(5);
+        output.writeByte(10);
+        output.writeShort(2);
+        output.writeShort(5);
+        return bytes.toByteArray();
+    }
+}
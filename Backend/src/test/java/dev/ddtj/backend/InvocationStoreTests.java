@@ -0,0 +1,377 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ddtj.backend.data.CallPathNode;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.ParentClass;
+import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.StaticSnapshot;
+import dev.ddtj.backend.data.objectmodel.BackReference;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.BuiltinTypes;
+import dev.ddtj.backend.data.objectmodel.CapturedCollection;
+import dev.ddtj.backend.data.objectmodel.ObjectSnapshot;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.TruncatedArray;
+import dev.ddtj.backend.data.objectmodel.TruncatedString;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import dev.ddtj.backend.javadebugger.CaptureConfiguration;
+import dev.ddtj.backend.javadebugger.MonitoredSession;
+import dev.ddtj.backend.storage.MappedInvocationStore;
+import dev.ddtj.backend.storage.OffHeapInvocationStore;
+import dev.ddtj.backend.storage.ReferenceTable;
+import dev.ddtj.backend.storage.TieredInvocationStore;
+import dev.ddtj.backend.storage.ValueCodec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InvocationStoreTests {
+    private static final BaseType[] TYPES = { PrimitiveAndWrapperType.INTEGER, BuiltinTypes.STRING,
+            PrimitiveAndWrapperType.DOUBLE, BuiltinTypes.STRING };
+
+    @Test
+    void roundTripTest() {
+        // small value segments so the invocations span several segments
+        OffHeapInvocationStore store = new OffHeapInvocationStore(256);
+        ObjectType objectType = ObjectType.create(ObjectTypeTests.createClass(Collections.emptyList(),
+                Collections.emptyList()));
+        ParentMethod parentMethod = new ParentMethod();
+        parentMethod.setName("method");
+        CallPathNode callPath = CallPathNode.createRoot().child(parentMethod);
+        StaticSnapshot staticState = new StaticSnapshot("pkg.Config", 1, 2, new String[0], new BaseType[0],
+                new boolean[0], new Object[0]);
+
+        RecordLayout layout = RecordLayout.of(TYPES);
+        ValueRecord arguments = new ValueRecord(layout, new boolean[] { true, true, true, false });
+        arguments.set(0, -7);
+        arguments.set(1, "text");
+        arguments.set(2, 0.5);
+
+        Map<String, Object> components = new LinkedHashMap<>();
+        components.put("name", "value");
+        components.put("count", 3L);
+
+        Object[] values = { new ObjectSnapshot(objectType, 11, ValueRecord.EMPTY),
+                new ObjectSnapshot(objectType, 12, null), new BackReference(11), new int[] { 1, 2, 3 },
+                new String[] { "a", null }, new TruncatedArray(new char[] { 'x' }, 20), components,
+                Instant.ofEpochSecond(1000), 'c', (short) 4, (byte) 5, 1.5f, true, null,
+                new TruncatedString("abc", 10) };
+        CapturedCollection collection = new CapturedCollection(13, "java.util.ArrayList", false, 20,
+                new BaseType[] { BuiltinTypes.STRING, null }, values);
+
+        Invocation invocation = new Invocation();
+        invocation.setId(42);
+        invocation.setTime(1000);
+        invocation.setEndTime(1005);
+        invocation.setStartNanos(10);
+        invocation.setEndNanos(25);
+        invocation.setThreadId(3);
+        invocation.setParentId(41);
+        invocation.setCallPath(callPath);
+        invocation.setStaticState(staticState);
+        invocation.setArgumentRecord(arguments);
+        invocation.setFieldRecord(ValueRecord.of(new Object[] { collection }));
+        invocation.setResult("result");
+        invocation.setThrownException("java.lang.IllegalStateException");
+        invocation.addChild(43);
+        invocation.addChild(44);
+
+        Invocation primitiveResult = new Invocation();
+        primitiveResult.setId(43);
+        primitiveResult.setFieldRecord(ValueRecord.EMPTY);
+        primitiveResult.setPrimitiveResultBits(RecordLayout.LONG, 99);
+
+        long row = 0;
+        for(int iter = 0 ; iter < 10 ; iter++) {
+            row = store.store(invocation);
+            store.store(primitiveResult);
+        }
+        assertEquals(20, store.size());
+        assertEquals(42, store.getId(row));
+        assertEquals(1000, store.getTime(row));
+        assertEquals(15, store.getDurationNanos(row));
+
+        Invocation loaded = store.load(row);
+        assertEquals(invocation.getId(), loaded.getId());
+        assertEquals(1005, loaded.getEndTime());
+        assertEquals(3, loaded.getThreadId());
+        assertEquals(41, loaded.getParentId());
+        assertSame(callPath, loaded.getCallPath());
+        assertSame(staticState, loaded.getStaticState());
+        assertSame(layout, loaded.getArgumentRecord().getLayout());
+        assertArrayEquals(new Object[] { -7, "text", 0.5, ValueRecord.NOT_CAPTURED }, loaded.getArguments());
+        assertEquals("result", loaded.getResult());
+        assertEquals("java.lang.IllegalStateException", loaded.getThrownException());
+        assertArrayEquals(new long[] { 43, 44 }, loaded.getChildIds());
+
+        CapturedCollection loadedCollection = (CapturedCollection) loaded.getFields()[0];
+        assertEquals(13, loadedCollection.getId());
+        assertEquals("java.util.ArrayList", loadedCollection.getImplementation());
+        assertEquals(20, loadedCollection.getSize());
+        assertSame(BuiltinTypes.STRING, loadedCollection.getTypes()[0]);
+        assertNull(loadedCollection.getTypes()[1]);
+        Object[] loadedValues = loadedCollection.getValues();
+        ObjectSnapshot snapshot = (ObjectSnapshot) loadedValues[0];
+        assertSame(objectType, snapshot.getObjectType());
+        assertEquals(11, snapshot.getId());
+        assertTrue(((ObjectSnapshot) loadedValues[1]).isTruncated());
+        assertEquals(new BackReference(11), loadedValues[2]);
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) loadedValues[3]);
+        assertArrayEquals(new String[] { "a", null }, (String[]) loadedValues[4]);
+        TruncatedArray truncatedArray = (TruncatedArray) loadedValues[5];
+        assertEquals(20, truncatedArray.getLength());
+        assertArrayEquals(new char[] { 'x' }, (char[]) truncatedArray.getElements());
+        assertEquals(components, loadedValues[6]);
+        for(int iter = 7 ; iter < values.length ; iter++) {
+            assertEquals(values[iter], loadedValues[iter]);
+        }
+
+        Invocation loadedPrimitive = store.load(row + 1);
+        assertEquals(99L, loadedPrimitive.getResult());
+        assertSame(ValueRecord.EMPTY, loadedPrimitive.getFieldRecord());
+        assertNull(loadedPrimitive.getArgumentRecord());
+    }
+
+    @Test
+    void recordingTest(@TempDir Path directory) throws IOException {
+        // a type that refers to itself must be restored as a single instance
+        BaseType[] nodeFields = new BaseType[2];
+        ObjectType node = ObjectType.restore("pkg.Node", ObjectType.CreationType.SETTERS,
+                new String[] { "value", "next" }, nodeFields, new String[] { "setValue", "setNext" }, null);
+        nodeFields[0] = PrimitiveAndWrapperType.INTEGER;
+        nodeFields[1] = node;
+        ParentClass parentClass = new ParentClass();
+        parentClass.setName("pkg.Service");
+        parentClass.setObjectType(node);
+        ParentMethod parentMethod = new ParentMethod();
+        parentMethod.setParentClass(parentClass);
+        parentMethod.setName("find");
+        parentMethod.setSignature("(I)Lpkg/Node;");
+        parentMethod.setParameters(new BaseType[] { PrimitiveAndWrapperType.INTEGER });
+        parentMethod.setReturnType(node);
+        parentClass.addMethod(parentMethod);
+        CallPathNode callPath = CallPathNode.createRoot().child(parentMethod);
+        StaticSnapshot staticState = new StaticSnapshot("pkg.Config", 1, 2, new String[] { "root" },
+                new BaseType[] { node }, new boolean[] { true }, new Object[] { new BackReference(9) });
+
+        Path recording = directory.resolve("1-session");
+        MappedInvocationStore store = MappedInvocationStore.create(recording, 7, 256);
+        // stored in reverse so the rows aren't in the order of the ids
+        for(int iter = 3 ; iter > 0 ; iter--) {
+            ValueRecord fields = new ValueRecord(node.getLayout());
+            fields.set(0, iter);
+            ValueRecord arguments = new ValueRecord(parentMethod.getParameterLayout());
+            arguments.set(0, iter);
+            Invocation invocation = new Invocation();
+            invocation.setId(InvocationId.compose(7, iter));
+            invocation.setTime(100L * iter);
+            invocation.setCallPath(callPath);
+            invocation.setStaticState(staticState);
+            invocation.setArgumentRecord(arguments);
+            invocation.setFieldRecord(fields);
+            invocation.setResult(new ObjectSnapshot(node, iter, fields));
+            store.store(invocation);
+        }
+        store.close();
+        assertTrue(MappedInvocationStore.isRecording(recording));
+
+        MappedInvocationStore reopened = MappedInvocationStore.open(recording);
+        assertTrue(reopened.isReadOnly());
+        assertEquals(7, reopened.getSessionPrefix());
+        assertEquals(3, reopened.size());
+        assertThrows(IllegalStateException.class, () -> reopened.store(new Invocation()));
+
+        Invocation loaded = reopened.load(0);
+        assertEquals(InvocationId.compose(7, 3), loaded.getId());
+        assertEquals(300, loaded.getTime());
+        assertArrayEquals(new Object[] { 3 }, loaded.getArguments());
+        ParentMethod loadedMethod = loaded.getInvokedMethod();
+        assertEquals("find(I)Lpkg/Node;", loadedMethod.fullName());
+        assertEquals("pkg.Service", loadedMethod.getParentClass().getName());
+        assertSame(PrimitiveAndWrapperType.INTEGER, loadedMethod.getParameters()[0]);
+        ObjectType loadedNode = (ObjectType) loadedMethod.getReturnType();
+        assertSame(loadedNode, loadedMethod.getParentClass().getObjectType());
+        assertSame(loadedNode, loadedNode.getField(1));
+        assertEquals("next", loadedNode.getFieldName(1));
+        assertArrayEquals(new String[] { "setValue", "setNext" }, loadedNode.getSetterMethods());
+        ObjectSnapshot result = (ObjectSnapshot) loaded.getResult();
+        assertSame(loadedNode, result.getObjectType());
+        assertEquals(3, result.getRecord().get(0));
+        assertEquals(new BackReference(9), loaded.getStaticState().getValues()[0]);
+        assertSame(loadedNode, loaded.getStaticState().getFieldTypes()[0]);
+
+        MonitoredSession session = MonitoredSession.reopen(recording, new CaptureConfiguration());
+        ParentMethod sessionMethod = session.getClass("pkg.Service").findMethod("find(I)Lpkg/Node;");
+        assertTrue(sessionMethod.isApplicable());
+        assertEquals(3, sessionMethod.getInvocationCount());
+        assertEquals(InvocationId.compose(7, 2), sessionMethod.findInvocation(InvocationId.compose(7, 2)).getId());
+        assertEquals(1, sessionMethod.streamInvocations(150, 250).count());
+        assertArrayEquals(new Object[] { 1 }, session.findInvocation(InvocationId.compose(7, 1)).getArguments());
+        // a recording has no VM to analyze
+        assertNull(session.getTypeAnalyzer());
+        session.close();
+    }
+
+    @Test
+    void spillTest(@TempDir Path directory) {
+        TieredInvocationStore store = new TieredInvocationStore(directory, 7, 256, 0);
+        Invocation[] invocations = new Invocation[3];
+        for(int iter = 0 ; iter < invocations.length ; iter++) {
+            invocations[iter] = new Invocation();
+            invocations[iter].setId(InvocationId.compose(7, iter + 1));
+            invocations[iter].setTime(100L * iter);
+            invocations[iter].setStartNanos(10);
+            invocations[iter].setEndNanos(20L + iter);
+            invocations[iter].setArgumentRecord(ValueRecord.of(new Object[] { "argument" + iter }));
+            invocations[iter].setFieldRecord(ValueRecord.EMPTY);
+            store.store(invocations[iter]);
+        }
+        assertSame(invocations[0], store.load(0));
+
+        store.spill();
+        assertEquals(3, store.getSpilledCount());
+        Invocation hot = new Invocation();
+        hot.setId(InvocationId.compose(7, 4));
+        long hotRow = store.store(hot);
+        assertEquals(4, store.size());
+        assertSame(hot, store.load(hotRow));
+
+        // spilled invocations are decoded from the disk
+        Invocation spilled = store.load(1);
+        assertNotSame(invocations[1], spilled);
+        assertEquals(invocations[1].getId(), spilled.getId());
+        assertArrayEquals(new Object[] { "argument1" }, spilled.getArguments());
+        assertEquals(200, store.getTime(2));
+        assertEquals(12, store.getDurationNanos(2));
+        assertEquals(InvocationId.compose(7, 1), store.getId(0));
+
+        store.close();
+        assertEquals(0, directory.toFile().list().length);
+    }
+
+    @Test
+    void codecTest() {
+        ReferenceTable references = new ReferenceTable();
+        ValueCodec codec = new ValueCodec(references);
+        ValueCodec.Output out = new ValueCodec.Output(16);
+        Object[] arrays = { new boolean[] { true, false }, new byte[] { 1, -1 }, new char[] { 'a' },
+                new short[] { -2 }, new int[] { 3, 4 }, new long[] { Long.MIN_VALUE }, new float[] { 1.5f },
+                new double[] { -0.25 } };
+        for(Object array : arrays) {
+            codec.encode(array, out);
+        }
+        UUID unknown = UUID.randomUUID();
+        codec.encode(ValueRecord.NOT_CAPTURED, out);
+        codec.encode(unknown, out);
+
+        ByteBuffer in = out.toBuffer();
+        for(Object array : arrays) {
+            Object decoded = codec.decode(in);
+            assertSame(array.getClass(), decoded.getClass());
+            assertTrue(Objects.deepEquals(array, decoded));
+        }
+        assertSame(ValueRecord.NOT_CAPTURED, codec.decode(in));
+        // values the codec doesn't know are kept as text so they don't pile up in the reference table
+        assertEquals(unknown.toString(), codec.decode(in));
+        assertEquals(0, references.size());
+    }
+
+    @Test
+    void recordingReleaseTest(@TempDir Path directory) throws IOException {
+        Path recording = directory.resolve("recording");
+        MappedInvocationStore store = MappedInvocationStore.create(recording, 7, 1024);
+        int count = 5000;
+        for(int iter = 0 ; iter < count ; iter++) {
+            Invocation invocation = new Invocation();
+            invocation.setId(InvocationId.compose(7, iter + 1));
+            invocation.setArgumentRecord(ValueRecord.of(new Object[] { "argument" + iter }));
+            invocation.setFieldRecord(ValueRecord.EMPTY);
+            store.store(invocation);
+        }
+        int files = recording.toFile().list().length;
+        // the files of released segments are deleted, the recording opens without them
+        for(int row = 0 ; row < 4096 ; row++) {
+            store.release(row);
+        }
+        assertFalse(recording.resolve("rows-00000.seg").toFile().exists());
+        assertTrue(recording.toFile().list().length < files / 4);
+        store.close();
+
+        MappedInvocationStore reopened = MappedInvocationStore.open(recording);
+        assertEquals(count - 4096, reopened.size());
+        assertNull(reopened.load(0));
+        assertArrayEquals(new Object[] { "argument4500" }, reopened.load(4500).getArguments());
+        reopened.close();
+    }
+
+    @Test
+    void releaseTest() {
+        OffHeapInvocationStore store = new OffHeapInvocationStore(1024);
+        int count = 5000;
+        for(int iter = 0 ; iter < count ; iter++) {
+            Invocation invocation = new Invocation();
+            invocation.setId(iter + 1);
+            invocation.setArgumentRecord(ValueRecord.of(new Object[] { "argument" + iter }));
+            invocation.setFieldRecord(ValueRecord.EMPTY);
+            store.store(invocation);
+        }
+        long bytes = store.getStoredBytes();
+        // releasing a whole row segment and the value segments it used drops them
+        for(int row = 0 ; row < 4096 ; row++) {
+            store.release(row);
+        }
+        store.release(0);
+        assertEquals(count - 4096, store.size());
+        assertTrue(store.getStoredBytes() < bytes / 4);
+        assertNull(store.load(0));
+        assertEquals(0, store.getId(100));
+        assertArrayEquals(new Object[] { "argument4500" }, store.load(4500).getArguments());
+        assertEquals(count - 4096, store.streamRows().count());
+
+        // the columns of dropped rows and of a closed store read as empty
+        assertEquals(InvocationId.INVALID, store.getParentId(100));
+        assertNull(store.getCallPath(100));
+        assertEquals(0, store.getDurationNanos(100));
+        store.close();
+        assertEquals(0, store.getId(4500));
+        assertEquals(0, store.getTime(4500));
+        assertNull(store.load(4500));
+    }
+}
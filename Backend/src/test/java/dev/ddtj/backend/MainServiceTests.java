@@ -2,12 +2,14 @@ package dev.ddtj.backend;
 
 import com.sun.jdi.ReferenceType;
 import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
 import dev.ddtj.backend.data.objectmodel.BaseType;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
 import dev.ddtj.backend.dto.ClassDTO;
 import dev.ddtj.backend.dto.MethodDTO;
+import dev.ddtj.backend.dto.RecordingDTO;
 import dev.ddtj.backend.dto.TestTimeDTO;
 import dev.ddtj.backend.dto.VMDTO;
 import dev.ddtj.backend.javadebugger.ConnectSession;
@@ -16,8 +18,10 @@ import dev.ddtj.backend.service.MainService;
 import dev.ddtj.backend.service.TestGenerator;
 import dev.ddtj.backend.web.GeneratorController;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -30,6 +34,8 @@ import org.springframework.web.servlet.ModelAndView;
 
 @ExtendWith(MockitoExtension.class)
 class MainServiceTests {
+    private static final long TEST_ID = InvocationId.compose(1, 5);
+
     @Mock
     private ConnectSession connectSession;
 
@@ -59,16 +65,20 @@ class MainServiceTests {
         PARENT_CLASS.setObjectType(ObjectType.create(referenceType));
         PARENT_METHOD.addInvocation(invocation);
         PARENT_METHOD.setParameters(new BaseType[0]);
-        invocation.setId("test");
+        invocation.setId(TEST_ID);
         invocation.setThreadId(1);
         invocation.setFields(new Object[0]);
         invocation.setArguments(new Object[0]);
         PARENT_CLASS.setName("parent_package.ParentClass");
         PARENT_CLASS.addMethod(PARENT_METHOD);
         mainService.connect(vmDTO);
-        PARENT_METHOD.addInvocation(new Invocation());
+        Invocation laterInvocation = new Invocation();
+        laterInvocation.setId(InvocationId.compose(1, 6));
+        PARENT_METHOD.addInvocation(laterInvocation);
         Mockito.verify(connectSession, Mockito.times(1))
                 .create(vmDTO);
+        // the session that was replaced is closed
+        Mockito.verify(monitoredSession).close();
 
         mainService.setSession(monitoredSession);
 
@@ -84,18 +94,31 @@ class MainServiceTests {
         List<TestTimeDTO> testTimeDTOS = mainService.listInvocations(PARENT_CLASS.getName(), PARENT_METHOD.fullName());
         assertEquals(2, testTimeDTOS.size());
 
-        TestGenerator generator = mainService.generateTest(PARENT_CLASS.getName(), PARENT_METHOD.fullName(), "test");
+        TestGenerator generator = mainService.generateTest(PARENT_CLASS.getName(), PARENT_METHOD.fullName(),
+                InvocationId.encode(TEST_ID));
         assertNotNull(generator);
 
         GeneratorController controller = new GeneratorController(mainService);
-        ModelAndView modelAndView = controller.generateTest(PARENT_CLASS.getName(), PARENT_METHOD.fullName(), "test");
+        ModelAndView modelAndView = controller.generateTest(PARENT_CLASS.getName(), PARENT_METHOD.fullName(),
+                InvocationId.encode(TEST_ID));
         assertNotNull(modelAndView);
     }
 
+    @Test
+    void listRecordingsTest() {
+        Mockito.when(connectSession.listRecordings()).thenReturn(List.of(Path.of("1000-abc"),
+                Path.of("renamed-abc"), Path.of("latest")));
+        List<RecordingDTO> recordings = mainService.listRecordings();
+        assertEquals(List.of("1000-abc", "renamed-abc", "latest"),
+                recordings.stream().map(RecordingDTO::getId).collect(Collectors.toList()));
+        assertEquals(List.of(1000L, 0L, 0L),
+                recordings.stream().map(RecordingDTO::getTime).collect(Collectors.toList()));
+    }
+
     private void initLombok() {
         invocation.setArguments(new Object[]{" "});
         invocation.setTime(System.currentTimeMillis());
-        invocation.setId("1");
+        invocation.setId(1);
         invocation.setResult(new Object());
         invocation.setThrownException("");
     }
@@ -41,7 +41,13 @@ class MainWSTests {
 
     @Test
     void listInvocations() {
-        mainWS.listInvocations(getClass().getName(), "sig");
-        Mockito.verify(mainService).listInvocations(getClass().getName(), "sig");
+        mainWS.listInvocations(getClass().getName(), "sig", 1L, null);
+        Mockito.verify(mainService).listInvocations(getClass().getName(), "sig", 1L, null);
+    }
+
+    @Test
+    void getLatency() {
+        mainWS.getLatency(getClass().getName(), "sig");
+        Mockito.verify(mainService).getLatency(getClass().getName(), "sig");
     }
 }
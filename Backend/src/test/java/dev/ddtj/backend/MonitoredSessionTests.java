@@ -18,23 +18,36 @@
 package dev.ddtj.backend;
 
 import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.ArrayType;
 import com.sun.jdi.ClassNotLoadedException;
 import com.sun.jdi.IncompatibleThreadStateException;
 import com.sun.jdi.IntegerType;
 import com.sun.jdi.LocalVariable;
-import com.sun.jdi.Location;
 import com.sun.jdi.Method;
-import com.sun.jdi.ObjectReference;
 import com.sun.jdi.ReferenceType;
-import com.sun.jdi.StackFrame;
 import com.sun.jdi.ThreadReference;
 import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.Field;
 import com.sun.jdi.event.MethodEntryEvent;
 import com.sun.jdi.event.MethodExitEvent;
+import dev.ddtj.backend.data.CaptureProfile;
 import dev.ddtj.backend.data.ExecutionState;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.InvocationId;
+import dev.ddtj.backend.data.MethodRetention;
+import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.RetentionPolicy;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import dev.ddtj.backend.javadebugger.CaptureConfiguration;
 import dev.ddtj.backend.javadebugger.MonitoredSession;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.java.Log;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
@@ -67,7 +80,44 @@ class MonitoredSessionTests {
     @Test
     void enteringMethodTest() throws AbsentInformationException, ClassNotLoadedException {
         MonitoredSession session = initSession();
-        assertSame(session.getOrCreateMethod(method), session.getOrCreateMethod(method));
+        ParentMethod parentMethod = session.getOrCreateMethod(method);
+
+        // the mirror is memoized so later frames of the method don't query the VM
+        Mockito.clearInvocations(method);
+        assertSame(parentMethod, session.getOrCreateMethod(method));
+        Mockito.verifyNoInteractions(method);
+
+        // another mirror of the same method resolves to the registered method
+        Method otherMirror = Mockito.mock(Method.class);
+        Mockito.when(otherMirror.declaringType()).thenReturn(referenceType);
+        Mockito.when(otherMirror.name()).thenReturn(parentMethod.getName());
+        Mockito.when(otherMirror.signature()).thenReturn(METHOD_SIGNATURE);
+        assertSame(parentMethod, session.getOrCreateMethod(otherMirror));
+        assertEquals(1, session.getClass(DECLARING_CLASS).getMethodCount());
+    }
+
+    @Test
+    void unloadedMethodTest() throws ClassNotLoadedException {
+        MonitoredSession session = initSession();
+        ParentMethod parentMethod = session.getOrCreateMethod(method);
+
+        // the mirror of an unloaded class is dropped but the method it was registered under remains
+        session.classUnloaded(DECLARING_CLASS);
+        Mockito.clearInvocations(method);
+        assertSame(parentMethod, session.getOrCreateMethod(method));
+        Mockito.verify(method).declaringType();
+
+        // a class that's prepared again drops its mirrors the same way
+        session.classPrepared(referenceType);
+        Mockito.clearInvocations(method);
+        assertSame(parentMethod, session.getOrCreateMethod(method));
+        Mockito.verify(method).declaringType();
+
+        // other classes leave the cache alone
+        session.classUnloaded("test.OtherClass");
+        Mockito.clearInvocations(method);
+        session.getOrCreateMethod(method);
+        Mockito.verifyNoInteractions(method);
     }
 
     @Test()
@@ -126,26 +176,15 @@ class MonitoredSessionTests {
     }
 
     @Test
-    void testExecutionState() throws ClassNotLoadedException, IncompatibleThreadStateException {
-        MonitoredSession session = initSession();
+    void testExecutionState() throws IncompatibleThreadStateException {
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*");
         assertEquals(0, session.getPendingExecutionCount());
         MethodEntryEvent methodEntryEvent = Mockito.mock(MethodEntryEvent.class);
         ThreadReference threadReference = Mockito.mock(ThreadReference.class);
         Mockito.when(methodEntryEvent.thread()).thenReturn(threadReference);
-
-        StackFrame stackFrame = Mockito.mock(StackFrame.class);
-        Mockito.when(threadReference.frame(0)).thenReturn(stackFrame);
         Mockito.when(threadReference.frameCount()).thenReturn(1);
         Mockito.when(threadReference.uniqueID()).thenReturn(1L);
 
-        ObjectReference thisInstance = Mockito.mock(ObjectReference.class);
-        Mockito.when(stackFrame.thisObject()).thenReturn(thisInstance);
-        Mockito.when(thisInstance.uniqueID()).thenReturn(1L);
-
-        Location location = Mockito.mock(Location.class);
-        Mockito.when(stackFrame.location()).thenReturn(location);
-        Mockito.when(location.method()).thenReturn(method);
-
         ExecutionState executionState = new ExecutionState();
         session.queueExecutionState(methodEntryEvent, executionState);
         assertEquals(1, session.getPendingExecutionCount());
@@ -154,6 +193,318 @@ class MonitoredSessionTests {
         Mockito.when(methodExitEvent.thread()).thenReturn(threadReference);
         assertSame(executionState, session.removeExecutionState(methodExitEvent));
         assertEquals(0, session.getPendingExecutionCount());
+
+        // an exit without a matching entry is ignored
+        assertNull(session.removeExecutionState(methodExitEvent));
+    }
+
+    @Test
+    void callTreeTest() throws IncompatibleThreadStateException {
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*");
+        MethodEntryEvent methodEntryEvent = Mockito.mock(MethodEntryEvent.class);
+        MethodExitEvent methodExitEvent = Mockito.mock(MethodExitEvent.class);
+        ThreadReference threadReference = Mockito.mock(ThreadReference.class);
+        Mockito.when(methodEntryEvent.thread()).thenReturn(threadReference);
+        Mockito.when(methodExitEvent.thread()).thenReturn(threadReference);
+        Mockito.when(threadReference.uniqueID()).thenReturn(1L);
+
+        Invocation outer = invocation(session);
+        Mockito.when(threadReference.frameCount()).thenReturn(2);
+        session.pushExecutionState(methodEntryEvent, outer);
+
+        // the entry at depth 3 never exits, its sibling replaces it
+        Invocation abandoned = invocation(session);
+        Mockito.when(threadReference.frameCount()).thenReturn(3);
+        session.pushExecutionState(methodEntryEvent, abandoned);
+        Invocation first = invocation(session);
+        session.pushExecutionState(methodEntryEvent, first);
+        session.addInvocation(session.removeExecutionState(methodExitEvent).getInvocation());
+
+        Invocation second = invocation(session);
+        session.pushExecutionState(methodEntryEvent, second);
+        Invocation nested = invocation(session);
+        Mockito.when(threadReference.frameCount()).thenReturn(4);
+        session.pushExecutionState(methodEntryEvent, nested);
+        session.addInvocation(session.removeExecutionState(methodExitEvent).getInvocation());
+        Mockito.when(threadReference.frameCount()).thenReturn(3);
+        session.addInvocation(session.removeExecutionState(methodExitEvent).getInvocation());
+
+        Mockito.when(threadReference.frameCount()).thenReturn(2);
+        session.addInvocation(session.removeExecutionState(methodExitEvent).getInvocation());
+
+        assertNull(outer.getParent());
+        assertSame(outer, first.getParent());
+        assertSame(outer, second.getParent());
+        assertSame(second, nested.getParent());
+        assertArrayEquals(new long[] {first.getId(), second.getId()}, outer.getChildIds());
+        assertArrayEquals(new long[] {nested.getId()}, second.getChildIds());
+        assertEquals(0, abandoned.getChildIds().length);
+
+        // stored invocations keep the links by id
+        Invocation storedSecond = session.findInvocation(second.getId());
+        assertEquals(outer.getId(), storedSecond.getParentId());
+        assertArrayEquals(new long[] {nested.getId()}, storedSecond.getChildIds());
+        assertEquals(0, session.getPendingExecutionCount());
+    }
+
+    private static Invocation invocation(MonitoredSession session) {
+        Invocation invocation = new Invocation();
+        invocation.setId(session.nextInvocationId());
+        return invocation;
+    }
+
+    @Test
+    void preAnalysisTest() throws ClassNotLoadedException {
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setAnalysisThreads(1);
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        Mockito.when(referenceType.name()).thenReturn(DECLARING_CLASS);
+        Mockito.when(referenceType.isPublic()).thenReturn(true);
+        Mockito.when(referenceType.methods()).thenReturn(List.of(method));
+        Mockito.when(method.declaringType()).thenReturn(referenceType);
+        Mockito.when(method.signature()).thenReturn(METHOD_SIGNATURE);
+        Mockito.when(method.name()).thenReturn("testMethodName");
+        Mockito.when(method.returnType()).thenReturn(integerType);
+        Mockito.when(integerType.name()).thenReturn("int");
+
+        session.classPrepared(referenceType);
+        session.release();
+        assertEquals(1, session.getTypeAnalyzer().getAnalyzedClasses());
+
+        // the method is ready but isn't listed until it's invoked
+        ParentMethod parentMethod = session.getClass(DECLARING_CLASS).findMethod("testMethodName" + METHOD_SIGNATURE);
+        assertNotNull(parentMethod);
+        assertFalse(parentMethod.isApplicable());
+    }
+
+    @Test
+    void closeTest() {
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", new CaptureConfiguration());
+        Invocation invocation = invocation(session);
+        invocation.setArgumentRecord(ValueRecord.EMPTY);
+        invocation.setFieldRecord(ValueRecord.EMPTY);
+        session.addInvocation(invocation);
+
+        // a released session can still be browsed, closing it stops the VM and frees the invocations
+        session.release();
+        assertNotNull(session.findInvocation(invocation.getId()));
+        session.close();
+        Mockito.verify(virtualMachine).dispose();
+        assertNull(session.findInvocation(invocation.getId()));
+    }
+
+    @Test
+    void captureProfileTest() throws ClassNotLoadedException {
+        Mockito.when(referenceType.name()).thenReturn(DECLARING_CLASS);
+        Mockito.when(method.declaringType()).thenReturn(referenceType);
+        Mockito.when(method.signature()).thenReturn(METHOD_SIGNATURE);
+        Mockito.when(method.name()).thenReturn("testMethodName");
+        Mockito.when(method.returnType()).thenReturn(integerType);
+        Mockito.when(integerType.name()).thenReturn("int");
+
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setDependencyClasses(List.of("test.My*"));
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        assertEquals(CaptureProfile.DEPENDENCY, session.getOrCreateMethod(method).getParentClass().getCaptureProfile());
+
+        // a class that's only called from other monitored classes becomes a dependency
+        configuration = new CaptureConfiguration();
+        configuration.setAutoDependencyThreshold(2);
+        session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        ParentClass parentClass = session.getOrCreateMethod(method).getParentClass();
+        assertEquals(CaptureProfile.FULL, parentClass.getCaptureProfile());
+        Method caller = Mockito.mock(Method.class);
+        ReferenceType callerType = Mockito.mock(ReferenceType.class);
+        Mockito.when(caller.declaringType()).thenReturn(callerType);
+        Mockito.when(callerType.name()).thenReturn("test.Controller");
+        session.observeCaller(parentClass, caller);
+        assertEquals(CaptureProfile.FULL, parentClass.getCaptureProfile());
+        session.observeCaller(parentClass, caller);
+        assertEquals(CaptureProfile.DEPENDENCY, parentClass.getCaptureProfile());
+
+        // a class that's also invoked directly stays fully captured
+        ParentClass entryClass = new ParentClass();
+        entryClass.setName(DECLARING_CLASS);
+        session.observeCaller(entryClass, null);
+        session.observeCaller(entryClass, caller);
+        session.observeCaller(entryClass, caller);
+        assertEquals(CaptureProfile.FULL, entryClass.getCaptureProfile());
+    }
+
+    @Test
+    void invocationIndexTest() {
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*");
+        List<Invocation> invocations = new ArrayList<>();
+        for(int iter = 0 ; iter < 3000 ; iter++) {
+            Invocation invocation = new Invocation();
+            invocation.setId(session.nextInvocationId());
+            session.addInvocation(invocation);
+            invocations.add(invocation);
+        }
+        Invocation last = invocations.get(invocations.size() - 1);
+        // the off heap store decodes a copy of the invocation
+        assertEquals(last, session.findInvocation(InvocationId.decode(InvocationId.encode(last.getId()))));
+        assertEquals(invocations.get(0), session.findInvocation(invocations.get(0).getId()));
+        assertEquals(session.getSessionPrefix(), InvocationId.prefix(last.getId()));
+
+        // ids of other sessions and malformed ids aren't found
+        assertNull(session.findInvocation(InvocationId.compose(session.getSessionPrefix() + 1, 1)));
+        assertNull(session.findInvocation(InvocationId.decode("not an id")));
+        assertNull(session.findInvocation(InvocationId.compose(session.getSessionPrefix(), 5000)));
+    }
+
+    private static Invocation invocation(MonitoredSession session, ParentMethod method, Invocation parent) {
+        Invocation invocation = new Invocation();
+        invocation.setId(session.nextInvocationId());
+        invocation.setParent(parent);
+        invocation.setCallPath(session.getCallPathRoot().child(method));
+        return invocation;
+    }
+
+    @Test
+    void retentionTest() throws IncompatibleThreadStateException {
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setMaxInvocationsPerMethod(2);
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        ParentMethod outer = new ParentMethod();
+        outer.setInvocationStore(session.getInvocationStore());
+        ParentMethod inner = new ParentMethod();
+        inner.setInvocationStore(session.getInvocationStore());
+        inner.setRetention(new MethodRetention(RetentionPolicy.KEEP_LATEST, 2));
+
+        // the child evicted while the outer invocation runs is kept as its mock data
+        MethodEntryEvent methodEntryEvent = Mockito.mock(MethodEntryEvent.class);
+        ThreadReference threadReference = Mockito.mock(ThreadReference.class);
+        Mockito.when(methodEntryEvent.thread()).thenReturn(threadReference);
+        Mockito.when(threadReference.uniqueID()).thenReturn(1L);
+        Mockito.when(threadReference.frameCount()).thenReturn(1);
+        Invocation first = invocation(session, outer, null);
+        session.pushExecutionState(methodEntryEvent, first);
+        List<Invocation> children = new ArrayList<>();
+        for(int iter = 0 ; iter < 3 ; iter++) {
+            Invocation child = invocation(session, inner, first);
+            child.setThreadId(1);
+            children.add(child);
+            session.completeInvocation(inner, -1, child);
+        }
+        session.completeInvocation(outer, -1, first);
+        assertEquals(1, outer.getInvocationCount());
+        assertEquals(0, outer.getEvictedCount());
+        assertEquals(2, inner.getInvocationCount());
+        assertEquals(1, inner.getEvictedCount());
+        assertNotNull(session.findInvocation(children.get(0).getId()));
+
+        // children of a stored invocation stay as its mock data, an invocation without a parent is removed
+        Invocation latest = invocation(session, inner, null);
+        session.completeInvocation(inner, -1, latest);
+        session.completeInvocation(inner, -1, invocation(session, inner, null));
+        assertNotNull(session.findInvocation(children.get(1).getId()));
+        assertNotNull(session.findInvocation(children.get(2).getId()));
+        session.completeInvocation(inner, -1, invocation(session, inner, null));
+        assertNull(session.findInvocation(latest.getId()));
+
+        assertEquals(1, outer.getInvocationCount());
+        assertEquals(2, inner.getInvocationCount());
+        assertEquals(4, inner.getEvictedCount());
+        assertEquals(6, session.getInvocationStore().size());
+    }
+
+    @Test
+    void slowInvocationTest() {
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setSlowInvocationPercentile(0.9);
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        ParentMethod outer = new ParentMethod();
+        outer.setInvocationStore(session.getInvocationStore());
+        ParentMethod inner = new ParentMethod();
+        inner.setInvocationStore(session.getInvocationStore());
+        inner.getLatency().record(1000);
+        // every invocation is slow while nothing was recorded, an earlier one makes the usual invocations fast
+        outer.getLatency().record(1_000_000);
+        for(int iter = 0 ; iter < 100 ; iter++) {
+            Invocation fast = invocation(session, outer, null);
+            fast.setEndNanos(1000);
+            session.completeInvocation(outer, -1, fast);
+        }
+        assertEquals(0, outer.getInvocationCount());
+        assertEquals(101, outer.getLatency().getCount());
+
+        // the fast child of a slow invocation is kept as a mock but isn't listed
+        Invocation slow = invocation(session, outer, null);
+        Invocation child = invocation(session, inner, slow);
+        child.setEndNanos(10);
+        session.completeInvocation(inner, -1, child);
+        slow.setEndNanos(1_000_000);
+        session.completeInvocation(outer, -1, slow);
+        assertEquals(1, outer.getInvocationCount());
+        assertEquals(0, inner.getInvocationCount());
+        assertNotNull(session.findInvocation(child.getId()));
+
+        // the fast child of a fast invocation is discarded with it
+        Invocation fast = invocation(session, outer, null);
+        Invocation discarded = invocation(session, inner, fast);
+        session.completeInvocation(inner, -1, discarded);
+        fast.setEndNanos(10);
+        session.completeInvocation(outer, -1, fast);
+        assertNull(session.findInvocation(discarded.getId()));
+        assertEquals(1, outer.getInvocationCount());
+        assertEquals(2, session.getInvocationStore().size());
+
+        // past the limit the fast children aren't collected but the slow invocation is kept
+        configuration.setSlowInvocationMaxChildren(1);
+        Invocation busy = invocation(session, outer, null);
+        Invocation kept = invocation(session, inner, busy);
+        kept.setEndNanos(10);
+        session.completeInvocation(inner, -1, kept);
+        Invocation dropped = invocation(session, inner, busy);
+        dropped.setEndNanos(10);
+        session.completeInvocation(inner, -1, dropped);
+        busy.setEndNanos(1_000_000);
+        session.completeInvocation(outer, -1, busy);
+        assertEquals(2, outer.getInvocationCount());
+        assertNotNull(session.findInvocation(busy.getId()));
+        assertNotNull(session.findInvocation(kept.getId()));
+        assertNull(session.findInvocation(dropped.getId()));
+        assertArrayEquals(new long[] {kept.getId()}, session.findInvocation(busy.getId()).getChildIds());
+    }
+
+    @Test
+    void abandonedInvocationTest() throws IncompatibleThreadStateException {
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setSlowInvocationPercentile(0.9);
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        ParentMethod outer = new ParentMethod();
+        outer.setInvocationStore(session.getInvocationStore());
+        ParentMethod inner = new ParentMethod();
+        inner.setInvocationStore(session.getInvocationStore());
+        inner.getLatency().record(1000);
+        MethodEntryEvent methodEntryEvent = Mockito.mock(MethodEntryEvent.class);
+        ThreadReference threadReference = Mockito.mock(ThreadReference.class);
+        Mockito.when(methodEntryEvent.thread()).thenReturn(threadReference);
+        Mockito.when(threadReference.uniqueID()).thenReturn(1L);
+        Mockito.when(threadReference.frameCount()).thenReturn(2);
+
+        Invocation running = invocation(session, outer, null);
+        long slot = outer.reserveInvocation();
+        ExecutionState state = session.pushExecutionState(methodEntryEvent, running);
+        state.setParentMethod(outer);
+        state.setInvocationSlot(slot);
+        Invocation child = invocation(session, inner, running);
+        child.setEndNanos(10);
+        session.completeInvocation(inner, -1, child);
+        assertNotNull(session.findInvocation(child.getId()));
+
+        // the exit of the running invocation was never seen, its provisional child and its slot are freed
+        session.pushExecutionState(methodEntryEvent, invocation(session, outer, null));
+        assertNull(session.findInvocation(child.getId()));
+        assertEquals(0, session.getInvocationStore().size());
+        assertEquals(slot, outer.reserveInvocation());
+
+        // ids past the range of an int are indexed
+        Invocation late = invocation(session, outer, null);
+        late.setId(InvocationId.compose(session.getSessionPrefix(), 1L << 40));
+        session.addInvocation(late);
+        assertEquals(late.getId(), session.findInvocation(late.getId()).getId());
     }
 
     @Test
@@ -170,6 +521,65 @@ class MonitoredSessionTests {
         fail("IllegalStateException should have been thrown");
     }
 
+    @Test
+    void concurrentAnalysisTest() throws ClassNotLoadedException, AbsentInformationException, InterruptedException {
+        Mockito.lenient().when(integerType.name()).thenReturn("int");
+        Field node = Mockito.mock(Field.class);
+        Mockito.when(node.name()).thenReturn("node");
+        Mockito.when(node.typeName()).thenReturn("int");
+        ReferenceType holderType = ObjectTypeTests.createClass(Arrays.asList(
+                ObjectTypeTests.create(integerType, "setNode", "void", "int"),
+                ObjectTypeTests.create(integerType, "<init>", "void")), List.of(node));
+        Mockito.when(holderType.name()).thenReturn("test.Holder");
+
+        // the analyzer is held while it creates the node, after it created the holder that refers back to the node
+        CountDownLatch analyzing = new CountDownLatch(1);
+        CountDownLatch captured = new CountDownLatch(1);
+        ArrayType countsType = Mockito.mock(ArrayType.class);
+        Mockito.when(countsType.componentType()).thenAnswer(invocation -> {
+            if(Thread.currentThread().getName().startsWith("ddtj-type-analysis")) {
+                analyzing.countDown();
+                captured.await(10, TimeUnit.SECONDS);
+            }
+            return integerType;
+        });
+        Method analyzed = Mockito.mock(Method.class);
+        List<Method> methods = new ArrayList<>(Arrays.asList(
+                ObjectTypeTests.create(integerType, "setHolder", "void", "int"),
+                ObjectTypeTests.create(integerType, "setCounts", "void", "int"),
+                ObjectTypeTests.create(integerType, "<init>", "void")));
+        ReferenceType nodeType = ObjectTypeTests.createClass(methods, List.of(ObjectTypeTests.create("holder",
+                holderType), ObjectTypeTests.create("counts", countsType)));
+        Mockito.when(nodeType.name()).thenReturn("test.Node");
+        Mockito.when(nodeType.isPublic()).thenReturn(true);
+        Mockito.when(node.type()).thenReturn(nodeType);
+        Mockito.lenient().when(analyzed.name()).thenReturn("find");
+        Mockito.lenient().when(analyzed.signature()).thenReturn("()I");
+        methods.add(analyzed);
+        for(Method method : methods) {
+            Mockito.lenient().when(method.declaringType()).thenReturn(nodeType);
+            Mockito.lenient().when(method.returnType()).thenReturn(integerType);
+        }
+
+        CaptureConfiguration configuration = new CaptureConfiguration();
+        configuration.setMinimalFieldCapture(false);
+        MonitoredSession session = new MonitoredSession(virtualMachine, "test.*", configuration);
+        session.classPrepared(nodeType);
+        assertTrue(analyzing.await(10, TimeUnit.SECONDS));
+
+        // a capture of the holder while the analyzer creates the node can't see a half created type
+        BaseType holder = session.getTypeCache().get(holderType);
+        assertNotNull(((ObjectType) holder.unwrap()).getLayout());
+        captured.countDown();
+        for(int iter = 0 ; iter < 100 && session.getTypeAnalyzer().getAnalyzedClasses() == 0 ; iter++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, session.getTypeAnalyzer().getAnalyzedClasses());
+        assertNotNull(((ObjectType) session.getTypeCache().get(nodeType).unwrap()).getLayout());
+        assertNotNull(((ObjectType) session.getTypeCache().get(holderType).unwrap()).getLayout());
+        session.release();
+    }
+
     private MonitoredSession initSession() throws ClassNotLoadedException {
         MonitoredSession session = new MonitoredSession(virtualMachine, "test.*");
         Mockito.when(referenceType.name()).thenReturn(DECLARING_CLASS);
@@ -18,10 +18,15 @@
 package dev.ddtj.backend;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.sun.jdi.AbsentInformationException;
+import com.sun.jdi.ArrayType;
 import com.sun.jdi.ClassNotLoadedException;
 import com.sun.jdi.Field;
 import com.sun.jdi.IntegerType;
@@ -34,8 +39,16 @@ import com.sun.jdi.StackFrame;
 import com.sun.jdi.Type;
 import com.sun.jdi.Value;
 import com.sun.jdi.VirtualMachine;
+import dev.ddtj.backend.data.objectmodel.BackReference;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.CodeGenerationContext;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
+import dev.ddtj.backend.data.objectmodel.TypeCache;
+import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import dev.ddtj.backend.data.objectmodel.TypeMetadataStore;
 import java.lang.reflect.Array;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -43,6 +56,7 @@ import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -98,19 +112,155 @@ class ObjectTypeTests {
         testGetValue(field1, field2, constructorObjectType);
     }
 
+    @Test
+    void graphCaptureTest() throws ClassNotLoadedException, AbsentInformationException {
+        Mockito.when(integerType.name()).thenReturn("int");
+        Field ownerValue = create("value", integerType);
+        ReferenceType ownerType = createClass(Arrays.asList(create(integerType, "setValue", "void", "int"),
+                create(integerType, "<init>", "void")), List.of(ownerValue));
+
+        Field leafValue = create("value", integerType);
+        Field leafOwner = create("owner", ownerType);
+        ReferenceType leafType = createClass(Arrays.asList(create(integerType, "setValue", "void", "int"),
+                create(integerType, "setOwner", "void", "int"),
+                create(integerType, "<init>", "void")), Arrays.asList(leafValue, leafOwner));
+
+        Field parentChild = create("child", leafType);
+        Field parentOther = create("other", leafType);
+        ReferenceType parentType = createClass(Arrays.asList(create(integerType, "setChild", "void", "int"),
+                create(integerType, "setOther", "void", "int"),
+                create(integerType, "<init>", "void")), Arrays.asList(parentChild, parentOther));
+        ObjectType parentObjectType = ObjectType.create(parentType);
+        assertEquals(ObjectType.CreationType.SETTERS, parentObjectType.getCreationType());
+
+        // the parent references the same leaf twice and the leaf points back at the parent
+        ObjectReference parent = Mockito.mock(ObjectReference.class);
+        ObjectReference leaf = Mockito.mock(ObjectReference.class);
+        IntegerValue three = Mockito.mock(IntegerValue.class);
+        Mockito.lenient().when(three.intValue()).thenReturn(3);
+        Mockito.when(parent.uniqueID()).thenReturn(1L);
+        Mockito.when(leaf.uniqueID()).thenReturn(2L);
+        Mockito.when(parent.referenceType()).thenReturn(parentType);
+        Mockito.lenient().when(leaf.referenceType()).thenReturn(leafType);
+        Mockito.when(parentType.fieldByName("child")).thenReturn(parentChild);
+        Mockito.when(parentType.fieldByName("other")).thenReturn(parentOther);
+        Mockito.lenient().when(leafType.fieldByName("value")).thenReturn(leafValue);
+        Mockito.lenient().when(leafType.fieldByName("owner")).thenReturn(leafOwner);
+        stubFields(parent, Map.of(parentChild, leaf, parentOther, leaf));
+        stubFields(leaf, Map.of(leafValue, three, leafOwner, parent));
+
+        CaptureContext context = new CaptureContext();
+        Map<String, Object> captured = (Map<String, Object>) context.capture(parentObjectType, parent);
+        assertEquals(2, context.getNodeCount());
+        Map<String, Object> capturedLeaf = (Map<String, Object>) captured.get("child");
+        assertEquals(3, capturedLeaf.get("value"));
+        assertEquals(new BackReference(1), capturedLeaf.get("owner"));
+        assertEquals(new BackReference(2), captured.get("other"));
+        Mockito.verify(leaf, Mockito.times(1)).getValues(Mockito.anyList());
+
+        List<String> code = parentObjectType.getCodePrefix("parent", captured, new CodeGenerationContext());
+        assertEquals(List.of("ClassName parent = new ClassName();",
+                "ClassName parentChild = new ClassName();",
+                "parentChild.setValue(3);",
+                "parentChild.setOwner(parent);",
+                "parent.setChild(parentChild);",
+                "parent.setOther(parentChild);"), code);
+
+        // with a depth of one the leaf isn't expanded and gets mocked
+        context = new CaptureContext(1, 10);
+        captured = (Map<String, Object>) context.capture(parentObjectType, parent);
+        assertEquals(1, context.getNodeCount());
+        assertTrue(((Map<String, Object>) captured.get("child")).containsKey(ObjectType.TRUNCATED_KEY));
+        code = parentObjectType.getCodePrefix("parent", captured, new CodeGenerationContext());
+        assertEquals("ClassName parentChild = Mockito.mock(ClassName.class);", code.get(1));
+        assertNull(context.capture(parentObjectType, null));
+    }
+
+    @Test
+    void recursiveTypeTest() throws ClassNotLoadedException, AbsentInformationException {
+        Field next = Mockito.mock(Field.class);
+        Mockito.when(next.name()).thenReturn("next");
+        Mockito.when(next.typeName()).thenReturn("int");
+        ReferenceType nodeType = createClass(Arrays.asList(create(integerType, "setNext", "void", "int"),
+                create(integerType, "<init>", "void")), List.of(next));
+        Mockito.when(next.type()).thenReturn(nodeType);
+
+        // the field refers back to the type while it's being created
+        TypeCache typeCache = new TypeCache();
+        BaseType nodeBaseType = TypeFactory.create(typeCache, nodeType);
+        ObjectType nodeObjectType = (ObjectType) nodeBaseType;
+        assertSame(nodeObjectType, nodeObjectType.getField(0).unwrap());
+        assertSame(nodeObjectType, TypeFactory.create(typeCache, nodeType));
+        assertEquals(1, typeCache.getHits());
+        assertEquals(1, typeCache.getMisses());
+
+        assertTrue(typeCache.contains(CLASS_NAME));
+        assertFalse(typeCache.contains(CLASS_NAME + "[]"));
+        typeCache.invalidate(CLASS_NAME);
+        assertEquals(0, typeCache.size());
+        assertFalse(typeCache.contains(CLASS_NAME));
+    }
+
+    @Test
+    void failedRecursiveTypeTest() throws ClassNotLoadedException, AbsentInformationException {
+        Field node = Mockito.mock(Field.class);
+        Mockito.when(node.name()).thenReturn("node");
+        Mockito.when(node.typeName()).thenReturn("int");
+        ReferenceType holderType = createClass(Arrays.asList(create(integerType, "setNode", "void", "int"),
+                create(integerType, "<init>", "void")), List.of(node));
+        Mockito.when(holderType.name()).thenReturn("test.Holder");
+        ArrayType brokenType = Mockito.mock(ArrayType.class);
+        Mockito.when(brokenType.componentType()).thenThrow(new ClassNotLoadedException("test.Missing"));
+        ReferenceType nodeType = createClass(Arrays.asList(create(integerType, "setHolder", "void", "int"),
+                create(integerType, "setBroken", "void", "int"), create(integerType, "<init>", "void")),
+                List.of(create("holder", holderType), create("broken", brokenType)));
+        Mockito.when(node.type()).thenReturn(nodeType);
+
+        // the holder was created while the node was, it refers to a node that never completed so it isn't cached
+        TypeCache typeCache = new TypeCache();
+        assertThrows(IllegalStateException.class, () -> TypeFactory.create(typeCache, nodeType));
+        assertEquals(0, typeCache.size());
+        assertFalse(typeCache.contains("test.Holder"));
+    }
+
+    @Test
+    void metadataStoreTest(@TempDir Path directory) throws ClassNotLoadedException, AbsentInformationException {
+        Mockito.when(integerType.name()).thenReturn("int");
+        Field field1 = create("field1", integerType);
+        ReferenceType type = createClass(Arrays.asList(create(integerType, "setField1", "void", "int"),
+                create(integerType, "<init>", "void")), List.of(field1));
+        Path file = directory.resolve("types.bin");
+        TypeMetadataStore store = TypeMetadataStore.load(file);
+        assertEquals(ObjectType.CreationType.SETTERS, ObjectType.create(type, new TypeCache(store)).getCreationType());
+        assertEquals(1, store.size());
+        store.save();
+
+        // the next run rebuilds the type from the file without going over the members again
+        TypeMetadataStore loaded = TypeMetadataStore.load(file);
+        assertEquals(1, loaded.size());
+        Mockito.when(type.fieldByName("field1")).thenReturn(field1);
+        ObjectType cached = ObjectType.create(type, new TypeCache(loaded));
+        assertEquals(ObjectType.CreationType.SETTERS, cached.getCreationType());
+        assertEquals("setField1", cached.getSetterMethods()[0]);
+        assertEquals("int", cached.getField(0).getType());
+        Mockito.verify(type, Mockito.times(1)).allFields();
+    }
+
     private void testGetValue(Field field1, Field field2, ObjectType settersType) {
         ObjectReference object = Mockito.mock(ObjectReference.class);
         ReferenceType objectType = Mockito.mock(ReferenceType.class);
         IntegerValue value = Mockito.mock(IntegerValue.class);
         Mockito.when(object.referenceType()).thenReturn(objectType);
-        Mockito.when(object.getValue(field1)).thenReturn(value);
-        Mockito.when(object.getValue(field2)).thenReturn(value);
+        stubFields(object, Map.of(field1, value, field2, value));
         Mockito.when(objectType.fieldByName("field1")).thenReturn(field1);
         Mockito.when(objectType.fieldByName("field2")).thenReturn(field2);
-        Mockito.when(value.value()).thenReturn(1);
+        Mockito.when(value.intValue()).thenReturn(1);
         settersType.getValue(object);
 
         assertEquals(2, settersType.getFieldValues(object).length);
+        // the fields are resolved once when the capture plan is compiled
+        Mockito.verify(objectType, Mockito.times(1)).fieldByName("field1");
+        Mockito.verify(object, Mockito.times(2)).getValues(Mockito.anyList());
 
         Map<String, Object> fieldsMap = new HashMap<>();
         fieldsMap.put("field1", 1);
@@ -124,6 +274,19 @@ class ObjectTypeTests {
         assertNotNull(settersType.getField(0));
     }
 
+    /**
+     * Answers the batched field reads of the object from the given values
+     */
+    public static void stubFields(ObjectReference object, Map<Field, Value> values) {
+        Mockito.lenient().when(object.getValues(Mockito.anyList())).thenAnswer(invocation -> {
+            Map<Field, Value> result = new HashMap<>();
+            for(Field field : (List<Field>) invocation.getArgument(0)) {
+                result.put(field, values.get(field));
+            }
+            return result;
+        });
+    }
+
     public static Field create(String name, Type type) throws ClassNotLoadedException {
         Field field = Mockito.mock(Field.class);
         Mockito.when(field.name()).thenReturn(name);
@@ -0,0 +1,251 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ddtj.backend.data.ChunkedAppendLog;
+import dev.ddtj.backend.data.ChunkedLongLog;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.LatencySketch;
+import dev.ddtj.backend.data.MethodRetention;
+import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.RetentionPolicy;
+import dev.ddtj.backend.storage.InvocationStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class ParentMethodTests {
+    private static Invocation invocation(long id, long time) {
+        Invocation invocation = new Invocation();
+        invocation.setId(id);
+        invocation.setTime(time);
+        return invocation;
+    }
+
+    @Test
+    void invocationIndexTest() {
+        ParentMethod parentMethod = new ParentMethod();
+        InvocationStore store = parentMethod.getInvocationStore();
+        // a call that is still running when the others exit
+        parentMethod.reserveInvocation();
+        for(int iter = 1 ; iter <= 100 ; iter += 2) {
+            // a recursive call exits before the call that encloses it
+            long outer = parentMethod.reserveInvocation();
+            long inner = parentMethod.reserveInvocation();
+            parentMethod.publishInvocation(inner, store.store(invocation(iter + 1, 1000 + iter)));
+            parentMethod.publishInvocation(outer, store.store(invocation(iter, 1000 + iter)));
+        }
+        // a call that never exits leaves an empty slot
+        parentMethod.reserveInvocation();
+        assertEquals(100, parentMethod.getInvocationCount());
+        List<Invocation> invocations = parentMethod.listInvocations();
+        for(int iter = 0 ; iter < invocations.size() ; iter++) {
+            assertEquals(iter + 1, invocations.get(iter).getId());
+        }
+
+        assertSame(invocations.get(41), parentMethod.findInvocation(42));
+        assertNull(parentMethod.findInvocation(0));
+        assertNull(parentMethod.findInvocation(101));
+        for(int iter = 1 ; iter <= 100 ; iter++) {
+            assertEquals(iter, parentMethod.findInvocation(iter).getId());
+        }
+
+        List<Invocation> range = parentMethod.streamInvocations(1011, 1020).collect(Collectors.toList());
+        assertEquals(10, range.size());
+        assertEquals(1011, range.get(0).getTime());
+        assertEquals(1019, range.get(range.size() - 1).getTime());
+        assertEquals(100, parentMethod.streamInvocations(Long.MIN_VALUE, Long.MAX_VALUE).count());
+        assertEquals(0, parentMethod.streamInvocations(2000, 3000).count());
+        assertEquals(0, parentMethod.streamInvocations(1020, 1010).count());
+
+        // an evicted slot is skipped by the search
+        parentMethod.removeInvocation(parentMethod.findSlot(43));
+        assertEquals(-1, parentMethod.findSlot(43));
+        assertEquals(44, parentMethod.findInvocation(44).getId());
+    }
+
+    @Test
+    void concurrentAppendTest() throws InterruptedException {
+        ChunkedAppendLog<Integer> log = new ChunkedAppendLog<>(4);
+        int threadCount = 4;
+        int perThread = 10_000;
+        Thread[] threads = new Thread[threadCount];
+        for(int iter = 0 ; iter < threadCount ; iter++) {
+            int base = iter * perThread;
+            threads[iter] = new Thread(() -> {
+                for(int value = 0 ; value < perThread ; value++) {
+                    log.append(base + value);
+                }
+            });
+            threads[iter].start();
+        }
+        // readers run concurrently and only see published elements
+        while (log.count() < threadCount * perThread) {
+            assertTrue(log.stream().count() <= log.size());
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * perThread, log.size());
+        assertEquals(threadCount * perThread, log.stream().distinct().count());
+    }
+
+    @Test
+    void retentionPolicyTest() {
+        MethodRetention first = new MethodRetention(RetentionPolicy.KEEP_FIRST, 2);
+        assertEquals(-1, first.retain(first.admit(0), 10, 0));
+        assertEquals(-1, first.retain(first.admit(0), 11, 0));
+        assertEquals(MethodRetention.REJECTED, first.admit(0));
+
+        // the oldest invocation is replaced round robin
+        MethodRetention latest = new MethodRetention(RetentionPolicy.KEEP_LATEST, 3);
+        for(int slot = 10 ; slot < 13 ; slot++) {
+            assertEquals(-1, latest.retain(latest.admit(0), slot, 0));
+        }
+        for(int slot = 13 ; slot < 20 ; slot++) {
+            assertEquals(slot - 3, latest.retain(latest.admit(0), slot, 0));
+        }
+        assertEquals(3, latest.getRetainedCount());
+
+        // invocations that look like one we already have are rejected, one of two alike is replaced
+        MethodRetention diverse = new MethodRetention(RetentionPolicy.MOST_DIVERSE, 3);
+        diverse.retain(diverse.admit(1), 10, 1);
+        diverse.retain(diverse.admit(1), 11, 1);
+        diverse.retain(diverse.admit(2), 12, 2);
+        assertEquals(MethodRetention.REJECTED, diverse.admit(2));
+        assertEquals(10, diverse.retain(diverse.admit(3), 13, 3));
+        assertEquals(MethodRetention.REJECTED, diverse.admit(4));
+
+        MethodRetention reservoir = new MethodRetention(RetentionPolicy.RESERVOIR, 10);
+        int replaced = 0;
+        for(int slot = 0 ; slot < 10_000 ; slot++) {
+            int position = reservoir.admit(0);
+            if(position != MethodRetention.REJECTED && reservoir.retain(position, slot, 0) >= 0) {
+                replaced++;
+            }
+        }
+        // a sample of 10 out of 10,000 replaces about 10 * ln(1000) invocations
+        assertEquals(10, reservoir.getRetainedCount());
+        assertTrue(replaced > 20 && replaced < 200, "Replaced " + replaced);
+    }
+
+    @Test
+    void clearLogTest() {
+        ChunkedLongLog log = new ChunkedLongLog(2);
+        for(int iter = 0 ; iter < 20 ; iter++) {
+            log.append(iter);
+        }
+        for(int iter = 0 ; iter < 18 ; iter++) {
+            assertEquals(iter, log.clear(iter));
+        }
+        assertEquals(ChunkedLongLog.EMPTY, log.clear(3));
+        assertEquals(2, log.count());
+        assertEquals(18, log.next(0, log.size()));
+        assertEquals(List.of(18L, 19L), log.stream().boxed().collect(Collectors.toList()));
+
+        // a cleared chunk is allocated again when a slot in it is set
+        log.set(1, 100);
+        assertEquals(100, log.get(1));
+        assertEquals(ChunkedLongLog.EMPTY, log.get(0));
+        assertEquals(3, log.count());
+    }
+
+    @Test
+    void longLogTest() {
+        ChunkedLongLog log = new ChunkedLongLog(2);
+        // slots past the range of an int
+        long far = 1L << 40;
+        log.set(far, 7);
+        log.set(far + 5, 8);
+        assertEquals(7, log.get(far));
+        assertEquals(far + 5, log.next(far + 1, far + 10));
+        assertEquals(List.of(7L, 8L), log.stream(0, far + 10).boxed().collect(Collectors.toList()));
+
+        // a slot published late before the first chunk that has values
+        log.set(far - 20, 1);
+        assertEquals(List.of(1L, 7L, 8L), log.stream(0, far + 10).boxed().collect(Collectors.toList()));
+        log.clear(far - 20);
+        log.clear(far);
+        log.clear(far + 5);
+        assertEquals(0, log.count());
+        assertEquals(far + 10, log.next(0, far + 10));
+
+        // only the last reserved slot can be handed back
+        long first = log.reserve();
+        long second = log.reserve();
+        assertFalse(log.release(first));
+        assertTrue(log.release(second));
+        assertEquals(second, log.reserve());
+    }
+
+    @Test
+    void latencySketchTest() {
+        LatencySketch sketch = new LatencySketch();
+        assertTrue(sketch.isAbove(0, 0.9));
+        assertEquals(0, sketch.getValueAt(0.5));
+        for(long value = 1 ; value <= 100_000 ; value++) {
+            sketch.record(value * 1000);
+        }
+        assertEquals(100_000, sketch.getCount());
+        assertEquals(1000, sketch.getMin());
+        assertEquals(100_000_000, sketch.getMax());
+        // the buckets are at most a sixteenth of their values wide
+        assertEquals(50_000_000, sketch.getValueAt(0.5), 50_000_000 / 16.0);
+        assertEquals(99_000_000, sketch.getValueAt(0.99), 99_000_000 / 16.0);
+        assertEquals(100_000_000, sketch.getValueAt(1));
+        assertTrue(sketch.isAbove(99_999_000, 0.9));
+        assertFalse(sketch.isAbove(50_000_000, 0.9));
+        assertEquals(100_000, Arrays.stream(sketch.getBucketCounts()).sum());
+        for(int bucket = 1 ; bucket < 200 ; bucket++) {
+            assertTrue(LatencySketch.upperBound(bucket) > LatencySketch.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    void latencySketchTopBucketTest() {
+        // when most invocations take about as long the quantile is in the top bucket
+        LatencySketch sketch = new LatencySketch();
+        for(int iter = 0 ; iter < 100 ; iter++) {
+            sketch.record(1000);
+        }
+        sketch.record(10);
+        assertFalse(sketch.isAbove(995, 0.9));
+        assertTrue(sketch.isAbove(2000, 0.9));
+        assertFalse(sketch.isAbove(500, 0.9));
+
+        // only the tail of a bucket the quantile falls into is above it
+        sketch = new LatencySketch();
+        for(int iter = 0 ; iter < 100 ; iter++) {
+            sketch.record(1024 + iter * 64 / 100);
+        }
+        int above = 0;
+        for(int iter = 0 ; iter < 100 ; iter++) {
+            if(sketch.isAbove(1024 + iter * 64 / 100, 0.9)) {
+                above++;
+            }
+        }
+        assertTrue(above > 0 && above <= 15, "Values above the 90th percentile " + above);
+    }
+}
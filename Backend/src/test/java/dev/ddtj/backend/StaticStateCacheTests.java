@@ -0,0 +1,127 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.jdi.Field;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.PrimitiveType;
+import com.sun.jdi.ReferenceType;
+import com.sun.jdi.VirtualMachine;
+import com.sun.jdi.request.EventRequestManager;
+import com.sun.jdi.request.ModificationWatchpointRequest;
+import dev.ddtj.backend.data.StaticSnapshot;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.TypeCache;
+import dev.ddtj.backend.javadebugger.StaticStateCache;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StaticStateCacheTests {
+    @Mock
+    private VirtualMachine virtualMachine;
+
+    @Mock
+    private EventRequestManager eventRequestManager;
+
+    @Mock
+    private ModificationWatchpointRequest watchpointRequest;
+
+    @Mock
+    private ReferenceType referenceType;
+
+    @Mock
+    private Field field;
+
+    @Mock
+    private PrimitiveType intType;
+
+    @Mock
+    private IntegerValue value;
+
+    @Test
+    void whitelistTest() {
+        StaticStateCache cache = new StaticStateCache(virtualMachine,
+                List.of("com.mycompany.config.*", "*Settings", "com.other.Main"), 0, new TypeCache(),
+                CaptureContext::new);
+        assertTrue(cache.isWhitelisted("com.mycompany.config.Config"));
+        assertTrue(cache.isWhitelisted("com.mycompany.AppSettings"));
+        assertTrue(cache.isWhitelisted("com.other.Main"));
+        assertFalse(cache.isWhitelisted("com.other.MainClass"));
+        assertFalse(cache.isWhitelisted("com.mycompany.Config"));
+    }
+
+    @Test
+    void snapshotTest() throws Exception {
+        Mockito.when(virtualMachine.canWatchFieldModification()).thenReturn(true);
+        Mockito.when(virtualMachine.eventRequestManager()).thenReturn(eventRequestManager);
+        Mockito.when(eventRequestManager.createModificationWatchpointRequest(field)).thenReturn(watchpointRequest);
+        Mockito.when(referenceType.name()).thenReturn("com.mycompany.Config");
+        Mockito.when(referenceType.fields()).thenReturn(List.of(field));
+        Mockito.when(referenceType.getValues(List.of(field))).thenReturn(Map.of(field, value));
+        Mockito.when(field.isStatic()).thenReturn(true);
+        Mockito.when(field.name()).thenReturn("counter");
+        Mockito.when(field.type()).thenReturn(intType);
+        Mockito.when(intType.name()).thenReturn("int");
+        Mockito.when(value.value()).thenReturn(7);
+
+        StaticStateCache cache = new StaticStateCache(virtualMachine, List.of("com.mycompany.*"), 0, new TypeCache(),
+                CaptureContext::new);
+        StaticSnapshot snapshot = cache.getSnapshot(referenceType);
+        assertEquals(1, snapshot.getFieldCount());
+        assertEquals("counter", snapshot.getFieldNames()[0]);
+        assertEquals(7, snapshot.getValues()[0]);
+        assertFalse(snapshot.getPublicFields()[0]);
+
+        // the snapshot is reused until a modification is reported
+        assertSame(snapshot, cache.getSnapshot(referenceType));
+        cache.invalidate(referenceType);
+        StaticSnapshot updated = cache.getSnapshot(referenceType);
+        assertNotSame(snapshot, updated);
+        assertTrue(updated.getVersion() > snapshot.getVersion());
+
+        // the watchpoint is installed once per type
+        Mockito.verify(watchpointRequest, Mockito.times(1)).enable();
+        Mockito.verify(referenceType, Mockito.times(2)).getValues(List.of(field));
+
+        // unloading the class drops the snapshot and lets a redefined class install its own watchpoints
+        cache.unload("com.mycompany.Config");
+        assertNotSame(updated, cache.getSnapshot(referenceType));
+        Mockito.verify(watchpointRequest, Mockito.times(2)).enable();
+    }
+
+    @Test
+    void notWhitelistedTest() {
+        Mockito.when(referenceType.name()).thenReturn("com.mycompany.Main");
+        StaticStateCache cache = new StaticStateCache(virtualMachine, List.of("com.mycompany.config.*"), 0,
+                new TypeCache(), CaptureContext::new);
+        assertNull(cache.getSnapshot(referenceType));
+    }
+}
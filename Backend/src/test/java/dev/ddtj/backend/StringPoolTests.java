@@ -0,0 +1,82 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.sun.jdi.StringReference;
+import dev.ddtj.backend.data.objectmodel.BuiltinTypes;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.StringPool;
+import dev.ddtj.backend.data.objectmodel.TruncatedString;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class StringPoolTests {
+    @Test
+    void poolTest() {
+        StringPool stringPool = new StringPool(8, 100);
+        StringReference first = createString(1, new String("value"));
+        StringReference second = createString(2, new String("value"));
+        StringReference longString = createString(3, "a very long string");
+
+        Object value = stringPool.intern(first);
+        assertSame(value, stringPool.intern(first));
+        Mockito.verify(first, Mockito.times(1)).value();
+
+        // a different object with the same content shares the instance
+        assertNotSame(second.value(), value);
+        assertSame(value, stringPool.intern(second));
+
+        // a truncated string is marked so the test doesn't use it as the real value
+        Object truncated = stringPool.intern(longString);
+        assertEquals(new TruncatedString("a very l", 18), truncated);
+        assertEquals("\"a very l\"", BuiltinTypes.STRING.getCodeRepresentation("x", truncated));
+        assertEquals(List.of("// only 8 of 18 characters of x were captured"),
+                BuiltinTypes.STRING.getCodePrefix("x", truncated));
+        assertNull(BuiltinTypes.STRING.getCodePrefix("x", value));
+        assertEquals(1, stringPool.getHits());
+        assertEquals(3, stringPool.getMisses());
+        assertEquals(1, stringPool.getTruncations());
+    }
+
+    @Test
+    void captureTest() {
+        StringPool stringPool = new StringPool();
+        StringReference reference = createString(1, "{\"key\": \"value\"}\n");
+        CaptureContext context = new CaptureContext(1, 1, 1, 1, stringPool);
+        Object captured = context.capture(BuiltinTypes.STRING, reference);
+        assertSame(captured, context.capture(BuiltinTypes.STRING, reference));
+        assertEquals("\"{\\\"key\\\": \\\"value\\\"}\\n\"", BuiltinTypes.STRING.getCodeRepresentation("x", captured));
+        assertEquals("null", BuiltinTypes.STRING.getCodeRepresentation("x", null));
+    }
+
+    private static StringReference createString(long id, String value) {
+        StringReference reference = Mockito.mock(StringReference.class);
+        Mockito.when(reference.uniqueID()).thenReturn(id);
+        Mockito.when(reference.value()).thenReturn(value);
+        return reference;
+    }
+}
@@ -18,6 +18,7 @@
 package dev.ddtj.backend;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.sun.jdi.AbsentInformationException;
 import com.sun.jdi.ArrayType;
@@ -30,6 +31,7 @@ import com.sun.jdi.ReferenceType;
 import dev.ddtj.backend.data.Invocation;
 import dev.ddtj.backend.data.ParentClass;
 import dev.ddtj.backend.data.ParentMethod;
+import dev.ddtj.backend.data.StaticSnapshot;
 import dev.ddtj.backend.data.objectmodel.BaseType;
 import dev.ddtj.backend.data.objectmodel.ObjectType;
 import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
@@ -86,6 +88,29 @@ class TestGeneratorTests {
         assertEquals("test", methodName);
     }
 
+    @Test
+    void staticStateTest() throws ClassNotLoadedException, AbsentInformationException {
+        Mockito.when(integerType.name()).thenReturn("int");
+        ParentClass parentClass = new ParentClass();
+        ParentMethod parentMethod = new ParentMethod();
+        Invocation invocation = new Invocation();
+        initMethodCall(parentClass, parentMethod, invocation);
+        invocation.setStaticState(new StaticSnapshot(BasicApp.class.getName(), 1, System.currentTimeMillis(),
+                new String[] { "counter", "limit" },
+                new BaseType[] { PrimitiveAndWrapperType.INTEGER, PrimitiveAndWrapperType.INTEGER },
+                new boolean[] { true, false }, new Object[] { 7, 3 }));
+
+        TestGenerator testGenerator = new TestGenerator(parentClass, parentMethod, invocation, List.of());
+        List<String> staticInitialization = testGenerator.getStaticInitialization();
+        assertTrue(staticInitialization.contains("BasicApp.counter = 7;"));
+        assertTrue(staticInitialization.contains("staticLimitField.setAccessible(true);"));
+        assertTrue(staticInitialization.contains("Object staticCounterFieldOriginal = staticCounterField.get(null);"));
+
+        // every field we set is put back once the test is done
+        assertEquals(List.of("staticCounterField.set(null, staticCounterFieldOriginal);",
+                "staticLimitField.set(null, staticLimitFieldOriginal);"), testGenerator.getStaticRestore());
+    }
+
     private void initMethodCall(ParentClass parentClass, ParentMethod parentMethod, Invocation invocation) throws ClassNotLoadedException, AbsentInformationException {
         List<Field> fields = Arrays.asList(ObjectTypeTests.create("field1", integerType),
                 ObjectTypeTests.create("field2", integerType));
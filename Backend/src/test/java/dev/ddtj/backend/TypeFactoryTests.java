@@ -17,32 +17,46 @@
  */
 package dev.ddtj.backend;
 
+import com.sun.jdi.ArrayReference;
 import com.sun.jdi.ArrayType;
 import com.sun.jdi.BooleanValue;
 import com.sun.jdi.ByteValue;
 import com.sun.jdi.CharValue;
 import com.sun.jdi.ClassNotLoadedException;
+import com.sun.jdi.ClassType;
 import com.sun.jdi.DoubleValue;
+import com.sun.jdi.Field;
 import com.sun.jdi.FloatValue;
 import com.sun.jdi.IntegerValue;
 import com.sun.jdi.LongValue;
+import com.sun.jdi.ObjectReference;
 import com.sun.jdi.PrimitiveType;
 import com.sun.jdi.ReferenceType;
 import com.sun.jdi.ShortValue;
+import com.sun.jdi.StringReference;
 import com.sun.jdi.Value;
 import com.sun.jdi.VoidType;
 import dev.ddtj.backend.data.objectmodel.ArrayObjectOrPrimitiveType;
 import dev.ddtj.backend.data.objectmodel.BaseType;
 import dev.ddtj.backend.data.objectmodel.BuiltinTypes;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.EnumType;
 import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
+import dev.ddtj.backend.data.objectmodel.RecordType;
+import dev.ddtj.backend.data.objectmodel.TimeType;
 import dev.ddtj.backend.data.objectmodel.TypeFactory;
+import dev.ddtj.backend.data.objectmodel.TruncatedArray;
 import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
@@ -109,6 +123,118 @@ class TypeFactoryTests {
         assertInstanceOf(ArrayObjectOrPrimitiveType.class, TypeFactory.create(arrayType));
     }
 
+    @Test
+    void arrayCaptureTest() throws ClassNotLoadedException {
+        ArrayType arrayType = Mockito.mock(ArrayType.class);
+        PrimitiveType intType = Mockito.mock(PrimitiveType.class);
+        Mockito.when(intType.name()).thenReturn("int");
+        Mockito.when(arrayType.componentType()).thenReturn(intType);
+        Mockito.when(arrayType.name()).thenReturn("int[]");
+        BaseType arrayBaseType = TypeFactory.create(arrayType);
+
+        IntegerValue seven = Mockito.mock(IntegerValue.class);
+        Mockito.when(seven.value()).thenReturn(7);
+        ArrayReference arrayReference = Mockito.mock(ArrayReference.class);
+        Mockito.when(arrayReference.length()).thenReturn(5000);
+        Mockito.when(arrayReference.getValues(Mockito.anyInt(), Mockito.anyInt()))
+                .thenAnswer(invocation -> Collections.nCopies(invocation.getArgument(1, Integer.class), seven));
+
+        // the byte budget allows 4500 ints which is read in two chunks
+        CaptureContext context = new CaptureContext(4, 256, 5000, 4500 * 4);
+        Object captured = context.capture(arrayBaseType, arrayReference);
+        assertInstanceOf(TruncatedArray.class, captured);
+        TruncatedArray truncatedArray = (TruncatedArray) captured;
+        assertEquals(5000, truncatedArray.getLength());
+        assertEquals(4500, truncatedArray.getCapturedLength());
+        assertEquals(7, ((int[]) truncatedArray.getElements())[4499]);
+        assertEquals(0, context.getRemainingBytes());
+        Mockito.verify(arrayReference).getValues(0, 4096);
+        Mockito.verify(arrayReference).getValues(4096, 404);
+        Mockito.verify(arrayReference, Mockito.never()).getValue(Mockito.anyInt());
+        assertEquals("arg", arrayBaseType.getCodeRepresentation("arg", captured));
+        List<String> prefix = arrayBaseType.getCodePrefix("arg", captured);
+        assertEquals(2, prefix.size());
+        assertTrue(prefix.get(1).startsWith("int[] arg = java.util.Arrays.copyOf(new int[] {7, 7"));
+
+        // the element cap truncates small arrays too and the code keeps the original length
+        captured = new CaptureContext(4, 256, 3, 1024).capture(arrayBaseType, arrayReference);
+        assertEquals("java.util.Arrays.copyOf(new int[] {7, 7, 7}, 5000)",
+                arrayBaseType.getCodeRepresentation("arg", captured));
+        assertEquals("new int[5000]", arrayBaseType.getCodeRepresentation("arg",
+                new CaptureContext(4, 256, 3, 0).capture(arrayBaseType, arrayReference)));
+
+        Mockito.when(arrayReference.length()).thenReturn(2);
+        captured = new CaptureContext().capture(arrayBaseType, arrayReference);
+        assertInstanceOf(int[].class, captured);
+        assertEquals("new int[] {7, 7}", arrayBaseType.getCodeRepresentation("arg", captured));
+        assertNull(arrayBaseType.getCodePrefix("arg", captured));
+    }
+
+    @Test
+    void valueTypesTest() throws ClassNotLoadedException {
+        ClassType enumType = Mockito.mock(ClassType.class);
+        Mockito.when(enumType.name()).thenReturn("pkg.Outer$Color");
+        Mockito.when(enumType.isEnum()).thenReturn(true);
+        BaseType enumBaseType = TypeFactory.create(enumType);
+        assertInstanceOf(EnumType.class, enumBaseType);
+        Field nameField = Mockito.mock(Field.class);
+        Mockito.when(enumType.fieldByName("name")).thenReturn(nameField);
+        StringReference name = Mockito.mock(StringReference.class);
+        Mockito.when(name.value()).thenReturn("RED");
+        ObjectReference constant = Mockito.mock(ObjectReference.class);
+        Mockito.when(constant.referenceType()).thenReturn(enumType);
+        Mockito.when(constant.getValue(nameField)).thenReturn(name);
+        assertEquals("pkg.Outer.Color.RED", enumBaseType.getCodeRepresentation("arg",
+                new CaptureContext().capture(enumBaseType, constant)));
+
+        ReferenceType instantType = Mockito.mock(ReferenceType.class);
+        Mockito.when(instantType.name()).thenReturn("java.time.Instant");
+        assertEquals(TimeType.INSTANT, TypeFactory.create(instantType));
+        Field seconds = Mockito.mock(Field.class);
+        Field nanos = Mockito.mock(Field.class);
+        Mockito.when(instantType.fieldByName("seconds")).thenReturn(seconds);
+        Mockito.when(instantType.fieldByName("nanos")).thenReturn(nanos);
+        LongValue secondsValue = Mockito.mock(LongValue.class);
+        Mockito.when(secondsValue.longValue()).thenReturn(10L);
+        IntegerValue nanosValue = Mockito.mock(IntegerValue.class);
+        Mockito.when(nanosValue.longValue()).thenReturn(5L);
+        ObjectReference instant = Mockito.mock(ObjectReference.class);
+        Mockito.when(instant.referenceType()).thenReturn(instantType);
+        Mockito.when(instant.getValues(List.of(seconds, nanos))).thenReturn(Map.of(seconds, secondsValue,
+                nanos, nanosValue));
+        assertEquals("java.time.Instant.parse(\"1970-01-01T00:00:10.000000005Z\")",
+                TimeType.INSTANT.getCodeRepresentation("arg", TimeType.INSTANT.getValue(instant)));
+
+        ClassType recordType = Mockito.mock(ClassType.class);
+        ClassType recordSuperclass = Mockito.mock(ClassType.class);
+        Mockito.when(recordType.name()).thenReturn("pkg.Point");
+        Mockito.when(recordType.superclass()).thenReturn(recordSuperclass);
+        Mockito.when(recordSuperclass.name()).thenReturn("java.lang.Record");
+        PrimitiveType intType = Mockito.mock(PrimitiveType.class);
+        Mockito.when(intType.name()).thenReturn("int");
+        Field x = createComponent("x", intType);
+        Field y = createComponent("y", intType);
+        Mockito.when(recordType.fields()).thenReturn(List.of(x, y));
+        BaseType recordBaseType = TypeFactory.create(recordType);
+        assertInstanceOf(RecordType.class, recordBaseType);
+        ObjectReference point = Mockito.mock(ObjectReference.class);
+        IntegerValue one = Mockito.mock(IntegerValue.class);
+        Mockito.when(one.value()).thenReturn(1);
+        IntegerValue two = Mockito.mock(IntegerValue.class);
+        Mockito.when(two.value()).thenReturn(2);
+        Mockito.when(point.getValues(List.of(x, y))).thenReturn(Map.of(x, one, y, two));
+        Object captured = new CaptureContext().capture(recordBaseType, point);
+        assertEquals(List.of("pkg.Point point = new pkg.Point(1, 2);"),
+                recordBaseType.getCodePrefix("point", captured));
+    }
+
+    private static Field createComponent(String name, PrimitiveType type) throws ClassNotLoadedException {
+        Field field = Mockito.mock(Field.class);
+        Mockito.when(field.name()).thenReturn(name);
+        Mockito.when(field.type()).thenReturn(type);
+        return field;
+    }
+
     private void testPrimitive(String name, Value primitiveValue) {
         PrimitiveType primitiveType = Mockito.mock(PrimitiveType.class);
         Mockito.when(primitiveType.name()).thenReturn(name);
@@ -0,0 +1,80 @@
+/**
+ * MIT License Copyright (c) 2021, Shai Almog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the “Software”), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package dev.ddtj.backend;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.sun.jdi.DoubleValue;
+import com.sun.jdi.IntegerValue;
+import com.sun.jdi.StringReference;
+import dev.ddtj.backend.data.Invocation;
+import dev.ddtj.backend.data.objectmodel.BaseType;
+import dev.ddtj.backend.data.objectmodel.BuiltinTypes;
+import dev.ddtj.backend.data.objectmodel.CaptureContext;
+import dev.ddtj.backend.data.objectmodel.PrimitiveAndWrapperType;
+import dev.ddtj.backend.data.objectmodel.RecordLayout;
+import dev.ddtj.backend.data.objectmodel.ValueRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class ValueRecordTests {
+    @Test
+    void mixedLayoutTest() {
+        BaseType[] types = { PrimitiveAndWrapperType.INTEGER, BuiltinTypes.STRING, PrimitiveAndWrapperType.DOUBLE,
+                PrimitiveAndWrapperType.INTEGER_WRAPPER };
+        RecordLayout layout = RecordLayout.of(types);
+        assertEquals(RecordLayout.INT, layout.getKind(0));
+        assertEquals(RecordLayout.REFERENCE, layout.getKind(1));
+        assertEquals(RecordLayout.REFERENCE, layout.getKind(3));
+
+        IntegerValue intValue = Mockito.mock(IntegerValue.class);
+        Mockito.when(intValue.intValue()).thenReturn(-7);
+        StringReference stringValue = Mockito.mock(StringReference.class);
+        Mockito.when(stringValue.value()).thenReturn("text");
+        DoubleValue doubleValue = Mockito.mock(DoubleValue.class);
+        Mockito.when(doubleValue.doubleValue()).thenReturn(-0.5);
+
+        ValueRecord record = new ValueRecord(layout);
+        CaptureContext context = new CaptureContext();
+        record.capture(0, types[0], intValue, context);
+        record.capture(1, types[1], stringValue, context);
+        record.capture(2, types[2], doubleValue, context);
+        record.capture(3, types[3], null, context);
+        assertArrayEquals(new Object[] { -7, "text", -0.5, null }, record.toArray());
+
+        record.set(0, 12);
+        assertEquals(12, record.get(0));
+    }
+
+    @Test
+    void invocationViewTest() {
+        Invocation invocation = new Invocation();
+        invocation.setArguments(new Object[] { 1, "a" });
+        assertArrayEquals(new Object[] { 1, "a" }, invocation.getArguments());
+        assertNull(invocation.getFields());
+
+        IntegerValue result = Mockito.mock(IntegerValue.class);
+        Mockito.when(result.intValue()).thenReturn(42);
+        invocation.setPrimitiveResult(RecordLayout.INT, result);
+        assertEquals(42, invocation.getResult());
+        invocation.setResult("done");
+        assertEquals("done", invocation.getResult());
+    }
+}
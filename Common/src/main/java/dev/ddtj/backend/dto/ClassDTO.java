@@ -24,4 +24,9 @@ public class ClassDTO {
     private String name;
     private int methods;
     private int totalExecutions;
+
+    /**
+     * Executions that were dropped or evicted to stay within the retention limits of the session
+     */
+    private int evictedExecutions;
 }
@@ -23,4 +23,9 @@ import lombok.Data;
 public class MethodDTO {
     private String fullName;
     private int totalExecutions;
+
+    /**
+     * Executions that were dropped or evicted to stay within the retention limits of the session
+     */
+    private int evictedExecutions;
 }